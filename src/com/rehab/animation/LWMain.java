@@ -1,6 +1,7 @@
 package com.rehab.animation;
 
 
+import java.io.File;
 import java.io.IOException;
 
 import com.rehab.user.Mouse;
@@ -10,13 +11,24 @@ import com.rehab.world.Actor;
 import com.rehab.world.Arena;
 import com.rehab.world.Hitbox;
 import com.rehab.world.InstanceManager;
+import com.rehab.world.JournalReplay;
+import com.rehab.world.Level;
 import com.rehab.world.Projectile;
 import com.rehab.world.Prop;
-import com.rehab.world.Vector2D;
 import com.rehab.world.WorldLoop;
 
 public class LWMain {
 
+	// Ticks per second of the game world
+	private static final int TICK_RATE = 60;
+	
+	// Command line arguments for recording and replaying input
+	private static final String ARG_RECORD = "--record";
+	private static final String ARG_REPLAY = "--replay";
+	
+	// Level file prepared with a LevelWriter from levels/basic-test.txt
+	private static final String LEVEL_FILE = "levels/basic-test.rhl";
+
 	// Desired resolution (if not fullscreen)
 	private static int mWidth = Resolution.HD_W;
 	private static int mHeight = Resolution.HD_H;
@@ -33,13 +45,32 @@ public class LWMain {
 		
 		
 		Actor player = initPlayer();
-		Actor dummy = initDummy();
-		Prop floor = initFloor();
 		
-		Arena lvl = initLevel(floor, dummy);
+		Level level;
+		try {
+			level = initLevel(player);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		Arena lvl = level.getArena();
+		
+		// Reproduce a recorded session without a window
+		if (args.length == 2 && args[0].equals(ARG_REPLAY)) {
+			replay(level, new File(args[1]));
+			return;
+		}
 				
 		// Begin game world
-		WorldLoop world = WorldLoop.getInstance(60, lvl);
+		WorldLoop world = WorldLoop.getInstance(TICK_RATE, lvl);
+		level.scheduleSpawns();
+		if (args.length == 2 && args[0].equals(ARG_RECORD)) {
+			try {
+				world.record(new File(args[1]));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 		world.start();
 		
 		// Begin rendering
@@ -52,19 +83,45 @@ public class LWMain {
 	}
 	
 	/**
-	 * Sets up the test Arena.
+	 * Replays a session recorded with {@link #ARG_RECORD} headless and as fast as
+	 * possible, then prints how long the replay took.
+	 * 
+	 * @param level	the level the session was recorded in.
+	 * @param journal	the recorded input.
+	 */
+	private static void replay(Level level, File journal) {
+		try {
+			JournalReplay replay = new JournalReplay(journal);
+			WorldLoop world = WorldLoop.getInstance(replay.getTickRate(), level.getArena());
+			level.scheduleSpawns();
+			world.replay(replay);
+			
+			long start = System.nanoTime();
+			world.start();
+			world.join();
+			long duration = System.nanoTime() - start;
+			
+			System.out.printf("Replayed %d ticks in %d ms\n", world.getTick(), duration / 1000000);
+		} catch (IOException | InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Loads the test level from {@link #LEVEL_FILE} and puts every game object into
+	 * its Arena.
 	 * 
-	 * @param floor	the level's floor to fight on.
 	 * @param player	the Actor representing the player.
-	 * @return	the Arena.
+	 * @return	the Level.
+	 * @throws IOException	if the level file could not be read.
 	 */
-	private static Arena initLevel(Prop floor, Actor player) {
-		Arena arena = new Arena("BASIC-TEST", mWidth, mHeight, floor);
+	private static Level initLevel(Actor player) throws IOException {
+		InstanceManager instaMan = InstanceManager.getInstance();
+		String path = LWMain.class.getResource(LEVEL_FILE).getPath();
+		Level level = Level.load(new File(path), instaMan);
+		Arena arena = level.getArena();
 		arena.setPlayer(player);
 
-		
-		
-		InstanceManager instaMan = InstanceManager.getInstance();
 		// Put all game objects into the world
 		instaMan.loadAll();
 		
@@ -74,24 +131,7 @@ public class LWMain {
 		Iterable<Prop> props = instaMan.getLoadedProps();
 		
 		arena.setEntities(actors, projs, props);
-		return arena;
-	}
-
-	/**
-	 * Sets up the floor object at the bottom of the screen.
-	 * 
-	 * @return the floor object.
-	 */
-	private static Prop initFloor() {
-		// Initialize a non moving floor
-		InstanceManager instMan = InstanceManager.getInstance();
-		
-		Prop p = instMan.createProp(400, 32, "bar.jpg");
-		
-		
-		//Move to proper position at bottom
-		p.moveTo(64, 32);
-		return p;
+		return level;
 	}
 
 	/**
@@ -117,34 +157,6 @@ public class LWMain {
 		return a;
 	}
 
-	/**
-	 * Sets up the dummy object high at the top of the screen.
-	 * 777
-	 * @return the dummy obj.
-	 */
-	private static Actor initDummy() {
-		InstanceManager instaMan = InstanceManager.getInstance();
-		Actor dummy = instaMan.createActor(62, 100, "twitter_alpha.png");
-		Sprite spr = dummy.getSprite();
-		dummy.setCollisionModel(new Hitbox(0, 0, spr.getWidth(), spr.getHeight()));
-		dummy.moveTo(720, 480);
-		
-		dummy.setEnableGravity(true);
-
-		Actor clone = instaMan.createActor(dummy);
-		clone.moveTo(1000, 500);
-		
-		System.out.printf("Dummy collision: %s\n", dummy.getCollision());
-		
-		for (Vector2D edge : dummy.getCollision().edges()) {
-			System.out.printf("    Edge: %s\n", edge);
-		}
-		
-		
-		
-		return dummy;
-	}
-	
 	/**
 	 * Initializes the mouse and keyboard inputs.
 	 * 
@@ -4,6 +4,8 @@ import org.lwjgl.glfw.GLFW;
 import org.lwjgl.glfw.GLFWKeyCallback;
 
 import com.rehab.animation.LWCanvas;
+import com.rehab.world.InputCommand;
+import com.rehab.world.WorldLoop;
 
 /**
  * <p>
@@ -51,6 +53,14 @@ import com.rehab.animation.LWCanvas;
  *	canvas.setKeyMap(keyMap);
  * 	</code>
  * </pre>
+ * 
+ * <p>
+ * Key callbacks run on GLFW's thread and so must not change the game world directly.
+ * Subclasses should instead hand actions to the {@link WorldLoop} with
+ * {@link #submit(int, int, double, double)}, which applies them at the start of
+ * the next tick. Repeated moves of the same target queued within a tick, such
+ * as those from a held key, are applied as one.
+ * </p>
  */
 public abstract class KeyMap extends GLFWKeyCallback {
 
@@ -99,6 +109,20 @@ public abstract class KeyMap extends GLFWKeyCallback {
 	 */
 	public abstract void onKey(int key, boolean release);
 	
+	/**
+	 * Queues a command for the game world to apply at the start of its next tick.
+	 * This method never blocks the calling thread.
+	 * 
+	 * @param type	either {@link InputCommand#MOVE_BY} or {@link InputCommand#FIRE_AT}.
+	 * @param target	the id of the Entity to act upon.
+	 * @param x	the x value of the action.
+	 * @param y	the y value of the action.
+	 * @return true if the command was queued, false if it was dropped.
+	 */
+	protected boolean submit(int type, int target, double x, double y) {
+		return WorldLoop.getInstance().submit(type, target, x, y);
+	}
+	
 	@Override
 	public void invoke(long window, int key, int scancode, int action, int mods) {
 		
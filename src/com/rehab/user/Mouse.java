@@ -1,16 +1,37 @@
 package com.rehab.user;
 
 
+import java.util.ArrayList;
+
 import com.rehab.animation.Drawable;
 import com.rehab.animation.LWCanvas;
 import com.rehab.world.Actor;
+import com.rehab.world.InputCommand;
+import com.rehab.world.SpatialGrid;
 
 /*
  * A class to detect when the mouse is clicked inside of the canvas.
+ * 
+ * Clickable Drawables are kept in a SpatialGrid so that a click or cursor move
+ * only tests the Drawables near the cursor. The grid is not thread-safe and so
+ * must only be used from the thread receiving the mouse callbacks.
  */
 public class Mouse extends MouseMap {
 
-	Iterable<Drawable> coordinates;
+	// Size of the index's cells, in pixels
+	private static final double CELL_SIZE = 64;
+	
+	// Clickable Drawables by location
+	private SpatialGrid<Drawable> mIndex = new SpatialGrid<Drawable>(CELL_SIZE);
+	// Reusable results of the last pick
+	private ArrayList<Drawable> mFound = new ArrayList<Drawable>();
+	
+	// Drawables in the cell under the cursor and the index revision they came from
+	private ArrayList<Drawable> mCell = new ArrayList<Drawable>();
+	private int mCellX = Integer.MIN_VALUE, mCellY = Integer.MIN_VALUE;
+	private int mRevision = -1;
+	// Topmost Drawable under the cursor
+	private Drawable mHovered = null;
 	
 	private Actor mPlayer;
 
@@ -43,40 +64,132 @@ public class Mouse extends MouseMap {
 	}
 
 	/**
-	 * A method to iterate through the linked list of Drawable objects and check
-	 * whether the object was clicked on.
+	 * Adds a Drawable to be found by clicks and hovering. The Drawable's bounds are
+	 * read once; call {@link #update(Drawable)} after it moves or resizes.
+	 * 
+	 * @param drawable	the Drawable.
+	 * @see #remove(Drawable)
+	 */
+	public void add(Drawable drawable) {
+		mIndex.insert(drawable, drawable.getX(), drawable.getY() - drawable.getHeight(),
+				drawable.getX() + drawable.getWidth(), drawable.getY());
+	}
+		
+	/**
+	 * Refreshes the bounds of a Drawable previously added with {@link #add(Drawable)}.
+	 * 
+	 * @param drawable	the Drawable.
+	 * @return true if the Drawable was found, false otherwise.
+	 */
+	public boolean update(Drawable drawable) {
+		return mIndex.update(drawable, drawable.getX(), drawable.getY() - drawable.getHeight(),
+				drawable.getX() + drawable.getWidth(), drawable.getY());
+	}
+	
+	/**
+	 * Stops a Drawable from being found by clicks and hovering.
+	 * 
+	 * @param drawable	the Drawable.
+	 * @return true if the Drawable was removed, false if it had not been added.
+	 */
+	public boolean remove(Drawable drawable) {
+		if (drawable == mHovered) {
+			mHovered = null;
+		}
+		return mIndex.remove(drawable);
+	}
+	
+	/**
+	 * Finds the topmost Drawable containing a point. When Drawables overlap, the
+	 * one with the smallest z (closest to the GUI layer) is chosen.
+	 * 
+	 * @param x	the point's x-coordinate.
+	 * @param y	the point's y-coordinate.
+	 * @return the topmost Drawable, or null if there is none at the point.
+	 */
+	public Drawable pick(double x, double y) {
+		mFound.clear();
+		mIndex.query(x, y, mFound);
+		return topmost(mFound, x, y);
+	}
+	
+	/**
+	 * Triggers the press or release callback of the topmost Drawable at a point.
 	 * 
-	 * @param xMouse
-	 * @param yMouse
+	 * @param x	the x-coordinate of the click.
+	 * @param y	the y-coordinate of the click.
+	 * @param release	true if the click was a release, false if it was a press.
 	 */
-	public void iterate(double x, double y, boolean release) {
+	public void click(double x, double y, boolean release) {
+		Drawable draw = pick(x, y);
+		if (draw == null) {
+			return;
+		}
 		
-		for (Drawable draw : coordinates) {
+		// Trigger the correct callback
+		if (release) {
+			draw.onMouseRelease();
+		} else {
+			draw.onMousePress();
+		}
+	}
+	
+	/**
+	 * Gets the topmost Drawable under the cursor as of its last move.
+	 * 
+	 * @return the hovered Drawable, or null if there is none.
+	 */
+	public Drawable getHovered() { return mHovered; }
+	
+	@Override
+	protected void onCursorMove(double x, double y) {
+		int cellX = mIndex.cellOf(x), cellY = mIndex.cellOf(y);
+		
+		// Only ask the index again once the cursor enters another cell or the index changed
+		if (cellX != mCellX || cellY != mCellY || mIndex.getRevision() != mRevision) {
+			mCellX = cellX;
+			mCellY = cellY;
+			mRevision = mIndex.getRevision();
+			mCell.clear();
+			mIndex.queryCell(x, y, mCell);
+		}
+		
+		mHovered = topmost(mCell, x, y);
+	}
+	
+	/**
+	 * Chooses the Drawable with the smallest z among those containing a point.
+	 * 
+	 * @param candidates	the Drawables to test.
+	 * @param x	the point's x-coordinate.
+	 * @param y	the point's y-coordinate.
+	 * @return the topmost Drawable, or null if none contain the point.
+	 */
+	private Drawable topmost(ArrayList<Drawable> candidates, double x, double y) {
+		Drawable top = null;
+		for (int i = 0, size = candidates.size(); i < size; i++) {
+			Drawable draw = candidates.get(i);
 			double objX = draw.getX();
 			double objY = draw.getY();
-			double width = draw.getWidth();
-			double height = draw.getHeight();
 			
-			// Check if click location is within object's square
-			if (x > objX && x < width + objX) {
-				if (y <= objY && y >= objY - height) {
-					// Trigger the correct callback
-					if (release) {
-						draw.onMouseRelease();
-					} else {
-						draw.onMousePress();
-					}
+			// Check if location is within object's square
+			if (x >= objX && x <= objX + draw.getWidth()
+					&& y <= objY && y >= objY - draw.getHeight()) {
+				if (top == null || draw.getZ() < top.getZ()) {
+					top = draw;
 				}
 			}
 		}
+		return top;
 	}
 
 	@Override
 	public void onLeftClick(double x, double y, boolean release) {
-		//iterate(x, y, release);
+		//click(x, y, release);
 		
+		// Fire on the next tick of the game world
 		if (release) {
-			mPlayer.fireAt(x, y);
+			submit(InputCommand.FIRE_AT, mPlayer.getId(), x, y);
 		}
 	}
 
@@ -4,6 +4,9 @@ import org.lwjgl.glfw.GLFW;
 import org.lwjgl.glfw.GLFWCursorPosCallback;
 import org.lwjgl.glfw.GLFWMouseButtonCallback;
 
+import com.rehab.world.InputCommand;
+import com.rehab.world.WorldLoop;
+
 /**
  * <p>
  * MouseMap allows for a hook into the GLFW toolkit's mouse callbacks.
@@ -44,6 +47,13 @@ import org.lwjgl.glfw.GLFWMouseButtonCallback;
  * canvas.setKeyMap(keyMap);
  * 	</code>
  * </pre>
+ * 
+ * <p>
+ * Mouse callbacks run on GLFW's thread and so must not change the game world directly.
+ * Subclasses should instead hand actions to the {@link WorldLoop} with
+ * {@link #submit(int, int, double, double)}, which applies them at the start of
+ * the next tick.
+ * </p>
  */
 public abstract class MouseMap extends GLFWMouseButtonCallback {
 
@@ -64,6 +74,7 @@ public abstract class MouseMap extends GLFWMouseButtonCallback {
 			mX = xpos;
 			// Orient origin to bottom left
 			mY = mWindowHeight - ypos;
+			onCursorMove(mX, mY);
 		}};
 	
 	/**
@@ -103,6 +114,31 @@ public abstract class MouseMap extends GLFWMouseButtonCallback {
 	 */
 	public abstract void onMiddleClick(double x, double y, boolean release);
 	
+	/**
+	 * This method is called whenever the cursor moves within the window. By default,
+	 * this method does nothing.
+	 * 
+	 * @param x	the cursor's new x-coordinate.
+	 * @param y	the cursor's new y-coordinate.
+	 */
+	protected void onCursorMove(double x, double y) {
+		
+	}
+	
+	/**
+	 * Queues a command for the game world to apply at the start of its next tick.
+	 * This method never blocks the calling thread.
+	 * 
+	 * @param type	either {@link InputCommand#MOVE_BY} or {@link InputCommand#FIRE_AT}.
+	 * @param target	the id of the Entity to act upon.
+	 * @param x	the x value of the action.
+	 * @param y	the y value of the action.
+	 * @return true if the command was queued, false if it was dropped.
+	 */
+	protected boolean submit(int type, int target, double x, double y) {
+		return WorldLoop.getInstance().submit(type, target, x, y);
+	}
+	
 	/**
 	 * Gets the GLFWCursorPosCallback to be set with the LWCanvas to track the
 	 * mouse's position during clicks.
@@ -1,6 +1,7 @@
 package com.rehab.user;
 
 import com.rehab.world.Actor;
+import com.rehab.world.InputCommand;
 
 /*
  * 
@@ -33,7 +34,7 @@ public class Movement extends WASDKeyMap {
 	@Override
 	public void onA(boolean release) {
 		// Move player to the left
-		mPlayer.moveBy(-5, 0);
+		move(-5);
 	}
 
 	@Override
@@ -44,7 +45,16 @@ public class Movement extends WASDKeyMap {
 	@Override
 	public void onD(boolean release) {
 		// Move player to the right
-		mPlayer.moveBy(5, 0);
+		move(5);
+	}
+
+	/**
+	 * Queues a horizontal move of the player for the next tick of the game world.
+	 * 
+	 * @param x	the number of pixels to shift by.
+	 */
+	private void move(double x) {
+		submit(InputCommand.MOVE_BY, mPlayer.getId(), x, 0);
 	}
 
 	@Override
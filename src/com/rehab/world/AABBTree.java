@@ -0,0 +1,639 @@
+package com.rehab.world;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * AABBTree is a {@link Broadphase} that keeps Entities in a balanced binary tree of
+ * bounding boxes, each branch's box enclosing both of its children. A query only
+ * descends into branches whose boxes overlap the region asked about and so costs
+ * O(log n) no matter how large the level is, which suits static or rarely moving
+ * Entities such as {@link Prop}s that most other broadphases would test every tick.
+ * </p>
+ * 
+ * <p>
+ * Each Entity's leaf is stored with a box grown by a margin on every side. As long as
+ * an Entity stays within its grown box, refreshing it with {@link #update(Entity)} does
+ * not change the tree at all. Only once it leaves the box is its leaf taken out and
+ * inserted again, after which the branches above it are refit and rotated to keep the
+ * tree balanced. Queries still test the Entity's exact bounds at the leaves. An Entity
+ * whose Hitbox has not moved or turned since it was last refreshed, such as a Prop at
+ * rest, is only marked as still present.
+ * </p>
+ * 
+ * <p>
+ * Along with region queries the tree can find the Entities whose bounds a line segment
+ * crosses through {@link #raycast(double, double, double, double, int, int, Collection)}.
+ * </p>
+ * 
+ * <p>This class is <b>not</b> thread-safe.</p>
+ */
+public class AABBTree implements Broadphase {
+	
+	// Index of a missing node
+	private static final int NULL = -1;
+	
+	// Initial number of nodes room is made for
+	private static final int INITIAL_CAPACITY = 32;
+	
+	// Distance leaf boxes are grown by on each side
+	private double mMargin;
+	
+	// Leaf node of each Entity
+	private IdentityHashMap<Entity, Integer> mLeaves = new IdentityHashMap<Entity, Integer>();
+	
+	// Per node box (min x, min y, max x, max y), links and height; leaves have a height of 0
+	private double[] mBoxes = new double[INITIAL_CAPACITY * 4];
+	private int[] mParents = new int[INITIAL_CAPACITY];
+	private int[] mLefts = new int[INITIAL_CAPACITY];
+	private int[] mRights = new int[INITIAL_CAPACITY];
+	private int[] mHeights = new int[INITIAL_CAPACITY];
+	
+	// Per leaf Entity, exact bounds, filter (category, mask) and refresh epoch
+	private Entity[] mBodies = new Entity[INITIAL_CAPACITY];
+	// Per leaf Hitbox and its version when the bounds were taken
+	private Hitbox[] mShapes = new Hitbox[INITIAL_CAPACITY];
+	private int[] mVersions = new int[INITIAL_CAPACITY];
+	private double[] mBounds = new double[INITIAL_CAPACITY * 4];
+	private int[] mFilters = new int[INITIAL_CAPACITY * 2];
+	private int[] mEpochs = new int[INITIAL_CAPACITY];
+	
+	// Top of the tree and the first of the unused nodes, linked through their parents
+	private int mRoot = NULL;
+	private int mFree = NULL;
+	private int mCapacity = 0;
+	
+	// Current refresh epoch
+	private int mEpoch = 0;
+	
+	// Scratch space
+	private int[] mStack = new int[INITIAL_CAPACITY];
+	private double[] mScratch = new double[4];
+	
+	/**
+	 * Constructor for an AABBTree whose leaves are grown by a given margin.
+	 * 
+	 * @param margin	the distance added to each side of an Entity's bounds.
+	 * @throws IllegalArgumentException	if the margin is negative.
+	 */
+	public AABBTree(double margin) {
+		if (margin < 0) {
+			throw new IllegalArgumentException("Margin must be >= 0");
+		}
+		mMargin = margin;
+		link(0, INITIAL_CAPACITY);
+	}
+	
+	@Override
+	public void update(Entity e) {
+		Hitbox h = e.getCollision();
+		if (h == null) {
+			return;
+		}
+		
+		Integer node = mLeaves.get(e);
+		// Neither moved, turned, nor refiltered, as with any resting Prop
+		if (node != null) {
+			int leaf = node;
+			if (mShapes[leaf] == h && mVersions[leaf] == h.getVersion()
+					&& mFilters[leaf * 2] == e.getCategory() && mFilters[leaf * 2 + 1] == e.getMask()) {
+				mEpochs[leaf] = mEpoch;
+				return;
+			}
+		}
+		h.getBounds(mScratch);
+		
+		int leaf;
+		if (node == null) {
+			leaf = allocate();
+			mBodies[leaf] = e;
+			mLeaves.put(e, leaf);
+		} else {
+			leaf = node;
+			
+			// Still inside the grown box so the tree stays as it is
+			int b = leaf * 4;
+			if (mScratch[0] >= mBoxes[b] && mScratch[1] >= mBoxes[b + 1]
+					&& mScratch[2] <= mBoxes[b + 2] && mScratch[3] <= mBoxes[b + 3]) {
+				refresh(leaf, e);
+				return;
+			}
+			removeLeaf(leaf);
+		}
+		
+		refresh(leaf, e);
+		int b = leaf * 4;
+		mBoxes[b] = mScratch[0] - mMargin;
+		mBoxes[b + 1] = mScratch[1] - mMargin;
+		mBoxes[b + 2] = mScratch[2] + mMargin;
+		mBoxes[b + 3] = mScratch[3] + mMargin;
+		insertLeaf(leaf);
+	}
+	
+	@Override
+	public boolean touch(Entity e) {
+		Integer leaf = mLeaves.get(e);
+		if (leaf == null) {
+			return false;
+		}
+		mEpochs[leaf] = mEpoch;
+		return true;
+	}
+	
+	@Override
+	public int prune() {
+		int removed = 0;
+		Iterator<Map.Entry<Entity, Integer>> it = mLeaves.entrySet().iterator();
+		while (it.hasNext()) {
+			int leaf = it.next().getValue();
+			if (mEpochs[leaf] != mEpoch) {
+				removeLeaf(leaf);
+				release(leaf);
+				it.remove();
+				removed++;
+			}
+		}
+		mEpoch++;
+		return removed;
+	}
+	
+	@Override
+	public int query(double minX, double minY, double maxX, double maxY, int category, int mask,
+			Collection<? super Entity> out) {
+		if (mRoot == NULL) {
+			return 0;
+		}
+		
+		int found = 0;
+		int top = 0;
+		mStack[top++] = mRoot;
+		while (top > 0) {
+			int node = mStack[--top];
+			int b = node * 4;
+			if (mBoxes[b] > maxX || mBoxes[b + 1] > maxY || mBoxes[b + 2] < minX || mBoxes[b + 3] < minY) {
+				continue;
+			}
+			
+			if (mHeights[node] == 0) {
+				if ((mFilters[node * 2] & mask) == 0 || (category & mFilters[node * 2 + 1]) == 0) {
+					continue;
+				}
+				if (mBounds[b] <= maxX && mBounds[b + 1] <= maxY && mBounds[b + 2] >= minX && mBounds[b + 3] >= minY) {
+					out.add(mBodies[node]);
+					found++;
+				}
+			} else {
+				top = push(top, mLefts[node], mRights[node]);
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Collects the Entities whose bounds are crossed by the line segment from
+	 * (x0, y0) to (x1, y1) and whose collision filter matches the given one. The
+	 * Entities are not sorted by distance.
+	 * 
+	 * @param x0	the x-coordinate of the segment's start.
+	 * @param y0	the y-coordinate of the segment's start.
+	 * @param x1	the x-coordinate of the segment's end.
+	 * @param y1	the y-coordinate of the segment's end.
+	 * @param category	the category bits of whatever is asking.
+	 * @param mask	the mask bits of whatever is asking.
+	 * @param out	the Collection to add found Entities to.
+	 * @return the number of Entities found.
+	 */
+	public int raycast(double x0, double y0, double x1, double y1, int category, int mask,
+			Collection<? super Entity> out) {
+		if (mRoot == NULL) {
+			return 0;
+		}
+		
+		double dx = x1 - x0, dy = y1 - y0;
+		int found = 0;
+		int top = 0;
+		mStack[top++] = mRoot;
+		while (top > 0) {
+			int node = mStack[--top];
+			if (!crosses(mBoxes, node * 4, x0, y0, dx, dy)) {
+				continue;
+			}
+			
+			if (mHeights[node] == 0) {
+				if ((mFilters[node * 2] & mask) == 0 || (category & mFilters[node * 2 + 1]) == 0) {
+					continue;
+				}
+				if (crosses(mBounds, node * 4, x0, y0, dx, dy)) {
+					out.add(mBodies[node]);
+					found++;
+				}
+			} else {
+				top = push(top, mLefts[node], mRights[node]);
+			}
+		}
+		return found;
+	}
+	
+	@Override
+	public int pairs(List<? super Entity> out) {
+		int found = 0;
+		for (Integer node : mLeaves.values()) {
+			int leaf = node;
+			int lb = leaf * 4;
+			
+			int top = 0;
+			mStack[top++] = mRoot;
+			while (top > 0) {
+				int other = mStack[--top];
+				int b = other * 4;
+				if (mBoxes[b] > mBounds[lb + 2] || mBoxes[b + 1] > mBounds[lb + 3]
+						|| mBoxes[b + 2] < mBounds[lb] || mBoxes[b + 3] < mBounds[lb + 1]) {
+					continue;
+				}
+				if (mHeights[other] != 0) {
+					top = push(top, mLefts[other], mRights[other]);
+					continue;
+				}
+				
+				// Report each pair only from its lower leaf
+				if (other <= leaf) {
+					continue;
+				}
+				if ((mFilters[leaf * 2] & mFilters[other * 2 + 1]) == 0 || (mFilters[other * 2] & mFilters[leaf * 2 + 1]) == 0) {
+					continue;
+				}
+				if (mBounds[b] <= mBounds[lb + 2] && mBounds[b + 1] <= mBounds[lb + 3]
+						&& mBounds[b + 2] >= mBounds[lb] && mBounds[b + 3] >= mBounds[lb + 1]) {
+					out.add(mBodies[leaf]);
+					out.add(mBodies[other]);
+					found++;
+				}
+			}
+		}
+		return found;
+	}
+	
+	@Override
+	public int size() {
+		return mLeaves.size();
+	}
+	
+	/**
+	 * Gets the height of the tree. A balanced tree of n Entities is about log2(n) high.
+	 * 
+	 * @return the number of branches between the root and the deepest leaf, or -1
+	 * if the tree is empty.
+	 */
+	public int getHeight() {
+		return mRoot == NULL ? -1 : mHeights[mRoot];
+	}
+	
+	/**
+	 * Gets the distance each Entity's bounds are grown by before being stored.
+	 * 
+	 * @return the margin.
+	 */
+	public double getMargin() { return mMargin; }
+	
+	/**
+	 * Stores an Entity's exact bounds and filter in its leaf and keeps it through
+	 * the next prune.
+	 */
+	private void refresh(int leaf, Entity e) {
+		Hitbox h = e.getCollision();
+		mShapes[leaf] = h;
+		mVersions[leaf] = h.getVersion();
+		System.arraycopy(mScratch, 0, mBounds, leaf * 4, 4);
+		mFilters[leaf * 2] = e.getCategory();
+		mFilters[leaf * 2 + 1] = e.getMask();
+		mEpochs[leaf] = mEpoch;
+	}
+	
+	/**
+	 * Places a leaf beside the node whose box would grow the least by taking it in,
+	 * then refits and rebalances every branch above.
+	 */
+	private void insertLeaf(int leaf) {
+		if (mRoot == NULL) {
+			mRoot = leaf;
+			mParents[leaf] = NULL;
+			return;
+		}
+		
+		// Descend while splitting a child is cheaper than pairing with the node
+		int lb = leaf * 4;
+		int sibling = mRoot;
+		while (mHeights[sibling] != 0) {
+			int left = mLefts[sibling], right = mRights[sibling];
+			double perimeter = perimeter(mBoxes, sibling * 4);
+			double combined = unionPerimeter(sibling * 4, lb);
+			
+			// Pairing here makes a new branch; going lower grows this one anyway
+			double cost = 2 * combined;
+			double inherited = 2 * (combined - perimeter);
+			double leftCost = descendCost(left, lb) + inherited;
+			double rightCost = descendCost(right, lb) + inherited;
+			
+			if (cost < leftCost && cost < rightCost) {
+				break;
+			}
+			sibling = leftCost < rightCost ? left : right;
+		}
+		
+		// New branch takes the sibling's place and holds both
+		int oldParent = mParents[sibling];
+		int branch = allocate();
+		mParents[branch] = oldParent;
+		mLefts[branch] = sibling;
+		mRights[branch] = leaf;
+		mParents[sibling] = branch;
+		mParents[leaf] = branch;
+		if (oldParent == NULL) {
+			mRoot = branch;
+		} else if (mLefts[oldParent] == sibling) {
+			mLefts[oldParent] = branch;
+		} else {
+			mRights[oldParent] = branch;
+		}
+		
+		refit(branch);
+	}
+	
+	/**
+	 * Takes a leaf out of the tree, letting its sibling take their parent's place.
+	 * The leaf itself is not released.
+	 */
+	private void removeLeaf(int leaf) {
+		if (leaf == mRoot) {
+			mRoot = NULL;
+			return;
+		}
+		
+		int parent = mParents[leaf];
+		int grandparent = mParents[parent];
+		int sibling = mLefts[parent] == leaf ? mRights[parent] : mLefts[parent];
+		
+		mParents[sibling] = grandparent;
+		release(parent);
+		if (grandparent == NULL) {
+			mRoot = sibling;
+			return;
+		}
+		if (mLefts[grandparent] == parent) {
+			mLefts[grandparent] = sibling;
+		} else {
+			mRights[grandparent] = sibling;
+		}
+		refit(grandparent);
+	}
+	
+	/**
+	 * Walks from a branch up to the root, rotating each branch if unbalanced and
+	 * recomputing its box and height from its children.
+	 */
+	private void refit(int node) {
+		while (node != NULL) {
+			node = balance(node);
+			int left = mLefts[node], right = mRights[node];
+			mHeights[node] = 1 + Math.max(mHeights[left], mHeights[right]);
+			union(node, left, right);
+			node = mParents[node];
+		}
+	}
+	
+	/**
+	 * Rotates the taller child of a branch up into its place if the children's
+	 * heights differ by more than 1.
+	 * 
+	 * @param a	the branch.
+	 * @return the node now in the branch's place.
+	 */
+	private int balance(int a) {
+		if (mHeights[a] < 2) {
+			return a;
+		}
+		
+		int b = mLefts[a], c = mRights[a];
+		int diff = mHeights[c] - mHeights[b];
+		if (diff > 1) {
+			// Right child rises and keeps its taller child
+			int f = mLefts[c], g = mRights[c];
+			replace(a, c);
+			mLefts[c] = a;
+			if (mHeights[f] > mHeights[g]) {
+				mRights[c] = f;
+				adopt(a, b, g);
+				adopt(c, a, f);
+			} else {
+				mRights[c] = g;
+				adopt(a, b, f);
+				adopt(c, a, g);
+			}
+			return c;
+		}
+		if (diff < -1) {
+			// Left child rises and keeps its taller child
+			int d = mLefts[b], e = mRights[b];
+			replace(a, b);
+			mLefts[b] = a;
+			if (mHeights[d] > mHeights[e]) {
+				mRights[b] = d;
+				adopt(a, e, c);
+				adopt(b, a, d);
+			} else {
+				mRights[b] = e;
+				adopt(a, d, c);
+				adopt(b, a, e);
+			}
+			return b;
+		}
+		return a;
+	}
+	
+	/**
+	 * Moves a child into its parent's place in the tree, making it the parent's parent.
+	 */
+	private void replace(int parent, int child) {
+		int above = mParents[parent];
+		mParents[child] = above;
+		mParents[parent] = child;
+		if (above == NULL) {
+			mRoot = child;
+		} else if (mLefts[above] == parent) {
+			mLefts[above] = child;
+		} else {
+			mRights[above] = child;
+		}
+	}
+	
+	/**
+	 * Sets a branch's children and recomputes its box and height from them.
+	 */
+	private void adopt(int node, int left, int right) {
+		mLefts[node] = left;
+		mRights[node] = right;
+		mParents[left] = node;
+		mParents[right] = node;
+		mHeights[node] = 1 + Math.max(mHeights[left], mHeights[right]);
+		union(node, left, right);
+	}
+	
+	/**
+	 * Estimates the growth in perimeters caused by inserting a leaf somewhere
+	 * under a given node.
+	 */
+	private double descendCost(int node, int lb) {
+		double combined = unionPerimeter(node * 4, lb);
+		if (mHeights[node] == 0) {
+			return combined;
+		}
+		return combined - perimeter(mBoxes, node * 4);
+	}
+	
+	/**
+	 * Sets a node's box to enclose the boxes of two others.
+	 */
+	private void union(int node, int first, int second) {
+		int b = node * 4, f = first * 4, s = second * 4;
+		mBoxes[b] = Math.min(mBoxes[f], mBoxes[s]);
+		mBoxes[b + 1] = Math.min(mBoxes[f + 1], mBoxes[s + 1]);
+		mBoxes[b + 2] = Math.max(mBoxes[f + 2], mBoxes[s + 2]);
+		mBoxes[b + 3] = Math.max(mBoxes[f + 3], mBoxes[s + 3]);
+	}
+	
+	/**
+	 * Gets the perimeter of the box enclosing the boxes starting at two offsets.
+	 */
+	private double unionPerimeter(int f, int s) {
+		double width = Math.max(mBoxes[f + 2], mBoxes[s + 2]) - Math.min(mBoxes[f], mBoxes[s]);
+		double height = Math.max(mBoxes[f + 3], mBoxes[s + 3]) - Math.min(mBoxes[f + 1], mBoxes[s + 1]);
+		return 2 * (width + height);
+	}
+	
+	private static double perimeter(double[] boxes, int b) {
+		return 2 * ((boxes[b + 2] - boxes[b]) + (boxes[b + 3] - boxes[b + 1]));
+	}
+	
+	/**
+	 * Slab test of the segment starting at (x0, y0) and spanning (dx, dy) against
+	 * the box starting at a given offset.
+	 */
+	private static boolean crosses(double[] boxes, int b, double x0, double y0, double dx, double dy) {
+		double enter = 0, exit = 1;
+		
+		if (dx == 0) {
+			if (x0 < boxes[b] || x0 > boxes[b + 2]) {
+				return false;
+			}
+		} else {
+			double t0 = (boxes[b] - x0) / dx;
+			double t1 = (boxes[b + 2] - x0) / dx;
+			enter = Math.max(enter, Math.min(t0, t1));
+			exit = Math.min(exit, Math.max(t0, t1));
+		}
+		
+		if (dy == 0) {
+			if (y0 < boxes[b + 1] || y0 > boxes[b + 3]) {
+				return false;
+			}
+		} else {
+			double t0 = (boxes[b + 1] - y0) / dy;
+			double t1 = (boxes[b + 3] - y0) / dy;
+			enter = Math.max(enter, Math.min(t0, t1));
+			exit = Math.min(exit, Math.max(t0, t1));
+		}
+		return enter <= exit;
+	}
+	
+	/**
+	 * Pushes two nodes onto the traversal stack, making room if needed.
+	 * 
+	 * @return the new top of the stack.
+	 */
+	private int push(int top, int first, int second) {
+		if (top + 2 > mStack.length) {
+			int[] stack = new int[mStack.length * 2];
+			System.arraycopy(mStack, 0, stack, 0, top);
+			mStack = stack;
+		}
+		mStack[top++] = first;
+		mStack[top++] = second;
+		return top;
+	}
+	
+	/**
+	 * Takes a node from the unused ones, doubling the room in every array if
+	 * none remain.
+	 * 
+	 * @return the node.
+	 */
+	private int allocate() {
+		if (mFree == NULL) {
+			int capacity = mCapacity * 2;
+			mBoxes = copyOf(mBoxes, capacity * 4);
+			mParents = copyOf(mParents, capacity);
+			mLefts = copyOf(mLefts, capacity);
+			mRights = copyOf(mRights, capacity);
+			mHeights = copyOf(mHeights, capacity);
+			mBounds = copyOf(mBounds, capacity * 4);
+			mFilters = copyOf(mFilters, capacity * 2);
+			mEpochs = copyOf(mEpochs, capacity);
+			mVersions = copyOf(mVersions, capacity);
+			Entity[] bodies = new Entity[capacity];
+			System.arraycopy(mBodies, 0, bodies, 0, mCapacity);
+			mBodies = bodies;
+			Hitbox[] shapes = new Hitbox[capacity];
+			System.arraycopy(mShapes, 0, shapes, 0, mCapacity);
+			mShapes = shapes;
+			link(mCapacity, capacity);
+		}
+		
+		int node = mFree;
+		mFree = mParents[node];
+		mParents[node] = NULL;
+		mLefts[node] = NULL;
+		mRights[node] = NULL;
+		mHeights[node] = 0;
+		return node;
+	}
+	
+	/**
+	 * Returns a node to the unused ones.
+	 */
+	private void release(int node) {
+		mBodies[node] = null;
+		mShapes[node] = null;
+		mParents[node] = mFree;
+		mHeights[node] = -1;
+		mFree = node;
+	}
+	
+	/**
+	 * Chains new nodes from first up to capacity onto the unused ones.
+	 */
+	private void link(int first, int capacity) {
+		for (int i = capacity - 1; i >= first; i--) {
+			mParents[i] = mFree;
+			mHeights[i] = -1;
+			mFree = i;
+		}
+		mCapacity = capacity;
+	}
+	
+	private static double[] copyOf(double[] array, int length) {
+		double[] copy = new double[length];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+	
+	private static int[] copyOf(int[] array, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+
+}
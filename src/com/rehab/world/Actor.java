@@ -37,6 +37,17 @@ public class Actor extends Entity implements Combatant {
 
 	public void arm(double projSpd, double projDmg, Projectile reference) {
 		mWeapon = new Weapon(this, projSpd, projDmg, reference);
+		markDirty();
+	}
+	
+	/**
+	 * Removes the Actor's Weapon, if any.
+	 */
+	void disarm() {
+		if (mWeapon != null) {
+			mWeapon = null;
+			markDirty();
+		}
 	}
 	
 	/**
@@ -48,6 +59,13 @@ public class Actor extends Entity implements Combatant {
 		return mWeapon != null;
 	}
 	
+	/**
+	 * Gets the Weapon the Actor fires with.
+	 * 
+	 * @return the Weapon, or null if unarmed.
+	 */
+	Weapon getWeapon() { return mWeapon; }
+	
 	@Override
 	public void setOnDamageTakenListener(OnDamageTakenListener listener) {
 		mDamageTakenListener = listener;
@@ -1,7 +1,20 @@
 package com.rehab.world;
 
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
 
 public class Arena {
+	
+	// Size of the broadphase grid's cells
+	private static final double CELL_SIZE = 64;
+	// Room Props may move within before the static tree must change
+	private static final double STATIC_MARGIN = 8;
+	
+	/**
+	 * Number of ticks an Actor must stay in place before it falls asleep.
+	 */
+	public static final int SLEEP_TICKS = 30;
 
 	// Playable bounds on-screen
 	private double mWidth, mHeight;
@@ -23,6 +36,33 @@ public class Arena {
 	private Actor mPlayer;
 	private Prop mFloor;
 	
+	// Broadphase of Actors, tree of Props, and their last results
+	private Broadphase mBroadphase = new GridBroadphase(CELL_SIZE);
+	private AABBTree mStatics = new AABBTree(STATIC_MARGIN);
+	private ArrayList<Entity> mCandidates = new ArrayList<Entity>();
+	private ArrayList<Entity> mPairs = new ArrayList<Entity>();
+	// Whether the broadphase has been refreshed this tick
+	private boolean mIndexed = false;
+	// Prop change count when the static tree was last refreshed, if it is current
+	private int mStaticsChanges;
+	private boolean mStaticsCurrent = false;
+	// Actor contacts carried between ticks and those ended this tick
+	private ContactCache mContacts = new ContactCache();
+	private ArrayList<Entity> mEnded = new ArrayList<Entity>();
+	// Motion of Actors and Projectiles and exact tests of the pairs found, run across the common pool
+	private Integrator mIntegrator = new Integrator(ForkJoinPool.commonPool());
+	private Integrator mProjIntegrator = new Integrator(ForkJoinPool.commonPool());
+	private Narrowphase mNarrowphase = new Narrowphase(ForkJoinPool.commonPool());
+	private ForkJoinPool mPool = ForkJoinPool.commonPool();
+	// Strips Actors are split into for detection, or null to detect as a whole
+	private Partition mPartition;
+	// Scratch bounds
+	private double[] mBounds = new double[4];
+	
+	// Actors simulated and skipped during the last step
+	private int mAwakeCount = 0;
+	private int mSleepingCount = 0;
+	
 	/**
 	 * Constructor for a basic Arena.
 	 * 
@@ -36,6 +76,9 @@ public class Arena {
 		mWidth = width;
 		mHeight = height;
 		mFloor = floor;
+		if (mFloor != null) {
+			mFloor.setCollisionFilter(Entity.CATEGORY_FLOOR, Entity.MASK_ALL);
+		}
 
 		// Setup gravity Vector
 		mGravMagnitude = Physics.getPlanetGravity(Physics.EARTH_MASS, Physics.EARTH_RADIUS);
@@ -43,15 +86,19 @@ public class Arena {
 	}
 	
 	/**
-	 * Sets the unit of time to use for Entity physics.
+	 * Sets the unit of time to use for Entity physics. Each Arena keeps its own unit
+	 * of time so that several may run side by side at different tick rates, and hands
+	 * it to the Phys of each Actor given to {@link #setEntities(Iterable, Iterable, Iterable)}
+	 * rather than to any state shared between Arenas.
 	 * 
 	 * @param tickRate	a fraction of a second.
+	 * @throws IllegalArgumentException	if the fraction is not greater than 0.
 	 */
 	public void setTimescale(double tickRate) {
-		
+		if (tickRate <= 0) {
+			throw new IllegalArgumentException("Timescale must be > 0");
+		}
 		mUnitTime = tickRate;
-		// Let all Phys instances know the scale for computations
-		Phys.syncTimescale(mUnitTime);
 	}
 
 	/**
@@ -60,10 +107,43 @@ public class Arena {
 	 * test various reactions and / or functions and their values in a one-shot manner.
 	 * Once an Entity reaches the floor of the Arena (getHeight() = 0), nothing more can
 	 * be said of what will occur.
+	 * 
+	 * <p>
+	 * Actors that have stayed in place for {@link #SLEEP_TICKS} ticks fall asleep and are
+	 * skipped until moved, hit, or otherwise woken.
+	 * </p>
+	 * 
+	 * <p>
+	 * Each step first moves every falling Actor at once, then tests for collisions,
+	 * and finally reacts to what was found on the calling thread. Both of the first two
+	 * phases are split across threads once there are enough Actors for it to pay off.
+	 * </p>
 	 */
 	public void stepActors() {
+		integrateActors();
+		indexTargets();
+		detectActors();
+		resolveActors();
+	}
+	
+	/**
+	 * Moves every falling Actor for the tick, disabling those beyond the screen and
+	 * keeping the rest above the floor. This is the first phase of
+	 * {@link #stepActors()}.
+	 */
+	void integrateActors() {
+		int awake = 0, sleeping = 0;
+		mIntegrator.clear();
+		
 		for (Actor a : mActList) {
 			
+			// Leave resting Actors alone until woken
+			if (a.isSleeping()) {
+				sleeping++;
+				continue;
+			}
+			awake++;
+			
 			// Disable objects beyond the screen
 			if (isOutside(a)) {
 				System.out.println("Disabled obj: " + a.getId());
@@ -72,32 +152,186 @@ public class Arena {
 			
 			// Apply gravity
 			if (a.isGravityEnabled()) {
-				
-				a.move();
-				
-				for (Entity other : mActList) {
-					// Skip collision with itself
-					if (a == other) continue;
-					if (a.collidesWith(other)) {
-						System.out.printf("Actor collision: [%d] (%f, %f) with [%d]\n", a.getId(), a.getX(), a.getY(), other.getId());
-						// Snap object to floor
-						if (other == mFloor) {
-							snapToFloor(a);
-						}
-					}
-				}
- 			}
-			
-			// Snap the character to the surface of the floor if sinks
-			if (isBelow(a)) {
-				snapToFloor(a);
-				a.setEnableGravity(false);
-				System.out.printf("Actor below screen: %s\n", a);
+				mIntegrator.add(a);
+			} else {
+				settle(a, a.getX(), a.getY());
 			}
+		}
 			
+		// Move every falling Actor at once
+		mIntegrator.run();
+		for (int i = 0, size = mIntegrator.size(); i < size; i++) {
+			settle((Actor) mIntegrator.get(i), mIntegrator.getStartX(i), mIntegrator.getStartY(i));
 		}
+		
+		mAwakeCount = awake;
+		mSleepingCount = sleeping;
+	}
+		
+	/**
+	 * Tests every falling Actor against the Actors and Props the broadphase found
+	 * near it. The broadphase must have been refreshed since the Actors moved. Results
+	 * are left for {@link #resolveActors()}.
+	 */
+	void detectActors() {
+		// Each region finds and tests its own pairs
+		if (mPartition != null) {
+			mPartition.detect(mContacts);
+			return;
+		}
+		
+		// Only test Actors the broadphase found near each other
+		mNarrowphase.clear();
+		mPairs.clear();
+		mBroadphase.pairs(mPairs);
+		for (int i = 0, size = mPairs.size(); i < size; i += 2) {
+			Entity first = mPairs.get(i), second = mPairs.get(i + 1);
+			if (first instanceof Actor && second instanceof Actor) {
+				queueTest((Actor) first, second);
+				queueTest((Actor) second, first);
+			}
+		}
+		
+		// Props only matter to Actors that are still falling
+		for (Actor a : mActList) {
+			if (a.isSleeping() || !a.isGravityEnabled() || a.getCollision() == null) {
+				continue;
+			}
+			a.getCollision().getBounds(mBounds);
+			mCandidates.clear();
+			mStatics.query(mBounds[0], mBounds[1], mBounds[2], mBounds[3], a.getCategory(), a.getMask(), mCandidates);
+			for (int i = 0, size = mCandidates.size(); i < size; i++) {
+				queueTest(a, mCandidates.get(i));
+			}
+		}
+		
+		// Test every pair at once
+		mNarrowphase.run();
 	}
 	
+	/**
+	 * Reacts to the tests of {@link #detectActors()} in the order they were queued,
+	 * triggering the collision and separation listeners of each Actor involved.
+	 */
+	void resolveActors() {
+		if (mPartition != null) {
+			for (int r = 0, count = mPartition.getRegionCount(); r < count; r++) {
+				resolve(mPartition.getNarrowphase(r));
+			}
+		} else {
+			resolve(mNarrowphase);
+		}
+		
+		// End contacts with disabled Entities and of Actors that stopped falling
+		mEnded.clear();
+		mContacts.prune(mEnded);
+		for (int i = 0, size = mEnded.size(); i < size; i += 2) {
+			mEnded.get(i).notifySeparation(mEnded.get(i + 1));
+		}
+	}
+	
+	/**
+	 * Reacts to every overlap test of a Narrowphase in the order they were queued.
+	 * 
+	 * @param tests	the Narrowphase.
+	 */
+	private void resolve(Narrowphase tests) {
+		for (int i = 0, size = tests.getTestCount(); i < size; i++) {
+			collide((Actor) tests.getFirst(i), tests.getSecond(i), tests.getResult(i));
+		}
+	}
+	
+	/**
+	 * Keeps an Actor above the floor once it has moved for the tick and counts the
+	 * tick towards it falling asleep.
+	 * 
+	 * @param a	the Actor.
+	 * @param startX	the x-coordinate the Actor started the tick at.
+	 * @param startY	the y-coordinate the Actor started the tick at.
+	 */
+	private void settle(Actor a, double startX, double startY) {
+		// Snap the character to the surface of the floor if sinks
+		if (isBelow(a)) {
+			snapToFloor(a);
+			a.setEnableGravity(false);
+			System.out.printf("Actor below screen: %s\n", a);
+		}
+		
+		// Count ticks spent in place towards sleeping
+		boolean moved = a.isGravityEnabled() || a.getX() != startX || a.getY() != startY;
+		a.rest(moved, SLEEP_TICKS);
+	}
+	
+	/**
+	 * Queues a test of a falling Actor against another Entity, starting from the
+	 * axis that kept them apart last tick.
+	 * 
+	 * @param a	the Actor.
+	 * @param other	the Entity the broadphase paired the Actor with.
+	 */
+	private void queueTest(Actor a, Entity other) {
+		// Only falling Actors react to contact
+		if (a.isSleeping() || !a.isGravityEnabled()) {
+			return;
+		}
+		mNarrowphase.addTest(a, other, mContacts.getAxis(a, other));
+	}
+	
+	/**
+	 * Reacts to the result of testing a falling Actor against another Entity.
+	 * The Actor's collision listener is only triggered when the contact begins
+	 * and its separation listener when it ends.
+	 * 
+	 * @param a	the Actor.
+	 * @param other	the Entity the Actor was tested against.
+	 * @param axis	the test's result.
+	 */
+	private void collide(Actor a, Entity other, int axis) {
+		// Earlier reactions this tick may have stopped the Actor
+		if (a.isSleeping() || !a.isGravityEnabled()) {
+			return;
+		}
+		
+		// Filtered or disabled pairs count as apart
+		if (axis != Hitbox.OVERLAP) {
+			if (mContacts.separate(a, other, axis)) {
+				a.notifySeparation(other);
+			}
+			return;
+		}
+		
+		if (mContacts.touch(a, other)) {
+			System.out.printf("Actor collision: [%d] (%f, %f) with [%d]\n", a.getId(), a.getX(), a.getY(), other.getId());
+			a.notifyCollision(other);
+		}
+		// Contact wakes resting Actors; Props are never simulated and stay unchanged
+		if (!(other instanceof Prop)) {
+			other.wake();
+		}
+		// Snap object to floor
+		if (other == mFloor) {
+			snapToFloor(a);
+		}
+	}
+	
+	/**
+	 * Gets the number of Actors simulated during the last call to {@link #stepActors()}.
+	 * The {@link WorldLoop} and each {@link Shard} report the count every tick.
+	 * 
+	 * @return the awake Actor count.
+	 * @see #getSleepingCount()
+	 */
+	public int getAwakeCount() { return mAwakeCount; }
+	
+	/**
+	 * Gets the number of Actors skipped for sleeping during the last call to
+	 * {@link #stepActors()}.
+	 * 
+	 * @return the sleeping Actor count.
+	 * @see #getAwakeCount()
+	 */
+	public int getSleepingCount() { return mSleepingCount; }
+	
 	/**
 	 * Moves the Actor to the surface of the Arena's floor.
 	 * 
@@ -110,7 +344,26 @@ public class Arena {
 		a.setEnableGravity(false);
 	}
 
+	/**
+	 * Moves each Projectile and checks the path it took this tick for Actors and Props
+	 * in the way. Since the whole path is tested rather than only where the Projectile
+	 * lands, fast Projectiles cannot pass through thin Entities between ticks. A
+	 * Projectile that hits something is placed at the point of impact and disabled.
+	 */
 	public void stepProjectiles() {
+		integrateProjectiles();
+		sweepProjectiles();
+		resolveProjectiles();
+	}
+	
+	/**
+	 * Moves every Projectile for the tick, disabling those beyond the screen. Must not
+	 * run until Actors are resolved since their listeners may fire or remove
+	 * Projectiles.
+	 */
+	void integrateProjectiles() {
+		mProjIntegrator.clear();
+		
 		for (Projectile p : mProjList) {
 
 			// Skip disabled projectiles
@@ -123,33 +376,157 @@ public class Arena {
 				System.out.printf("Projectile beyond screen! Disabling...\n");
 				p.disable();
 			} else {
-				
-				// Test collision with all Actors
-				boolean collides = false;
-				for (Actor a : mActList) {
-					if (collides = p.collidesWith(a)) {
-						System.out.printf("Projectile(%d) collision with Actor(%d)! Disabling Projectile %s\n", p.getId(), a.getId(), p);
-						p.disable();
-						break;
-					}
-				}
-				
-				// Test collision with all Props
-				for (Prop prop : mPropList) {
-					if ((prop != mFloor) && (collides = p.collidesWith(prop))) {
-						System.out.printf("Projectile(%d) collision with Prop(%d)! Disabling Projectile %s\n", p.getId(), prop.getId(), p);
-						p.disable();
-						break;
-					}					
-				}
-				
-				// Move again only if no collision
-				if (!collides) {
-					p.move();
-				}
+				mProjIntegrator.add(p);
 			}
 			
 		}
+		
+		// Move every Projectile at once
+		mProjIntegrator.run();
+	}
+	
+	/**
+	 * Sweeps the path each Projectile took during {@link #integrateProjectiles()}
+	 * against the Actors and Props near it. Actors must be done reacting to each other
+	 * for the tick. Results are left for {@link #resolveProjectiles()}.
+	 */
+	void sweepProjectiles() {
+		// Refresh broadphase unless stepActors already has
+		if (!mIndexed) {
+			indexTargets();
+		}
+		mIndexed = false;
+		mNarrowphase.clear();
+		
+		for (int i = 0, size = mProjIntegrator.size(); i < size; i++) {
+			Projectile p = (Projectile) mProjIntegrator.get(i);
+			if (p.getCollision() != null) {
+				queueSweep(p, p.getX() - mProjIntegrator.getStartX(i), p.getY() - mProjIntegrator.getStartY(i));
+			}
+		}
+		
+		// Sweep every path at once
+		mNarrowphase.run();
+	}
+	
+	/**
+	 * Places every Projectile that hit something during {@link #sweepProjectiles()}
+	 * at its point of impact, in the order swept, and disables it.
+	 */
+	void resolveProjectiles() {
+		for (int i = 0, size = mNarrowphase.getMoverCount(); i < size; i++) {
+			Entity hit = mNarrowphase.getHit(i);
+			if (hit == null) {
+				continue;
+			}
+			
+			// Rewind to the point of impact
+			Entity p = mNarrowphase.getMover(i);
+			double rewind = 1 - mNarrowphase.getImpactTime(i);
+			p.moveTo(p.getX() - mNarrowphase.getMotionX(i) * rewind, p.getY() - mNarrowphase.getMotionY(i) * rewind);
+			p.notifyCollision(hit);
+			if (!(hit instanceof Prop)) {
+				hit.wake();
+			}
+			System.out.printf("Projectile(%d) collision with Entity(%d)! Disabling Projectile %s\n", p.getId(), hit.getId(), p);
+			p.disable();
+		}
+	}
+	
+	/**
+	 * Queues a sweep of a Projectile's motion this tick against every Actor and
+	 * Prop near its path.
+	 * 
+	 * @param p	the Projectile, already at the end of its motion.
+	 * @param dx	the x distance moved.
+	 * @param dy	the y distance moved.
+	 */
+	private void queueSweep(Projectile p, double dx, double dy) {
+		Hitbox h = p.getCollision();
+		h.getBounds(mBounds);
+		
+		// Only look near the region covered by the whole motion
+		double minX = Math.min(mBounds[0], mBounds[0] - dx), minY = Math.min(mBounds[1], mBounds[1] - dy);
+		double maxX = Math.max(mBounds[2], mBounds[2] - dx), maxY = Math.max(mBounds[3], mBounds[3] - dy);
+		mCandidates.clear();
+		if (mPartition != null) {
+			mPartition.query(minX, minY, maxX, maxY, p.getCategory(), p.getMask(), mCandidates);
+		} else {
+			mBroadphase.query(minX, minY, maxX, maxY, p.getCategory(), p.getMask(), mCandidates);
+		}
+		mStatics.query(minX, minY, maxX, maxY, p.getCategory(), p.getMask(), mCandidates);
+		
+		mNarrowphase.addMover(p, dx, dy);
+		for (int i = 0, size = mCandidates.size(); i < size; i++) {
+			Entity e = mCandidates.get(i);
+			if (!p.ignores(e)) {
+				mNarrowphase.addTarget(e);
+			}
+		}
+	}
+	
+	/**
+	 * Updates the broadphase with the bounds of every Actor and the static tree
+	 * with those of every Prop, dropping those no longer in the level.
+	 * 
+	 * @see #indexStatics()
+	 * @see #indexActors()
+	 */
+	void indexTargets() {
+		indexStatics();
+		indexActors();
+	}
+	
+	/**
+	 * Updates the static tree with the bounds of every Prop, dropping those no longer
+	 * in the level. The Props are skipped entirely while none has changed since they
+	 * were last refreshed. Only Props are read, so this may run while Actors are
+	 * being moved.
+	 */
+	void indexStatics() {
+		// Read first so that a change made while refreshing is seen next tick
+		int changes = Prop.getChangeCount();
+		if (!mStaticsCurrent || changes != mStaticsChanges) {
+			for (Prop prop : mPropList) {
+				index(prop, mStatics);
+			}
+			mStatics.prune();
+			mStaticsChanges = changes;
+			mStaticsCurrent = true;
+		}
+	}
+	
+	/**
+	 * Updates the broadphase with the bounds of every Actor, dropping those no longer
+	 * in the level. If the Arena is split into regions, Actors and Props are instead
+	 * handed to the regions they reach, which refresh their own broadphases while
+	 * detecting.
+	 */
+	void indexActors() {
+		if (mPartition != null) {
+			mPartition.assign(mActList, mPropList);
+		} else {
+			for (Actor a : mActList) {
+				index(a, mBroadphase);
+			}
+			mBroadphase.prune();
+		}
+		mIndexed = true;
+	}
+	
+	/**
+	 * Inserts or updates an Entity's bounds in a broadphase. Entities without
+	 * a Hitbox are left out.
+	 * 
+	 * @param e	the Entity.
+	 * @param broadphase	the Broadphase to refresh.
+	 */
+	private void index(Entity e, Broadphase broadphase) {
+		// Resting bounds have not changed
+		if (e.isSleeping() && broadphase.touch(e)) {
+			return;
+		}
+		broadphase.update(e);
 	}
 	
 	/**
@@ -197,15 +574,112 @@ public class Arena {
 		mActList = acts;
 		mProjList = projs;
 		mPropList = props;
+		mStaticsCurrent = false;
 		
 		// Set gravity for each Actor
 		for (Actor a : mActList) {
 			Phys phys = a.getPhysics();
-			phys.setAcceleration(mGravMagnitude);
+			phys.setAcceleration(mGravMagnitude, mUnitTime);
 			phys.setVelocity(mGravDirection.getX(), mGravDirection.getY(), 1);
 		}
 	}
 	
+	/**
+	 * Sets the broadphase used to find Actors near each other. A
+	 * {@link GridBroadphase} is used by default; a {@link SweepAndPrune} may suit
+	 * levels where Actors gather in a few places. The new broadphase is filled on
+	 * the next tick. Props are kept apart in an {@link AABBTree}.
+	 * 
+	 * @param broadphase	the Broadphase.
+	 * @throws IllegalArgumentException	if the broadphase is null.
+	 */
+	public void setBroadphase(Broadphase broadphase) {
+		if (broadphase == null) {
+			throw new IllegalArgumentException("Broadphase may not be null");
+		}
+		mBroadphase = broadphase;
+		mIndexed = false;
+	}
+	
+	/**
+	 * Sets the pool that motion and exact collision tests are split across when a
+	 * tick has enough of them. The common pool is used by default. Whatever the pool,
+	 * the collision listeners are triggered on the calling thread in the same order.
+	 * 
+	 * @param pool	the ForkJoinPool.
+	 * @throws IllegalArgumentException	if the pool is null.
+	 */
+	public void setWorkerPool(ForkJoinPool pool) {
+		mIntegrator.setPool(pool);
+		mProjIntegrator.setPool(pool);
+		mNarrowphase.setPool(pool);
+		if (mPartition != null) {
+			mPartition.setPool(pool);
+		}
+		mPool = pool;
+	}
+	
+	/**
+	 * <p>
+	 * Splits the level into a number of vertical strips of equal width, called regions,
+	 * each detected by its own worker of the pool given to
+	 * {@link #setWorkerPool(ForkJoinPool)}. This lets finding collisions, and not only
+	 * testing them, scale across cores when a single level holds a great many Actors.
+	 * Actors move between regions as they move across the level, and an Actor whose
+	 * bounds cross into a neighboring region is also seen there as a ghost so that
+	 * collisions across a border are still found. Each pair is tested by one region only.
+	 * </p>
+	 * 
+	 * <p>
+	 * Regions keep their own broadphases, so the one given to
+	 * {@link #setBroadphase(Broadphase)} is neither used nor kept up to date while the
+	 * Arena is split. Reactions still happen on the calling thread, region by region
+	 * from the left, so a step's outcome only depends on the number of regions. A count
+	 * of 1, the default, detects the level as a whole.
+	 * </p>
+	 * 
+	 * @param count	the number of regions.
+	 * @throws IllegalArgumentException	if the count is < 1.
+	 */
+	public void setRegionCount(int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException("Region count must be > 0");
+		}
+		mPartition = count == 1 ? null : new Partition(count, mWidth, CELL_SIZE, STATIC_MARGIN, mPool);
+		mIndexed = false;
+	}
+	
+	/**
+	 * Gets the number of regions the level is detected in.
+	 * 
+	 * @return the region count.
+	 * @see #setRegionCount(int)
+	 */
+	public int getRegionCount() { return mPartition == null ? 1 : mPartition.getRegionCount(); }
+	
+	/**
+	 * Gets the Partition the level is split into, if any.
+	 * 
+	 * @return the Partition, or null if the level is detected as a whole.
+	 */
+	Partition getPartition() { return mPartition; }
+	
+	/**
+	 * Gets the broadphase used to find Actors near each other.
+	 * 
+	 * @return the Broadphase.
+	 */
+	public Broadphase getBroadphase() { return mBroadphase; }
+	
+	/**
+	 * Gets the tree holding the level's Props. Since Props seldom move, the tree
+	 * rarely changes between ticks and can be queried by anything looking for the
+	 * level's static geometry.
+	 * 
+	 * @return the AABBTree of Props.
+	 */
+	public AABBTree getStatics() { return mStatics; }
+	
 	/**
 	 * Gets the user-controlled Actor.
 	 * 
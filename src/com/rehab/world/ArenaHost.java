@@ -0,0 +1,277 @@
+package com.rehab.world;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * ArenaHost runs many independent matches in a single process, as a dedicated server
+ * would. Each match is a {@link Shard} with its own {@link Arena}, {@link InstanceManager},
+ * tick rate, and metrics. Shards are spread across a fixed number of lanes, one thread
+ * each, and a Shard stays on the lane it was first given for as long as it runs so that
+ * its state keeps to one core's cache. By default there is one lane per available
+ * processor.
+ * </p>
+ * 
+ * <p>
+ * The code below hosts two matches at 60 ticks per second.
+ * </p>
+ * 
+ * <pre>
+ *  <code>
+ * ArenaHost host = new ArenaHost();
+ * InstanceManager store = new InstanceManager();
+ * Shard first = host.host("first", new Arena("first", 1280, 720, floor), store, 60);
+ * Shard second = host.host("second", new Arena("second", 1280, 720, otherFloor), new InstanceManager(), 60);
+ * host.start();
+ *  </code>
+ * </pre>
+ * 
+ * <p>
+ * Each lane steps every Shard that is due, then sleeps until the earliest of their next
+ * ticks. A Shard that falls behind wall time catches up by up to {@link #MAX_CATCH_UP}
+ * ticks at once and then gives up on the rest (see {@link Shard#getSkippedTickCount()})
+ * rather than starving the other Shards on its lane. A Shard that throws anything is
+ * closed with the cause kept (see {@link Shard#getFailure()}) while the rest of its lane
+ * carries on.
+ * </p>
+ * 
+ * <p>
+ * Matches run entirely apart from the {@link WorldLoop} and so neither draw Frames nor
+ * perform spawns from the {@link SpawnManager}; their Scripts go to
+ * {@link Shard#getTimerManager()}. Shards may be hosted before or after the ArenaHost
+ * has started.
+ * </p>
+ */
+public class ArenaHost {
+	
+	/**
+	 * Most ticks a Shard may simulate back to back when behind wall time.
+	 */
+	public static final int MAX_CATCH_UP = 5;
+	
+	// Longest a lane sleeps with nothing due
+	private static final long IDLE_WAIT = 100000000;
+	
+	// Threads stepping Shards
+	private final Lane[] mLanes;
+	
+	// Whether or not the lanes have been started or stopped
+	private boolean mStarted = false;
+	private volatile boolean mRunning = false;
+	
+	/**
+	 * Constructor for an ArenaHost with one lane per available processor.
+	 */
+	public ArenaHost() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Constructor for an ArenaHost with a given number of lanes.
+	 * 
+	 * @param laneCount	the number of threads to spread matches across.
+	 * @throws IllegalArgumentException	if the lane count is < 1.
+	 */
+	public ArenaHost(int laneCount) {
+		if (laneCount < 1) {
+			throw new IllegalArgumentException("ArenaHost needs at least 1 lane");
+		}
+		mLanes = new Lane[laneCount];
+		for (int i = 0; i < laneCount; i++) {
+			mLanes[i] = new Lane(i);
+		}
+	}
+	
+	/**
+	 * Hosts a match on the lane with the fewest matches. The Arena is given the
+	 * InstanceManager's Entities and a timescale matching the tick rate.
+	 * 
+	 * @param name	a title for the match.
+	 * @param arena	the level to simulate.
+	 * @param store	the InstanceManager holding the match's Entities, which must not
+	 * be shared with another match.
+	 * @param tickRate	the desired ticks per second.
+	 * @return the match's Shard.
+	 * @throws IllegalArgumentException	if either the Arena or InstanceManager is null,
+	 * or the tick rate is < 1.
+	 */
+	public Shard host(String name, Arena arena, InstanceManager store, int tickRate) {
+		if (arena == null || store == null) {
+			throw new IllegalArgumentException("Arena and InstanceManager may not be null");
+		}
+		if (tickRate < 1) {
+			throw new IllegalArgumentException("Tick rate must be > 0");
+		}
+		Shard shard = new Shard(name, arena, store, tickRate);
+		
+		// Keep lanes evenly loaded
+		Lane lane = mLanes[0];
+		for (int i = 1; i < mLanes.length; i++) {
+			if (mLanes[i].mCount < lane.mCount) {
+				lane = mLanes[i];
+			}
+		}
+		lane.add(shard);
+		return shard;
+	}
+	
+	/**
+	 * Starts stepping every hosted match.
+	 * 
+	 * @throws IllegalStateException	if the ArenaHost has already been started.
+	 */
+	public void start() {
+		if (mStarted) {
+			throw new IllegalStateException("ArenaHost has already started");
+		}
+		mStarted = true;
+		mRunning = true;
+		for (Lane lane : mLanes) {
+			lane.start();
+		}
+	}
+	
+	/**
+	 * Stops stepping every match and waits for each lane to finish its current tick.
+	 * Matches keep their state and may still be inspected afterwards.
+	 */
+	public void stop() {
+		mRunning = false;
+		for (Lane lane : mLanes) {
+			LockSupport.unpark(lane);
+		}
+		for (Lane lane : mLanes) {
+			try {
+				lane.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number of threads matches are spread across.
+	 * 
+	 * @return the lane count.
+	 */
+	public int getLaneCount() { return mLanes.length; }
+	
+	/**
+	 * Gets the number of matches hosted and not yet closed.
+	 * 
+	 * @return the match count.
+	 */
+	public int getShardCount() {
+		int count = 0;
+		for (Lane lane : mLanes) {
+			count += lane.mCount;
+		}
+		return count;
+	}
+	
+	/**
+	 * Thread stepping the Shards given to it.
+	 */
+	private final class Lane extends Thread {
+		
+		// Shards added from other threads and those being stepped
+		private final ConcurrentLinkedQueue<Shard> mIncoming = new ConcurrentLinkedQueue<Shard>();
+		private final ArrayList<Shard> mShards = new ArrayList<Shard>();
+		// Number of Shards on the lane, counting those not yet picked up
+		private volatile int mCount = 0;
+		
+		Lane(int index) {
+			super("ArenaHost-lane-" + index);
+			setDaemon(true);
+		}
+		
+		/**
+		 * Hands a Shard to the lane.
+		 */
+		void add(Shard shard) {
+			synchronized (this) {
+				mCount++;
+			}
+			mIncoming.add(shard);
+			LockSupport.unpark(this);
+		}
+		
+		@Override
+		public void run() {
+			while (mRunning) {
+				long now = System.nanoTime();
+				
+				// Pick up new Shards, first due right away
+				Shard incoming;
+				while ((incoming = mIncoming.poll()) != null) {
+					incoming.setNextDue(now);
+					mShards.add(incoming);
+				}
+				
+				long wake = now + IDLE_WAIT;
+				for (int i = 0; i < mShards.size(); i++) {
+					Shard shard = mShards.get(i);
+					if (shard.isClosed()) {
+						drop(i--);
+						continue;
+					}
+					step(shard);
+					if (shard.isClosed()) {
+						drop(i--);
+						continue;
+					}
+					if (shard.getNextDue() - wake < 0) {
+						wake = shard.getNextDue();
+					}
+				}
+				
+				long wait = wake - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(this, wait);
+				}
+			}
+		}
+		
+		/**
+		 * Simulates every tick of a Shard due by now, up to {@link #MAX_CATCH_UP}.
+		 */
+		private void step(Shard shard) {
+			long interval = shard.getTickInterval();
+			int steps = 0;
+			try {
+				while (steps < MAX_CATCH_UP && System.nanoTime() - shard.getNextDue() >= 0) {
+					shard.step();
+					shard.setNextDue(shard.getNextDue() + interval);
+					steps++;
+				}
+			} catch (Throwable e) {
+				// One broken match must not stop the others
+				e.printStackTrace();
+				shard.fail(e);
+				return;
+			}
+			
+			// Give up on ticks still owed after catching up as far as allowed
+			long behind = System.nanoTime() - shard.getNextDue();
+			if (steps == MAX_CATCH_UP && behind >= 0) {
+				long skipped = behind / interval + 1;
+				shard.skip(skipped);
+				shard.setNextDue(shard.getNextDue() + skipped * interval);
+			}
+		}
+		
+		/**
+		 * Stops stepping a Shard.
+		 */
+		private void drop(int index) {
+			mShards.remove(index);
+			synchronized (this) {
+				mCount--;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.rehab.world;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * <p>
+ * Broadphase narrows down which {@link Entity}s could be touching so that exact
+ * {@link Hitbox} tests only run on likely pairs. Implementations only ever look at
+ * the bounding box and collision filter of each Entity and so may report pairs that
+ * do not actually collide but never miss a pair that does.
+ * </p>
+ * 
+ * <p>
+ * An owner refreshes the broadphase once per tick by calling {@link #update(Entity)}
+ * for every moving Entity and {@link #touch(Entity)} for every resting one, then
+ * {@link #prune()} to drop whatever was not refreshed. The following finds every
+ * pair of overlapping Entities after such a refresh.
+ * </p>
+ * 
+ * <pre>
+ * 	<code>
+ * ArrayList&lt;Entity&gt; pairs = new ArrayList&lt;Entity&gt;();
+ * broadphase.pairs(pairs);
+ * for (int i = 0; i &lt; pairs.size(); i += 2) {
+ * 	Entity first = pairs.get(i);
+ * 	Entity second = pairs.get(i + 1);
+ * 	...
+ * }
+ * 	</code>
+ * </pre>
+ * 
+ * @see GridBroadphase
+ * @see SweepAndPrune
+ */
+public interface Broadphase {
+	
+	/**
+	 * Adds an Entity or refreshes its bounds and collision filter. Entities
+	 * without a Hitbox are not added.
+	 * 
+	 * @param e	the Entity.
+	 */
+	void update(Entity e);
+	
+	/**
+	 * Keeps an Entity through the next {@link #prune()} without measuring its
+	 * bounds again.
+	 * 
+	 * @param e	the Entity.
+	 * @return true if the Entity was found, false if it must be added with
+	 * {@link #update(Entity)}.
+	 */
+	boolean touch(Entity e);
+	
+	/**
+	 * Removes every Entity neither updated nor touched since the previous call.
+	 * 
+	 * @return the number of Entities removed.
+	 */
+	int prune();
+	
+	/**
+	 * Collects the Entities whose bounds overlap a region and whose collision
+	 * filter matches the given one.
+	 * 
+	 * @param minX	the smallest x-coordinate of the region.
+	 * @param minY	the smallest y-coordinate of the region.
+	 * @param maxX	the largest x-coordinate of the region.
+	 * @param maxY	the largest y-coordinate of the region.
+	 * @param category	the category bits of whatever is asking.
+	 * @param mask	the mask bits of whatever is asking.
+	 * @param out	the Collection to add found Entities to.
+	 * @return the number of Entities found.
+	 * @see Entity#setCollisionFilter(int, int)
+	 */
+	int query(double minX, double minY, double maxX, double maxY, int category, int mask,
+			Collection<? super Entity> out);
+	
+	/**
+	 * Collects every pair of Entities whose bounds overlap and whose collision
+	 * filters match. Each pair is added once as two consecutive elements.
+	 * 
+	 * @param out	the List to add pairs to.
+	 * @return the number of pairs found.
+	 */
+	int pairs(List<? super Entity> out);
+	
+	/**
+	 * Gets the number of Entities in the broadphase.
+	 * 
+	 * @return the Entity count.
+	 */
+	int size();
+
+}
@@ -0,0 +1,513 @@
+package com.rehab.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * CheckpointLog keeps the state of an {@link InstanceManager}'s Entities on disk for
+ * crash recovery without writing the whole world every time. Each Entity marks itself
+ * whenever its saved state changes (moving, health, enabling or disabling, and so on),
+ * queueing itself with the InstanceManager on the first change, and
+ * {@link #checkpoint()} drains the queue to append only the Entities changed since the
+ * last checkpoint, along with the ids of those unregistered, to a log. The rest of the
+ * world is never visited. Every so often the log is
+ * compacted into a full snapshot (see {@link InstanceManager#saveSnapshot(File)}) and
+ * started over, so that recovery never replays more than a bounded number of
+ * checkpoints. Levels of mostly resting Props thus cost little more per checkpoint
+ * than the Entities actually moving.
+ * </p>
+ * 
+ * <p>
+ * The code below restores whatever was checkpointed before a crash, then checkpoints
+ * twice a second at 60 ticks per second.
+ * </p>
+ * 
+ * <pre>
+ *  <code>
+ * final CheckpointLog log = new CheckpointLog(store, new File("world.snap"));
+ * log.recover();
+ * TimerManager.getInstance().start(new Script() {
+ *     public long resume(long tick) {
+ *         try {
+ *             log.checkpoint();
+ *         } catch (IOException e) {
+ *             e.printStackTrace();
+ *         }
+ *         return 30;
+ *     }
+ * });
+ *  </code>
+ * </pre>
+ * 
+ * <p>
+ * The snapshot is kept in the given file and the log beside it, in the same file name
+ * ending with ".log". Each checkpoint is a segment of the log:
+ * </p>
+ * 
+ * <pre>
+ * 	int	magic, "RHWD"
+ * 	int	format version, {@link #VERSION}
+ * 	int	checkpoint number
+ * 	int	record count
+ * 	int	length of the records in bytes
+ * 	int	CRC-32 of the records
+ * </pre>
+ * 
+ * <p>
+ * followed by records in the same format as a snapshot's (see {@link WorldSnapshot}).
+ * A segment cut short by a crash fails its length or CRC and is dropped along with
+ * everything after it. A snapshot holds the number of the checkpoint it was compacted
+ * at and segments up to that number are skipped, so a crash during compaction never
+ * replays stale changes. The new snapshot and its directory are forced to the disk
+ * before the log is emptied.
+ * </p>
+ * 
+ * <p>
+ * Checkpoints must be taken between ticks, such as from a {@link Script}, while no
+ * Entity is being stepped. Only one CheckpointLog may be kept per InstanceManager.
+ * </p>
+ */
+public class CheckpointLog {
+	
+	/**
+	 * Number of checkpoints appended between compactions unless set otherwise.
+	 */
+	public static final int DEFAULT_COMPACTION_INTERVAL = 120;
+	
+	/**
+	 * First four bytes of every segment, "RHWD".
+	 */
+	static final int MAGIC = 0x52485744;
+	
+	/**
+	 * Version of the segment format written.
+	 */
+	static final int VERSION = 1;
+	
+	/**
+	 * Size of a segment's header in bytes.
+	 */
+	static final int HEADER_SIZE = 24;
+	
+	// Starting size of the buffer segments are built in
+	private static final int BUFFER_SIZE = 1 << 20;
+	
+	// Entities checkpointed and the reader and writer of their records
+	private final InstanceManager mStore;
+	private final WorldSnapshot mSnapshot = new WorldSnapshot();
+	
+	// Full snapshot, the snapshot being written, and the log of checkpoints since
+	private final File mSnapshotFile;
+	private final File mNextSnapshotFile;
+	private final File mLogFile;
+	private RandomAccessFile mLog;
+	
+	// Entities changed since the last checkpoint, reused between checkpoints
+	private final ArrayList<Entity> mChanged = new ArrayList<Entity>();
+	
+	// Segment being built and its checksum
+	private ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private final CRC32 mCrc = new CRC32();
+	
+	// Number of the last checkpoint and checkpoints appended since compacting
+	private int mCheckpoint = 0;
+	private int mSinceCompaction = 0;
+	private int mCompactionInterval = DEFAULT_COMPACTION_INTERVAL;
+	// Whether or not changes may have been lost and the next checkpoint must be full
+	private boolean mNeedsCompaction = false;
+	
+	// Records written by the last checkpoint
+	private int mLastRecordCount = 0;
+	
+	private boolean mClosed = false;
+	
+	/**
+	 * Constructor for a CheckpointLog of an InstanceManager's Entities. Nothing is
+	 * read or written until the first call to {@link #recover()} or
+	 * {@link #checkpoint()}.
+	 * 
+	 * @param store	the InstanceManager whose Entities are checkpointed.
+	 * @param file	the file to keep the full snapshot in.
+	 * @throws IllegalArgumentException	if either the InstanceManager or file is null.
+	 * @throws IllegalStateException	if the InstanceManager already has a CheckpointLog.
+	 */
+	public CheckpointLog(InstanceManager store, File file) {
+		if (store == null || file == null) {
+			throw new IllegalArgumentException("InstanceManager and file may not be null");
+		}
+		store.trackChanges(true);
+		mStore = store;
+		mSnapshotFile = file;
+		mNextSnapshotFile = new File(file.getPath() + ".tmp");
+		mLogFile = new File(file.getPath() + ".log");
+	}
+	
+	/**
+	 * Sets the number of checkpoints appended to the log before it is compacted into
+	 * a full snapshot. Fewer means quicker recovery but more frequent full writes.
+	 * 
+	 * @param checkpoints	the number of checkpoints between compactions.
+	 * @throws IllegalArgumentException	if the interval is < 1.
+	 */
+	public void setCompactionInterval(int checkpoints) {
+		if (checkpoints < 1) {
+			throw new IllegalArgumentException("Compaction interval must be > 0");
+		}
+		mCompactionInterval = checkpoints;
+	}
+	
+	/**
+	 * Restores the InstanceManager to its last checkpoint by restoring the snapshot
+	 * then replaying every checkpoint logged after it. This should be called once,
+	 * before the first checkpoint, on an InstanceManager whose Entities are either
+	 * fresh or those of the checkpointed world. A partly written checkpoint left by a
+	 * crash is discarded. If neither file exists, nothing is restored.
+	 * 
+	 * @return the number of records applied.
+	 * @throws IOException	if either file could not be read or the snapshot is
+	 * not valid.
+	 * @throws IllegalStateException	if the CheckpointLog has been closed.
+	 */
+	public int recover() throws IOException {
+		ensureOpen();
+		int applied = 0;
+		mCheckpoint = 0;
+		if (mSnapshotFile.exists()) {
+			applied += mSnapshot.restore(mStore, mSnapshotFile);
+			mCheckpoint = mSnapshot.getCheckpoint();
+		}
+		applied += replay(true);
+		
+		// The world now matches the files
+		mStore.takeChanged(mChanged);
+		mChanged.clear();
+		mStore.takeRemoved();
+		return applied;
+	}
+	
+	/**
+	 * Appends every Entity changed and every id unregistered since the last
+	 * checkpoint to the log, or compacts the log once enough checkpoints have been
+	 * appended. The very first checkpoint, without a snapshot yet, is always full.
+	 * 
+	 * @return the number of records written.
+	 * @throws IOException	if the log could not be written; the next checkpoint
+	 * is then full so that no change is lost.
+	 * @throws IllegalStateException	if the CheckpointLog has been closed.
+	 */
+	public int checkpoint() throws IOException {
+		ensureOpen();
+		if (mNeedsCompaction || mSinceCompaction >= mCompactionInterval || !mSnapshotFile.exists()) {
+			return compact();
+		}
+		
+		try {
+			mBuffer.clear();
+			mBuffer.position(HEADER_SIZE);
+			int count = 0;
+			for (int id : mStore.takeRemoved()) {
+				ensureRoom(WorldSnapshot.REMOVED_SIZE);
+				mSnapshot.writeRemoved(mBuffer, id);
+				count++;
+			}
+			mStore.takeChanged(mChanged);
+			for (int i = 0, size = mChanged.size(); i < size; i++) {
+				Entity e = mChanged.get(i);
+				ensureRoom(mSnapshot.sizeOf(e));
+				mSnapshot.write(mBuffer, e, mStore.isInWorld(e));
+				count++;
+			}
+			mChanged.clear();
+			
+			int length = mBuffer.position() - HEADER_SIZE;
+			mBuffer.flip();
+			mBuffer.position(HEADER_SIZE);
+			mCrc.reset();
+			mCrc.update(mBuffer);
+			
+			mBuffer.putInt(0, MAGIC);
+			mBuffer.putInt(4, VERSION);
+			mBuffer.putInt(8, mCheckpoint + 1);
+			mBuffer.putInt(12, count);
+			mBuffer.putInt(16, length);
+			mBuffer.putInt(20, (int) mCrc.getValue());
+			mBuffer.position(0);
+			
+			FileChannel channel = mLog.getChannel();
+			long end = channel.size();
+			while (mBuffer.hasRemaining()) {
+				channel.write(mBuffer, end + mBuffer.position());
+			}
+			channel.force(false);
+			
+			mCheckpoint++;
+			mSinceCompaction++;
+			mLastRecordCount = count;
+			return count;
+		} catch (IOException e) {
+			mNeedsCompaction = true;
+			throw e;
+		}
+	}
+	
+	/**
+	 * Writes every registered Entity to a new snapshot, replaces the old one with it,
+	 * and empties the log.
+	 * 
+	 * @return the number of Entities written.
+	 * @throws IOException	if the snapshot could not be written or the log emptied;
+	 * the next checkpoint is then full as well.
+	 * @throws IllegalStateException	if the CheckpointLog has been closed.
+	 */
+	public int compact() throws IOException {
+		ensureOpen();
+		try {
+			// Everything is written, so every pending change is too
+			mStore.takeChanged(mChanged);
+			mChanged.clear();
+			mStore.takeRemoved();
+			Entity[] entities = mStore.getEntities();
+			
+			int checkpoint = mCheckpoint + 1;
+			mSnapshot.save(mStore, entities, mNextSnapshotFile, checkpoint);
+			sync(mNextSnapshotFile);
+			Files.move(mNextSnapshotFile.toPath(), mSnapshotFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			syncDirectory(mSnapshotFile.getAbsoluteFile().getParentFile());
+			
+			// Every segment is older than the snapshot from here on
+			FileChannel channel = mLog.getChannel();
+			channel.truncate(0);
+			channel.force(false);
+			
+			mCheckpoint = checkpoint;
+			mSinceCompaction = 0;
+			mNeedsCompaction = false;
+			mLastRecordCount = entities.length;
+			return entities.length;
+		} catch (IOException e) {
+			mNeedsCompaction = true;
+			throw e;
+		}
+	}
+	
+	/**
+	 * Closes the log. Unregistered ids are no longer remembered and the
+	 * CheckpointLog may not be used again.
+	 * 
+	 * @throws IOException	if the log could not be closed.
+	 */
+	public void close() throws IOException {
+		if (mClosed) {
+			return;
+		}
+		mClosed = true;
+		mStore.trackChanges(false);
+		if (mLog != null) {
+			mLog.close();
+		}
+	}
+	
+	/**
+	 * Gets the number of the last checkpoint taken or recovered.
+	 * 
+	 * @return the checkpoint's number, or 0 if none.
+	 */
+	public int getCheckpoint() { return mCheckpoint; }
+	
+	/**
+	 * Gets the number of records written by the last checkpoint or compaction.
+	 * 
+	 * @return the record count.
+	 */
+	public int getLastRecordCount() { return mLastRecordCount; }
+	
+	/**
+	 * Gets the number of checkpoints appended since the log was last compacted.
+	 * 
+	 * @return the checkpoint count.
+	 */
+	public int getLogLength() { return mSinceCompaction; }
+	
+	/**
+	 * Opens the log on first use, dropping any partly written segment at its end.
+	 * 
+	 * @throws IOException	if the log could not be opened.
+	 * @throws IllegalStateException	if the CheckpointLog has been closed.
+	 */
+	private void ensureOpen() throws IOException {
+		if (mClosed) {
+			throw new IllegalStateException("CheckpointLog has been closed");
+		}
+		if (mLog != null) {
+			return;
+		}
+		mLog = new RandomAccessFile(mLogFile, "rw");
+		if (mSnapshotFile.exists()) {
+			mCheckpoint = readCheckpoint(mSnapshotFile);
+		}
+		replay(false);
+	}
+	
+	/**
+	 * Reads each whole segment of the log after the current checkpoint, optionally
+	 * applying its records, and cuts off the log after the last whole segment.
+	 * 
+	 * @param apply	true to restore the segments' records, false to only count them.
+	 * @return the number of records applied.
+	 * @throws IOException	if the log could not be read or a record is malformed.
+	 */
+	private int replay(boolean apply) throws IOException {
+		FileChannel channel = mLog.getChannel();
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Checkpoint log too large: " + mLogFile);
+		}
+		if (mBuffer.capacity() < size) {
+			mBuffer = ByteBuffer.allocateDirect((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		mBuffer.clear();
+		mBuffer.limit((int) size);
+		while (mBuffer.hasRemaining()) {
+			if (channel.read(mBuffer, mBuffer.position()) < 0) {
+				break;
+			}
+		}
+		mBuffer.flip();
+		
+		int applied = 0;
+		int end = 0;
+		int skipped = mCheckpoint;
+		mSinceCompaction = 0;
+		while (mBuffer.limit() - end >= HEADER_SIZE) {
+			if (mBuffer.getInt(end) != MAGIC || mBuffer.getInt(end + 4) != VERSION) {
+				break;
+			}
+			int checkpoint = mBuffer.getInt(end + 8);
+			int count = mBuffer.getInt(end + 12);
+			int length = mBuffer.getInt(end + 16);
+			int body = end + HEADER_SIZE;
+			if (length < 0 || length > mBuffer.limit() - body) {
+				break;
+			}
+			ByteBuffer records = mBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			records.limit(body + length).position(body);
+			mCrc.reset();
+			mCrc.update(records);
+			if ((int) mCrc.getValue() != mBuffer.getInt(end + 20)) {
+				break;
+			}
+			
+			// Segments the snapshot already holds are left alone
+			if (checkpoint > skipped) {
+				if (apply) {
+					records.position(body);
+					for (int i = 0; i < count; i++) {
+						mSnapshot.read(records, mStore);
+					}
+					mSnapshot.finish(records, mStore);
+					applied += count;
+				}
+				mCheckpoint = Math.max(mCheckpoint, checkpoint);
+				mSinceCompaction++;
+			}
+			end = body + length;
+		}
+		
+		// Drop whatever a crash left half written
+		if (end < size) {
+			channel.truncate(end);
+		}
+		return applied;
+	}
+	
+	/**
+	 * Makes room for a record in the segment being built, growing it if needed.
+	 * 
+	 * @param size	the record's size.
+	 */
+	private void ensureRoom(int size) {
+		if (mBuffer.remaining() >= size) {
+			return;
+		}
+		ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(mBuffer.capacity() * 2, mBuffer.position() + size));
+		grown.order(ByteOrder.LITTLE_ENDIAN);
+		mBuffer.flip();
+		grown.put(mBuffer);
+		mBuffer = grown;
+	}
+	
+	/**
+	 * Reads the checkpoint a snapshot was compacted at from its header.
+	 * 
+	 * @param file	the snapshot file.
+	 * @return the checkpoint's number.
+	 * @throws IOException	if the file could not be read or is not a snapshot.
+	 */
+	private static int readCheckpoint(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			ByteBuffer header = ByteBuffer.allocate(WorldSnapshot.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			FileChannel channel = raf.getChannel();
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) {
+					throw new IOException("Not a world snapshot: " + file);
+				}
+			}
+			if (header.getInt(0) != WorldSnapshot.MAGIC) {
+				throw new IOException("Not a world snapshot: " + file);
+			}
+			return header.getInt(12);
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Forces a file's contents to the storage device.
+	 * 
+	 * @param file	the file.
+	 * @throws IOException	if the file could not be synced.
+	 */
+	private static void sync(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.getChannel().force(false);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Forces a directory's entries to the disk so that a file moved into it stays
+	 * moved after a crash. Platforms that do not allow opening a directory, such as
+	 * Windows, are left to the file system.
+	 * 
+	 * @param dir	the directory.
+	 * @throws IOException	if the directory could not be synced.
+	 */
+	private static void syncDirectory(File dir) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			return;
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+}
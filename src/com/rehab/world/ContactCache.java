@@ -0,0 +1,286 @@
+package com.rehab.world;
+
+import java.util.List;
+
+/**
+ * <p>
+ * ContactCache remembers, from one tick to the next, which pairs of {@link Entity}s
+ * are touching so that a contact can be told apart from one that simply continues.
+ * Each pair is keyed by the ids of both Entities packed into a single long and kept in
+ * an open-addressed table of primitive arrays, so looking a pair up never allocates.
+ * </p>
+ * 
+ * <p>
+ * Pairs are ordered: (a, b) is the contact as seen by a and is separate from (b, a).
+ * Along with whether the pair is touching, each entry holds the axis that last kept
+ * the pair apart. Nearby pairs tend to stay apart along the same axis from one tick
+ * to the next, so trying that axis first usually settles the test right away.
+ * </p>
+ * 
+ * <p>
+ * A touching pair ends once it is tested and found apart, one of its Entities is
+ * disabled, or its first Entity stops falling and so is no longer tested at all (such
+ * as an Actor snapped to the floor). Pairs that were apart and not tested during a
+ * tick are forgotten on the next {@link #prune(List)}.
+ * </p>
+ * 
+ * <p>This class is <b>not</b> thread-safe.</p>
+ */
+final class ContactCache {
+	
+	// Initial number of slots, always a power of two
+	private static final int INITIAL_CAPACITY = 64;
+	
+	// Per slot key, Entities, last separating axis, contact and refresh tick
+	private long[] mKeys = new long[INITIAL_CAPACITY];
+	private boolean[] mUsed = new boolean[INITIAL_CAPACITY];
+	private Entity[] mFirsts = new Entity[INITIAL_CAPACITY];
+	private Entity[] mSeconds = new Entity[INITIAL_CAPACITY];
+	private int[] mAxes = new int[INITIAL_CAPACITY];
+	private boolean[] mTouching = new boolean[INITIAL_CAPACITY];
+	private int[] mTicks = new int[INITIAL_CAPACITY];
+	
+	// Number of used slots and the shift turning a hash into a slot
+	private int mSize = 0;
+	private int mShift = 64 - Integer.numberOfTrailingZeros(INITIAL_CAPACITY);
+	
+	// Current tick
+	private int mTick = 0;
+	
+	/**
+	 * Gets the axis that kept a pair apart when last tested.
+	 * 
+	 * @param a	the first Entity.
+	 * @param b	the second Entity.
+	 * @return the axis as given to {@link #separate(Entity, Entity, int)}, or
+	 * {@link Hitbox#NO_AXIS} if the pair is unknown or touching.
+	 */
+	int getAxis(Entity a, Entity b) {
+		int slot = find(key(a, b));
+		return slot < 0 || mTouching[slot] ? Hitbox.NO_AXIS : mAxes[slot];
+	}
+	
+	/**
+	 * Records that a pair was tested and found touching.
+	 * 
+	 * @param a	the first Entity.
+	 * @param b	the second Entity.
+	 * @return true if the pair was not touching before, false if the contact continues.
+	 */
+	boolean touch(Entity a, Entity b) {
+		int slot = claim(a, b);
+		boolean began = !mTouching[slot];
+		mTouching[slot] = true;
+		mAxes[slot] = Hitbox.NO_AXIS;
+		mTicks[slot] = mTick;
+		return began;
+	}
+	
+	/**
+	 * Records that a pair was tested and found apart.
+	 * 
+	 * @param a	the first Entity.
+	 * @param b	the second Entity.
+	 * @param axis	the axis that kept them apart.
+	 * @return true if the pair was touching before, false otherwise.
+	 */
+	boolean separate(Entity a, Entity b, int axis) {
+		int slot = claim(a, b);
+		boolean ended = mTouching[slot];
+		mTouching[slot] = false;
+		mAxes[slot] = axis;
+		mTicks[slot] = mTick;
+		return ended;
+	}
+	
+	/**
+	 * Forgets apart pairs that were not tested since the previous call and ends
+	 * touching pairs with a disabled Entity or whose first Entity no longer falls,
+	 * then starts a new tick.
+	 * 
+	 * @param ended	the List to add each ended pair to as two consecutive elements.
+	 * @return the number of pairs ended.
+	 */
+	int prune(List<? super Entity> ended) {
+		int found = 0;
+		int mask = mKeys.length - 1;
+		
+		// Start past an unused slot so no run of slots wraps around the walk
+		int start = 0;
+		while (mUsed[start]) {
+			start++;
+		}
+		
+		for (int n = 1; n < mKeys.length; n++) {
+			int slot = (start + n) & mask;
+			
+			// Removing shifts a later entry into the slot so check it again
+			while (mUsed[slot]) {
+				if (mTouching[slot]) {
+					// Only falling Entities are tested and so could ever see the pair apart
+					Entity first = mFirsts[slot];
+					if (!first.isDisabled() && first.isGravityEnabled() && !mSeconds[slot].isDisabled()) {
+						break;
+					}
+					ended.add(mFirsts[slot]);
+					ended.add(mSeconds[slot]);
+					found++;
+				} else if (mTicks[slot] == mTick) {
+					break;
+				}
+				remove(slot);
+			}
+		}
+		
+		mTick++;
+		return found;
+	}
+	
+	/**
+	 * Gets the number of pairs currently touching.
+	 * 
+	 * @return the contact count.
+	 */
+	int getContactCount() {
+		int count = 0;
+		for (int i = 0; i < mKeys.length; i++) {
+			if (mUsed[i] && mTouching[i]) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Gets the number of pairs remembered, touching or not.
+	 * 
+	 * @return the pair count.
+	 */
+	int size() {
+		return mSize;
+	}
+	
+	/**
+	 * Finds a pair's slot, adding the pair if it is unknown.
+	 */
+	private int claim(Entity a, Entity b) {
+		long key = key(a, b);
+		int slot = find(key);
+		if (slot >= 0) {
+			return slot;
+		}
+		
+		// Keep the table at most half full
+		if ((mSize + 1) * 2 > mKeys.length) {
+			grow();
+		}
+		slot = probe(key);
+		mKeys[slot] = key;
+		mUsed[slot] = true;
+		mFirsts[slot] = a;
+		mSeconds[slot] = b;
+		mAxes[slot] = Hitbox.NO_AXIS;
+		mTouching[slot] = false;
+		mSize++;
+		return slot;
+	}
+	
+	/**
+	 * Gets the slot holding a key.
+	 * 
+	 * @return the slot, or -1 if the key is not in the table.
+	 */
+	private int find(long key) {
+		int mask = mKeys.length - 1;
+		for (int slot = hash(key); mUsed[slot]; slot = (slot + 1) & mask) {
+			if (mKeys[slot] == key) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Gets the first unused slot along a key's probe sequence.
+	 */
+	private int probe(long key) {
+		int mask = mKeys.length - 1;
+		int slot = hash(key);
+		while (mUsed[slot]) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+	
+	/**
+	 * Empties a slot, shifting later entries of the same run back so that every
+	 * entry stays reachable from its hashed slot.
+	 */
+	private void remove(int slot) {
+		int mask = mKeys.length - 1;
+		int hole = slot;
+		for (int next = (slot + 1) & mask; mUsed[next]; next = (next + 1) & mask) {
+			// Entries hashed past the hole must stay after it
+			int home = hash(mKeys[next]);
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				mKeys[hole] = mKeys[next];
+				mFirsts[hole] = mFirsts[next];
+				mSeconds[hole] = mSeconds[next];
+				mAxes[hole] = mAxes[next];
+				mTouching[hole] = mTouching[next];
+				mTicks[hole] = mTicks[next];
+				hole = next;
+			}
+		}
+		mUsed[hole] = false;
+		mFirsts[hole] = null;
+		mSeconds[hole] = null;
+		mSize--;
+	}
+	
+	/**
+	 * Doubles the number of slots and places every entry again.
+	 */
+	private void grow() {
+		long[] keys = mKeys;
+		boolean[] used = mUsed;
+		Entity[] firsts = mFirsts;
+		Entity[] seconds = mSeconds;
+		int[] axes = mAxes;
+		boolean[] touching = mTouching;
+		int[] ticks = mTicks;
+		
+		int capacity = keys.length * 2;
+		mKeys = new long[capacity];
+		mUsed = new boolean[capacity];
+		mFirsts = new Entity[capacity];
+		mSeconds = new Entity[capacity];
+		mAxes = new int[capacity];
+		mTouching = new boolean[capacity];
+		mTicks = new int[capacity];
+		mShift--;
+		
+		for (int i = 0; i < keys.length; i++) {
+			if (!used[i]) {
+				continue;
+			}
+			int slot = probe(keys[i]);
+			mKeys[slot] = keys[i];
+			mUsed[slot] = true;
+			mFirsts[slot] = firsts[i];
+			mSeconds[slot] = seconds[i];
+			mAxes[slot] = axes[i];
+			mTouching[slot] = touching[i];
+			mTicks[slot] = ticks[i];
+		}
+	}
+	
+	private int hash(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> mShift);
+	}
+	
+	private static long key(Entity a, Entity b) {
+		return ((long) a.getId() << 32) | (b.getId() & 0xFFFFFFFFL);
+	}
+
+}
@@ -1,5 +1,7 @@
 package com.rehab.world;
 
+import java.util.Queue;
+
 import com.rehab.animation.Drawable;
 import com.rehab.animation.Sprite;
 import com.rehab.world.Register.Identifiable;
@@ -33,6 +35,21 @@ import com.rehab.world.Vector2D.Point;
  */
 public abstract class Entity extends Identifiable implements Drawable, OnMoveListener {
 
+	/**
+	 * Collision category given to every Entity unless changed.
+	 */
+	public static final int CATEGORY_DEFAULT = 1;
+	
+	/**
+	 * Collision category of an {@link Arena}'s floor.
+	 */
+	public static final int CATEGORY_FLOOR = 1 << 31;
+	
+	/**
+	 * Collision mask accepting every category.
+	 */
+	public static final int MASK_ALL = ~0;
+	
 	// Physics and collision data
 	private Phys mPhys;
 	private Hitbox mCollision;
@@ -50,11 +67,28 @@ public abstract class Entity extends Identifiable implements Drawable, OnMoveLis
 	private boolean mVisible = true;
 	private boolean mDisabled = false;
 	private boolean mMovable = true;
+	
+	// Categories the Entity belongs to and may collide with
+	private int mCategory = CATEGORY_DEFAULT;
+	private int mMask = MASK_ALL;
+
+	// Resting state
+	private boolean mSleeping = false;
+	private int mIdleTicks = 0;
+	
+	// Whether or not the Entity changed since it was last checkpointed and where
+	// to report the change, if anywhere
+	private boolean mDirty = true;
+	private Queue<Entity> mChanged;
+	
+	// InstanceManager the Entity is registered with, if any
+	private InstanceManager mStore;
 
 	// Callbacks
 	private OnHealthIncreaseListener mHealthIncreaseListener;
 	private OnHealthDecreaseListener mHealthDecreaseListener;
 	private OnCollisionListener mOnCollisionListener;
+	private OnSeparateListener mOnSeparateListener;
 
 	/**
 	 * Constructor for an Entity with basic physics.
@@ -63,6 +97,7 @@ public abstract class Entity extends Identifiable implements Drawable, OnMoveLis
 	 */
 	protected Entity(double mass, double healthCap) {
 		mPhys = new Phys(mass);
+		mPhys.setBody(this);
 		mMaxHealth = healthCap;
 		mHealth = mMaxHealth;
 	}
@@ -77,7 +112,8 @@ public abstract class Entity extends Identifiable implements Drawable, OnMoveLis
 	public Entity(Entity e) {
 		// Copy physics, collision model, and sprite
 		mPhys = new Phys(e.mPhys);
-		mCollision = new Hitbox(e.mCollision);
+		mPhys.setBody(this);
+		mCollision = e.mCollision == null ? null : new Hitbox(e.mCollision);
 		mSprite = e.mSprite;
 		
 		// Copy stats
@@ -89,6 +125,11 @@ public abstract class Entity extends Identifiable implements Drawable, OnMoveLis
 		mVisible = e.mVisible;
 		mDisabled = e.mDisabled;
 		mMovable = e.mMovable;	
+		mRotation = e.mRotation;
+		
+		// Copy collision filter
+		mCategory = e.mCategory;
+		mMask = e.mMask;
 	}
 	
 	/**
@@ -141,6 +182,166 @@ public abstract class Entity extends Identifiable implements Drawable, OnMoveLis
 		return mPhys.getSpeed() == 0;
 	}
 	
+	/**
+	 * Checks whether or not the Entity is resting. A sleeping Entity has not moved
+	 * for a while and is skipped by the {@link Arena} until it is woken.
+	 * 
+	 * @return true if the Entity is asleep, false otherwise.
+	 * @see #wake()
+	 */
+	public boolean isSleeping() { return mSleeping; }
+	
+	/**
+	 * Wakes the Entity so that it is simulated again. Moving the Entity, changing
+	 * its Phys' motion, enabling gravity, and being hit all wake an Entity and so
+	 * this method only needs to be called for changes the Arena cannot see.
+	 * 
+	 * @see #isSleeping()
+	 */
+	public void wake() {
+		mSleeping = false;
+		mIdleTicks = 0;
+		markDirty();
+	}
+	
+	/**
+	 * Counts a tick towards the Entity falling asleep. The count restarts whenever
+	 * the Entity moved during the tick.
+	 * 
+	 * @param moved	true if the Entity moved or may still move on its own.
+	 * @param ticks	the number of ticks at rest before falling asleep.
+	 * @return true if the Entity fell asleep, false otherwise.
+	 */
+	boolean rest(boolean moved, int ticks) {
+		if (moved) {
+			mIdleTicks = 0;
+			return false;
+		}
+		if (++mIdleTicks >= ticks && !mSleeping) {
+			mSleeping = true;
+			markDirty();
+		}
+		return mSleeping;
+	}
+	
+	/**
+	 * Gets the number of ticks the Entity has stayed in place towards falling asleep.
+	 * 
+	 * @return the idle tick count.
+	 */
+	int getIdleTicks() { return mIdleTicks; }
+	
+	/**
+	 * Gets the id of the Entity's owner, which it never collides with.
+	 * 
+	 * @return the owner's id, or {@link Register#UNREGISTERED} if none.
+	 */
+	int getOwnerId() { return mOwner; }
+	
+	/**
+	 * Checks whether or not the Entity should be drawn, whether or not it has a Sprite.
+	 * 
+	 * @return the visibility flag.
+	 * @see #isVisible()
+	 */
+	boolean getVisibility() { return mVisible; }
+	
+	/**
+	 * Overwrites the Entity's own state at once, such as when restoring saved state.
+	 * No listeners are triggered. The Phys must already hold its restored location,
+	 * which the collision model is moved to.
+	 * 
+	 * @param rotation	the angle in degrees.
+	 * @param owner	the id of the owner.
+	 * @param maxHealth	the maximum health.
+	 * @param health	the health.
+	 * @param category	the collision category bits.
+	 * @param mask	the collision mask bits.
+	 * @param visible	whether or not the Entity is drawn.
+	 * @param disabled	whether or not the Entity is disabled.
+	 * @param movable	whether or not the Entity may move.
+	 * @param sleeping	whether or not the Entity is asleep.
+	 * @param idleTicks	the number of ticks spent in place.
+	 */
+	void restore(float rotation, int owner, double maxHealth, double health, int category, int mask,
+			boolean visible, boolean disabled, boolean movable, boolean sleeping, int idleTicks) {
+		mRotation = rotation;
+		mOwner = owner;
+		mMaxHealth = maxHealth;
+		mHealth = health;
+		mCategory = category;
+		mMask = mask;
+		mVisible = visible;
+		mDisabled = disabled;
+		mMovable = movable;
+		mSleeping = sleeping;
+		mIdleTicks = idleTicks;
+		markDirty();
+		if (mCollision != null && mCollision.isLocked()) {
+			mCollision.setRotation(rotation);
+			syncModels();
+		}
+	}
+	
+	/**
+	 * Marks the Entity as changed since it was last checkpointed. Every change to
+	 * saved state marks the Entity on its own, including any change to its Phys. The
+	 * first change since the mark was last taken also adds the Entity to the queue
+	 * given to {@link #trackChanges(Queue)}.
+	 * 
+	 * @see CheckpointLog
+	 */
+	void markDirty() {
+		if (!mDirty) {
+			mDirty = true;
+			Queue<Entity> changed = mChanged;
+			if (changed != null) {
+				changed.add(this);
+			}
+		}
+	}
+	
+	/**
+	 * Sets the queue the Entity adds itself to once changed, such as by the
+	 * InstanceManager it is registered with. Setting a queue marks the Entity as
+	 * changed and adds it right away since it is not yet in the queue.
+	 * 
+	 * @param changed	the queue, or null to stop reporting changes.
+	 */
+	void trackChanges(Queue<Entity> changed) {
+		mChanged = changed;
+		if (changed != null) {
+			mDirty = true;
+			changed.add(this);
+		}
+	}
+	
+	/**
+	 * Checks whether or not the Entity changed since it was last checkpointed and
+	 * clears the mark.
+	 * 
+	 * @return true if the Entity changed.
+	 */
+	boolean takeDirty() {
+		boolean dirty = mDirty;
+		mDirty = false;
+		return dirty;
+	}
+	
+	/**
+	 * Sets the InstanceManager the Entity is registered with.
+	 * 
+	 * @param store	the InstanceManager, or null once unregistered.
+	 */
+	void setStore(InstanceManager store) { mStore = store; }
+	
+	/**
+	 * Gets the InstanceManager the Entity is registered with.
+	 * 
+	 * @return the InstanceManager, or null if the Entity is not registered.
+	 */
+	InstanceManager getStore() { return mStore; }
+
 	/**
 	 * Synchronizes the x and y coordinates of the collision model with the physics
 	 * model.
@@ -163,23 +364,124 @@ public abstract class Entity extends Identifiable implements Drawable, OnMoveLis
 	 */
 	public boolean collidesWith(Entity e) {
 		// Silent fail when no collision or disabled
-		if (mCollision == null || e.mCollision == null
-				|| mDisabled || e.mDisabled) {
-			return false;
-		}
-		
-		// Don't damage owner
-		if (e.getId() == mOwner) {
+		if (ignores(e)) {
 			return false;
 		}
 
 		boolean collides = mCollision.collidesWith(e.mCollision);
 		// Trigger collision callback
-		if (mOnCollisionListener != null && collides)
-			mOnCollisionListener.onCollide(e);
+		if (collides)
+			notifyCollision(e);
 
 		return collides;
 	}
+	
+	/**
+	 * Checks whether or not collisions between this Entity and another should be
+	 * skipped entirely.
+	 * 
+	 * @param e	the other Entity.
+	 * @return true if the Entities' collision filters do not match, either Entity
+	 * lacks a Hitbox, either is disabled, or the other Entity is this Entity's owner.
+	 * @see #setCollisionFilter(int, int)
+	 */
+	boolean ignores(Entity e) {
+		// Filter by layer before looking at either Hitbox
+		if (!canCollideWith(e.mCategory, e.mMask)) {
+			return true;
+		}
+		if (mCollision == null || e.mCollision == null
+				|| mDisabled || e.mDisabled) {
+			return true;
+		}
+		
+		// Don't damage owner
+		return e.getId() == mOwner;
+	}
+	
+	/**
+	 * Checks whether or not the Entity's collision filter accepts a given category
+	 * and mask. Both sides must accept each other; that is, each category must share
+	 * a bit with the other's mask.
+	 * 
+	 * @param category	the other category.
+	 * @param mask	the other mask.
+	 * @return true if collision is allowed, false otherwise.
+	 */
+	boolean canCollideWith(int category, int mask) {
+		return (mCategory & mask) != 0 && (category & mMask) != 0;
+	}
+	
+	/**
+	 * <p>
+	 * Sets which collision categories the Entity belongs to and which it may collide
+	 * with. Two Entities are only ever tested for collision when each one's category
+	 * shares a bit with the other's mask; this check happens before any Hitbox math
+	 * and pairs failing it are left out of the broadphase entirely.
+	 * </p>
+	 * 
+	 * <p>
+	 * The following puts an enemy's bullets on their own layer so they pass through
+	 * other enemies.
+	 * </p>
+	 * 
+	 * <pre>
+	 * 	<code>
+	 * int ENEMY = 1 << 1, ENEMY_BULLET = 1 << 2;
+	 * enemy.setCollisionFilter(ENEMY, Entity.MASK_ALL & ~ENEMY_BULLET);
+	 * bullet.setCollisionFilter(ENEMY_BULLET, Entity.MASK_ALL & ~ENEMY);
+	 * 	</code>
+	 * </pre>
+	 * 
+	 * @param category	the bits of the categories the Entity belongs to.
+	 * @param mask	the bits of the categories the Entity collides with.
+	 * @see #getCategory()
+	 * @see #getMask()
+	 */
+	public void setCollisionFilter(int category, int mask) {
+		mCategory = category;
+		mMask = mask;
+		// Let the broadphase refresh its copy
+		wake();
+	}
+	
+	/**
+	 * Gets the collision categories the Entity belongs to.
+	 * 
+	 * @return the category bits.
+	 * @see #setCollisionFilter(int, int)
+	 */
+	public int getCategory() { return mCategory; }
+	
+	/**
+	 * Gets the collision categories the Entity may collide with.
+	 * 
+	 * @return the mask bits.
+	 * @see #setCollisionFilter(int, int)
+	 */
+	public int getMask() { return mMask; }
+	
+	/**
+	 * Triggers the Entity's collision callback for a collision found outside of
+	 * {@link #collidesWith(Entity)}, such as by a swept test.
+	 * 
+	 * @param e	the Entity collided with.
+	 */
+	void notifyCollision(Entity e) {
+		if (mOnCollisionListener != null)
+			mOnCollisionListener.onCollide(e);
+	}
+	
+	/**
+	 * Triggers the Entity's separation callback once a contact with another
+	 * Entity has ended.
+	 * 
+	 * @param e	the Entity no longer touched.
+	 */
+	void notifySeparation(Entity e) {
+		if (mOnSeparateListener != null)
+			mOnSeparateListener.onSeparate(e);
+	}
 
 	/**
 	 * Gets the instance's amount of health. The health will be between 0 and the
@@ -221,6 +523,7 @@ public abstract class Entity extends Identifiable implements Drawable, OnMoveLis
 		// Update health values
 		double oldHealth = mHealth;
 		mHealth = health;
+		markDirty();
 
 		// Trigger callbacks depending on change in health
 		double diff = health - mHealth;
@@ -239,7 +542,14 @@ public abstract class Entity extends Identifiable implements Drawable, OnMoveLis
 	 * @param h	the Hitbox representing the Entity's collision.
 	 * @see #collidesWith(Entity)
 	 */
-	public void setCollisionModel(Hitbox h) { mCollision = h; }
+	public void setCollisionModel(Hitbox h) {
+		mCollision = h;
+		markDirty();
+		// Turn the model to match the Entity
+		if (mCollision != null) {
+			mCollision.setRotation(mRotation);
+		}
+	}
 
 	/**
 	 * Sets the maximum boundary at which health is considered 100% or "full". If the
@@ -252,7 +562,10 @@ public abstract class Entity extends Identifiable implements Drawable, OnMoveLis
 	 * @see #getHealth()
 	 * @see #setHealth(double)
 	 */
-	protected void setMaximumHealth(double maxHealth) { mMaxHealth = maxHealth; }
+	protected void setMaximumHealth(double maxHealth) {
+		mMaxHealth = maxHealth;
+		markDirty();
+	}
 	
 	/**
 	 * Gets the maximum health of the entity.
@@ -289,7 +602,10 @@ public abstract class Entity extends Identifiable implements Drawable, OnMoveLis
 	 * @param sprite	the Sprite to draw on-screen.
 	 * @see #getSprite()
 	 */
-	public void setSprite(Sprite sprite) { mSprite = sprite; }
+	public void setSprite(Sprite sprite) {
+		mSprite = sprite;
+		markDirty();
+	}
 
 	/**
 	 * Gets the instance's x-coordinate.
@@ -371,10 +687,29 @@ public abstract class Entity extends Identifiable implements Drawable, OnMoveLis
 		}
 	}
 	
+	/**
+	 * Sets the angle the Entity is turned counter-clockwise about its location. Both
+	 * the Sprite and the collision model are turned.
+	 * 
+	 * @param angle	the angle in degrees.
+	 * @see #getRotation()
+	 */
 	public void setRotation(float angle) {
 		mRotation = angle;
+		markDirty();
+		if (mCollision != null) {
+			mCollision.setRotation(angle);
+			// Turning changes the bounds the broadphase holds
+			wake();
+		}
 	}
 	
+	/**
+	 * Gets the angle the Entity is turned counter-clockwise about its location.
+	 * 
+	 * @return the angle in degrees.
+	 * @see #setRotation(float)
+	 */
 	public float getRotation() {
 		return mRotation;
 	}
@@ -431,7 +766,10 @@ public abstract class Entity extends Identifiable implements Drawable, OnMoveLis
 	 * @param visible	true if the instance should be drawn, false otherwise.
 	 * @see #isVisible()
 	 */
-	public void setVisibility(boolean visible) { mVisible = visible; }
+	public void setVisibility(boolean visible) {
+		mVisible = visible;
+		markDirty();
+	}
 	
 	/**
 	 * Checks whether or not the Entity has been disabled and should no
@@ -452,6 +790,7 @@ public abstract class Entity extends Identifiable implements Drawable, OnMoveLis
 	 */
 	public void enable() {
 		mDisabled = false;
+		markDirty();
 		setVisibility(true);
 		setEnableGravity(true);
 	}
@@ -465,6 +804,7 @@ public abstract class Entity extends Identifiable implements Drawable, OnMoveLis
 	 */
 	public void disable() {
 		mDisabled = true;
+		markDirty();
 		setVisibility(false);
 		setEnableGravity(false);
 	}
@@ -490,6 +830,7 @@ public abstract class Entity extends Identifiable implements Drawable, OnMoveLis
 	 */
 	public void setMobility(boolean movable) {
 		mMovable = movable;
+		markDirty();
 	}
 
 	/**
@@ -522,6 +863,17 @@ public abstract class Entity extends Identifiable implements Drawable, OnMoveLis
 		mOnCollisionListener = listener;
 	}
 	
+	/**
+	 * Sets a listener for when a contact begun in the {@link Arena} ends, either
+	 * because the Entities moved apart or one of them was disabled.
+	 * 
+	 * @param listener	the callback.
+	 * @see #setOnCollisionListener(OnCollisionListener)
+	 */
+	public void setOnSeparateListener(OnSeparateListener listener) {
+		mOnSeparateListener = listener;
+	}
+	
 	@Override
 	public int getZ() {
 		return LayerManager.LAYER_FREE_1;
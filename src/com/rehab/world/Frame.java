@@ -37,6 +37,21 @@ public class Frame {
 		mRenderables.add(new Renderable(drawable));
 	}
 	
+	/**
+	 * Adds a Renderable to the Frame from values already copied out of a game object.
+	 *
+	 * @param sprite	the Sprite to draw.
+	 * @param left	true if the object is facing left.
+	 * @param rotation	the angle offset in degrees.
+	 * @param x	the x coordinate to draw at.
+	 * @param y	the y coordinate to draw at.
+	 * @param z	the layer to draw on.
+	 * @see #push(Drawable)
+	 */
+	void push(Sprite sprite, boolean left, float rotation, double x, double y, int z) {
+		mRenderables.add(new Renderable(sprite, left, rotation, x, y, z));
+	}
+	
 	/**
 	 * Clears the Frame of any Renderables.
 	 */
@@ -92,6 +107,25 @@ public class Frame {
 			z = drawable.getZ();
 		}
 		
+		/**
+		 * Constructor for a Renderable of values already copied out of a game object.
+		 *
+		 * @param sprite	the Sprite to draw.
+		 * @param left	true if the object is facing left.
+		 * @param rotation	the angle offset in degrees.
+		 * @param x	the x coordinate to draw at.
+		 * @param y	the y coordinate to draw at.
+		 * @param z	the layer to draw on.
+		 */
+		Renderable(Sprite sprite, boolean left, float rotation, double x, double y, int z) {
+			this.sprite = sprite;
+			this.left = left;
+			this.rotation = rotation;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+		
 		/**
 		 * Gets the Sprite (image) of the game object.
 		 *
@@ -0,0 +1,187 @@
+package com.rehab.world;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.rehab.animation.Renderer;
+import com.rehab.animation.Sprite;
+
+/**
+ * <p>
+ * FramePipeline builds {@link Frame}s off of the world's critical path. At the end of a
+ * tick the world only copies what drawing needs of each visible {@link Entity} (sprite,
+ * facing, rotation, location, and layer) into flat arrays with {@link #capture(Iterable,
+ * Iterable, Iterable)}. Turning those values into {@link Frame.Renderable}s and handing
+ * the Frame to the {@link Renderer} is then done on a worker while the world moves on to
+ * the next tick.
+ * </p>
+ * 
+ * <p>
+ * Two snapshots are kept. The world always writes into the back one while, at most, a
+ * single Frame is built from the front one. Capturing waits for the previous Frame to
+ * finish before swapping, which only ever blocks if building a Frame took longer than
+ * simulating a whole tick.
+ * </p>
+ * 
+ * <p>This class is <b>not</b> thread-safe; only the world may capture.</p>
+ */
+final class FramePipeline {
+	
+	// Number of objects room is first made for in each snapshot
+	private static final int INITIAL_CAPACITY = FrameDepot.FRAME_CAPACITY;
+	
+	// Source of Frames to fill and the workers filling them
+	private final FrameDepot mDepot;
+	private final ForkJoinPool mPool;
+	
+	// Snapshot written by the world and the one a Frame is built from
+	private Snapshot mBack = new Snapshot();
+	private Snapshot mFront = new Snapshot();
+	// Frame being built from the front snapshot
+	private ForkJoinTask<?> mBuild;
+	
+	/**
+	 * Constructor for a FramePipeline building Frames on a given pool.
+	 * 
+	 * @param depot	the FrameDepot to request Frames from.
+	 * @param pool	the ForkJoinPool to build Frames on.
+	 * @throws IllegalArgumentException	if either the depot or the pool is null.
+	 */
+	FramePipeline(FrameDepot depot, ForkJoinPool pool) {
+		if (depot == null || pool == null) {
+			throw new IllegalArgumentException("Depot and pool may not be null");
+		}
+		mDepot = depot;
+		mPool = pool;
+	}
+	
+	/**
+	 * Copies the drawing state of every visible game object and starts building a
+	 * Frame of it on a worker.
+	 * 
+	 * @param acts	the Actors to draw.
+	 * @param projs	the Projectiles to draw.
+	 * @param props	the Props to draw.
+	 */
+	void capture(Iterable<Actor> acts, Iterable<Projectile> projs, Iterable<Prop> props) {
+		mBack.clear();
+		mBack.addAll(acts);
+		mBack.addAll(projs);
+		mBack.addAll(props);
+		
+		// The front may only be reused once its Frame is done
+		finish();
+		Snapshot ready = mBack;
+		mBack = mFront;
+		mFront = ready;
+		mBuild = mPool.submit(new Builder(ready, mDepot));
+	}
+	
+	/**
+	 * Waits for the Frame being built, if any, to be handed to the Renderer.
+	 */
+	void finish() {
+		if (mBuild != null) {
+			mBuild.join();
+			mBuild = null;
+		}
+	}
+	
+	/**
+	 * Fills a Frame from a snapshot and sends it to be drawn.
+	 */
+	private static final class Builder implements Runnable {
+		
+		private final Snapshot mSnapshot;
+		private final FrameDepot mDepot;
+		
+		Builder(Snapshot snapshot, FrameDepot depot) {
+			mSnapshot = snapshot;
+			mDepot = depot;
+		}
+		
+		@Override
+		public void run() {
+			Frame frame = mDepot.requestFrame();
+			if (frame == null) {
+				frame = new Frame();
+			}
+			
+			Snapshot s = mSnapshot;
+			for (int i = 0; i < s.mCount; i++) {
+				frame.push(s.mSprites[i], s.mLefts[i], s.mRotations[i], s.mLocations[i * 2], s.mLocations[i * 2 + 1], s.mLayers[i]);
+			}
+			Renderer.getInstance().requestDraw(frame);
+		}
+	}
+	
+	/**
+	 * Drawing state of every visible game object at the end of a tick.
+	 */
+	private static final class Snapshot {
+		
+		// Sprite, facing, rotation, location (x, y), and layer of each object
+		private Sprite[] mSprites = new Sprite[INITIAL_CAPACITY];
+		private boolean[] mLefts = new boolean[INITIAL_CAPACITY];
+		private float[] mRotations = new float[INITIAL_CAPACITY];
+		private double[] mLocations = new double[INITIAL_CAPACITY * 2];
+		private int[] mLayers = new int[INITIAL_CAPACITY];
+		private int mCount = 0;
+		
+		/**
+		 * Copies the drawing state of each visible Entity.
+		 */
+		void addAll(Iterable<? extends Entity> entities) {
+			for (Entity e : entities) {
+				if (!e.isVisible()) {
+					continue;
+				}
+				if (mCount == mSprites.length) {
+					grow();
+				}
+				
+				int i = mCount++;
+				mSprites[i] = e.getSprite();
+				mLefts[i] = e.isFacingLeft();
+				mRotations[i] = e.getRotation();
+				mLocations[i * 2] = e.getX();
+				mLocations[i * 2 + 1] = e.getY();
+				mLayers[i] = e.getZ();
+			}
+		}
+		
+		/**
+		 * Forgets every object copied.
+		 */
+		void clear() {
+			for (int i = 0; i < mCount; i++) {
+				mSprites[i] = null;
+			}
+			mCount = 0;
+		}
+		
+		/**
+		 * Doubles the room for objects.
+		 */
+		private void grow() {
+			int capacity = mSprites.length * 2;
+			
+			Sprite[] sprites = new Sprite[capacity];
+			System.arraycopy(mSprites, 0, sprites, 0, mCount);
+			mSprites = sprites;
+			boolean[] lefts = new boolean[capacity];
+			System.arraycopy(mLefts, 0, lefts, 0, mCount);
+			mLefts = lefts;
+			float[] rotations = new float[capacity];
+			System.arraycopy(mRotations, 0, rotations, 0, mCount);
+			mRotations = rotations;
+			double[] locations = new double[capacity * 2];
+			System.arraycopy(mLocations, 0, locations, 0, mCount * 2);
+			mLocations = locations;
+			int[] layers = new int[capacity];
+			System.arraycopy(mLayers, 0, layers, 0, mCount);
+			mLayers = layers;
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.rehab.world;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * <p>
+ * GridBroadphase is a {@link Broadphase} backed by a {@link SpatialGrid}. It works
+ * best when Entities are spread fairly evenly and are close to the grid's cell size.
+ * Levels where most Entities crowd into a few cells are better served by a
+ * {@link SweepAndPrune}.
+ * </p>
+ * 
+ * <p>This class is <b>not</b> thread-safe.</p>
+ */
+public class GridBroadphase implements Broadphase {
+	
+	// Entities by location
+	private SpatialGrid<Entity> mGrid;
+	
+	// Scratch bounds
+	private double[] mBounds = new double[4];
+	
+	/**
+	 * Constructor for a GridBroadphase with cells of a given size.
+	 * 
+	 * @param cellSize	the width and height of each cell.
+	 * @throws IllegalArgumentException	if the cell size is not greater than 0.
+	 */
+	public GridBroadphase(double cellSize) {
+		mGrid = new SpatialGrid<Entity>(cellSize);
+	}
+	
+	@Override
+	public void update(Entity e) {
+		Hitbox h = e.getCollision();
+		if (h == null) {
+			return;
+		}
+		h.getBounds(mBounds);
+		mGrid.insert(e, mBounds[0], mBounds[1], mBounds[2], mBounds[3], e.getCategory(), e.getMask());
+	}
+	
+	@Override
+	public boolean touch(Entity e) {
+		return mGrid.touch(e);
+	}
+	
+	@Override
+	public int prune() {
+		return mGrid.prune();
+	}
+	
+	@Override
+	public int query(double minX, double minY, double maxX, double maxY, int category, int mask,
+			Collection<? super Entity> out) {
+		return mGrid.query(minX, minY, maxX, maxY, category, mask, out);
+	}
+	
+	@Override
+	public int pairs(List<? super Entity> out) {
+		return mGrid.pairs(out);
+	}
+	
+	@Override
+	public int size() {
+		return mGrid.size();
+	}
+
+}
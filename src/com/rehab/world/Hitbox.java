@@ -1,6 +1,7 @@
 package com.rehab.world;
 
 import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.rehab.world.Vector2D.Point;
 
@@ -39,22 +40,73 @@ import com.rehab.world.Vector2D.Point;
  * However, these constructors' produce Hitboxes with a finalized shape and
  * so {@link #addEdge(double, double, double, double)} will throw an exception.
  * </p>
+ * 
+ * <p>
+ * Locking a Hitbox also moves its shape into local space, relative to its location.
+ * From then on moving the Hitbox only changes its location, no matter how many edges
+ * it has, and collision checks add the location to the shape as they go.
+ * </p>
+ * 
+ * <p>
+ * A Hitbox may be turned about its location with {@link #setRotation(double)}. The
+ * sine and cosine of the angle are only computed when the angle changes and the
+ * rotated vertices and edge normals are only rebuilt the next time the shape is
+ * needed, so collision checks never call trigonometric functions.
+ * </p>
+ * 
+ * <p>
+ * A locked Hitbox also knows its axis-aligned bounds. Collision checks compare these
+ * bounds before anything else and only fall back to the separating axis tests when
+ * the bounds overlap and at least one shape is a polygon.
+ * </p>
  */
 public class Hitbox {
 
 	// Minimum number of edges allowed for polygons
 	private static final int POLYGON_EDGE_LIMIT = 3;
 	
+	/**
+	 * Returned by {@link #separation(Hitbox, int)} when the Hitboxes overlap.
+	 */
+	static final int OVERLAP = -1;
+	
+	/**
+	 * Returned by {@link #separation(Hitbox, int)} when the Hitboxes are apart
+	 * but not along an axis worth trying first next time.
+	 */
+	static final int NO_AXIS = 0;
+	
 	// Constants for two main axis
 	private static final Vector2D AXIS_HORIZONTAL = Vector2D.UNIT_EAST;
 	private static final Vector2D AXIS_VERTICAL = Vector2D.UNIT_NORTH;
 
-	// Polygonal edges (null if circle)
+	// Polygonal edges (null if circle), relative to the location once locked
 	private ArrayList<Vector2D> mEdges;
+	// Local vertices as (x, y) pairs and unit edge normals, set on lock
+	private double[] mVertices;
+	private double[] mAxes;
 
+	// Orientation in degrees about the location with its cached cosine and sine
+	private double mRotation = 0;
+	private double mCos = 1, mSin = 0;
+	// Vertices, normals and circle center in the current orientation
+	private double[] mPoints;
+	private double[] mNormals;
+	private double mCenterX, mCenterY;
+	// Whether the above match the current orientation
+	private boolean mOriented = false;
+	
 	// Location and dimensions
 	private Point mLocation = new Point(0, 0);
 	private double mWidth, mHeight;
+	// Axis-aligned bounds relative to the location in the current orientation
+	private double mMinX, mMinY, mMaxX, mMaxY;
+	// Count of changes to location or orientation, for broadphases to skip unmoved Hitboxes
+	private int mVersion = 0;
+	
+	// Collision checks made and those settled by bounds alone
+	private static final LongAdder sTests = new LongAdder();
+	private static final LongAdder sRejects = new LongAdder();
 	
 	// Lock state to finalize shape
 	private boolean mLock = false;
@@ -141,13 +193,22 @@ public class Hitbox {
 			for (Vector2D v : h.mEdges) {
 				mEdges.add(new Vector2D(v));
 			}
+			// Local shape never changes once locked
+			mVertices = h.mVertices;
+			mAxes = h.mAxes;
 		}
 		// Copy all other values
 		mLocation = new Point(h.mLocation);
 		mWidth = h.mWidth;
 		mHeight = h.mHeight;
+		mRotation = h.mRotation;
+		mCos = h.mCos;
+		mSin = h.mSin;
 		mLock = h.mLock;
 		mType = h.mType;
+		if (mLock) {
+			orient();
+		}
 	}
 
 	/**
@@ -230,6 +291,25 @@ public class Hitbox {
 	 * @see #isLocked()
 	 */
 	public boolean collidesWith(Hitbox h) {
+		return separation(h, NO_AXIS) == OVERLAP;
+	}
+	
+	/**
+	 * Checks whether or not the Hitbox overlaps another and, if not, which axis
+	 * keeps them apart. Passing back the axis found during the previous tick lets
+	 * polygons that stay apart along the same axis skip the remaining axes.
+	 * 
+	 * @param h	the other Hitbox.
+	 * @param hint	the axis that kept the Hitboxes apart last time, or
+	 * {@link #NO_AXIS}.
+	 * @return {@link #OVERLAP} if the Hitboxes overlap, otherwise {@link #NO_AXIS}
+	 * or a positive axis to pass as the next hint.
+	 * @throws IllegalArgumentException	if the given Hitbox is null or it is not
+	 * locked.
+	 * @throws IllegalStateException	if the calling Hitbox is not locked.
+	 * @see #collidesWith(Hitbox)
+	 */
+	int separation(Hitbox h, int hint) {
 		if (h == null) {
 			throw new IllegalArgumentException("Hitbox h must exist");
 		}
@@ -239,31 +319,59 @@ public class Hitbox {
 		if (!h.isLocked()) {
 			throw new IllegalArgumentException("Hitbox h must be locked");
 		}
-		boolean collides = false;
-		// Polygon or rectangle vs
-		if (mType == Type.POLYGON || mType == Type.RECTANGLE) {
-			// Polygon vs circle
-			if (h.mType == Type.CIRCLE) {
+		sTests.increment();
+		orient();
+		h.orient();
+		
+		// Shapes cannot touch if their bounds do not
+		double offX = getX() - h.getX(), offY = getY() - h.getY();
+		if (mMinX + offX > h.mMaxX || h.mMinX > mMaxX + offX
+				|| mMinY + offY > h.mMaxY || h.mMinY > mMaxY + offY) {
+			sRejects.increment();
+			return NO_AXIS;
+		}
+		
+		// Unturned rectangles are their own bounds
+		if (mType == Type.RECTANGLE && h.mType == Type.RECTANGLE && mRotation == 0 && h.mRotation == 0) {
+			return OVERLAP;
+		}
+		
+		// Only polygon pairs have axes worth remembering
+		if (mType == Type.CIRCLE || h.mType == Type.CIRCLE) {
+			boolean collides;
+			if (mType != Type.CIRCLE) {
 				collides = collisionCombo(h, this);
-				// Polygon vs polygon or rectangle
-			} else {
-				collides = collisionPolygon(this, h);
-				if (!collides) {
-					collides = collisionPolygon(h, this);
-				}
-			}
-			// Circle vs
-		} else {
-			// Circle vs polygon or rectangle
-			if (h.mType == Type.POLYGON || h.mType == Type.RECTANGLE) {
+			} else if (h.mType != Type.CIRCLE) {
 				collides = collisionCombo(this, h);
-				// Circle vs Circle
 			} else {
 				collides = collisionCircular(this, h);
 			}
+			return collides ? OVERLAP : NO_AXIS;
 		}
 
-		return collides;
+		// Axes count the caller's normals first, then the other's, from 1
+		int count = mNormals.length / 2;
+		if (hint != NO_AXIS) {
+			int axis = hint - 1;
+			if (axis < count) {
+				if (axis >= 0 && separates(this, h, axis)) {
+					return hint;
+				}
+			} else if (axis - count < h.mNormals.length / 2 && separates(h, this, axis - count)) {
+				return hint;
+			}
+		}
+		
+		// Either shape's normals may separate them
+		int axis = collisionPolygon(this, h);
+		if (axis >= 0) {
+			return axis + 1;
+		}
+		axis = collisionPolygon(h, this);
+		if (axis >= 0) {
+			return count + axis + 1;
+		}
+		return OVERLAP;
 	}
 
 	/**
@@ -275,71 +383,69 @@ public class Hitbox {
 	 */
 	private static boolean collisionCombo(Hitbox circle, Hitbox other) {
 		
-		// Compute circle's center
+		// Compute circle's center relative to the polygon
 		double radius = circle.getWidth() / 2;
-		double centerX = circle.getX() + radius;
-		double centerY = circle.getY() - radius;
+		double centerX = circle.getX() + circle.mCenterX - other.getX();
+		double centerY = circle.getY() + circle.mCenterY - other.getY();
 		
 		// Find vertex of polygon closest to circle center
-		Point closestVertex = null;
-		double closestDist = 0;
-		for (Vector2D edge : other.mEdges) {
-			Point vertex = edge.getPoint();
-			double distTo = distanceBetween(centerX, centerY, vertex.getX(), vertex.getY());
-			
-			// Assign first vertex as closest
-			if (closestVertex == null) {
-				closestVertex = vertex;
-				closestDist = distTo;
-				// Closer vertex becomes closest so far
-			} else if (Math.min(closestDist, distTo) == distTo){
-				closestVertex = vertex;
+		double[] vertices = other.mPoints;
+		double closestX = 0, closestY = 0;
+		double closestDist = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < vertices.length; i += 2) {
+			double dx = vertices[i] - centerX;
+			double dy = vertices[i + 1] - centerY;
+			double distTo = dx * dx + dy * dy;
+			if (distTo <= closestDist) {
+				closestX = dx;
+				closestY = dy;
 				closestDist = distTo;
 			}
 		}
 		
+		// Center sitting on a vertex leaves no axis to separate along
+		if (closestDist == 0) {
+			return true;
+		}
+		
 		// Build collision axis from circle center to closest polygon vertex
-		Vector2D centerToPolyAxis = new Vector2D(centerX, centerY, closestVertex.getX(), closestVertex.getY());
-		centerToPolyAxis.rebase(0, 0, true);
-		centerToPolyAxis.normalize();
+		double length = Math.sqrt(closestDist);
+		double axisX = closestX / length, axisY = closestY / length;
 		
 		// Project circle's diameter onto axis
-		Vector2D radius0 = new Vector2D(centerToPolyAxis);
-		radius0.rebase(centerX, centerY, true);
-		radius0.changeMagnitude(radius);
-		Point edge0 = project(radius0, centerToPolyAxis);
-		Vector2D radius1 = new Vector2D(radius0);
-		radius1.reverse();
-		Point edge1 = project(radius1, centerToPolyAxis);
-		
-		// Figure which circle projection is bigger / smaller than other
-		Point cirMin = edge0, cirMax = edge1;
-		if (min(cirMin, cirMax) == cirMax) {
-			cirMin = edge1;
-			cirMax = edge0;
-		}
+		double center = centerX * axisX + centerY * axisY;
+		double cirMin = center - radius, cirMax = center + radius;
 		
 		// Figure the polygon's projections onto center-poly axis
-		Point minPolyVertex = null;
-		Point maxPolyVertex = null;
-		for (Vector2D vertex1 : other.mEdges) {
-			Vector2D vert1 = new Vector2D(vertex1);
-			Point proj1 = project(vert1, centerToPolyAxis);
-			
-			// Figure min projection
-			if (minPolyVertex == null) minPolyVertex = proj1;
-			else minPolyVertex = min(minPolyVertex, proj1);
-			// Figure max projection
-			if (maxPolyVertex == null) maxPolyVertex = proj1;
-			else maxPolyVertex = max(maxPolyVertex, proj1);
+		double polyMin = Double.POSITIVE_INFINITY, polyMax = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < vertices.length; i += 2) {
+			double proj = vertices[i] * axisX + vertices[i + 1] * axisY;
+			polyMin = Math.min(polyMin, proj);
+			polyMax = Math.max(polyMax, proj);
 		}
 
 		// Bail out if gap is found
-		if (min(cirMax, minPolyVertex) == cirMax ||
-				min(maxPolyVertex, cirMin) == maxPolyVertex) {			
+		if (cirMax < polyMin || polyMax < cirMin) {
 			return false;
 		}
 
+		// Polygon's own normals may also separate the shapes
+		double[] axes = other.mNormals;
+		for (int i = 0; i < axes.length; i += 2) {
+			axisX = axes[i];
+			axisY = axes[i + 1];
+			center = centerX * axisX + centerY * axisY;
+			polyMin = Double.POSITIVE_INFINITY;
+			polyMax = Double.NEGATIVE_INFINITY;
+			for (int k = 0; k < vertices.length; k += 2) {
+				double proj = vertices[k] * axisX + vertices[k + 1] * axisY;
+				polyMin = Math.min(polyMin, proj);
+				polyMax = Math.max(polyMax, proj);
+			}
+			if (center + radius < polyMin || polyMax < center - radius) {
+				return false;
+			}
+		}
 		return true;
 	}
 
@@ -355,90 +461,67 @@ public class Hitbox {
 		double half0 = caller.mWidth / 2;
 		double half1 = other.mWidth / 2;
 		
-		// Form caller's center Point
-		double centerX0 = caller.mLocation.getX() + half0;
-		double centerY0 = caller.mLocation.getY() + half0;
+		// Distance between centers
+		double dx = (caller.mLocation.getX() + caller.mCenterX) - (other.mLocation.getX() + other.mCenterX);
+		double dy = (caller.mLocation.getY() + caller.mCenterY) - (other.mLocation.getY() + other.mCenterY);
 		
-		// Form other's center Point
-		double centerX1 = other.mLocation.getX() + half1;
-		double centerY1 = other.mLocation.getY() + half1;
-
-		// Measure center Points' distance for collision
-		double dist = distanceBetween(centerX0, centerY0, centerX1, centerY1);
-		if (dist > (half0 + half1)) {
-			return false;
-		}
-		return true;
+		// Compare squared distances to skip the root
+		double reach = half0 + half1;
+		return dx * dx + dy * dy <= reach * reach;
 	}
 
 
 	/**
-	 * SAT implementation for polygon-polygon collision.
+	 * SAT implementation for polygon-polygon collision. Only the caller's edge normals
+	 * are used as axes.
 	 * 
 	 * @param caller	one polygonal Hitbox.
 	 * @param other	the other.
-	 * @return true	if a collision occurred, false otherwise.
+	 * @return the index of the caller's first normal that separates the Hitboxes,
+	 * or -1 if none does.
 	 */
-	private static boolean collisionPolygon(Hitbox caller, Hitbox other) {
-
-		// Use each edge to figure a normal as an axis
-		for (Vector2D edge : caller.mEdges) {
-			Vector2D axis = edge.getNormal(true);
-			axis.rebase(0, 0, true);
-			axis.normalize();
-			
-			// Project each point / vector onto the normal
-			Point minV0 = null;
-			Point maxV0 = null;
-			for (Vector2D vertex0 : caller.mEdges) {
-				Point proj0 = project(vertex0, axis);
-
-				// Figure min projection
-				if (minV0 == null) minV0 = proj0;
-				else minV0 = min(minV0, proj0);
-				// Figure max projection
-				if (maxV0 == null) maxV0 = proj0;
-				else maxV0 = max(maxV0, proj0);
-			}
-			
-			// Figure the other hitbox's projections
-			Point minV1 = null;
-			Point maxV1 = null;
-			for (Vector2D vertex1 : other.mEdges) {
-				Vector2D vert1 = new Vector2D(vertex1);
-				Point proj1 = project(vert1, axis);
-				
-				// Figure min projection
-				if (minV1 == null) minV1 = proj1;
-				else minV1 = min(minV1, proj1);
-				// Figure max projection
-				if (maxV1 == null) maxV1 = proj1;
-				else maxV1 = max(maxV1, proj1);
-			}
-
-			// Bail out if gap is found
-			if (min(maxV0, minV1) == maxV0 ||
-					min(maxV1, minV0) == maxV1) {
-				return false;
+	private static int collisionPolygon(Hitbox caller, Hitbox other) {
+		for (int i = 0, count = caller.mNormals.length / 2; i < count; i++) {
+			if (separates(caller, other, i)) {
+				return i;
 			}
 		}
-
-		return true;
+		return -1;
 	}
 
 	/**
-	 * Gets the distance between two {@link Point}s in 2D space.
+	 * Checks whether or not one of the caller's edge normals separates two
+	 * polygonal Hitboxes.
 	 * 
-	 * @param x0	the first Point's x-coordinate.
-	 * @param y0	the first Point's y-coordinate.
-	 * @param x1	the second Point's x-coordinate.
-	 * @param y1	the second Point's y-coordinate.
-	 * @return the distance between two Points.
+	 * @param caller	the Hitbox owning the normal.
+	 * @param other	the other Hitbox.
+	 * @param axis	the index of the normal.
+	 * @return true if a gap is found along the normal, false otherwise.
 	 */
-	private static double distanceBetween(double x0, double y0, double x1, double y1) {
-		double xFactor = Math.abs(Math.pow(x1 - x0, 2));
-		double yFactor = Math.abs(Math.pow(y1 - y0, 2));
-		return Math.sqrt(xFactor + yFactor);
+	private static boolean separates(Hitbox caller, Hitbox other, int axis) {
+		double axisX = caller.mNormals[axis * 2], axisY = caller.mNormals[axis * 2 + 1];
+		
+		// Project each vertex onto the normal
+		double min0 = Double.POSITIVE_INFINITY, max0 = Double.NEGATIVE_INFINITY;
+		double[] vertices = caller.mPoints;
+		for (int k = 0; k < vertices.length; k += 2) {
+			double proj = vertices[k] * axisX + vertices[k + 1] * axisY;
+			min0 = Math.min(min0, proj);
+			max0 = Math.max(max0, proj);
+		}
+		
+		// Figure the other hitbox's projections, relative to the caller
+		double shift = (other.getX() - caller.getX()) * axisX + (other.getY() - caller.getY()) * axisY;
+		double min1 = Double.POSITIVE_INFINITY, max1 = Double.NEGATIVE_INFINITY;
+		vertices = other.mPoints;
+		for (int k = 0; k < vertices.length; k += 2) {
+			double proj = vertices[k] * axisX + vertices[k + 1] * axisY + shift;
+			min1 = Math.min(min1, proj);
+			max1 = Math.max(max1, proj);
+		}
+		
+		// Gap on either side
+		return max0 < min1 || max1 < min0;
 	}
 
 	/**
@@ -514,19 +597,10 @@ public class Hitbox {
 		if (!mLock) {
 			throw new IllegalStateException("Hitbox must be locked");
 		}
-		// Shift edges over for non-circular
-		if (getType() != Type.CIRCLE) {
-			// Calc shift
-			double shiftX = x - mLocation.getX();
-			double shiftY = y - mLocation.getY();
-			// Shift all edge's points
-			for (Vector2D v : mEdges) {
-				v.add(shiftX, shiftY);
-			}
-		}
-		// Update location
+		// Shape is relative to the location so nothing else changes
 		mLocation.setX(x);
 		mLocation.setY(y);
+		mVersion++;
 	}
 
 	/**
@@ -545,16 +619,10 @@ public class Hitbox {
 		if (!mLock) {
 			throw new IllegalStateException("Hitbox must be locked");
 		}
-		if (getType() != Type.CIRCLE) {
-			// Shift the coordinates of all Edges
-			for (Vector2D v : mEdges) {
-				v.add(x, y);
-			}
-		}
-		// Update location
-		Point first = mEdges.get(0).getPoint();
-		mLocation.setX(first.getX());
-		mLocation.setY(first.getY());
+		// Shape is relative to the location so nothing else changes
+		mLocation.setX(mLocation.getX() + x);
+		mLocation.setY(mLocation.getY() + y);
+		mVersion++;
 	}
 
 	/**
@@ -590,9 +658,177 @@ public class Hitbox {
 			}
 			
 			mLock = true;
+			mVersion++;
 		}
 		// Calculate dimensions if polygonal or rectangular
 		if (mType != Type.CIRCLE && mType != Type.RECTANGLE) calculateDimensions();
+		toLocal();
+	}
+	
+	/**
+	 * Moves the edges into local space and stores the vertices and edge normals
+	 * the narrowphase works from. This method is called once on lock().
+	 */
+	private void toLocal() {
+		if (mType == Type.CIRCLE) {
+			orient();
+			return;
+		}
+		
+		double x = mLocation.getX(), y = mLocation.getY();
+		int size = mEdges.size();
+		mVertices = new double[size * 2];
+		mAxes = new double[size * 2];
+		int axes = 0;
+		for (int i = 0; i < size; i++) {
+			Vector2D v = mEdges.get(i);
+			v.add(-x, -y);
+			
+			double vx = v.getX(), vy = v.getY();
+			mVertices[i * 2] = vx;
+			mVertices[i * 2 + 1] = vy;
+			
+			// Normal of the edge, skipping edges of no length
+			Point base = v.getBasePoint();
+			double nx = base.getY() - vy, ny = vx - base.getX();
+			double length = Math.sqrt(nx * nx + ny * ny);
+			if (length > 0) {
+				mAxes[axes++] = nx / length;
+				mAxes[axes++] = ny / length;
+			}
+		}
+		if (axes < mAxes.length) {
+			double[] trimmed = new double[axes];
+			System.arraycopy(mAxes, 0, trimmed, 0, axes);
+			mAxes = trimmed;
+		}
+		orient();
+	}
+	
+	/**
+	 * Turns the local shape by the current rotation and measures its bounds. This
+	 * method does nothing if the shape already matches the rotation. Since collision
+	 * checks call it first, it must be called before a locked Hitbox is checked from
+	 * several threads at once.
+	 */
+	void orient() {
+		if (mOriented) {
+			return;
+		}
+		double c = mCos, s = mSin;
+		
+		if (mType == Type.CIRCLE) {
+			// Center starts right of and below the location
+			double r = mWidth / 2;
+			mCenterX = r * c + r * s;
+			mCenterY = r * s - r * c;
+			mMinX = mCenterX - r;
+			mMinY = mCenterY - r;
+			mMaxX = mCenterX + r;
+			mMaxY = mCenterY + r;
+			mOriented = true;
+			return;
+		}
+		
+		if (mRotation == 0) {
+			// Unturned shapes share the local arrays
+			mPoints = mVertices;
+			mNormals = mAxes;
+		} else {
+			if (mPoints == null || mPoints == mVertices) {
+				mPoints = new double[mVertices.length];
+				mNormals = new double[mAxes.length];
+			}
+			rotate(mVertices, mPoints, c, s);
+			rotate(mAxes, mNormals, c, s);
+		}
+		
+		mMinX = mMinY = Double.POSITIVE_INFINITY;
+		mMaxX = mMaxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < mPoints.length; i += 2) {
+			mMinX = Math.min(mMinX, mPoints[i]);
+			mMinY = Math.min(mMinY, mPoints[i + 1]);
+			mMaxX = Math.max(mMaxX, mPoints[i]);
+			mMaxY = Math.max(mMaxY, mPoints[i + 1]);
+		}
+		mOriented = true;
+	}
+	
+	/**
+	 * Rotates (x, y) pairs counter-clockwise about the origin.
+	 * 
+	 * @param src	the pairs to rotate.
+	 * @param dst	the array to hold the rotated pairs.
+	 * @param c	the cosine of the angle.
+	 * @param s	the sine of the angle.
+	 */
+	private static void rotate(double[] src, double[] dst, double c, double s) {
+		for (int i = 0; i < src.length; i += 2) {
+			double x = src[i], y = src[i + 1];
+			dst[i] = x * c - y * s;
+			dst[i + 1] = x * s + y * c;
+		}
+	}
+	
+	/**
+	 * Sets the angle the Hitbox is turned counter-clockwise about its location,
+	 * matching the way an {@link Entity}'s Sprite is turned when drawn. The
+	 * dimensions given by {@link #getWidth()} and {@link #getHeight()} stay those
+	 * of the unturned shape.
+	 * 
+	 * @param degrees	the angle in degrees.
+	 * @see #getRotation()
+	 */
+	public void setRotation(double degrees) {
+		if (degrees == mRotation) {
+			return;
+		}
+		mRotation = degrees;
+		double radians = Math.toRadians(degrees);
+		mCos = Math.cos(radians);
+		mSin = Math.sin(radians);
+		mOriented = false;
+		mVersion++;
+	}
+	
+	/**
+	 * Gets the angle the Hitbox is turned counter-clockwise about its location.
+	 * 
+	 * @return the angle in degrees.
+	 * @see #setRotation(double)
+	 */
+	public double getRotation() {
+		return mRotation;
+	}
+	
+	/**
+	 * Gets a count that changes whenever the Hitbox is moved or turned, so that
+	 * its bounds are known to be the same while the count is.
+	 * 
+	 * @return the version.
+	 */
+	int getVersion() { return mVersion; }
+	
+	/**
+	 * Gets the x-coordinate of a circular Hitbox's center, taking its rotation into
+	 * account. This method should only be called on locked circles.
+	 * 
+	 * @return the center's x-coordinate.
+	 */
+	double getCenterX() {
+		orient();
+		return mLocation.getX() + mCenterX;
+	}
+	
+	/**
+	 * Gets the y-coordinate of a circular Hitbox's center, taking its rotation into
+	 * account. This method should only be called on locked circles.
+	 * 
+	 * @return the center's y-coordinate.
+	 */
+	double getCenterY() {
+		orient();
+		return mLocation.getY() + mCenterY;
 	}
 
 	/**
@@ -653,6 +889,62 @@ public class Hitbox {
 		return mLocation.getY();
 	}
 	
+	/**
+	 * Gets the smallest axis-aligned box containing the Hitbox. Rectangles and
+	 * circles extend right and down from their location while polygons are measured
+	 * from their vertices. Unlocked Hitboxes are measured on every call.
+	 * 
+	 * @param out	an array of at least 4 to hold the minimum x, minimum y, maximum x,
+	 * and maximum y, in that order.
+	 */
+	void getBounds(double[] out) {
+		double x = mLocation.getX(), y = mLocation.getY();
+		if (mLock) {
+			orient();
+			out[0] = x + mMinX;
+			out[1] = y + mMinY;
+			out[2] = x + mMaxX;
+			out[3] = y + mMaxY;
+			return;
+		}
+		
+		// Unlocked shapes are still in world space
+		if (mType != Type.POLYGON) {
+			out[0] = x;
+			out[1] = y - mHeight;
+			out[2] = x + mWidth;
+			out[3] = y;
+			return;
+		}
+		out[0] = out[1] = Double.POSITIVE_INFINITY;
+		out[2] = out[3] = Double.NEGATIVE_INFINITY;
+		for (int i = 0, size = mEdges.size(); i < size; i++) {
+			Vector2D v = mEdges.get(i);
+			out[0] = Math.min(out[0], v.getX());
+			out[1] = Math.min(out[1], v.getY());
+			out[2] = Math.max(out[2], v.getX());
+			out[3] = Math.max(out[3], v.getY());
+		}
+	}
+		
+	/**
+	 * Gets the number of calls to {@link #collidesWith(Hitbox)} made by every
+	 * Hitbox so far.
+	 * 
+	 * @return the collision check count.
+	 * @see #getEarlyRejectCount()
+	 */
+	public static long getTestCount() { return sTests.sum(); }
+	
+	/**
+	 * Gets the number of calls to {@link #collidesWith(Hitbox)} that returned false
+	 * from comparing bounds alone. Dividing by {@link #getTestCount()} gives the
+	 * fraction of checks that never reached the separating axis tests.
+	 * 
+	 * @return the early rejection count.
+	 */
+	public static long getEarlyRejectCount() { return sRejects.sum(); }
+	
 	/**
 	 * Gets the x and y-coordinate of the Hitbox wrapped in a {@link Point}.
 	 *
@@ -671,12 +963,48 @@ public class Hitbox {
 	 */
 	public Iterable<Vector2D> edges() {
 		ArrayList<Vector2D> edges = new ArrayList<Vector2D>();
+		double x = mLocation.getX(), y = mLocation.getY();
 		for (Vector2D edge : mEdges) {
-			edges.add(new Vector2D(edge));
+			// Unlocked edges are still in world space
+			if (!mLock) {
+				edges.add(new Vector2D(edge));
+				continue;
+			}
+			
+			// Locked edges are turned and kept relative to the location
+			Point base = edge.getBasePoint(), head = edge.getPoint();
+			edges.add(new Vector2D(
+					x + base.getX() * mCos - base.getY() * mSin, y + base.getX() * mSin + base.getY() * mCos,
+					x + head.getX() * mCos - head.getY() * mSin, y + head.getX() * mSin + head.getY() * mCos));
 		}
 		return edges;
 	}
 
+	/**
+	 * Gets the number of edges of the Hitbox's shape.
+	 * 
+	 * @return the edge count, or 0 for circles.
+	 */
+	int getEdgeCount() {
+		return mEdges == null ? 0 : mEdges.size();
+	}
+	
+	/**
+	 * Copies an edge of the unturned shape as its start and end (x0, y0, x1, y1),
+	 * relative to the location once locked.
+	 * 
+	 * @param i	the edge's index.
+	 * @param out	the array to write the four coordinates to.
+	 */
+	void getEdge(int i, double[] out) {
+		Vector2D edge = mEdges.get(i);
+		Point base = edge.getBasePoint(), head = edge.getPoint();
+		out[0] = base.getX();
+		out[1] = base.getY();
+		out[2] = head.getX();
+		out[3] = head.getY();
+	}
+	
 	/**
 	 *	Types representing different kinds of Hitboxes. These types
 	 *	determine a Hitbox's reaction to other Hitboxes.
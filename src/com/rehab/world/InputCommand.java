@@ -0,0 +1,174 @@
+package com.rehab.world;
+
+import com.rehab.world.Register.Identifiable;
+
+/**
+ * <p>
+ * InputCommand describes a single user action, such as shifting an {@link Entity} or
+ * firing an {@link Actor}'s {@link Weapon}, as plain data. Commands are handed to the
+ * {@link WorldLoop} through {@link WorldLoop#submit(InputCommand)} and applied between
+ * ticks rather than on whichever thread received the input. Since a command only refers
+ * to its target by id, it can also be written to an {@link InputJournal} and replayed.
+ * </p>
+ *
+ * <p>
+ * The following snippet queues a move of 5 pixels to the left for an Actor named
+ * <i>player</i>.
+ * </p>
+ *
+ * <pre>
+ * 	<code>
+ * InputCommand cmd = new InputCommand(InputCommand.MOVE_BY, player.getId(), -5, 0);
+ * WorldLoop.getInstance().submit(cmd);
+ * 	</code>
+ * </pre>
+ */
+public class InputCommand {
+
+	/**
+	 * Shifts the target {@link Entity} by the command's x and y values.
+	 */
+	public static final int MOVE_BY = 1;
+
+	/**
+	 * Fires the target {@link Combatant}'s Weapon at the command's x and y
+	 * coordinates.
+	 */
+	public static final int FIRE_AT = 2;
+
+	// Action and the id of the Entity to act upon
+	private int mType;
+	private int mTarget;
+
+	// Action parameters
+	private double mX;
+	private double mY;
+
+	/**
+	 * Constructor for a command acting upon an {@link Entity}.
+	 *
+	 * @param type	either {@link #MOVE_BY} or {@link #FIRE_AT}.
+	 * @param target	the id of the Entity to act upon.
+	 * @param x	the x value of the action.
+	 * @param y	the y value of the action.
+	 * @throws IllegalArgumentException	if the type is not a known command or
+	 * the target is {@link Register#UNREGISTERED}.
+	 */
+	public InputCommand(int type, int target, double x, double y) {
+		validate(type, target);
+
+		mType = type;
+		mTarget = target;
+		mX = x;
+		mY = y;
+	}
+
+	/**
+	 * Performs the command's action on its target. If the target is no longer
+	 * registered with the given {@link InstanceManager} or cannot perform the
+	 * action, this method has no effect.
+	 *
+	 * @param manager	the InstanceManager to look the target up from.
+	 */
+	void apply(InstanceManager manager) {
+		apply(manager, mType, mTarget, mX, mY);
+	}
+
+	/**
+	 * Performs a command's action given as separate fields. This method allows
+	 * commands held in an {@link InputQueue} to be applied without creating an
+	 * InputCommand for each.
+	 *
+	 * @param manager	the InstanceManager to look the target up from.
+	 * @param type	either {@link #MOVE_BY} or {@link #FIRE_AT}.
+	 * @param target	the id of the Entity to act upon.
+	 * @param x	the x value of the action.
+	 * @param y	the y value of the action.
+	 * @see #apply(InstanceManager)
+	 */
+	static void apply(InstanceManager manager, int type, int target, double x, double y) {
+		Identifiable obj = manager.getItem(target);
+
+		// Silent fail for removed targets
+		if (!(obj instanceof Entity)) {
+			return;
+		}
+
+		if (type == MOVE_BY) {
+			((Entity) obj).moveBy(x, y);
+		} else if (obj instanceof Combatant) {
+			// Silent fail for Actors without a Weapon to fire
+			if (obj instanceof Actor && !((Actor) obj).isArmed()) {
+				return;
+			}
+			((Combatant) obj).fireAt(x, y);
+		}
+	}
+
+	/**
+	 * Throws an IllegalArgumentException if the given type and target cannot form
+	 * a command.
+	 *
+	 * @param type	the command type.
+	 * @param target	the id of the Entity to act upon.
+	 * @throws IllegalArgumentException	if the type is not a known command or
+	 * the target is {@link Register#UNREGISTERED}.
+	 */
+	static void validate(int type, int target) {
+		if (type != MOVE_BY && type != FIRE_AT) {
+			throw new IllegalArgumentException("Unknown command type: " + type);
+		}
+		if (target == Register.UNREGISTERED) {
+			throw new IllegalArgumentException("Command target must be registered");
+		}
+	}
+
+	/**
+	 * Gets the kind of action the command performs.
+	 *
+	 * @return either {@link #MOVE_BY} or {@link #FIRE_AT}.
+	 */
+	public int getType() { return mType; }
+
+	/**
+	 * Gets the id of the {@link Entity} the command acts upon.
+	 *
+	 * @return the target's id.
+	 */
+	public int getTarget() { return mTarget; }
+
+	/**
+	 * Gets the x value of the action.
+	 *
+	 * @return the x value.
+	 * @see #getY()
+	 */
+	public double getX() { return mX; }
+
+	/**
+	 * Gets the y value of the action.
+	 *
+	 * @return the y value.
+	 * @see #getX()
+	 */
+	public double getY() { return mY; }
+
+	/**
+	 * Returns a String representing the InputCommand in the format
+	 * "{ type [target] (x, y) }".
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("{ ");
+		builder.append(mType == MOVE_BY ? "MOVE_BY" : "FIRE_AT");
+		builder.append(" [");
+		builder.append(mTarget);
+		builder.append("] (");
+		builder.append(mX);
+		builder.append(", ");
+		builder.append(mY);
+		builder.append(") }");
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,139 @@
+package com.rehab.world;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * <p>
+ * InputJournal writes every {@link InputCommand} applied by the {@link WorldLoop} to a
+ * file along with the tick it was applied on. Since the world only changes through ticks
+ * and the commands applied between them, a journal is enough to reproduce a session
+ * with a {@link JournalReplay}.
+ * </p>
+ *
+ * <p>
+ * The file begins with a header of the magic number {@link #MAGIC}, the format
+ * {@link #VERSION}, and the tick rate of the recorded session. Each record that follows
+ * is the number of ticks since the previous record (as a variable length integer), the
+ * command type as a single byte, the target id (as a variable length integer), and the
+ * command's x and y values as doubles. The journal ends with a record of type
+ * {@link #TYPE_END} marking the last tick of the session.
+ * </p>
+ */
+public class InputJournal {
+
+	/**
+	 * Marks a file as an input journal ("RHIJ").
+	 */
+	public static final int MAGIC = 0x5248494A;
+
+	/**
+	 * Version of the journal's format.
+	 */
+	public static final int VERSION = 1;
+
+	// Record type for the end of the session
+	static final int TYPE_END = 0;
+
+	// Stream to the journal file
+	private DataOutputStream mOut;
+
+	// Tick of the last written record
+	private long mLastTick = 0;
+
+	/**
+	 * Constructor for a journal written to the given file. Any existing file
+	 * will be overwritten.
+	 *
+	 * @param file	the file to write to.
+	 * @param tickRate	the ticks per second of the session being recorded.
+	 * @throws IOException	if the file could not be opened or written to.
+	 */
+	public InputJournal(File file, int tickRate) throws IOException {
+		mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		mOut.writeInt(MAGIC);
+		mOut.writeShort(VERSION);
+		mOut.writeInt(tickRate);
+	}
+
+	/**
+	 * Writes a command applied on the given tick.
+	 *
+	 * @param tick	the tick the command was applied on.
+	 * @param cmd	the InputCommand.
+	 * @throws IOException	if the journal could not be written to.
+	 * @throws IllegalArgumentException	if the tick is earlier than the tick
+	 * of a previously written command.
+	 */
+	public void write(long tick, InputCommand cmd) throws IOException {
+		write(tick, cmd.getType(), cmd.getTarget(), cmd.getX(), cmd.getY());
+	}
+
+	/**
+	 * Writes a command given as separate fields that was applied on the given tick.
+	 *
+	 * @param tick	the tick the command was applied on.
+	 * @param type	the command type.
+	 * @param target	the id of the Entity acted upon.
+	 * @param x	the x value of the action.
+	 * @param y	the y value of the action.
+	 * @throws IOException	if the journal could not be written to.
+	 * @throws IllegalArgumentException	if the tick is earlier than the tick
+	 * of a previously written command.
+	 * @see #write(long, InputCommand)
+	 */
+	public void write(long tick, int type, int target, double x, double y) throws IOException {
+		writeTick(tick);
+		mOut.writeByte(type);
+		writeVarLong(mOut, target);
+		mOut.writeDouble(x);
+		mOut.writeDouble(y);
+	}
+
+	/**
+	 * Marks the last tick of the session and closes the journal.
+	 *
+	 * @param tick	the number of ticks the session ran for.
+	 * @throws IOException	if the journal could not be written to.
+	 */
+	public void close(long tick) throws IOException {
+		writeTick(tick);
+		mOut.writeByte(TYPE_END);
+		mOut.close();
+	}
+
+	/**
+	 * Writes the ticks passed since the previous record.
+	 *
+	 * @param tick	the tick of the record about to be written.
+	 * @throws IOException	if the journal could not be written to.
+	 */
+	private void writeTick(long tick) throws IOException {
+		if (tick < mLastTick) {
+			throw new IllegalArgumentException("Records must be written in tick order");
+		}
+		writeVarLong(mOut, tick - mLastTick);
+		mLastTick = tick;
+	}
+
+	/**
+	 * Writes a non-negative long using 7 bits per byte with the high bit set on
+	 * every byte but the last. Small values such as tick deltas and ids then take
+	 * a single byte.
+	 *
+	 * @param out	the stream to write to.
+	 * @param value	the non-negative value.
+	 * @throws IOException	if the stream could not be written to.
+	 */
+	static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+}
@@ -0,0 +1,206 @@
+package com.rehab.world;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * InputQueue is a bounded, lock-free queue of {@link InputCommand}s meant to be filled by
+ * any number of input threads (such as GLFW's callbacks) and emptied by a single consumer,
+ * the {@link WorldLoop}. Commands are stored field by field in preallocated arrays rather
+ * than as objects so that queuing input never allocates nor blocks the game world.
+ * </p>
+ * 
+ * <p>
+ * Each slot carries a sequence number. A producer claims a slot by advancing the shared
+ * tail and publishes it by moving the slot's sequence forward once its fields are written.
+ * The consumer only reads a slot whose sequence says it has been published and hands the
+ * slot back by moving the sequence a full lap ahead.
+ * </p>
+ * 
+ * <p>
+ * Following is the consumer's side of the queue. The command's fields are only valid
+ * until the next call to {@link #poll()}.
+ * </p>
+ * 
+ * <pre>
+ * 	<code>
+ * while (queue.poll()) {
+ * 	int type = queue.getType();
+ * 	int target = queue.getTarget();
+ * 	...
+ * }
+ * 	</code>
+ * </pre>
+ * 
+ * <p>This class is thread-safe for producers but only a single thread may call {@link #poll()}.</p>
+ */
+class InputQueue {
+	
+	// Slot count and mask for wrapping positions into slots
+	private final int mCapacity;
+	private final int mMask;
+	
+	// Publication state of each slot
+	private final AtomicLongArray mSequences;
+	// Next position to be claimed by producers
+	private final AtomicLong mTail = new AtomicLong(0);
+	// Next position to be read by the consumer
+	private long mHead = 0;
+	
+	// Command fields per slot
+	private final int[] mTypes;
+	private final int[] mTargets;
+	private final double[] mXs;
+	private final double[] mYs;
+	private final long[] mStamps;
+	
+	// Number of commands rejected because the queue was full
+	private final AtomicLong mDropped = new AtomicLong(0);
+	
+	// Fields of the most recently polled command
+	private int mType;
+	private int mTarget;
+	private double mX;
+	private double mY;
+	private long mStamp;
+	
+	/**
+	 * Constructor for an InputQueue holding up to a given number of commands.
+	 * 
+	 * @param capacity	the number of commands the queue can hold, rounded up to
+	 * the next power of two.
+	 * @throws IllegalArgumentException	if the capacity is not greater than 0.
+	 */
+	InputQueue(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be > 0");
+		}
+		// Round up so positions wrap with a mask
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		
+		mCapacity = size;
+		mMask = size - 1;
+		mSequences = new AtomicLongArray(size);
+		mTypes = new int[size];
+		mTargets = new int[size];
+		mXs = new double[size];
+		mYs = new double[size];
+		mStamps = new long[size];
+		
+		// Every slot starts free for the producer of its position
+		for (int i = 0; i < size; i++) {
+			mSequences.set(i, i);
+		}
+	}
+	
+	/**
+	 * Adds a command to the queue. This method may be safely called from any
+	 * {@link Thread} and never blocks.
+	 * 
+	 * @param type	the command type.
+	 * @param target	the id of the Entity to act upon.
+	 * @param x	the x value of the action.
+	 * @param y	the y value of the action.
+	 * @return true if the command was queued, false if the queue was full.
+	 */
+	boolean offer(int type, int target, double x, double y) {
+		long stamp = System.nanoTime();
+		
+		while (true) {
+			long pos = mTail.get();
+			int slot = (int) (pos & mMask);
+			long diff = mSequences.get(slot) - pos;
+			
+			if (diff == 0) {
+				// Slot is free for this position so try to claim it
+				if (mTail.compareAndSet(pos, pos + 1)) {
+					mTypes[slot] = type;
+					mTargets[slot] = target;
+					mXs[slot] = x;
+					mYs[slot] = y;
+					mStamps[slot] = stamp;
+					// Publish the written fields to the consumer
+					mSequences.lazySet(slot, pos + 1);
+					return true;
+				}
+			} else if (diff < 0) {
+				// Consumer has yet to free the slot from the previous lap
+				mDropped.incrementAndGet();
+				return false;
+			}
+			// Another producer claimed the position first so retry
+		}
+	}
+	
+	/**
+	 * Removes the oldest command from the queue. The removed command's fields can
+	 * then be read through the queue's getters until the next call to this method.
+	 * Only a single {@link Thread} may call this method.
+	 * 
+	 * @return true if a command was removed, false if the queue was empty.
+	 */
+	boolean poll() {
+		int slot = (int) (mHead & mMask);
+		if (mSequences.get(slot) != mHead + 1) {
+			return false;
+		}
+		
+		// Copy out before the slot is handed back to producers
+		mType = mTypes[slot];
+		mTarget = mTargets[slot];
+		mX = mXs[slot];
+		mY = mYs[slot];
+		mStamp = mStamps[slot];
+		
+		mSequences.lazySet(slot, mHead + mCapacity);
+		mHead++;
+		return true;
+	}
+	
+	/**
+	 * Gets the type of the last polled command.
+	 * 
+	 * @return the command type.
+	 */
+	int getType() { return mType; }
+	
+	/**
+	 * Gets the target id of the last polled command.
+	 * 
+	 * @return the target's id.
+	 */
+	int getTarget() { return mTarget; }
+	
+	/**
+	 * Gets the x value of the last polled command.
+	 * 
+	 * @return the x value.
+	 */
+	double getX() { return mX; }
+	
+	/**
+	 * Gets the y value of the last polled command.
+	 * 
+	 * @return the y value.
+	 */
+	double getY() { return mY; }
+	
+	/**
+	 * Gets the time the last polled command was offered.
+	 * 
+	 * @return the {@link System#nanoTime()} at which the command was queued.
+	 */
+	long getStamp() { return mStamp; }
+	
+	/**
+	 * Gets the number of commands rejected because the queue was full.
+	 * 
+	 * @return the dropped command count.
+	 */
+	long getDropped() { return mDropped.get(); }
+
+}
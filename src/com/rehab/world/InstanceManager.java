@@ -1,5 +1,12 @@
 package com.rehab.world;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import com.rehab.animation.Renderer;
 import com.rehab.animation.Sprite;
@@ -34,7 +41,7 @@ import com.rehab.animation.SpriteManager;
  */
 public class InstanceManager extends Register {
 
-	// The only instance allowed
+	// The instance shared by the WorldLoop and Renderer
 	private static InstanceManager mManager;
 
 	// Lookup table for Entities in the Arena
@@ -42,16 +49,29 @@ public class InstanceManager extends Register {
 	private Hashtable<Integer, Projectile> mLoadedProjTable = new Hashtable<Integer, Projectile>();
 	private Hashtable<Integer, Prop> mLoadedPropTable = new Hashtable<Integer, Prop>();
 	
+	// Unregistered clones built ahead of time for each template Actor
+	private IdentityHashMap<Actor, ArrayDeque<Actor>> mPrewarmed = new IdentityHashMap<Actor, ArrayDeque<Actor>>();
+	
+	// Ids unregistered and Entities changed since the last checkpoint, if a
+	// CheckpointLog is kept
+	private ArrayList<Integer> mRemoved;
+	private ConcurrentLinkedQueue<Entity> mChanged;
+	
 	// Counts for registered Entity subclasses
 	private int mNumActors = 0;
 	private int mNumProjs = 0;
 	private int mNumProps = 0;
 	
 	/**
-	 * Private constructor prevents direct instantiation and removes default
-	 * constructor from doc.
+	 * Constructor for an InstanceManager apart from the one shared by the
+	 * {@link WorldLoop} and Renderer. Each match hosted by an {@link ArenaHost} keeps
+	 * its Entities in its own InstanceManager so that ids and lookups never mix between
+	 * matches. Entities registered with a separate InstanceManager are always loaded
+	 * right away.
+	 * 
+	 * @see #getInstance()
 	 */
-	private InstanceManager() {
+	public InstanceManager() {
 		
 	}
 	
@@ -101,6 +121,137 @@ public class InstanceManager extends Register {
 		register(clone);
 		return clone;
 	}
+	
+	/**
+	 * <p>
+	 * Creates several clones of a given {@link Actor} at once. Every clone is built and
+	 * placed before any are registered; the whole batch then receives a consecutive
+	 * block of ids and, if the game has started, is loaded into the game world in a
+	 * single step. This avoids taking the InstanceManager's lock once per clone when
+	 * spawning waves of Actors.
+	 * </p>
+	 * 
+	 * <p>
+	 * Positions are given as x and y pairs, one pair per clone. If no positions are
+	 * given, the clones keep the template's location. Clones prepared with
+	 * {@link #prewarmActors(Actor, int)} are used before any new clones are built.
+	 * </p>
+	 * 
+	 * @param template	the Actor to clone.
+	 * @param count	the number of clones to create.
+	 * @param positions	the x and y-coordinate for each clone, in order.
+	 * @return the clones.
+	 * @throws IllegalArgumentException	if the template is null, the count is not
+	 * greater than 0, or positions are given but not exactly one pair per clone.
+	 * @see #createActor(Actor)
+	 */
+	public Actor[] createActors(Actor template, int count, double... positions) {
+		if (template == null) {
+			throw new IllegalArgumentException("Cannot clone a null Actor");
+		}
+		if (count < 1) {
+			throw new IllegalArgumentException("Clone count must be > 0");
+		}
+		if (positions.length != 0 && positions.length != count * 2) {
+			throw new IllegalArgumentException("Expected an x and y for each of the " + count + " clones");
+		}
+		
+		// Build and place outside of the lock
+		Actor[] clones = new Actor[count];
+		int built = takePrewarmed(template, clones);
+		for (int i = built; i < count; i++) {
+			clones[i] = new Actor(template);
+		}
+		if (positions.length != 0) {
+			for (int i = 0; i < count; i++) {
+				clones[i].moveTo(positions[i * 2], positions[i * 2 + 1]);
+			}
+		}
+		
+		// Publish the whole batch at once
+		synchronized (this) {
+			putItems(clones, count);
+			if (isLive()) {
+				synchronized (mLoadedActTable) {
+					for (int i = 0; i < count; i++) {
+						mLoadedActTable.put(clones[i].getId(), clones[i]);
+					}
+				}
+			}
+			mNumActors += count;
+		}
+		return clones;
+	}
+	
+	/**
+	 * Builds clones of an {@link Actor} ahead of time so that later calls to
+	 * {@link #createActors(Actor, int, double...)} with the same template only need to
+	 * register them. This method is meant to be called while loading a level so that
+	 * the cost of building clones is not paid during play. Prewarmed clones copy the
+	 * template as it is at the time of this call.
+	 * 
+	 * @param template	the Actor to clone.
+	 * @param count	the number of clones to prepare.
+	 * @throws IllegalArgumentException	if the template is null or the count is negative.
+	 * @see #clearPrewarmed()
+	 */
+	public void prewarmActors(Actor template, int count) {
+		if (template == null) {
+			throw new IllegalArgumentException("Cannot clone a null Actor");
+		}
+		if (count < 0) {
+			throw new IllegalArgumentException("Clone count must be >= 0");
+		}
+		
+		ArrayDeque<Actor> clones = new ArrayDeque<Actor>(count);
+		for (int i = 0; i < count; i++) {
+			clones.add(new Actor(template));
+		}
+		
+		synchronized (mPrewarmed) {
+			ArrayDeque<Actor> pool = mPrewarmed.get(template);
+			if (pool == null) {
+				mPrewarmed.put(template, clones);
+			} else {
+				pool.addAll(clones);
+			}
+		}
+	}
+	
+	/**
+	 * Discards every unused clone prepared by {@link #prewarmActors(Actor, int)}.
+	 */
+	public void clearPrewarmed() {
+		synchronized (mPrewarmed) {
+			mPrewarmed.clear();
+		}
+	}
+	
+	/**
+	 * Moves prewarmed clones of a template into the start of an array.
+	 * 
+	 * @param template	the Actor the clones were built from.
+	 * @param clones	the array to fill.
+	 * @return the number of clones placed in the array.
+	 */
+	private int takePrewarmed(Actor template, Actor[] clones) {
+		synchronized (mPrewarmed) {
+			ArrayDeque<Actor> pool = mPrewarmed.get(template);
+			if (pool == null) {
+				return 0;
+			}
+			
+			int taken = 0;
+			while (taken < clones.length && !pool.isEmpty()) {
+				clones[taken++] = pool.poll();
+			}
+			// Forget the template once its clones are used up
+			if (pool.isEmpty()) {
+				mPrewarmed.remove(template);
+			}
+			return taken;
+		}
+	}
 
 	/**
 	 * Creates a new {@link Projectile} instance with a given owner {@link Actor} and
@@ -173,6 +324,30 @@ public class InstanceManager extends Register {
 		register(p);
 		return p;
 	}
+	
+	/**
+	 * Registers several Props built elsewhere at once, such as while streaming a
+	 * {@link Level}. Like {@link #createActors(Actor, int, double...)}, the batch
+	 * receives a consecutive block of ids and, if the game has started, is loaded
+	 * into the game world in a single step.
+	 * 
+	 * @param props	the Props, none of which may be registered yet.
+	 * @param count	the number of Props to take from the start of the array.
+	 * @throws IllegalArgumentException	if any of the Props is already registered.
+	 */
+	void registerProps(Prop[] props, int count) {
+		synchronized (this) {
+			putItems(props, count);
+			if (isLive()) {
+				synchronized (mLoadedPropTable) {
+					for (int i = 0; i < count; i++) {
+						mLoadedPropTable.put(props[i].getId(), props[i]);
+					}
+				}
+			}
+			mNumProps += count;
+		}
+	}
 
 	/**
 	 * Registers the given Actor with the game's global Actor list.
@@ -184,7 +359,7 @@ public class InstanceManager extends Register {
 	 * @see #unregister(Entity)
 	 */
 	private int register(Actor a) {
-		synchronized (mManager) {
+		synchronized (this) {
 			// Don't re-register
 			if (getItem(a.getId()) != null) {
 				return Register.UNREGISTERED;
@@ -193,7 +368,7 @@ public class InstanceManager extends Register {
 			int id = putItem(a);
 
 			// Auto load into game if already began
-			if (Renderer.isRunning()) {
+			if (isLive()) {
 				load(a);
 			}
 
@@ -212,7 +387,7 @@ public class InstanceManager extends Register {
 	 * @see #unregister(Entity)
 	 */
 	private int register(Projectile p) {
-		synchronized (mManager) {
+		synchronized (this) {
 			// Don't re-register
 			if (getItem(p.getId()) != null) {
 				return Register.UNREGISTERED;
@@ -221,7 +396,7 @@ public class InstanceManager extends Register {
 			int id = putItem(p);
 
 			// Auto load into game if already began
-			if (Renderer.isRunning()) {
+			if (isLive()) {
 				load(p);
 			}
 
@@ -240,7 +415,7 @@ public class InstanceManager extends Register {
 	 * @see #unregister(Entity)
 	 */
 	private int register(Prop p) {
-		synchronized (mManager) {
+		synchronized (this) {
 			// Don't re-register
 			if (getItem(p.getId()) != null) {
 				return Register.UNREGISTERED;
@@ -249,7 +424,7 @@ public class InstanceManager extends Register {
 			int id = putItem(p);
 
 			// Auto load into game if already began
-			if (Renderer.isRunning()) {
+			if (isLive()) {
 				load(p);
 			}
 
@@ -269,7 +444,7 @@ public class InstanceManager extends Register {
 	 * @see	#register(Actor)
 	 */
 	public boolean unregister(Actor a) {
-		synchronized (mManager) {
+		synchronized (this) {
 			int id = a.getId();
 
 			// Fail if still loaded or not in global list
@@ -280,6 +455,9 @@ public class InstanceManager extends Register {
 			// Remove from global table if already unloaded
 			removeItem(id);
 			mNumActors--;
+			if (mRemoved != null) {
+				mRemoved.add(id);
+			}
 			return true;
 		}
 	}
@@ -295,7 +473,7 @@ public class InstanceManager extends Register {
 	 * @see	#register(Projectile)
 	 */
 	public boolean unregister(Projectile p) {
-		synchronized (mManager) {
+		synchronized (this) {
 			int id = p.getId();
 
 			// Fail if still loaded or not in global list
@@ -306,6 +484,9 @@ public class InstanceManager extends Register {
 			// Remove from global table if already unloaded
 			removeItem(id);
 			mNumProjs--;
+			if (mRemoved != null) {
+				mRemoved.add(id);
+			}
 			return true;
 		}
 	}
@@ -321,7 +502,7 @@ public class InstanceManager extends Register {
 	 * @see	#register(Prop)
 	 */
 	public boolean unregister(Prop p) {
-		synchronized (mManager) {
+		synchronized (this) {
 			int id = p.getId();
 
 			// Fail if still loaded or not in global list
@@ -332,6 +513,9 @@ public class InstanceManager extends Register {
 			// Remove from global table if already unloaded
 			removeItem(id);
 			mNumProps--;
+			if (mRemoved != null) {
+				mRemoved.add(id);
+			}
 			return true;
 		}
 	}
@@ -368,13 +552,14 @@ public class InstanceManager extends Register {
 	 * @see #unload(Entity)
 	 */
 	public boolean load(Actor a) {
-		synchronized (mManager) {
+		synchronized (this) {
 			int id = a.getId();
 			if (getItem(id) == null || mLoadedActTable.containsKey(id)) {
 				return false;
 			}
 			
 			mLoadedActTable.put(id, a);
+			a.markDirty();
 			return true;
 		}
 	}
@@ -389,13 +574,14 @@ public class InstanceManager extends Register {
 	 * @see	#unload(Entity)
 	 */
 	public boolean load(Projectile p) {
-		synchronized (mManager) {
+		synchronized (this) {
 			int id = p.getId();
 			if (getItem(id) == null || mLoadedProjTable.containsKey(id)) {
 				return false;
 			}
 
 			mLoadedProjTable.put(id, p);
+			p.markDirty();
 			return true;
 		}
 	}
@@ -410,13 +596,14 @@ public class InstanceManager extends Register {
 	 * @see #unload(Entity)
 	 */
 	public boolean load(Prop p) {
-		synchronized (mManager) {
+		synchronized (this) {
 			int id = p.getId();
 			if (getItem(id) == null || mLoadedPropTable.containsKey(id)) {
 				return false;
 			}
 
 			mLoadedPropTable.put(id, p);
+			p.markDirty();
 			return true;
 		}
 	}
@@ -434,8 +621,9 @@ public class InstanceManager extends Register {
 	 * @see #load(Prop)
 	 */
 	public boolean unload(Entity e) {
-		synchronized (mManager) {
+		synchronized (this) {
 			int id = e.getId();
+			e.markDirty();
 			if (mLoadedProjTable.remove(id) == null) return false;
 			if (mLoadedActTable.remove(id) == null) return false;
 			if (mLoadedPropTable.remove(id) == null) return false;
@@ -443,6 +631,274 @@ public class InstanceManager extends Register {
 			return true;
 		}
 	}
+	
+	/**
+	 * Writes every registered Entity to a snapshot file, replacing the file. Each
+	 * Entity's id, physics, Hitbox, Sprite id, flags, health, Weapon, and whether or
+	 * not it is in the game world are kept; see {@link WorldSnapshot} for the format.
+	 * Entities must not be stepped while being saved.
+	 * 
+	 * @param file	the file to write.
+	 * @throws IOException	if the file could not be written.
+	 * @see #restoreSnapshot(File)
+	 */
+	public void saveSnapshot(File file) throws IOException {
+		new WorldSnapshot().save(this, getEntities(), file);
+	}
+	
+	/**
+	 * Restores every Entity of a snapshot file written by {@link #saveSnapshot(File)}.
+	 * An Entity registered under a saved id is overwritten in place while every other
+	 * saved Entity is created and registered under its saved id, so references by id
+	 * stay valid. Entities registered but not in the snapshot are left alone. Sprites
+	 * are looked up by id in the {@link SpriteManager} and so should be loaded first.
+	 * 
+	 * @param file	the snapshot file.
+	 * @return the number of Entities restored.
+	 * @throws IOException	if the file could not be read or is not a snapshot of a
+	 * supported version.
+	 * @see #saveSnapshot(File)
+	 */
+	public int restoreSnapshot(File file) throws IOException {
+		return new WorldSnapshot().restore(this, file);
+	}
+	
+	/**
+	 * Copies every registered Entity at once.
+	 * 
+	 * @return the Entities.
+	 */
+	Entity[] getEntities() {
+		synchronized (this) {
+			Entity[] entities = new Entity[getItemCount()];
+			int count = 0;
+			for (Identifiable obj : items()) {
+				if (obj instanceof Entity) {
+					entities[count++] = (Entity) obj;
+				}
+			}
+			return count < entities.length ? Arrays.copyOf(entities, count) : entities;
+		}
+	}
+	
+	@Override
+	protected int putItem(Identifiable obj) {
+		int id = super.putItem(obj);
+		track(obj);
+		return id;
+	}
+	
+	@Override
+	protected void putItem(Identifiable obj, int id) {
+		super.putItem(obj, id);
+		track(obj);
+	}
+	
+	@Override
+	protected int putItems(Identifiable[] objs, int count) {
+		int first = super.putItems(objs, count);
+		for (int i = 0; i < count; i++) {
+			track(objs[i]);
+		}
+		return first;
+	}
+	
+	@Override
+	protected Identifiable removeItem(int id) {
+		Identifiable obj = super.removeItem(id);
+		if (obj instanceof Entity) {
+			((Entity) obj).trackChanges(null);
+			((Entity) obj).setStore(null);
+		}
+		return obj;
+	}
+	
+	/**
+	 * Tells a newly registered Entity which InstanceManager holds it and has it
+	 * report its changes if they are tracked.
+	 * 
+	 * @param obj	the registered object.
+	 */
+	private void track(Identifiable obj) {
+		if (!(obj instanceof Entity)) {
+			return;
+		}
+		Entity e = (Entity) obj;
+		e.setStore(this);
+		if (mChanged != null) {
+			e.trackChanges(mChanged);
+		}
+	}
+	
+	/**
+	 * Starts or stops remembering the ids of unregistered Entities for
+	 * {@link #takeRemoved()} and the Entities changed for
+	 * {@link #takeChanged(ArrayList)}. Every registered Entity counts as changed once
+	 * tracking starts.
+	 * 
+	 * @param track	true to start remembering, false to stop and forget.
+	 * @throws IllegalStateException	if changes are already being remembered.
+	 */
+	void trackChanges(boolean track) {
+		synchronized (this) {
+			if (!track) {
+				mRemoved = null;
+				mChanged = null;
+				for (Identifiable obj : items()) {
+					if (obj instanceof Entity) {
+						((Entity) obj).trackChanges(null);
+					}
+				}
+				return;
+			}
+			if (mRemoved != null) {
+				throw new IllegalStateException("InstanceManager already has a CheckpointLog");
+			}
+			mRemoved = new ArrayList<Integer>();
+			mChanged = new ConcurrentLinkedQueue<Entity>();
+			for (Identifiable obj : items()) {
+				if (obj instanceof Entity) {
+					((Entity) obj).trackChanges(mChanged);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Adds every registered Entity changed since the last call to a list, once each,
+	 * and clears their marks. Only the Entities actually changed are visited.
+	 * 
+	 * @param changed	the list to add to.
+	 * @see #trackChanges(boolean)
+	 */
+	void takeChanged(ArrayList<Entity> changed) {
+		synchronized (this) {
+			if (mChanged == null) {
+				return;
+			}
+			Entity e;
+			while ((e = mChanged.poll()) != null) {
+				// Marked more than once or unregistered since
+				if (e.takeDirty() && getItem(e.getId()) == e) {
+					changed.add(e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Gets the ids of Entities unregistered since the last call and forgets them.
+	 * 
+	 * @return the ids, empty if removals are not tracked.
+	 * @see #trackChanges(boolean)
+	 */
+	int[] takeRemoved() {
+		synchronized (this) {
+			if (mRemoved == null) {
+				return new int[0];
+			}
+			int[] ids = new int[mRemoved.size()];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = mRemoved.get(i);
+			}
+			mRemoved.clear();
+			return ids;
+		}
+	}
+	
+	/**
+	 * Takes a restored Entity out of the game world and unregisters it, such as
+	 * when a checkpoint records its removal.
+	 * 
+	 * @param e	the Entity.
+	 */
+	void remove(Entity e) {
+		synchronized (this) {
+			setInWorld(e, false);
+			if (e instanceof Actor) {
+				unregister((Actor) e);
+			} else if (e instanceof Projectile) {
+				unregister((Projectile) e);
+			} else if (e instanceof Prop) {
+				unregister((Prop) e);
+			}
+		}
+	}
+	
+	/**
+	 * Gets the registered Entity with a given id.
+	 * 
+	 * @param id	the id.
+	 * @return the Entity, or null if none is registered under the id.
+	 */
+	Entity getEntity(int id) {
+		Identifiable obj = getItem(id);
+		return obj instanceof Entity ? (Entity) obj : null;
+	}
+	
+	/**
+	 * Registers a restored Entity under the id it was saved with. Unlike creating an
+	 * Entity, this never loads it into the game world.
+	 * 
+	 * @param e	the Entity.
+	 * @param id	the saved id.
+	 * @throws IllegalArgumentException	if the id is taken or the Entity is already
+	 * registered.
+	 */
+	void restore(Entity e, int id) {
+		synchronized (this) {
+			putItem(e, id);
+			if (e instanceof Actor) {
+				mNumActors++;
+			} else if (e instanceof Projectile) {
+				mNumProjs++;
+			} else {
+				mNumProps++;
+			}
+		}
+	}
+	
+	/**
+	 * Checks whether or not an Entity is in the game world.
+	 * 
+	 * @param e	the Entity.
+	 * @return true if the Entity is loaded.
+	 */
+	boolean isInWorld(Entity e) {
+		int id = e.getId();
+		return mLoadedActTable.containsKey(id) || mLoadedProjTable.containsKey(id)
+				|| mLoadedPropTable.containsKey(id);
+	}
+	
+	/**
+	 * Moves a registered Entity into or out of the game world.
+	 * 
+	 * @param e	the Entity.
+	 * @param loaded	true to load the Entity, false to unload it.
+	 */
+	void setInWorld(Entity e, boolean loaded) {
+		synchronized (this) {
+			int id = e.getId();
+			if (e instanceof Actor) {
+				if (loaded) mLoadedActTable.put(id, (Actor) e); else mLoadedActTable.remove(id);
+			} else if (e instanceof Projectile) {
+				if (loaded) mLoadedProjTable.put(id, (Projectile) e); else mLoadedProjTable.remove(id);
+			} else if (e instanceof Prop) {
+				if (loaded) mLoadedPropTable.put(id, (Prop) e); else mLoadedPropTable.remove(id);
+			}
+			e.markDirty();
+		}
+	}
+	
+	/**
+	 * Checks whether or not newly registered Entities should be loaded right away.
+	 * 
+	 * @return true if the game has started or this is a separate InstanceManager,
+	 * false otherwise.
+	 */
+	private boolean isLive() {
+		return this != mManager || Renderer.isRunning() || WorldLoop.isRunning();
+	}
 
 	/**
 	 * Checks whether or not an Entity with the specified instance id
@@ -0,0 +1,175 @@
+package com.rehab.world;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Integrator moves a batch of {@link Entity}s by their own {@link Phys} for a single tick.
+ * Bodies are added from the world's thread into a dense array along with where each
+ * started, moved together with {@link #run()}, then read back by the index they were
+ * added at. An Entity's {@link Entity#move()} only changes its own Phys and
+ * {@link Hitbox} so, once a batch is large enough to outweigh the cost of forking, the
+ * array is halved into chunks and moved across a {@link ForkJoinPool}, letting idle
+ * threads steal the chunks left over by busy ones.
+ * </p>
+ * 
+ * <p>
+ * Nothing else is done during the run: checks against the world, listeners, and anything
+ * else reaching beyond a single Entity belong on the world's thread before or after it.
+ * The same Entity must not be added twice to a batch.
+ * </p>
+ * 
+ * <p>This class is <b>not</b> thread-safe; only a single thread may add bodies and read results.</p>
+ */
+final class Integrator {
+	
+	// Initial number of bodies room is made for
+	private static final int INITIAL_CAPACITY = 64;
+	
+	// Number of bodies below which a batch is not split further
+	private static final int CHUNK_SIZE = 512;
+	
+	// Threads to split large batches across
+	private ForkJoinPool mPool;
+	
+	// Bodies to move and the location (x, y) each started from
+	private Entity[] mBodies = new Entity[INITIAL_CAPACITY];
+	private double[] mStarts = new double[INITIAL_CAPACITY * 2];
+	private int mCount = 0;
+	
+	/**
+	 * Constructor for an Integrator splitting large batches across a given pool.
+	 * 
+	 * @param pool	the ForkJoinPool to run chunks on.
+	 * @throws IllegalArgumentException	if the pool is null.
+	 */
+	Integrator(ForkJoinPool pool) {
+		setPool(pool);
+	}
+	
+	/**
+	 * Sets the pool large batches are split across.
+	 * 
+	 * @param pool	the ForkJoinPool to run chunks on.
+	 * @throws IllegalArgumentException	if the pool is null.
+	 */
+	void setPool(ForkJoinPool pool) {
+		if (pool == null) {
+			throw new IllegalArgumentException("Pool may not be null");
+		}
+		mPool = pool;
+	}
+	
+	/**
+	 * Adds an Entity to be moved on the next {@link #run()}. Its current location is
+	 * remembered as where it started.
+	 * 
+	 * @param e	the Entity.
+	 * @return the index to read the Entity back at.
+	 */
+	int add(Entity e) {
+		if (mCount == mBodies.length) {
+			Entity[] bodies = new Entity[mCount * 2];
+			System.arraycopy(mBodies, 0, bodies, 0, mCount);
+			mBodies = bodies;
+			double[] starts = new double[mCount * 4];
+			System.arraycopy(mStarts, 0, starts, 0, mCount * 2);
+			mStarts = starts;
+		}
+		
+		int i = mCount++;
+		mBodies[i] = e;
+		mStarts[i * 2] = e.getX();
+		mStarts[i * 2 + 1] = e.getY();
+		return i;
+	}
+	
+	/**
+	 * Moves every Entity added. Batches too small to be worth splitting run on the
+	 * calling thread.
+	 */
+	void run() {
+		if (mCount <= CHUNK_SIZE) {
+			move(0, mCount);
+			return;
+		}
+		mPool.invoke(new Chunk(0, mCount));
+	}
+	
+	/**
+	 * Forgets every Entity added.
+	 */
+	void clear() {
+		for (int i = 0; i < mCount; i++) {
+			mBodies[i] = null;
+		}
+		mCount = 0;
+	}
+	
+	/**
+	 * Gets the number of Entities added.
+	 * 
+	 * @return the body count.
+	 */
+	int size() { return mCount; }
+	
+	/**
+	 * Gets an added Entity.
+	 * 
+	 * @param i	the Entity's index.
+	 * @return the Entity.
+	 */
+	Entity get(int i) { return mBodies[i]; }
+	
+	/**
+	 * Gets the x-coordinate an added Entity was at when added.
+	 * 
+	 * @param i	the Entity's index.
+	 * @return the starting x.
+	 */
+	double getStartX(int i) { return mStarts[i * 2]; }
+	
+	/**
+	 * Gets the y-coordinate an added Entity was at when added.
+	 * 
+	 * @param i	the Entity's index.
+	 * @return the starting y.
+	 */
+	double getStartY(int i) { return mStarts[i * 2 + 1]; }
+	
+	/**
+	 * Moves the Entities within a range.
+	 */
+	private void move(int from, int to) {
+		for (int i = from; i < to; i++) {
+			mBodies[i].move();
+		}
+	}
+	
+	/**
+	 * Chunk of bodies, halved until small enough to move.
+	 */
+	private final class Chunk extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final int mFrom, mTo;
+		
+		Chunk(int from, int to) {
+			mFrom = from;
+			mTo = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (mTo - mFrom <= CHUNK_SIZE) {
+				move(mFrom, mTo);
+				return;
+			}
+			int mid = (mFrom + mTo) >>> 1;
+			invokeAll(new Chunk(mFrom, mid), new Chunk(mid, mTo));
+		}
+	}
+
+}
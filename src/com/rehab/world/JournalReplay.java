@@ -0,0 +1,156 @@
+package com.rehab.world;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * <p>
+ * Reads back the {@link InputCommand}s recorded by an {@link InputJournal}. A
+ * JournalReplay is given to {@link WorldLoop#replay(JournalReplay)} so that the
+ * recorded session runs again headless, tick for tick, and as fast as possible.
+ * </p>
+ *
+ * <pre>
+ * 	<code>
+ * JournalReplay replay = new JournalReplay(new File("session.rhij"));
+ * WorldLoop world = WorldLoop.getInstance(replay.getTickRate(), arena);
+ * world.replay(replay);
+ * world.start();
+ * 	</code>
+ * </pre>
+ */
+public class JournalReplay {
+
+	// Stream from the journal file
+	private DataInputStream mIn;
+	private int mTickRate;
+
+	// Next record waiting to be applied
+	private long mNextTick = 0;
+	private InputCommand mNext;
+	private boolean mEnded = false;
+
+	/**
+	 * Constructor for reading a journal from the given file.
+	 *
+	 * @param file	the journal file.
+	 * @throws IOException	if the file could not be read or is not a journal
+	 * of a supported version.
+	 */
+	public JournalReplay(File file) throws IOException {
+		mIn = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+		// Validate header
+		if (mIn.readInt() != InputJournal.MAGIC) {
+			mIn.close();
+			throw new IOException("File is not an input journal: " + file);
+		}
+		int version = mIn.readShort();
+		if (version != InputJournal.VERSION) {
+			mIn.close();
+			throw new IOException("Unsupported journal version: " + version);
+		}
+		mTickRate = mIn.readInt();
+
+		// Buffer the first record
+		readNext();
+	}
+
+	/**
+	 * Gets the ticks per second the journal was recorded at. A replay must run at
+	 * the same tick rate to reproduce the session.
+	 *
+	 * @return the recorded tick rate.
+	 */
+	public int getTickRate() { return mTickRate; }
+
+	/**
+	 * Gets the next command if it was applied on the given tick. Commands must be
+	 * pulled in order and so this method should be called until it returns null
+	 * before moving on to the next tick.
+	 *
+	 * @param tick	the current tick.
+	 * @return the InputCommand, or null if no more commands were applied on the
+	 * tick.
+	 * @throws IOException	if the journal could not be read or holds an unknown
+	 * command.
+	 */
+	public InputCommand next(long tick) throws IOException {
+		if (mEnded || mNextTick != tick) {
+			return null;
+		}
+		InputCommand cmd = mNext;
+		readNext();
+		return cmd;
+	}
+
+	/**
+	 * Checks whether or not the recorded session has run its full length.
+	 *
+	 * @param tick	the current tick.
+	 * @return true if the session ended at or before the given tick, false
+	 * otherwise.
+	 */
+	public boolean hasEnded(long tick) {
+		return mEnded && tick >= mNextTick;
+	}
+
+	/**
+	 * Closes the journal file.
+	 *
+	 * @throws IOException	if the file could not be closed.
+	 */
+	public void close() throws IOException {
+		mIn.close();
+	}
+
+	/**
+	 * Reads the next record into the buffer.
+	 *
+	 * @throws IOException	if the journal could not be read or the record is not a
+	 * known command.
+	 */
+	private void readNext() throws IOException {
+		mNextTick += readVarLong(mIn);
+		int type = mIn.readUnsignedByte();
+
+		// End record only marks the session's length
+		if (type == InputJournal.TYPE_END) {
+			mNext = null;
+			mEnded = true;
+			return;
+		}
+
+		int target = (int) readVarLong(mIn);
+		double x = mIn.readDouble();
+		double y = mIn.readDouble();
+		try {
+			mNext = new InputCommand(type, target, x, y);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Journal holds an invalid command record", e);
+		}
+	}
+
+	/**
+	 * Reads a long written by {@link InputJournal#writeVarLong(java.io.DataOutputStream, long)}.
+	 *
+	 * @param in	the stream to read from.
+	 * @return the value.
+	 * @throws IOException	if the stream could not be read.
+	 */
+	static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+}
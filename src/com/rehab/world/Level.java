@@ -0,0 +1,566 @@
+package com.rehab.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.rehab.animation.Sprite;
+import com.rehab.animation.SpriteManager;
+import com.rehab.world.Vector2D.Point;
+
+/**
+ * <p>
+ * A Level is an {@link Arena} and everything placed in it as loaded from a level file
+ * prepared ahead of time with a {@link LevelWriter}. The file is streamed through a
+ * small buffer and every Prop and Actor is built and registered with the given
+ * {@link InstanceManager} in batches as its record is read, so that even levels of
+ * hundreds of thousands of Props load without first holding a description of the whole
+ * level in memory.
+ * </p>
+ * 
+ * <pre>
+ * 	<code>
+ * InstanceManager store = InstanceManager.getInstance();
+ * Level level = Level.load(new File("levels/basic-test.rhl"), store);
+ * store.loadAll();
+ * 
+ * Arena arena = level.getArena();
+ * arena.setEntities(store.getLoadedActors(), store.getLoadedProjectiles(), store.getLoadedProps());
+ * WorldLoop.getInstance(60, arena);
+ * level.scheduleSpawns();
+ * 	</code>
+ * </pre>
+ * 
+ * <p>
+ * Spawns are only scheduled with the {@link SpawnManager} by {@link #scheduleSpawns()}
+ * since delays are converted using the {@link WorldLoop}'s tick rate. Sprites are
+ * looked up by name in the {@link SpriteManager} and so should be loaded first.
+ * </p>
+ * 
+ * <p>
+ * All values are little-endian. A level file begins with the magic number
+ * {@link #MAGIC} and the format {@link #VERSION}, each an int, followed by sections of
+ * a tag byte, the section's length in bytes as an int, and the section itself:
+ * </p>
+ * 
+ * <pre>
+ * 	{@link #SECTION_ARENA}	short name length, UTF-8 name, double width, height,
+ * 			int index of the floor Prop or -1
+ * 	{@link #SECTION_SPRITES}	int count, then each as a short length and UTF-8 name
+ * 	{@link #SECTION_PROPS}	int count, then each as short Sprite index or -1,
+ * 			float collision width, height, x, y
+ * 	{@link #SECTION_TEMPLATES}	int count, then each as short Sprite index or -1, double
+ * 			mass, maximum health, float collision width, height, byte flags
+ * 	{@link #SECTION_ACTORS}	int count, then each as short template index, float x, y
+ * 	{@link #SECTION_SPAWNS}	int count, then each as short template index, float x, y,
+ * 			int spawn count, delay and period in milliseconds
+ * 	{@link #SECTION_END}	empty
+ * </pre>
+ * 
+ * <p>
+ * Sprites are named once and referred to by index. A collision size of 0 means no
+ * Hitbox and a negative size means the size of the Sprite. Sections must come after
+ * any section they refer to and unknown sections are skipped.
+ * </p>
+ */
+public class Level {
+	
+	/**
+	 * Marks a file as a level ("RHLV").
+	 */
+	public static final int MAGIC = 0x52484C56;
+	
+	/**
+	 * Version of the level format.
+	 */
+	public static final int VERSION = 1;
+	
+	/**
+	 * Section tags.
+	 */
+	static final byte SECTION_END = 0, SECTION_ARENA = 1, SECTION_SPRITES = 2, SECTION_PROPS = 3,
+			SECTION_TEMPLATES = 4, SECTION_ACTORS = 5, SECTION_SPAWNS = 6;
+	
+	/**
+	 * Template flag for Actors pulled by gravity.
+	 */
+	static final int FLAG_GRAVITY = 1;
+	
+	// Size of the buffer the file is streamed through
+	private static final int BUFFER_SIZE = 1 << 16;
+	// Most Entities built before registering them
+	private static final int BATCH_SIZE = 1024;
+	// Smallest size in bytes of each kind of section record
+	private static final int SPRITE_SIZE = 2, PROP_SIZE = 2 + 4 * 4, TEMPLATE_SIZE = 2 + 8 * 2 + 4 * 2 + 1,
+			ACTOR_SIZE = 2 + 4 * 2, SPAWN_SIZE = 2 + 4 * 2 + 4 * 3;
+	
+	// Level built from the file
+	private Arena mArena;
+	private Prop mFloor;
+	private Actor[] mTemplates = new Actor[0];
+	private int mPropCount = 0;
+	private int mActorCount = 0;
+	
+	// Spawn schedules, in order: template indices, x and y pairs, counts, and
+	// delay and period pairs in milliseconds
+	private int mSpawnCount = 0;
+	private int[] mSpawnTemplates;
+	private double[] mSpawnLocations;
+	private int[] mSpawnNumbers;
+	private long[] mSpawnTimes;
+	
+	// File being streamed
+	private FileChannel mChannel;
+	private ByteBuffer mIn;
+	private Sprite[] mSprites = new Sprite[0];
+	// Entities registered so far, unregistered again if the file turns out invalid
+	private ArrayList<Entity> mCreated = new ArrayList<Entity>();
+	
+	/**
+	 * Constructor for a Level, only built by {@link #load(File, InstanceManager)}.
+	 */
+	private Level() {
+
+	}
+	
+	/**
+	 * Loads a level file. Every Prop and Actor in the level is created and registered
+	 * with the given InstanceManager; as with any other created Entity, they are only
+	 * loaded into the game world right away if the game has started. If the file
+	 * cannot be loaded, every Entity already registered from it is removed again.
+	 * 
+	 * @param file	the level file.
+	 * @param store	the InstanceManager to create Entities with.
+	 * @return the Level.
+	 * @throws IOException	if the file could not be read or is not a valid level of
+	 * a supported version.
+	 * @throws IllegalArgumentException	if the InstanceManager is null.
+	 */
+	public static Level load(File file, InstanceManager store) throws IOException {
+		if (store == null) {
+			throw new IllegalArgumentException("InstanceManager may not be null");
+		}
+		Level level = new Level();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		boolean loaded = false;
+		try {
+			level.mChannel = raf.getChannel();
+			level.mIn = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			level.mIn.limit(0);
+			level.read(file, store);
+			loaded = true;
+		} finally {
+			raf.close();
+			if (!loaded) {
+				// Leave no part of a broken level behind
+				for (int i = 0, size = level.mCreated.size(); i < size; i++) {
+					store.remove(level.mCreated.get(i));
+				}
+			}
+			level.mChannel = null;
+			level.mIn = null;
+			level.mSprites = null;
+			level.mCreated = null;
+		}
+		return level;
+	}
+	
+	/**
+	 * Gets the Arena the level takes place in.
+	 * 
+	 * @return the Arena.
+	 */
+	public Arena getArena() { return mArena; }
+	
+	/**
+	 * Gets the Prop the level uses as its floor.
+	 * 
+	 * @return the floor, or null if the level has none.
+	 */
+	public Prop getFloor() { return mFloor; }
+	
+	/**
+	 * Gets the number of Props created.
+	 * 
+	 * @return the Prop count.
+	 */
+	public int getPropCount() { return mPropCount; }
+	
+	/**
+	 * Gets the number of Actors created, not counting those spawned later.
+	 * 
+	 * @return the Actor count.
+	 */
+	public int getActorCount() { return mActorCount; }
+	
+	/**
+	 * Gets the number of Actor templates the level's Actors and spawns are cloned from.
+	 * 
+	 * @return the template count.
+	 */
+	public int getTemplateCount() { return mTemplates.length; }
+	
+	/**
+	 * Gets an Actor template. Templates are not registered and may be changed, such
+	 * as to arm them, before spawns are scheduled.
+	 * 
+	 * @param index	the template's index in the file.
+	 * @return the template.
+	 * @throws IndexOutOfBoundsException	if there is no template at the index.
+	 */
+	public Actor getTemplate(int index) { return mTemplates[index]; }
+	
+	/**
+	 * Gets the number of spawn schedules.
+	 * 
+	 * @return the spawn count.
+	 */
+	public int getSpawnCount() { return mSpawnCount; }
+	
+	/**
+	 * Schedules every spawn in the level with the {@link SpawnManager}.
+	 * 
+	 * @throws IllegalStateException	if the WorldLoop has not yet been created.
+	 * @see SpawnManager#scheduleSpawn(Actor, Point, int, long, long)
+	 */
+	public void scheduleSpawns() {
+		SpawnManager spawnMan = SpawnManager.getInstance();
+		for (int i = 0; i < mSpawnCount; i++) {
+			Point location = new Point(mSpawnLocations[i * 2], mSpawnLocations[i * 2 + 1]);
+			spawnMan.scheduleSpawn(mTemplates[mSpawnTemplates[i]], location, mSpawnNumbers[i],
+					mSpawnTimes[i * 2], mSpawnTimes[i * 2 + 1]);
+		}
+	}
+	
+	/**
+	 * Reads every section of the file, building the level as it goes.
+	 * 
+	 * @param file	the level file, for messages.
+	 * @param store	the InstanceManager to create Entities with.
+	 * @throws IOException	if the file could not be read or is not a valid level.
+	 */
+	private void read(File file, InstanceManager store) throws IOException {
+		require(8);
+		if (mIn.getInt() != MAGIC) {
+			throw new IOException("File is not a level: " + file);
+		}
+		int version = mIn.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported level version: " + version);
+		}
+		
+		String name = null;
+		double width = 0, height = 0;
+		int floor = -1;
+		
+		while (true) {
+			require(5);
+			byte tag = mIn.get();
+			int length = mIn.getInt();
+			if (length < 0) {
+				throw new IOException("Malformed level section: " + tag);
+			}
+			long end = position() + length;
+			
+			switch (tag) {
+			case SECTION_END:
+				if (name == null) {
+					throw new IOException("Level has no Arena: " + file);
+				}
+				mArena = new Arena(name, width, height, mFloor);
+				return;
+			case SECTION_ARENA:
+				name = readString();
+				require(8 * 2 + 4);
+				width = mIn.getDouble();
+				height = mIn.getDouble();
+				floor = mIn.getInt();
+				break;
+			case SECTION_SPRITES:
+				readSprites(length);
+				break;
+			case SECTION_PROPS:
+				readProps(store, floor, length);
+				break;
+			case SECTION_TEMPLATES:
+				readTemplates(length);
+				break;
+			case SECTION_ACTORS:
+				readActors(store, length);
+				break;
+			case SECTION_SPAWNS:
+				readSpawns(length);
+				break;
+			default:
+				// Written by a newer LevelWriter
+				skip(length);
+				break;
+			}
+			
+			if (position() != end) {
+				throw new IOException("Malformed level section: " + tag);
+			}
+		}
+	}
+	
+	/**
+	 * Reads the Sprite names and finds each Sprite.
+	 */
+	private void readSprites(int length) throws IOException {
+		int count = readCount(length, SPRITE_SIZE);
+		mSprites = new Sprite[count];
+		SpriteManager spriteMan = SpriteManager.getInstance();
+		for (int i = 0; i < count; i++) {
+			mSprites[i] = spriteMan.getSprite(readString());
+		}
+	}
+	
+	/**
+	 * Builds and registers every Prop, a batch at a time.
+	 */
+	private void readProps(InstanceManager store, int floor, int length) throws IOException {
+		int count = readCount(length, PROP_SIZE);
+		Prop[] batch = new Prop[Math.min(count, BATCH_SIZE)];
+		int built = 0;
+		for (int i = 0; i < count; i++) {
+			require(PROP_SIZE);
+			Sprite sprite = findSprite(mIn.getShort());
+			double w = mIn.getFloat(), h = mIn.getFloat();
+			double x = mIn.getFloat(), y = mIn.getFloat();
+			
+			Prop p = new Prop(sprite);
+			Hitbox hitbox = buildHitbox(w, h, sprite);
+			if (hitbox != null) {
+				p.setCollisionModel(hitbox);
+			}
+			p.moveTo(x, y);
+			if (mPropCount + i == floor) {
+				mFloor = p;
+			}
+			
+			batch[built++] = p;
+			mCreated.add(p);
+			if (built == batch.length) {
+				store.registerProps(batch, built);
+				built = 0;
+			}
+		}
+		if (built > 0) {
+			store.registerProps(batch, built);
+		}
+		mPropCount += count;
+	}
+	
+	/**
+	 * Builds every Actor template.
+	 */
+	private void readTemplates(int length) throws IOException {
+		int count = readCount(length, TEMPLATE_SIZE);
+		int first = mTemplates.length;
+		// Templates are referred to by short
+		if (count > Short.MAX_VALUE - first) {
+			throw new IOException("Level has too many templates");
+		}
+		mTemplates = Arrays.copyOf(mTemplates, first + count);
+		for (int i = 0; i < count; i++) {
+			require(TEMPLATE_SIZE);
+			Sprite sprite = findSprite(mIn.getShort());
+			double mass = mIn.getDouble(), maxHealth = mIn.getDouble();
+			double w = mIn.getFloat(), h = mIn.getFloat();
+			int flags = mIn.get();
+			
+			Actor template = new Actor(mass, maxHealth);
+			template.setSprite(sprite);
+			Hitbox hitbox = buildHitbox(w, h, sprite);
+			if (hitbox != null) {
+				template.setCollisionModel(hitbox);
+			}
+			template.setEnableGravity((flags & FLAG_GRAVITY) != 0);
+			mTemplates[first + i] = template;
+		}
+	}
+	
+	/**
+	 * Clones and registers every Actor, a batch at a time for each run of Actors
+	 * sharing a template.
+	 */
+	private void readActors(InstanceManager store, int length) throws IOException {
+		int count = readCount(length, ACTOR_SIZE);
+		double[] positions = new double[Math.min(count, BATCH_SIZE) * 2];
+		int template = -1;
+		int built = 0;
+		for (int i = 0; i < count; i++) {
+			require(ACTOR_SIZE);
+			int next = findTemplate(mIn.getShort());
+			if (next != template || built * 2 == positions.length) {
+				createActors(store, template, positions, built);
+				template = next;
+				built = 0;
+			}
+			positions[built * 2] = mIn.getFloat();
+			positions[built * 2 + 1] = mIn.getFloat();
+			built++;
+		}
+		createActors(store, template, positions, built);
+		mActorCount += count;
+	}
+	
+	/**
+	 * Registers a batch of clones of a template.
+	 */
+	private void createActors(InstanceManager store, int template, double[] positions, int count) {
+		if (count == 0) {
+			return;
+		}
+		Actor[] actors = store.createActors(mTemplates[template], count,
+				count * 2 == positions.length ? positions : Arrays.copyOf(positions, count * 2));
+		mCreated.addAll(Arrays.asList(actors));
+	}
+	
+	/**
+	 * Reads every spawn schedule.
+	 */
+	private void readSpawns(int length) throws IOException {
+		int count = readCount(length, SPAWN_SIZE);
+		int first = mSpawnCount;
+		// Locations and times are stored in pairs
+		if (count > Integer.MAX_VALUE / 2 - first) {
+			throw new IOException("Level has too many spawns");
+		}
+		mSpawnCount += count;
+		mSpawnTemplates = first == 0 ? new int[count] : Arrays.copyOf(mSpawnTemplates, mSpawnCount);
+		mSpawnLocations = first == 0 ? new double[count * 2] : Arrays.copyOf(mSpawnLocations, mSpawnCount * 2);
+		mSpawnNumbers = first == 0 ? new int[count] : Arrays.copyOf(mSpawnNumbers, mSpawnCount);
+		mSpawnTimes = first == 0 ? new long[count * 2] : Arrays.copyOf(mSpawnTimes, mSpawnCount * 2);
+		for (int i = first; i < mSpawnCount; i++) {
+			require(SPAWN_SIZE);
+			mSpawnTemplates[i] = findTemplate(mIn.getShort());
+			mSpawnLocations[i * 2] = mIn.getFloat();
+			mSpawnLocations[i * 2 + 1] = mIn.getFloat();
+			mSpawnNumbers[i] = mIn.getInt();
+			mSpawnTimes[i * 2] = mIn.getInt();
+			mSpawnTimes[i * 2 + 1] = mIn.getInt();
+			if (mSpawnNumbers[i] < 1 || mSpawnTimes[i * 2] < 0 || mSpawnTimes[i * 2 + 1] < 0) {
+				throw new IOException("Malformed level spawn: " + i);
+			}
+		}
+	}
+	
+	/**
+	 * Builds a rectangular Hitbox of a given size, where a size of 0 means none and
+	 * a negative size means the Sprite's size.
+	 */
+	private static Hitbox buildHitbox(double w, double h, Sprite sprite) {
+		if (w < 0 || h < 0) {
+			if (sprite == null) {
+				return null;
+			}
+			w = sprite.getWidth();
+			h = sprite.getHeight();
+		}
+		if (w <= 0 || h <= 0) {
+			return null;
+		}
+		return new Hitbox(0, 0, w, h);
+	}
+	
+	/**
+	 * Finds a Sprite by its index in the file.
+	 */
+	private Sprite findSprite(int index) throws IOException {
+		if (index < 0) {
+			return null;
+		}
+		if (index >= mSprites.length) {
+			throw new IOException("Unknown level Sprite: " + index);
+		}
+		return mSprites[index];
+	}
+	
+	/**
+	 * Checks a template index read from the file.
+	 */
+	private int findTemplate(int index) throws IOException {
+		if (index < 0 || index >= mTemplates.length) {
+			throw new IOException("Unknown level template: " + index);
+		}
+		return index;
+	}
+	
+	/**
+	 * Reads the count starting a section and checks that the section is long enough
+	 * to hold that many records, so nothing is allocated from a corrupt count.
+	 * 
+	 * @param length	the section's length in bytes.
+	 * @param recordSize	the smallest size of each record in bytes.
+	 */
+	private int readCount(int length, int recordSize) throws IOException {
+		require(4);
+		int count = mIn.getInt();
+		if (count < 0 || count > (length - 4) / recordSize) {
+			throw new IOException("Malformed level count: " + count);
+		}
+		return count;
+	}
+	
+	/**
+	 * Reads a string written as a short length and UTF-8 bytes.
+	 */
+	private String readString() throws IOException {
+		require(2);
+		int length = mIn.getShort() & 0xFFFF;
+		require(length);
+		byte[] bytes = new byte[length];
+		mIn.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Gets the offset in the file of the next byte to be read.
+	 */
+	private long position() throws IOException {
+		return mChannel.position() - mIn.remaining();
+	}
+	
+	/**
+	 * Skips a number of bytes.
+	 */
+	private void skip(long length) throws IOException {
+		while (length > 0) {
+			require(1);
+			int step = (int) Math.min(length, mIn.remaining());
+			mIn.position(mIn.position() + step);
+			length -= step;
+		}
+	}
+	
+	/**
+	 * Streams more of the file in until at least the given number of bytes are
+	 * buffered.
+	 * 
+	 * @param size	the number of bytes needed, at most the buffer's size.
+	 * @throws IOException	if the file ends first.
+	 */
+	private void require(int size) throws IOException {
+		if (mIn.remaining() >= size) {
+			return;
+		}
+		if (size > mIn.capacity()) {
+			throw new IOException("Malformed level record of " + size + " bytes");
+		}
+		mIn.compact();
+		while (mIn.position() < size) {
+			if (mChannel.read(mIn) < 0) {
+				throw new IOException("Level file ends early");
+			}
+		}
+		mIn.flip();
+	}
+
+}
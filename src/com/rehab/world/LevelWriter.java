@@ -0,0 +1,447 @@
+package com.rehab.world;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * <p>
+ * LevelWriter prepares level files ahead of time for {@link Level#load(File, InstanceManager)}.
+ * A level is described either through this class's methods, such as from an editor, or
+ * as a plain text source compiled from the command line:
+ * </p>
+ * 
+ * <pre>
+ * 	<code>
+ * java com.rehab.world.LevelWriter basic-test.txt basic-test.rhl
+ * 	</code>
+ * </pre>
+ * 
+ * <p>
+ * Each line of a text source is a command followed by its values, separated by spaces,
+ * and lines starting with '#' are ignored. Sprites are named by image file, "-" meaning
+ * none, and collision sizes of 0 mean no Hitbox while -1 means the Sprite's size.
+ * </p>
+ * 
+ * <pre>
+ * arena	name width height
+ * prop	sprite collisionWidth collisionHeight x y [floor]
+ * template	name sprite mass maxHealth collisionWidth collisionHeight [gravity]
+ * actor	template x y
+ * spawn	template x y count delayMillis periodMillis
+ * </pre>
+ * 
+ * <p>
+ * Positions and collision sizes are stored as floats to keep files small.
+ * </p>
+ */
+public class LevelWriter {
+	
+	// Starting size of each section's buffer
+	private static final int SECTION_SIZE = 1 << 12;
+	
+	// Arena bounds and floor
+	private String mName;
+	private double mWidth, mHeight;
+	private int mFloor = -1;
+	
+	// Sprite names by index in the file
+	private HashMap<String, Integer> mSpriteIndices = new HashMap<String, Integer>();
+	
+	// Records of each section and how many each holds
+	private ByteBuffer mSprites = allocate();
+	private ByteBuffer mProps = allocate();
+	private ByteBuffer mTemplates = allocate();
+	private ByteBuffer mActors = allocate();
+	private ByteBuffer mSpawns = allocate();
+	private int mPropCount = 0;
+	private int mTemplateCount = 0;
+	private int mActorCount = 0;
+	private int mSpawnCount = 0;
+	
+	/**
+	 * Constructor for a LevelWriter of a level with the given Arena bounds.
+	 * 
+	 * @param name	the Arena's name.
+	 * @param width	the Arena's width.
+	 * @param height	the Arena's height.
+	 * @throws IllegalArgumentException	if the name is null or either bound is not
+	 * greater than 0.
+	 */
+	public LevelWriter(String name, double width, double height) {
+		if (name == null) {
+			throw new IllegalArgumentException("Arena name may not be null");
+		}
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Arena width and height must be > 0");
+		}
+		mName = name;
+		mWidth = width;
+		mHeight = height;
+	}
+	
+	/**
+	 * Compiles a text level source into a level file.
+	 * 
+	 * @param args	the source file and the level file to write.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.out.println("Usage: LevelWriter <source.txt> <level.rhl>");
+			return;
+		}
+		try {
+			LevelWriter writer = parse(new File(args[0]));
+			writer.write(new File(args[1]));
+			System.out.printf("Wrote %d Props, %d Actors, and %d spawns to %s\n", writer.mPropCount,
+					writer.mActorCount, writer.mSpawnCount, args[1]);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Reads a text level source into a LevelWriter.
+	 * 
+	 * @param source	the text file.
+	 * @return the LevelWriter holding the level.
+	 * @throws IOException	if the file could not be read or a line is malformed.
+	 */
+	public static LevelWriter parse(File source) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8));
+		try {
+			LevelWriter writer = null;
+			HashMap<String, Integer> templates = new HashMap<String, Integer>();
+			String line;
+			int number = 0;
+			while ((line = in.readLine()) != null) {
+				number++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] words = line.split("\\s+");
+				try {
+					String command = words[0];
+					if (command.equals("arena")) {
+						expect(words, 4, 4, number);
+						writer = new LevelWriter(words[1], Double.parseDouble(words[2]), Double.parseDouble(words[3]));
+						continue;
+					}
+					if (writer == null) {
+						throw new IOException("Line " + number + ": the arena must come first");
+					}
+					
+					if (command.equals("prop")) {
+						expect(words, 6, 7, number);
+						int prop = writer.addProp(sprite(words[1]), Double.parseDouble(words[2]),
+								Double.parseDouble(words[3]), Double.parseDouble(words[4]), Double.parseDouble(words[5]));
+						if (words.length == 7) {
+							if (!words[6].equals("floor")) {
+								throw new IOException("Line " + number + ": unknown prop option " + words[6]);
+							}
+							writer.setFloor(prop);
+						}
+					} else if (command.equals("template")) {
+						expect(words, 7, 8, number);
+						if (words.length == 8 && !words[7].equals("gravity")) {
+							throw new IOException("Line " + number + ": unknown template option " + words[7]);
+						}
+						int template = writer.addTemplate(sprite(words[2]), Double.parseDouble(words[3]),
+								Double.parseDouble(words[4]), Double.parseDouble(words[5]), Double.parseDouble(words[6]),
+								words.length == 8);
+						templates.put(words[1], template);
+					} else if (command.equals("actor")) {
+						expect(words, 4, 4, number);
+						writer.addActor(template(templates, words[1], number), Double.parseDouble(words[2]),
+								Double.parseDouble(words[3]));
+					} else if (command.equals("spawn")) {
+						expect(words, 7, 7, number);
+						writer.addSpawn(template(templates, words[1], number), Double.parseDouble(words[2]),
+								Double.parseDouble(words[3]), Integer.parseInt(words[4]), Long.parseLong(words[5]),
+								Long.parseLong(words[6]));
+					} else {
+						throw new IOException("Line " + number + ": unknown command " + command);
+					}
+				} catch (IllegalArgumentException e) {
+					// Includes numbers that fail to parse
+					throw new IOException("Line " + number + ": " + e.getMessage());
+				}
+			}
+			if (writer == null) {
+				throw new IOException("Level source has no arena: " + source);
+			}
+			return writer;
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Adds a Prop.
+	 * 
+	 * @param sprite	the Sprite's name, or null for none.
+	 * @param collisionW	the Hitbox's width, 0 for none, or < 0 for the Sprite's.
+	 * @param collisionH	the Hitbox's height, 0 for none, or < 0 for the Sprite's.
+	 * @param x	the x-coordinate.
+	 * @param y	the y-coordinate.
+	 * @return the Prop's index in the level.
+	 */
+	public int addProp(String sprite, double collisionW, double collisionH, double x, double y) {
+		mProps = ensureRoom(mProps, 2 + 4 * 4);
+		mProps.putShort(spriteIndex(sprite));
+		mProps.putFloat((float) collisionW);
+		mProps.putFloat((float) collisionH);
+		mProps.putFloat((float) x);
+		mProps.putFloat((float) y);
+		return mPropCount++;
+	}
+	
+	/**
+	 * Sets the Prop the Arena uses as its floor.
+	 * 
+	 * @param prop	the Prop's index, or -1 for no floor.
+	 * @throws IllegalArgumentException	if no Prop has the index.
+	 */
+	public void setFloor(int prop) {
+		if (prop < -1 || prop >= mPropCount) {
+			throw new IllegalArgumentException("No Prop at index " + prop);
+		}
+		mFloor = prop;
+	}
+	
+	/**
+	 * Adds an Actor template for Actors and spawns to be cloned from.
+	 * 
+	 * @param sprite	the Sprite's name, or null for none.
+	 * @param mass	the mass in kilograms.
+	 * @param maxHealth	the maximum health.
+	 * @param collisionW	the Hitbox's width, 0 for none, or < 0 for the Sprite's.
+	 * @param collisionH	the Hitbox's height, 0 for none, or < 0 for the Sprite's.
+	 * @param gravity	true if the Actors fall.
+	 * @return the template's index in the level.
+	 * @throws IllegalStateException	if the level already has 32767 templates.
+	 */
+	public int addTemplate(String sprite, double mass, double maxHealth, double collisionW, double collisionH,
+			boolean gravity) {
+		if (mTemplateCount == Short.MAX_VALUE) {
+			throw new IllegalStateException("Level has too many templates");
+		}
+		mTemplates = ensureRoom(mTemplates, 2 + 8 * 2 + 4 * 2 + 1);
+		mTemplates.putShort(spriteIndex(sprite));
+		mTemplates.putDouble(mass);
+		mTemplates.putDouble(maxHealth);
+		mTemplates.putFloat((float) collisionW);
+		mTemplates.putFloat((float) collisionH);
+		mTemplates.put((byte) (gravity ? Level.FLAG_GRAVITY : 0));
+		return mTemplateCount++;
+	}
+	
+	/**
+	 * Adds an Actor cloned from a template. Actors sharing a template are created
+	 * in fewer batches when added one after another.
+	 * 
+	 * @param template	the template's index.
+	 * @param x	the x-coordinate.
+	 * @param y	the y-coordinate.
+	 * @throws IllegalArgumentException	if no template has the index.
+	 */
+	public void addActor(int template, double x, double y) {
+		checkTemplate(template);
+		mActors = ensureRoom(mActors, 2 + 4 * 2);
+		mActors.putShort((short) template);
+		mActors.putFloat((float) x);
+		mActors.putFloat((float) y);
+		mActorCount++;
+	}
+	
+	/**
+	 * Adds a spawn schedule of clones of a template. See
+	 * {@link SpawnManager#scheduleSpawn(Actor, Vector2D.Point, int, long, long)}.
+	 * 
+	 * @param template	the template's index.
+	 * @param x	the x-coordinate to spawn at.
+	 * @param y	the y-coordinate to spawn at.
+	 * @param count	the number of clones to spawn.
+	 * @param delay	milliseconds before the first spawn.
+	 * @param period	milliseconds between spawns.
+	 * @throws IllegalArgumentException	if no template has the index, the count is
+	 * < 1, or the delay or period is negative or does not fit in an int.
+	 */
+	public void addSpawn(int template, double x, double y, int count, long delay, long period) {
+		checkTemplate(template);
+		if (count < 1) {
+			throw new IllegalArgumentException("Spawn count must be > 0");
+		}
+		if (delay < 0 || period < 0 || delay > Integer.MAX_VALUE || period > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Delay and period must be >= 0 and fit in an int");
+		}
+		mSpawns = ensureRoom(mSpawns, 2 + 4 * 2 + 4 * 3);
+		mSpawns.putShort((short) template);
+		mSpawns.putFloat((float) x);
+		mSpawns.putFloat((float) y);
+		mSpawns.putInt(count);
+		mSpawns.putInt((int) delay);
+		mSpawns.putInt((int) period);
+		mSpawnCount++;
+	}
+	
+	/**
+	 * Writes the level to a file, replacing it.
+	 * 
+	 * @param file	the file to write.
+	 * @throws IOException	if the file could not be written.
+	 */
+	public void write(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			channel.truncate(0);
+			
+			byte[] name = mName.getBytes(StandardCharsets.UTF_8);
+			ByteBuffer head = ByteBuffer.allocate(8 + 5 + 2 + name.length + 8 * 2 + 4).order(ByteOrder.LITTLE_ENDIAN);
+			head.putInt(Level.MAGIC);
+			head.putInt(Level.VERSION);
+			head.put(Level.SECTION_ARENA);
+			head.putInt(2 + name.length + 8 * 2 + 4);
+			head.putShort((short) name.length);
+			head.put(name);
+			head.putDouble(mWidth);
+			head.putDouble(mHeight);
+			head.putInt(mFloor);
+			writeFully(channel, head);
+			
+			writeSection(channel, Level.SECTION_SPRITES, mSpriteIndices.size(), mSprites);
+			writeSection(channel, Level.SECTION_PROPS, mPropCount, mProps);
+			writeSection(channel, Level.SECTION_TEMPLATES, mTemplateCount, mTemplates);
+			writeSection(channel, Level.SECTION_ACTORS, mActorCount, mActors);
+			writeSection(channel, Level.SECTION_SPAWNS, mSpawnCount, mSpawns);
+			
+			ByteBuffer end = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN);
+			end.put(Level.SECTION_END);
+			end.putInt(0);
+			writeFully(channel, end);
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Writes a section of records preceded by its tag, length, and record count.
+	 */
+	private static void writeSection(FileChannel channel, byte tag, int count, ByteBuffer records) throws IOException {
+		ByteBuffer head = ByteBuffer.allocate(5 + 4).order(ByteOrder.LITTLE_ENDIAN);
+		head.put(tag);
+		head.putInt(4 + records.position());
+		head.putInt(count);
+		writeFully(channel, head);
+		
+		ByteBuffer body = records.duplicate();
+		body.flip();
+		while (body.hasRemaining()) {
+			channel.write(body);
+		}
+	}
+	
+	/**
+	 * Writes the whole of a buffer that has just been filled.
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+	
+	/**
+	 * Gets the index of a Sprite's name, adding the name if it is new.
+	 */
+	private short spriteIndex(String sprite) {
+		if (sprite == null) {
+			return -1;
+		}
+		Integer index = mSpriteIndices.get(sprite);
+		if (index == null) {
+			if (mSpriteIndices.size() == Short.MAX_VALUE) {
+				throw new IllegalStateException("Level has too many Sprites");
+			}
+			byte[] bytes = sprite.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length > Short.MAX_VALUE) {
+				throw new IllegalArgumentException("Sprite name too long: " + sprite);
+			}
+			index = mSpriteIndices.size();
+			mSpriteIndices.put(sprite, index);
+			mSprites = ensureRoom(mSprites, 2 + bytes.length);
+			mSprites.putShort((short) bytes.length);
+			mSprites.put(bytes);
+		}
+		return (short) (int) index;
+	}
+	
+	/**
+	 * Checks that a template has been added.
+	 */
+	private void checkTemplate(int template) {
+		if (template < 0 || template >= mTemplateCount) {
+			throw new IllegalArgumentException("No template at index " + template);
+		}
+	}
+	
+	/**
+	 * Grows a section's buffer if it has no room for a record.
+	 */
+	private static ByteBuffer ensureRoom(ByteBuffer buffer, int size) {
+		if (buffer.remaining() >= size) {
+			return buffer;
+		}
+		ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+		grown.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.flip();
+		grown.put(buffer);
+		return grown;
+	}
+	
+	/**
+	 * Creates an empty section buffer.
+	 */
+	private static ByteBuffer allocate() {
+		return ByteBuffer.allocate(SECTION_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	/**
+	 * Checks the number of words on a line of a text source.
+	 */
+	private static void expect(String[] words, int min, int max, int line) throws IOException {
+		if (words.length < min || words.length > max) {
+			throw new IOException("Line " + line + ": " + words[0] + " takes " + (min - 1)
+					+ (min == max ? "" : " to " + (max - 1)) + " values");
+		}
+	}
+	
+	/**
+	 * Reads a Sprite name from a text source, "-" meaning none.
+	 */
+	private static String sprite(String word) {
+		return word.equals("-") ? null : word;
+	}
+	
+	/**
+	 * Finds a template named in a text source.
+	 */
+	private static int template(HashMap<String, Integer> templates, String name, int line) throws IOException {
+		Integer index = templates.get(name);
+		if (index == null) {
+			throw new IOException("Line " + line + ": unknown template " + name);
+		}
+		return index;
+	}
+
+}
@@ -0,0 +1,401 @@
+package com.rehab.world;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Narrowphase runs the exact {@link Hitbox} tests on the pairs a {@link Broadphase}
+ * turned up. Tests are queued from the world's thread, run together with
+ * {@link #run()}, then read back by the index they were queued at. Since Hitbox
+ * tests only read the shapes involved, large batches are split into chunks and run
+ * across a {@link ForkJoinPool} while small ones stay on the calling thread.
+ * </p>
+ * 
+ * <p>
+ * Two kinds of tests may be queued. An overlap test checks whether two Entities touch
+ * and, if not, which axis keeps them apart (see {@link Hitbox#separation(Hitbox, int)}).
+ * A sweep finds which of a moving Entity's targets it hits first along its motion
+ * (see {@link Sweep}). All targets of a moving Entity are swept within the same chunk
+ * since sweeping briefly moves its Hitbox.
+ * </p>
+ * 
+ * <p>
+ * Every chunk writes its results into its own slice of the result arrays, so no
+ * merging or locking is needed afterwards and reading results in queued order gives
+ * the same outcome regardless of how many threads took part. Listeners may then be
+ * triggered on the world's thread in that order.
+ * </p>
+ * 
+ * <p>This class is <b>not</b> thread-safe; only a single thread may queue tests and read results.</p>
+ */
+final class Narrowphase {
+	
+	// Initial number of tests room is made for
+	private static final int INITIAL_CAPACITY = 64;
+	
+	// Number of tests below which a batch is not split further
+	private static final int CHUNK_SIZE = 256;
+	
+	// Threads to split large batches across
+	private ForkJoinPool mPool;
+	
+	// Overlap tests with the hint and result of each
+	private Entity[] mFirsts = new Entity[INITIAL_CAPACITY];
+	private Entity[] mSeconds = new Entity[INITIAL_CAPACITY];
+	private int[] mHints = new int[INITIAL_CAPACITY];
+	private int[] mResults = new int[INITIAL_CAPACITY];
+	private int mTestCount = 0;
+	
+	// Moving Entities with their motion (dx, dy) and the first of their targets
+	private Entity[] mMovers = new Entity[INITIAL_CAPACITY];
+	private double[] mMotion = new double[INITIAL_CAPACITY * 2];
+	private int[] mStarts = new int[INITIAL_CAPACITY + 1];
+	private int mMoverCount = 0;
+	
+	// Targets of every moving Entity, in queued order
+	private Entity[] mTargets = new Entity[INITIAL_CAPACITY];
+	private int mTargetCount = 0;
+	
+	// Entity hit first by each moving Entity and when
+	private Entity[] mHits = new Entity[INITIAL_CAPACITY];
+	private double[] mTimes = new double[INITIAL_CAPACITY];
+	
+	// Sweep used when a batch stays on the calling thread
+	private Sweep mSweep = new Sweep();
+	
+	/**
+	 * Constructor for a Narrowphase splitting large batches across a given pool.
+	 * 
+	 * @param pool	the ForkJoinPool to run chunks on.
+	 * @throws IllegalArgumentException	if the pool is null.
+	 */
+	Narrowphase(ForkJoinPool pool) {
+		setPool(pool);
+	}
+	
+	/**
+	 * Sets the pool large batches are split across.
+	 * 
+	 * @param pool	the ForkJoinPool to run chunks on.
+	 * @throws IllegalArgumentException	if the pool is null.
+	 */
+	void setPool(ForkJoinPool pool) {
+		if (pool == null) {
+			throw new IllegalArgumentException("Pool may not be null");
+		}
+		mPool = pool;
+	}
+	
+	/**
+	 * Queues a test of whether or not two Entities overlap. Pairs that one of the
+	 * Entities ignores are reported as apart.
+	 * 
+	 * @param a	the first Entity.
+	 * @param b	the second Entity.
+	 * @param hint	the axis that kept the pair apart last time, or {@link Hitbox#NO_AXIS}.
+	 * @return the index to read the result at.
+	 * @see #getResult(int)
+	 */
+	int addTest(Entity a, Entity b, int hint) {
+		if (mTestCount == mFirsts.length) {
+			int capacity = mTestCount * 2;
+			mFirsts = copyOf(mFirsts, capacity);
+			mSeconds = copyOf(mSeconds, capacity);
+			mHints = copyOf(mHints, capacity);
+			mResults = new int[capacity];
+		}
+		prepare(a);
+		prepare(b);
+		
+		int i = mTestCount++;
+		mFirsts[i] = a;
+		mSeconds[i] = b;
+		mHints[i] = hint;
+		return i;
+	}
+	
+	/**
+	 * Queues a sweep of an Entity that moved by (dx, dy) against the targets added
+	 * after it with {@link #addTarget(Entity)}. The Entity must already be at the
+	 * end of its motion and have a Hitbox.
+	 * 
+	 * @param e	the moving Entity.
+	 * @param dx	the x distance moved.
+	 * @param dy	the y distance moved.
+	 * @return the index to read the result at.
+	 * @see #getHit(int)
+	 */
+	int addMover(Entity e, double dx, double dy) {
+		if (mMoverCount == mMovers.length) {
+			int capacity = mMoverCount * 2;
+			mMovers = copyOf(mMovers, capacity);
+			mMotion = copyOf(mMotion, capacity * 2);
+			mStarts = copyOf(mStarts, capacity + 1);
+			mHits = new Entity[capacity];
+			mTimes = new double[capacity];
+		}
+		prepare(e);
+		
+		int i = mMoverCount++;
+		mMovers[i] = e;
+		mMotion[i * 2] = dx;
+		mMotion[i * 2 + 1] = dy;
+		mStarts[i] = mTargetCount;
+		mStarts[i + 1] = mTargetCount;
+		return i;
+	}
+	
+	/**
+	 * Adds a target to the most recently queued sweep.
+	 * 
+	 * @param e	the target Entity, which must have a Hitbox.
+	 * @throws IllegalStateException	if no sweep has been queued.
+	 */
+	void addTarget(Entity e) {
+		if (mMoverCount == 0) {
+			throw new IllegalStateException("A mover must be added first");
+		}
+		if (mTargetCount == mTargets.length) {
+			mTargets = copyOf(mTargets, mTargetCount * 2);
+		}
+		prepare(e);
+		
+		mTargets[mTargetCount++] = e;
+		mStarts[mMoverCount] = mTargetCount;
+	}
+	
+	/**
+	 * Runs every queued test and sweep. Batches too small to be worth splitting
+	 * run on the calling thread.
+	 */
+	void run() {
+		if (mTestCount + mTargetCount <= CHUNK_SIZE) {
+			test(0, mTestCount);
+			sweep(0, mMoverCount, mSweep);
+			return;
+		}
+		mPool.invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				invokeAll(new TestChunk(0, mTestCount), new SweepChunk(0, mMoverCount));
+			}
+		});
+	}
+	
+	/**
+	 * Forgets every queued test, sweep, and result.
+	 */
+	void clear() {
+		for (int i = 0; i < mTestCount; i++) {
+			mFirsts[i] = null;
+			mSeconds[i] = null;
+		}
+		for (int i = 0; i < mMoverCount; i++) {
+			mMovers[i] = null;
+			mHits[i] = null;
+		}
+		for (int i = 0; i < mTargetCount; i++) {
+			mTargets[i] = null;
+		}
+		mTestCount = 0;
+		mMoverCount = 0;
+		mTargetCount = 0;
+	}
+	
+	/**
+	 * Gets the number of overlap tests queued.
+	 * 
+	 * @return the test count.
+	 */
+	int getTestCount() { return mTestCount; }
+	
+	/**
+	 * Gets the first Entity of a queued overlap test.
+	 * 
+	 * @param i	the test's index.
+	 * @return the first Entity.
+	 */
+	Entity getFirst(int i) { return mFirsts[i]; }
+	
+	/**
+	 * Gets the second Entity of a queued overlap test.
+	 * 
+	 * @param i	the test's index.
+	 * @return the second Entity.
+	 */
+	Entity getSecond(int i) { return mSeconds[i]; }
+	
+	/**
+	 * Gets the result of an overlap test after {@link #run()}.
+	 * 
+	 * @param i	the test's index.
+	 * @return {@link Hitbox#OVERLAP} if the Entities overlap, otherwise the axis
+	 * keeping them apart.
+	 */
+	int getResult(int i) { return mResults[i]; }
+	
+	/**
+	 * Gets the number of sweeps queued.
+	 * 
+	 * @return the sweep count.
+	 */
+	int getMoverCount() { return mMoverCount; }
+	
+	/**
+	 * Gets the moving Entity of a queued sweep.
+	 * 
+	 * @param i	the sweep's index.
+	 * @return the moving Entity.
+	 */
+	Entity getMover(int i) { return mMovers[i]; }
+	
+	/**
+	 * Gets the x distance moved by the Entity of a queued sweep.
+	 * 
+	 * @param i	the sweep's index.
+	 * @return the x distance.
+	 */
+	double getMotionX(int i) { return mMotion[i * 2]; }
+	
+	/**
+	 * Gets the y distance moved by the Entity of a queued sweep.
+	 * 
+	 * @param i	the sweep's index.
+	 * @return the y distance.
+	 */
+	double getMotionY(int i) { return mMotion[i * 2 + 1]; }
+	
+	/**
+	 * Gets the target hit first during a sweep after {@link #run()}.
+	 * 
+	 * @param i	the sweep's index.
+	 * @return the Entity hit first, or null if none was hit.
+	 */
+	Entity getHit(int i) { return mHits[i]; }
+	
+	/**
+	 * Gets when the first hit of a sweep happened after {@link #run()}.
+	 * 
+	 * @param i	the sweep's index.
+	 * @return the fraction of the motion at which the first target was hit.
+	 */
+	double getImpactTime(int i) { return mTimes[i]; }
+	
+	/**
+	 * Runs overlap tests within a range.
+	 */
+	private void test(int from, int to) {
+		for (int i = from; i < to; i++) {
+			Entity a = mFirsts[i], b = mSeconds[i];
+			if (a.ignores(b)) {
+				mResults[i] = Hitbox.NO_AXIS;
+			} else {
+				mResults[i] = a.getCollision().separation(b.getCollision(), mHints[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Runs the sweeps of moving Entities within a range.
+	 */
+	private void sweep(int from, int to, Sweep sweep) {
+		for (int i = from; i < to; i++) {
+			Hitbox h = mMovers[i].getCollision();
+			double dx = mMotion[i * 2], dy = mMotion[i * 2 + 1];
+			
+			// Keep the earliest impact
+			Entity hit = null;
+			double first = Double.POSITIVE_INFINITY;
+			for (int k = mStarts[i], end = mStarts[i + 1]; k < end; k++) {
+				double t = sweep.timeOfImpact(h, dx, dy, mTargets[k].getCollision());
+				if (t != Sweep.NO_HIT && t < first) {
+					first = t;
+					hit = mTargets[k];
+				}
+			}
+			mHits[i] = hit;
+			mTimes[i] = first;
+		}
+	}
+	
+	/**
+	 * Readies an Entity's Hitbox to be read from several threads.
+	 */
+	private static void prepare(Entity e) {
+		Hitbox h = e.getCollision();
+		if (h != null && h.isLocked()) {
+			h.orient();
+		}
+	}
+	
+	/**
+	 * Chunk of overlap tests, halved until small enough to run.
+	 */
+	private final class TestChunk extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final int mFrom, mTo;
+		
+		TestChunk(int from, int to) {
+			mFrom = from;
+			mTo = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (mTo - mFrom <= CHUNK_SIZE) {
+				test(mFrom, mTo);
+				return;
+			}
+			int mid = (mFrom + mTo) >>> 1;
+			invokeAll(new TestChunk(mFrom, mid), new TestChunk(mid, mTo));
+		}
+	}
+	
+	/**
+	 * Chunk of sweeps, halved by moving Entity until its targets are few enough
+	 * to run.
+	 */
+	private final class SweepChunk extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final int mFrom, mTo;
+		
+		SweepChunk(int from, int to) {
+			mFrom = from;
+			mTo = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (mTo - mFrom <= 1 || mStarts[mTo] - mStarts[mFrom] <= CHUNK_SIZE) {
+				sweep(mFrom, mTo, new Sweep());
+				return;
+			}
+			int mid = (mFrom + mTo) >>> 1;
+			invokeAll(new SweepChunk(mFrom, mid), new SweepChunk(mid, mTo));
+		}
+	}
+	
+	private static Entity[] copyOf(Entity[] array, int length) {
+		Entity[] copy = new Entity[length];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+	
+	private static double[] copyOf(double[] array, int length) {
+		double[] copy = new double[length];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+	
+	private static int[] copyOf(int[] array, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+
+}
@@ -0,0 +1,7 @@
+package com.rehab.world;
+
+public interface OnSeparateListener {
+
+    void onSeparate(Entity e);
+
+}
@@ -0,0 +1,354 @@
+package com.rehab.world;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Partition splits an {@link Arena} into vertical strips of equal width, called regions,
+ * so that finding collisions in a very large level may be shared by several workers
+ * rather than only the exact tests of it. Each region keeps its own {@link Broadphase}
+ * of Actors, tree of Props, and {@link Narrowphase}, and during detection each region is
+ * handled entirely by one worker without touching another region's state.
+ * </p>
+ * 
+ * <p>
+ * Every tick, {@link #assign(Iterable, Iterable)} hands each Entity to the region holding
+ * the left edge of its bounds, its owner, and to every other region its bounds reach
+ * into as a ghost. Entities migrate simply by being handed to different regions than
+ * the tick before; each region drops those that left its strip when pruning. Ghosts are
+ * the same Entities rather than copies since regions only read them.
+ * </p>
+ * 
+ * <p>
+ * A pair whose bounds overlap is found by every region both Entities are in, but is only
+ * tested by the region holding the left edge of the overlap. Both Entities reach that
+ * region, so each pair is tested exactly once without any region needing to ask another.
+ * {@link #detect(ContactCache)} returns once every region is done, after which the
+ * results are read region by region, so the order of reactions only depends on the
+ * number of regions and never on timing.
+ * </p>
+ * 
+ * <p>This class is <b>not</b> thread-safe; only a single thread may assign, detect and read results.</p>
+ */
+final class Partition {
+	
+	// Threads regions are detected across
+	private ForkJoinPool mPool;
+	
+	// Strips of the level, left to right
+	private final Region[] mRegions;
+	private final double mRegionWidth;
+	
+	// Scratch bounds and query results
+	private double[] mBounds = new double[4];
+	private double[] mOtherBounds = new double[4];
+	private ArrayList<Entity> mFound = new ArrayList<Entity>();
+	
+	/**
+	 * Constructor for a Partition of a level into strips of equal width.
+	 * 
+	 * @param count	the number of regions.
+	 * @param width	the level's width.
+	 * @param cellSize	the cell size of each region's broadphase.
+	 * @param margin	the margin of each region's tree of Props.
+	 * @param pool	the ForkJoinPool to detect regions on.
+	 * @throws IllegalArgumentException	if the count is < 1, the width is not greater
+	 * than 0, or the pool is null.
+	 */
+	Partition(int count, double width, double cellSize, double margin, ForkJoinPool pool) {
+		if (count < 1) {
+			throw new IllegalArgumentException("Partition needs at least 1 region");
+		}
+		if (width <= 0) {
+			throw new IllegalArgumentException("Width must be > 0");
+		}
+		setPool(pool);
+		mRegionWidth = width / count;
+		mRegions = new Region[count];
+		for (int i = 0; i < count; i++) {
+			mRegions[i] = new Region(i, cellSize, margin);
+		}
+	}
+	
+	/**
+	 * Sets the pool regions and their exact tests are run on.
+	 * 
+	 * @param pool	the ForkJoinPool.
+	 * @throws IllegalArgumentException	if the pool is null.
+	 */
+	void setPool(ForkJoinPool pool) {
+		if (pool == null) {
+			throw new IllegalArgumentException("Pool may not be null");
+		}
+		mPool = pool;
+		if (mRegions != null) {
+			for (Region region : mRegions) {
+				region.mNarrowphase.setPool(pool);
+			}
+		}
+	}
+	
+	/**
+	 * Hands every Actor and Prop with a Hitbox to each region its bounds reach. Since
+	 * regions read the same Entities from several threads, this also readies every
+	 * Hitbox to be read at once.
+	 * 
+	 * @param acts	the level's Actors.
+	 * @param props	the level's Props.
+	 */
+	void assign(Iterable<Actor> acts, Iterable<Prop> props) {
+		for (Region region : mRegions) {
+			region.mActors.clear();
+			region.mProps.clear();
+			region.mOwned = 0;
+		}
+		
+		for (Actor a : acts) {
+			Hitbox h = a.getCollision();
+			if (h == null) {
+				continue;
+			}
+			h.getBounds(mBounds);
+			int first = regionOf(mBounds[0]), last = regionOf(mBounds[2]);
+			mRegions[first].mOwned++;
+			for (int i = first; i <= last; i++) {
+				mRegions[i].mActors.add(a);
+			}
+		}
+		for (Prop p : props) {
+			Hitbox h = p.getCollision();
+			if (h == null) {
+				continue;
+			}
+			h.getBounds(mBounds);
+			for (int i = regionOf(mBounds[0]), last = regionOf(mBounds[2]); i <= last; i++) {
+				mRegions[i].mProps.add(p);
+			}
+		}
+	}
+	
+	/**
+	 * Finds and tests every pair within each region, one region per worker, and waits
+	 * for all of them. Results are read with {@link #getNarrowphase(int)}.
+	 * 
+	 * @param contacts	the contacts of last tick, used for hints only.
+	 */
+	void detect(final ContactCache contacts) {
+		mPool.invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				RecursiveAction[] tasks = new RecursiveAction[mRegions.length];
+				for (int i = 0; i < tasks.length; i++) {
+					final Region region = mRegions[i];
+					tasks[i] = new RecursiveAction() {
+						@Override
+						protected void compute() {
+							region.detect(contacts);
+						}
+					};
+				}
+				invokeAll(tasks);
+			}
+		});
+	}
+	
+	/**
+	 * Collects the Actors whose bounds overlap an area and whose collision filter
+	 * matches the given one. Each Actor is collected once however many regions it
+	 * reaches.
+	 * 
+	 * @param minX	the smallest x-coordinate of the area.
+	 * @param minY	the smallest y-coordinate of the area.
+	 * @param maxX	the largest x-coordinate of the area.
+	 * @param maxY	the largest y-coordinate of the area.
+	 * @param category	the category bits of whatever is asking.
+	 * @param mask	the mask bits of whatever is asking.
+	 * @param out	the Collection to add found Actors to.
+	 * @return the number of Actors found.
+	 */
+	int query(double minX, double minY, double maxX, double maxY, int category, int mask,
+			Collection<? super Entity> out) {
+		int found = 0;
+		for (int i = regionOf(minX), last = regionOf(maxX); i <= last; i++) {
+			mFound.clear();
+			mRegions[i].mBroadphase.query(minX, minY, maxX, maxY, category, mask, mFound);
+			for (int k = 0, size = mFound.size(); k < size; k++) {
+				Entity e = mFound.get(k);
+				e.getCollision().getBounds(mOtherBounds);
+				// Only the region holding the left edge of the overlap reports it
+				if (regionOf(Math.max(minX, mOtherBounds[0])) == i) {
+					out.add(e);
+					found++;
+				}
+			}
+		}
+		mFound.clear();
+		return found;
+	}
+	
+	/**
+	 * Gets the number of regions.
+	 * 
+	 * @return the region count.
+	 */
+	int getRegionCount() { return mRegions.length; }
+	
+	/**
+	 * Gets the tests a region ran during the last {@link #detect(ContactCache)}.
+	 * 
+	 * @param region	the region's index, from the left.
+	 * @return the region's Narrowphase.
+	 */
+	Narrowphase getNarrowphase(int region) { return mRegions[region].mNarrowphase; }
+	
+	/**
+	 * Gets the number of Actors handed to regions other than their owner during the
+	 * last {@link #assign(Iterable, Iterable)}.
+	 * 
+	 * @return the ghost count.
+	 */
+	int getGhostCount() {
+		int ghosts = 0;
+		for (Region region : mRegions) {
+			ghosts += region.mActors.size() - region.mOwned;
+		}
+		return ghosts;
+	}
+	
+	/**
+	 * Gets the number of Actors and Props whose bounds left a region's strip, or the
+	 * level, during the last {@link #detect(ContactCache)}.
+	 * 
+	 * @return the migration count.
+	 */
+	int getMigrationCount() {
+		int left = 0;
+		for (Region region : mRegions) {
+			left += region.mLeft;
+		}
+		return left;
+	}
+	
+	/**
+	 * Finds the region holding an x-coordinate. Coordinates beyond either side of
+	 * the level belong to the region on that side.
+	 * 
+	 * @param x	the x-coordinate.
+	 * @return the region's index.
+	 */
+	private int regionOf(double x) {
+		int i = (int) Math.floor(x / mRegionWidth);
+		return Math.max(0, Math.min(mRegions.length - 1, i));
+	}
+	
+	/**
+	 * A single strip of the level and everything needed to test within it.
+	 */
+	private final class Region {
+		
+		// Position of the strip, from the left
+		private final int mIndex;
+		
+		// Entities reaching the strip this tick and how many of the Actors it owns
+		private final ArrayList<Entity> mActors = new ArrayList<Entity>();
+		private final ArrayList<Entity> mProps = new ArrayList<Entity>();
+		private int mOwned = 0;
+		
+		// Nearby Actors and Props and exact tests of the pairs found
+		private final Broadphase mBroadphase;
+		private final AABBTree mStatics;
+		private final Narrowphase mNarrowphase;
+		// Entities dropped by the last prune
+		private int mLeft = 0;
+		
+		// Scratch lists and bounds, kept apart from other regions
+		private final ArrayList<Entity> mPairs = new ArrayList<Entity>();
+		private final ArrayList<Entity> mCandidates = new ArrayList<Entity>();
+		private final double[] mFirst = new double[4];
+		private final double[] mSecond = new double[4];
+		
+		Region(int index, double cellSize, double margin) {
+			mIndex = index;
+			mBroadphase = new GridBroadphase(cellSize);
+			mStatics = new AABBTree(margin);
+			mNarrowphase = new Narrowphase(mPool);
+		}
+		
+		/**
+		 * Refreshes the region's broadphases then queues and runs the tests it owns,
+		 * in the same way as a whole Arena would.
+		 */
+		void detect(ContactCache contacts) {
+			for (int i = 0, size = mActors.size(); i < size; i++) {
+				index(mActors.get(i), mBroadphase);
+			}
+			for (int i = 0, size = mProps.size(); i < size; i++) {
+				index(mProps.get(i), mStatics);
+			}
+			mLeft = mBroadphase.prune() + mStatics.prune();
+			
+			mNarrowphase.clear();
+			mPairs.clear();
+			mBroadphase.pairs(mPairs);
+			for (int i = 0, size = mPairs.size(); i < size; i += 2) {
+				Entity first = mPairs.get(i), second = mPairs.get(i + 1);
+				if (first instanceof Actor && second instanceof Actor && owns(first, second)) {
+					queueTest((Actor) first, second, contacts);
+					queueTest((Actor) second, first, contacts);
+				}
+			}
+			
+			// Props only matter to Actors that are still falling
+			for (int i = 0, size = mActors.size(); i < size; i++) {
+				Actor a = (Actor) mActors.get(i);
+				if (a.isSleeping() || !a.isGravityEnabled()) {
+					continue;
+				}
+				a.getCollision().getBounds(mFirst);
+				mCandidates.clear();
+				mStatics.query(mFirst[0], mFirst[1], mFirst[2], mFirst[3], a.getCategory(), a.getMask(), mCandidates);
+				for (int k = 0, found = mCandidates.size(); k < found; k++) {
+					Entity prop = mCandidates.get(k);
+					if (owns(a, prop)) {
+						queueTest(a, prop, contacts);
+					}
+				}
+			}
+			mNarrowphase.run();
+		}
+		
+		/**
+		 * Checks whether the left edge of the overlap of two Entities lies within
+		 * the region.
+		 */
+		private boolean owns(Entity a, Entity b) {
+			a.getCollision().getBounds(mFirst);
+			b.getCollision().getBounds(mSecond);
+			return regionOf(Math.max(mFirst[0], mSecond[0])) == mIndex;
+		}
+		
+		/**
+		 * Queues a test of a falling Actor against another Entity.
+		 */
+		private void queueTest(Actor a, Entity other, ContactCache contacts) {
+			if (a.isSleeping() || !a.isGravityEnabled()) {
+				return;
+			}
+			mNarrowphase.addTest(a, other, contacts.getAxis(a, other));
+		}
+		
+		/**
+		 * Inserts or updates an Entity's bounds, leaving resting bounds alone.
+		 */
+		private void index(Entity e, Broadphase broadphase) {
+			if (e.isSleeping() && broadphase.touch(e)) {
+				return;
+			}
+			broadphase.update(e);
+		}
+	}
+
+}
@@ -33,9 +33,14 @@ public class Phys {
 	private double mMass;
 	private double mSpeed = 0;
 	private double mAcceleration = 0;
+	// Fraction of a second each move stands for in the world running the Phys, if known
+	private double mUnitTime = 0;
 
     // Flags
 	private boolean mEnableGravity = false;
+	
+	// Entity to wake whenever the Phys is changed from outside
+	private Entity mBody;
 
     /**
      * Basic constructor for a Phys using (at a minimum) mass without a set velocity.
@@ -64,6 +69,7 @@ public class Phys {
     	mLastLocation = new Point(phys.mLastLocation);
     	// Copy flags
     	mEnableGravity = phys.mEnableGravity;
+    	mUnitTime = phys.mUnitTime;
     }
     
     /**
@@ -81,6 +87,15 @@ public class Phys {
 		}
 		mTimescale = scale;
 	}
+	
+	/**
+	 * Gets the fraction of time set with {@link #syncTimescale(double)}.
+	 * 
+	 * @return the timescale, or 0 if it has not been set.
+	 */
+	public static double getTimescale() {
+		return mTimescale;
+	}
 
 	/**
      * Moves the Phys to the next location based off of the current velocity.
@@ -130,6 +145,7 @@ public class Phys {
     	// Change location
     	mLocation.setX(mLocation.getX() + x);
     	mLocation.setY(mLocation.getY() + y);
+    	wakeBody();
     }
 
 	/**
@@ -149,6 +165,7 @@ public class Phys {
     	// Change location
     	mLocation.setX(x);
     	mLocation.setY(y);
+    	wakeBody();
     }
     
     /**
@@ -175,6 +192,10 @@ public class Phys {
     	// Save location
     	mLastLocation.setX(mLocation.getX());
     	mLastLocation.setY(mLocation.getY());
+    	// Changed since the last checkpoint
+    	if (mBody != null) {
+    		mBody.markDirty();
+    	}
     }
 
 	/**
@@ -268,6 +289,7 @@ public class Phys {
     	// Update speed
     	mSpeed = speed;
     	mVelocity.changeMagnitude(speed);
+    	wakeBody();
     }
     
     
@@ -293,6 +315,7 @@ public class Phys {
 		
 		// Apply original speed
 		mVelocity.changeMagnitude(mSpeed);
+		wakeBody();
 	}
 
 	/**
@@ -320,6 +343,7 @@ public class Phys {
     	// Update speed
     	mSpeed = speed;
     	mVelocity.changeMagnitude(speed);
+    	wakeBody();
     }
 	
     /**
@@ -330,12 +354,39 @@ public class Phys {
     public double getAcceleration() { return mAcceleration; }
     
 	/**
-	 * Sets the acceleration to be used during move calls.
+	 * Sets the acceleration to be used during move calls at the timescale given by
+	 * {@link #getUnitTime()}.
 	 *
 	 * @param acceleration	the acceleration in feet per second per second.
 	 */
 	public void setAcceleration(double acceleration) {
-		mAcceleration = acceleration * mTimescale;
+		setAcceleration(acceleration, getUnitTime());
+	}
+	
+	/**
+	 * Sets the acceleration to be used during move calls for a world running at its
+	 * own timescale rather than the one set with {@link #syncTimescale(double)}. The
+	 * timescale is kept for later calls to {@link #setAcceleration(double)}.
+	 * 
+	 * @param acceleration	the acceleration in feet per second per second.
+	 * @param timescale	the fraction of a second each move call stands for.
+	 */
+	public void setAcceleration(double acceleration, double timescale) {
+		mAcceleration = acceleration * timescale;
+		mUnitTime = timescale;
+		wakeBody();
+	}
+	
+	/**
+	 * Gets the fraction of a second each move call stands for. This is the timescale
+	 * last given to {@link #setAcceleration(double, double)}, such as by the
+	 * {@link Arena} simulating the Phys, or otherwise the one set with
+	 * {@link #syncTimescale(double)}.
+	 * 
+	 * @return the timescale, or 0 if neither has been set.
+	 */
+	public double getUnitTime() {
+		return mUnitTime != 0 ? mUnitTime : mTimescale;
 	}
 	
 	/**
@@ -364,6 +415,88 @@ public class Phys {
 	 */
     public void setEnableGravity(boolean enable) {
     	mEnableGravity = enable;
+    	// Falling bodies must be simulated
+    	if (enable) {
+    		wakeBody();
+    	} else if (mBody != null) {
+    		mBody.markDirty();
+    	}
+    }
+    
+    /**
+     * Gets the Phys' velocity without copying it.
+     * 
+     * @return the x of the velocity.
+     */
+    double getVelocityX() { return mVelocity.getX(); }
+    
+    /**
+     * Gets the Phys' velocity without copying it.
+     * 
+     * @return the y of the velocity.
+     */
+    double getVelocityY() { return mVelocity.getY(); }
+    
+    /**
+     * Gets the Phys' previous location without copying it.
+     * 
+     * @return the previous x-coordinate.
+     */
+    double getPreviousX() { return mLastLocation.getX(); }
+    
+    /**
+     * Gets the Phys' previous location without copying it.
+     * 
+     * @return the previous y-coordinate.
+     */
+    double getPreviousY() { return mLastLocation.getY(); }
+    
+    /**
+     * Overwrites every value of the Phys at once, such as when restoring saved
+     * state. Unlike the other setters, nothing is saved as the previous state and
+     * the owning Entity is not woken.
+     * 
+     * @param mass	the mass in kilograms.
+     * @param x	the x-coordinate.
+     * @param y	the y-coordinate.
+     * @param lastX	the x-coordinate before the last move.
+     * @param lastY	the y-coordinate before the last move.
+     * @param velocityX	the x of the velocity.
+     * @param velocityY	the y of the velocity.
+     * @param speed	the speed.
+     * @param acceleration	the acceleration already scaled by the timescale.
+     * @param gravity	whether or not gravity applies.
+     */
+    void restore(double mass, double x, double y, double lastX, double lastY, double velocityX, double velocityY,
+    		double speed, double acceleration, boolean gravity) {
+    	mMass = mass;
+    	mLocation.setX(x);
+    	mLocation.setY(y);
+    	mLastLocation.setX(lastX);
+    	mLastLocation.setY(lastY);
+    	mVelocity.updateFrom(0, 0, velocityX, velocityY);
+    	mSpeed = speed;
+    	mAcceleration = acceleration;
+    	mEnableGravity = gravity;
+    }
+    
+    /**
+     * Sets the Entity to wake whenever the Phys' location or motion is changed
+     * outside of {@link #move()}.
+     * 
+     * @param body	the Entity owning the Phys.
+     */
+    void setBody(Entity body) {
+    	mBody = body;
+    }
+    
+    /**
+     * Wakes the owning Entity, if any, so that the change is simulated.
+     */
+    private void wakeBody() {
+    	if (mBody != null) {
+    		mBody.wake();
+    	}
     }
 
 }
@@ -19,6 +19,8 @@ public class Projectile extends Entity {
 
 		mOwner = owner;
 		setCollisionModel(h);
+		// Pass through the floor
+		setCollisionFilter(CATEGORY_DEFAULT, MASK_ALL & ~CATEGORY_FLOOR);
 	}
 	
 	/**
@@ -36,7 +38,10 @@ public class Projectile extends Entity {
 	 * @param damage
 	 * 		the amount of damage to cause on impact.
 	 */
-	public void setDamage(double damage) { mDamage = damage; }
+	public void setDamage(double damage) {
+		mDamage = damage;
+		markDirty();
+	}
 
 	/**
 	 * Gets the damage value of the Projectile.
@@ -45,6 +50,25 @@ public class Projectile extends Entity {
 	 */
 	public double getDamage() { return mDamage; }
 
+	/**
+	 * Gets the Actor that fired the Projectile.
+	 * 
+	 * @return the owner.
+	 */
+	Actor getOwner() { return mOwner; }
+	
+	/**
+	 * Sets the Actor the Projectile belongs to, such as when restoring saved state.
+	 * 
+	 * @param owner	the owner.
+	 * @throws IllegalArgumentException	if the owner is null.
+	 */
+	void setOwner(Actor owner) {
+		if (owner == null) throw new IllegalArgumentException("Projectile must have an owner");
+		mOwner = owner;
+		markDirty();
+	}
+	
 
 	@Override
 	public boolean collidesWith(Entity e) {
@@ -55,6 +79,12 @@ public class Projectile extends Entity {
 		return super.collidesWith(e);
 	}
 
+	@Override
+	boolean ignores(Entity e) {
+		// Ignore collisions with owner
+		return mOwner.getId() == e.getId() || super.ignores(e);
+	}
+	
 
 
 	@Override
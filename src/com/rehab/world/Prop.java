@@ -1,5 +1,7 @@
 package com.rehab.world;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.rehab.animation.Sprite;
 
 import javafx.scene.input.MouseEvent;
@@ -20,6 +22,10 @@ import javafx.scene.input.MouseEvent;
  *
  */
 public class Prop extends Entity {
+	
+	// Changes to any Prop, including loading and unloading, so that an Arena only
+	// refreshes its Props after one
+	private static final AtomicInteger sChanges = new AtomicInteger();
 
 	/**
 	 * Basic constructor for a non-collidable Prop.
@@ -98,6 +104,20 @@ public class Prop extends Entity {
 		return LayerManager.LAYER_PROP;
 	}
 
+	@Override
+	void markDirty() {
+		super.markDirty();
+		sChanges.incrementAndGet();
+	}
+	
+	/**
+	 * Gets a count that changes whenever any Prop is moved, turned, given another
+	 * Hitbox or collision filter, or loaded or unloaded.
+	 * 
+	 * @return the count.
+	 */
+	static int getChangeCount() { return sChanges.get(); }
+	
 	@Override
 	public void onMousePress() {
 		// TODO Auto-generated method stub
@@ -0,0 +1,163 @@
+package com.rehab.world;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <p>
+ * Headless benchmark of a single very large {@link Arena} split into regions (see
+ * {@link Arena#setRegionCount(int)}). The same level, a wide field of platforms with
+ * Actors raining onto it, is built and stepped once for each worker count from 1 up to
+ * the maximum, with one region per worker, and the average time per tick is reported
+ * along with the speedup over a single worker.
+ * </p>
+ * 
+ * <p>
+ * Arguments, all optional and in order: the number of Actors (20000), the largest
+ * number of workers (one per available processor), and the number of ticks stepped
+ * per run (300).
+ * </p>
+ * 
+ * <pre>
+ * 	<code>
+ * java com.rehab.world.RegionBenchmark 50000 8 600
+ * 	</code>
+ * </pre>
+ */
+public class RegionBenchmark {
+	
+	// Ticks per second the level is stepped at
+	private static final int TICK_RATE = 60;
+	// Width and height of each Actor and Prop platform
+	private static final double ACTOR_SIZE = 16;
+	private static final double PLATFORM_WIDTH = 128, PLATFORM_HEIGHT = 16;
+	// Room along the level given to each Actor, and Actors per platform
+	private static final double SPACING = 24;
+	private static final int ACTORS_PER_PLATFORM = 40;
+	// Height of the level and of the floor
+	private static final double HEIGHT = 2048, FLOOR_HEIGHT = 32;
+	// Name of a Sprite never loaded, since nothing is drawn
+	private static final String NO_SPRITE = "";
+	// Seed shared by every run so that each steps the same level
+	private static final long SEED = 0x5EED;
+	
+	public static void main(String[] args) {
+		int actors = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int maxWorkers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int ticks = args.length > 2 ? Integer.parseInt(args[2]) : 300;
+		if (actors < 1 || maxWorkers < 1 || ticks < 1) {
+			throw new IllegalArgumentException("Actors, workers, and ticks must be > 0");
+		}
+		
+		// Levels log every collision; keep the console for results
+		PrintStream console = System.out;
+		PrintStream silent = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			
+			}
+		});
+		
+		console.printf("%d Actors, %d ticks per run\n", actors, ticks);
+		console.printf("%8s %12s %8s %8s\n", "workers", "ms/tick", "speedup", "ghosts");
+		
+		// Let the JIT settle before anything is timed
+		System.setOut(silent);
+		run(actors, 1, ticks / 2);
+		System.setOut(console);
+		
+		double base = 0;
+		for (int workers = 1; workers <= maxWorkers; workers++) {
+			System.setOut(silent);
+			Result result = run(actors, workers, ticks);
+			System.setOut(console);
+			
+			double perTick = result.nanos / 1e6 / ticks;
+			if (workers == 1) {
+				base = perTick;
+			}
+			console.printf("%8d %12.3f %7.2fx %8d\n", workers, perTick, base / perTick, result.ghosts);
+		}
+	}
+	
+	/**
+	 * Builds the level and steps it with the given number of workers and regions.
+	 * 
+	 * @param actors	the number of Actors.
+	 * @param workers	the number of workers and regions.
+	 * @param ticks	the number of ticks to step.
+	 * @return how long stepping took.
+	 */
+	private static Result run(int actors, int workers, int ticks) {
+		InstanceManager store = new InstanceManager();
+		Arena arena = build(store, actors);
+		
+		ForkJoinPool pool = new ForkJoinPool(workers);
+		try {
+			arena.setWorkerPool(pool);
+			arena.setRegionCount(workers);
+			arena.setTimescale(1d / TICK_RATE);
+			arena.setEntities(store.getLoadedActors(), store.getLoadedProjectiles(), store.getLoadedProps());
+			
+			long start = System.nanoTime();
+			for (int i = 0; i < ticks; i++) {
+				arena.stepActors();
+				arena.stepProjectiles();
+			}
+			Result result = new Result();
+			result.nanos = System.nanoTime() - start;
+			result.ghosts = arena.getPartition() == null ? 0 : arena.getPartition().getGhostCount();
+			return result;
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Creates a wide level holding the given number of Actors scattered above
+	 * platforms.
+	 * 
+	 * @param store	the InstanceManager to create Entities with.
+	 * @param actors	the number of Actors.
+	 * @return the Arena.
+	 */
+	private static Arena build(InstanceManager store, int actors) {
+		Random random = new Random(SEED);
+		double width = actors * SPACING;
+		
+		Prop floor = store.createProp(width, FLOOR_HEIGHT, NO_SPRITE);
+		floor.moveTo(0, FLOOR_HEIGHT);
+		Arena arena = new Arena("REGION-BENCHMARK", width, HEIGHT, floor);
+		
+		// Platforms to land on along the way down
+		for (int i = 0, count = actors / ACTORS_PER_PLATFORM; i < count; i++) {
+			Prop platform = store.createProp(PLATFORM_WIDTH, PLATFORM_HEIGHT, NO_SPRITE);
+			platform.moveTo(random.nextDouble() * (width - PLATFORM_WIDTH), FLOOR_HEIGHT + PLATFORM_HEIGHT + random.nextDouble() * HEIGHT / 2);
+		}
+		
+		Actor template = new Actor(62, 100);
+		template.setCollisionModel(new Hitbox(0, 0, ACTOR_SIZE, ACTOR_SIZE));
+		template.setEnableGravity(true);
+		double[] positions = new double[actors * 2];
+		for (int i = 0; i < actors; i++) {
+			positions[i * 2] = random.nextDouble() * (width - ACTOR_SIZE);
+			positions[i * 2 + 1] = HEIGHT / 2 + random.nextDouble() * (HEIGHT / 2 - ACTOR_SIZE);
+		}
+		store.createActors(template, actors, positions);
+		
+		store.loadAll();
+		return arena;
+	}
+	
+	/**
+	 * Outcome of a single run.
+	 */
+	private static final class Result {
+		// Time spent stepping and Actors seen as ghosts on the last tick
+		long nanos;
+		int ghosts;
+	}
+
+}
@@ -59,6 +59,63 @@ public abstract class Register {
 		return id;
 	}
 	
+	/**
+	 * Puts an Identifiable in the Register under a given id rather than a new one, such
+	 * as the id it was saved with. Ids generated afterwards are always greater than the
+	 * given id.
+	 * 
+	 * @param obj	the Identifiable to id.
+	 * @param id	the id to assign.
+	 * @throws IllegalArgumentException	if the id is < 1 or already taken, or the object
+	 * has already been assigned an id.
+	 * @see #putItem(Identifiable)
+	 */
+	protected void putItem(Identifiable obj, int id) {
+		if (id < 1) {
+			throw new IllegalArgumentException("Item id must be >= 1: " + id);
+		}
+		synchronized (mItems) {
+			if (mItems.containsKey(obj.id) || mItems.containsKey(id)) {
+				throw new IllegalArgumentException("Id has already been assigned: " + id);
+			}
+			obj.id = id;
+			mItems.put(id, obj);
+			mNextFreeId = Math.max(mNextFreeId, id + 1);
+		}
+	}
+	
+	/**
+	 * Assigns unique integer ids to several Identifiables at once. The ids form a
+	 * single consecutive block and all of the Identifiables are added while holding
+	 * the Register's lock only once.
+	 * 
+	 * @param objs	the Identifiables to id.
+	 * @param count	the number of Identifiables to take from the start of the array.
+	 * @return the id given to the first Identifiable, each following Identifiable
+	 * having an id one greater than the previous.
+	 * @throws IllegalArgumentException	if any of the given objects has already been
+	 * assigned an id.
+	 * @see #putItem(Identifiable)
+	 */
+	protected int putItems(Identifiable[] objs, int count) {
+		synchronized (mItems) {
+			for (int i = 0; i < count; i++) {
+				if (mItems.containsKey(objs[i].id)) {
+					throw new IllegalArgumentException("Object has already been identified: " + objs[i].id);
+				}
+			}
+			
+			// Reserve the whole block before assigning
+			int first = mNextFreeId;
+			mNextFreeId += count;
+			for (int i = 0; i < count; i++) {
+				objs[i].id = first + i;
+				mItems.put(first + i, objs[i]);
+			}
+			return first;
+		}
+	}
+	
 	/**
 	 * Removes an Identifiable with a given id from the Register.
 	 *
@@ -0,0 +1,52 @@
+package com.rehab.world;
+
+/**
+ * <p>
+ * A gameplay behavior that runs in short steps between ticks, such as a weapon's cooldown or
+ * an effect that lands some time after being triggered. Each call to {@link #resume(long)}
+ * does the work due on that tick and says how long to wait before the next step, so a
+ * behavior that would otherwise sleep on its own thread instead waits in the
+ * {@link TimerManager} at no cost. Steps are always run on the world's tick, never at the
+ * same time as physics.
+ * </p>
+ * 
+ * <p>
+ * The Script below nudges an Actor to the right once every second (at 60 ticks per
+ * second), ten times over.
+ * </p>
+ * 
+ * <pre>
+ *  <code>
+ * TimerManager.getInstance().start(new Script() {
+ *     private int mSteps = 0;
+ * 
+ *     public long resume(long tick) {
+ *         if (mSteps++ == 10) {
+ *             return Script.DONE;
+ *         }
+ *         actor.moveBy(5, 0);
+ *         return 60;
+ *     }
+ * });
+ *  </code>
+ * </pre>
+ * 
+ * @see Sequence
+ */
+public interface Script {
+	
+	/**
+	 * Returned by {@link #resume(long)} when the Script has nothing left to do.
+	 */
+	long DONE = -1;
+	
+	/**
+	 * Runs the Script's next step.
+	 * 
+	 * @param tick	the tick being simulated.
+	 * @return the number of ticks to wait before the next step (values below 1 wait a
+	 * single tick), or {@link #DONE} to stop.
+	 */
+	long resume(long tick);
+
+}
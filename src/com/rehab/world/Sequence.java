@@ -0,0 +1,86 @@
+package com.rehab.world;
+
+import java.util.ArrayList;
+
+/**
+ * <p>
+ * A {@link Script} written as a list of steps read top to bottom, for behaviors that
+ * simply do something, wait, then do something else. Steps are added with
+ * {@link #then(Runnable)} and {@link #sleep(long)} and run in the order added.
+ * Consecutive actions run on the same tick.
+ * </p>
+ * 
+ * <p>
+ * The Sequence below fires a Weapon, waits half a second (at 60 ticks per second)
+ * for it to cool down, then fires again.
+ * </p>
+ * 
+ * <pre>
+ *  <code>
+ * TimerManager.getInstance().start(new Sequence()
+ *         .then(fire)
+ *         .sleep(30)
+ *         .then(fire));
+ *  </code>
+ * </pre>
+ * 
+ * <p>
+ * Each Sequence keeps its place and so may only be started once.
+ * </p>
+ */
+public class Sequence implements Script {
+	
+	// Steps in order; a null action marks a wait of the matching number of ticks
+	private ArrayList<Runnable> mActions = new ArrayList<Runnable>();
+	private ArrayList<Long> mWaits = new ArrayList<Long>();
+	
+	// Index of the next step to run
+	private int mNext = 0;
+	
+	/**
+	 * Adds an action to run once the previous steps are done.
+	 * 
+	 * @param action	the action.
+	 * @return this Sequence.
+	 * @throws IllegalArgumentException	if the action is null.
+	 */
+	public Sequence then(Runnable action) {
+		if (action == null) {
+			throw new IllegalArgumentException("Action may not be null");
+		}
+		mActions.add(action);
+		mWaits.add(0L);
+		return this;
+	}
+	
+	/**
+	 * Adds a wait before the following steps.
+	 * 
+	 * @param ticks	the number of ticks to wait.
+	 * @return this Sequence.
+	 * @throws IllegalArgumentException	if ticks is < 1.
+	 */
+	public Sequence sleep(long ticks) {
+		if (ticks < 1) {
+			throw new IllegalArgumentException("Must sleep for at least 1 tick");
+		}
+		mActions.add(null);
+		mWaits.add(ticks);
+		return this;
+	}
+	
+	@Override
+	public long resume(long tick) {
+		// Run actions until the next wait
+		while (mNext < mActions.size()) {
+			int step = mNext++;
+			Runnable action = mActions.get(step);
+			if (action == null) {
+				return mWaits.get(step);
+			}
+			action.run();
+		}
+		return DONE;
+	}
+
+}
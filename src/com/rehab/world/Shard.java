@@ -0,0 +1,274 @@
+package com.rehab.world;
+
+/**
+ * <p>
+ * A single match hosted by an {@link ArenaHost}. Each Shard owns its {@link Arena}, the
+ * {@link InstanceManager} holding the match's Entities, a {@link TimerManager} for the
+ * match's Scripts, and its own tick count and tick rate, so nothing is shared with any
+ * other match. A Shard is always stepped by the same thread of its host.
+ * </p>
+ * 
+ * <p>
+ * A tick applies the input submitted since the last one, resumes the Scripts due, then
+ * steps the Arena's Actors and Projectiles. How long each tick took and how many Actors
+ * were awake are kept so that a host's matches may be watched separately.
+ * </p>
+ * 
+ * <p>
+ * Input may be submitted and metrics read from any thread. Everything else about the
+ * match, including its Timers, must only be touched from within its ticks.
+ * </p>
+ */
+public class Shard {
+	
+	// Number of commands input may queue between ticks
+	private static final int INPUT_CAPACITY = 1024;
+	
+	// Title of the match
+	private final String mName;
+	// Level, Entities, and Scripts of the match
+	private final Arena mArena;
+	private final InstanceManager mStore;
+	private final TimerManager mTimers = new TimerManager();
+	// User input waiting for the next tick
+	private final InputQueue mInputs = new InputQueue(INPUT_CAPACITY);
+	
+	// Number of ticks per second and the desired duration of each in nanoseconds
+	private final int mTickRate;
+	private final long mTickInterval;
+	// When the next tick is due, as given by System.nanoTime()
+	private long mNextDue;
+	
+	// Number of ticks simulated so far
+	private volatile long mTick = 0;
+	// Nanoseconds spent on the last tick, the longest, and all of them
+	private volatile long mLastTickTime = 0;
+	private volatile long mMaxTickTime = 0;
+	private volatile long mTotalTickTime = 0;
+	// Ticks given up on to catch up with wall time
+	private volatile long mSkippedTicks = 0;
+	// Actors simulated and left sleeping during the last tick
+	private volatile int mAwakeCount = 0;
+	private volatile int mSleepingCount = 0;
+	
+	// Whether or not the match has ended and what stopped it, if it broke
+	private volatile boolean mClosed = false;
+	private volatile Throwable mFailure;
+
+	/**
+	 * Constructor for a Shard.
+	 * 
+	 * @param name	a title for the match.
+	 * @param arena	the level to simulate.
+	 * @param store	the InstanceManager holding the match's Entities.
+	 * @param tickRate	the desired ticks per second.
+	 */
+	Shard(String name, Arena arena, InstanceManager store, int tickRate) {
+		mName = name;
+		mArena = arena;
+		mStore = store;
+		mTickRate = tickRate;
+		mTickInterval = 1000000000 / tickRate;
+		
+		mArena.setTimescale(1d / tickRate);
+		mArena.setEntities(store.getLoadedActors(), store.getLoadedProjectiles(), store.getLoadedProps());
+	}
+	
+	/**
+	 * Queues a command to be applied at the beginning of the match's next tick. This
+	 * method may be safely called from any {@link Thread} and never blocks.
+	 * 
+	 * @param type	either {@link InputCommand#MOVE_BY} or {@link InputCommand#FIRE_AT}.
+	 * @param target	the id of the Entity to act upon.
+	 * @param x	the x value of the action.
+	 * @param y	the y value of the action.
+	 * @return true if the command was queued, false if it was dropped or the match
+	 * has ended.
+	 * @throws IllegalArgumentException	if the type is not a known command or
+	 * the target is {@link Register#UNREGISTERED}.
+	 */
+	public boolean submit(int type, int target, double x, double y) {
+		InputCommand.validate(type, target);
+		if (mClosed) {
+			return false;
+		}
+		return mInputs.offer(type, target, x, y);
+	}
+	
+	/**
+	 * Ends the match. The Shard's thread stops stepping it before its next tick. This
+	 * method may be safely called from any {@link Thread}.
+	 */
+	public void close() {
+		mClosed = true;
+	}
+	
+	/**
+	 * Checks whether or not the match has ended.
+	 * 
+	 * @return true if the match was closed, false otherwise.
+	 */
+	public boolean isClosed() { return mClosed; }
+	
+	/**
+	 * Ends the match because one of its ticks threw.
+	 * 
+	 * @param failure	what the tick threw.
+	 */
+	void fail(Throwable failure) {
+		mFailure = failure;
+		mClosed = true;
+	}
+	
+	/**
+	 * Gets what ended the match if one of its ticks threw.
+	 * 
+	 * @return the Throwable, or null if the match has not failed.
+	 */
+	public Throwable getFailure() { return mFailure; }
+
+	/**
+	 * Gets the title of the match.
+	 * 
+	 * @return the title.
+	 */
+	public String getName() { return mName; }
+	
+	/**
+	 * Gets the level being simulated.
+	 * 
+	 * @return the Arena.
+	 */
+	public Arena getArena() { return mArena; }
+	
+	/**
+	 * Gets the InstanceManager holding the match's Entities.
+	 * 
+	 * @return the InstanceManager.
+	 */
+	public InstanceManager getInstanceManager() { return mStore; }
+	
+	/**
+	 * Gets the TimerManager resuming the match's Scripts.
+	 * 
+	 * @return the TimerManager.
+	 */
+	public TimerManager getTimerManager() { return mTimers; }
+	
+	/**
+	 * Gets the desired ticks per second.
+	 * 
+	 * @return the number of ticks per second.
+	 */
+	public int getTickRate() { return mTickRate; }
+	
+	/**
+	 * Gets the number of ticks simulated so far.
+	 * 
+	 * @return the tick count.
+	 */
+	public long getTick() { return mTick; }
+	
+	/**
+	 * Gets how long the last tick took to simulate.
+	 * 
+	 * @return the duration in nanoseconds.
+	 */
+	public long getLastTickTime() { return mLastTickTime; }
+	
+	/**
+	 * Gets the longest time a tick took to simulate.
+	 * 
+	 * @return the duration in nanoseconds.
+	 */
+	public long getMaxTickTime() { return mMaxTickTime; }
+	
+	/**
+	 * Gets the average time a tick took to simulate.
+	 * 
+	 * @return the duration in nanoseconds, or 0 if no tick has been simulated.
+	 */
+	public long getAverageTickTime() {
+		long ticks = mTick;
+		if (ticks == 0) {
+			return 0;
+		}
+		return mTotalTickTime / ticks;
+	}
+	
+	/**
+	 * Gets the number of ticks the match gave up on because its thread fell too far
+	 * behind wall time.
+	 * 
+	 * @return the skipped tick count.
+	 */
+	public long getSkippedTickCount() { return mSkippedTicks; }
+	
+	/**
+	 * Gets the number of Actors simulated during the last tick.
+	 * 
+	 * @return the awake Actor count.
+	 * @see #getSleepingCount()
+	 */
+	public int getAwakeCount() { return mAwakeCount; }
+	
+	/**
+	 * Gets the number of Actors skipped for sleeping during the last tick.
+	 * 
+	 * @return the sleeping Actor count.
+	 * @see #getAwakeCount()
+	 */
+	public int getSleepingCount() { return mSleepingCount; }
+	
+	/**
+	 * Gets the desired duration of a tick.
+	 * 
+	 * @return the duration in nanoseconds.
+	 */
+	long getTickInterval() { return mTickInterval; }
+	
+	/**
+	 * Gets when the next tick is due.
+	 * 
+	 * @return the time as given by System.nanoTime().
+	 */
+	long getNextDue() { return mNextDue; }
+	
+	/**
+	 * Sets when the next tick is due.
+	 * 
+	 * @param time	the time as given by System.nanoTime().
+	 */
+	void setNextDue(long time) { mNextDue = time; }
+	
+	/**
+	 * Counts ticks given up on to catch up with wall time.
+	 * 
+	 * @param count	the number of ticks skipped.
+	 */
+	void skip(long count) { mSkippedTicks += count; }
+	
+	/**
+	 * Simulates a single tick of the match.
+	 */
+	void step() {
+		long start = System.nanoTime();
+		
+		// Input first so that nothing changes mid-tick
+		while (mInputs.poll()) {
+			InputCommand.apply(mStore, mInputs.getType(), mInputs.getTarget(), mInputs.getX(), mInputs.getY());
+		}
+		mTimers.advance(mTick);
+		mArena.stepActors();
+		mArena.stepProjectiles();
+		
+		long duration = System.nanoTime() - start;
+		mAwakeCount = mArena.getAwakeCount();
+		mSleepingCount = mArena.getSleepingCount();
+		mLastTickTime = duration;
+		mMaxTickTime = Math.max(mMaxTickTime, duration);
+		mTotalTickTime += duration;
+		mTick++;
+	}
+
+}
@@ -0,0 +1,547 @@
+package com.rehab.world;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * SpatialGrid is a uniform grid of square cells used to find objects near a point or
+ * region without looking at every object. Each object is stored in every cell its
+ * bounding box touches and so a query only needs to look at the objects in the cells
+ * the query touches.
+ * </p>
+ * 
+ * <p>
+ * Bounds are given as minimum and maximum coordinates. For game objects whose location
+ * is their top left corner (such as an {@link Entity}), the box spans from (x, y - height)
+ * to (x + width, y). The following example indexes an Entity <i>e</i> and finds whatever
+ * lies under the point (100, 250).
+ * </p>
+ * 
+ * <pre>
+ * 	<code>
+ * SpatialGrid&lt;Entity&gt; grid = new SpatialGrid&lt;Entity&gt;(64);
+ * grid.insert(e, e.getX(), e.getY() - e.getHeight(), e.getX() + e.getWidth(), e.getY());
+ * 
+ * ArrayList&lt;Entity&gt; found = new ArrayList&lt;Entity&gt;();
+ * grid.query(100, 250, found);
+ * 	</code>
+ * </pre>
+ * 
+ * <p>
+ * Cells are only allocated once an object is stored in them and so the grid has no
+ * fixed extent. Moving an object with {@link #update(Object, double, double, double, double)}
+ * only touches the cell lists when the object crosses a cell boundary.
+ * </p>
+ * 
+ * <p>This class is <b>not</b> thread-safe.</p>
+ * 
+ * @param <T>	the type of object to index.
+ */
+public class SpatialGrid<T> {
+	
+	// Width and height of each cell
+	private double mCellSize;
+	
+	// Occupied cells by packed cell coordinates
+	private HashMap<Long, ArrayList<Entry<T>>> mCells = new HashMap<Long, ArrayList<Entry<T>>>();
+	// Bounds and cell range of each indexed object
+	private IdentityHashMap<T, Entry<T>> mEntries = new IdentityHashMap<T, Entry<T>>();
+	
+	// Marker to visit each object once per query
+	private int mQueryStamp = 0;
+	// Changes whenever an object enters or leaves a cell
+	private int mRevision = 0;
+	// Marker for objects inserted or updated since the last prune
+	private int mEpoch = 0;
+	
+	/**
+	 * Constructor for a SpatialGrid with cells of a given size. Cells should be
+	 * around the size of a typical object; much smaller cells store large objects
+	 * many times while much larger cells return many objects per query.
+	 * 
+	 * @param cellSize	the width and height of each cell.
+	 * @throws IllegalArgumentException	if the cell size is not greater than 0.
+	 */
+	public SpatialGrid(double cellSize) {
+		if (cellSize <= 0) {
+			throw new IllegalArgumentException("Cell size must be > 0");
+		}
+		mCellSize = cellSize;
+	}
+	
+	/**
+	 * Adds an object with the given bounds to the grid. If the object is already
+	 * in the grid, its bounds are updated instead.
+	 * 
+	 * @param item	the object to index.
+	 * @param minX	the smallest x-coordinate of the bounds.
+	 * @param minY	the smallest y-coordinate of the bounds.
+	 * @param maxX	the largest x-coordinate of the bounds.
+	 * @param maxY	the largest y-coordinate of the bounds.
+	 * @throws IllegalArgumentException	if the object is null.
+	 * @see #update(Object, double, double, double, double)
+	 * @see #remove(Object)
+	 */
+	public void insert(T item, double minX, double minY, double maxX, double maxY) {
+		insert(item, minX, minY, maxX, maxY, ~0, ~0);
+	}
+	
+	/**
+	 * Adds an object with the given bounds and collision filter to the grid. Filtered
+	 * queries skip objects whose filter does not match the query's, before looking at
+	 * their bounds. If the object is already in the grid, its bounds and filter are
+	 * updated instead.
+	 * 
+	 * @param item	the object to index.
+	 * @param minX	the smallest x-coordinate of the bounds.
+	 * @param minY	the smallest y-coordinate of the bounds.
+	 * @param maxX	the largest x-coordinate of the bounds.
+	 * @param maxY	the largest y-coordinate of the bounds.
+	 * @param category	the bits of the categories the object belongs to.
+	 * @param mask	the bits of the categories the object may be found by.
+	 * @throws IllegalArgumentException	if the object is null.
+	 * @see #query(double, double, double, double, int, int, Collection)
+	 */
+	public void insert(T item, double minX, double minY, double maxX, double maxY, int category, int mask) {
+		if (item == null) {
+			throw new IllegalArgumentException("May not index null");
+		}
+		Entry<T> existing = mEntries.get(item);
+		if (existing != null) {
+			existing.category = category;
+			existing.mask = mask;
+			update(item, minX, minY, maxX, maxY);
+			return;
+		}
+		
+		Entry<T> entry = new Entry<T>(item);
+		entry.category = category;
+		entry.mask = mask;
+		entry.epoch = mEpoch;
+		entry.setBounds(minX, minY, maxX, maxY);
+		entry.setCells(cellOf(minX), cellOf(minY), cellOf(maxX), cellOf(maxY));
+		mEntries.put(item, entry);
+		addToCells(entry);
+	}
+	
+	/**
+	 * Changes the bounds of an object already in the grid. The object is only
+	 * moved between cells if the new bounds touch a different set of cells.
+	 * 
+	 * @param item	the indexed object.
+	 * @param minX	the smallest x-coordinate of the bounds.
+	 * @param minY	the smallest y-coordinate of the bounds.
+	 * @param maxX	the largest x-coordinate of the bounds.
+	 * @param maxY	the largest y-coordinate of the bounds.
+	 * @return true if the object was found in the grid, false otherwise.
+	 * @see #insert(Object, double, double, double, double)
+	 */
+	public boolean update(T item, double minX, double minY, double maxX, double maxY) {
+		Entry<T> entry = mEntries.get(item);
+		if (entry == null) {
+			return false;
+		}
+		entry.epoch = mEpoch;
+		entry.setBounds(minX, minY, maxX, maxY);
+		
+		// Skip cell lists if still within the same cells
+		int c0x = cellOf(minX), c0y = cellOf(minY);
+		int c1x = cellOf(maxX), c1y = cellOf(maxY);
+		if (entry.c0x == c0x && entry.c0y == c0y && entry.c1x == c1x && entry.c1y == c1y) {
+			return true;
+		}
+		
+		removeFromCells(entry);
+		entry.setCells(c0x, c0y, c1x, c1y);
+		addToCells(entry);
+		return true;
+	}
+	
+	/**
+	 * Marks an object as current without changing its bounds so that it survives
+	 * the next {@link #prune()}. This is cheaper than an update for objects known to
+	 * be at rest.
+	 * 
+	 * @param item	the indexed object.
+	 * @return true if the object was found in the grid, false otherwise.
+	 */
+	public boolean touch(T item) {
+		Entry<T> entry = mEntries.get(item);
+		if (entry == null) {
+			return false;
+		}
+		entry.epoch = mEpoch;
+		return true;
+	}
+	
+	/**
+	 * Removes an object from the grid.
+	 * 
+	 * @param item	the indexed object.
+	 * @return true if the object was removed, false if it was not in the grid.
+	 */
+	public boolean remove(T item) {
+		Entry<T> entry = mEntries.remove(item);
+		if (entry == null) {
+			return false;
+		}
+		removeFromCells(entry);
+		return true;
+	}
+	
+	/**
+	 * Removes every object that has not been inserted or updated since the previous
+	 * call to this method. An owner that refreshes all of its objects each frame can
+	 * call this afterwards to drop the ones that are gone without tracking them itself.
+	 * 
+	 * @return the number of objects removed.
+	 */
+	public int prune() {
+		int removed = 0;
+		Iterator<Entry<T>> iter = mEntries.values().iterator();
+		while (iter.hasNext()) {
+			Entry<T> entry = iter.next();
+			if (entry.epoch != mEpoch) {
+				iter.remove();
+				removeFromCells(entry);
+				removed++;
+			}
+		}
+		mEpoch++;
+		return removed;
+	}
+	
+	/**
+	 * Checks whether or not an object is in the grid.
+	 * 
+	 * @param item	the object.
+	 * @return true if the object is indexed, false otherwise.
+	 */
+	public boolean contains(T item) {
+		return mEntries.containsKey(item);
+	}
+	
+	/**
+	 * Removes all objects from the grid.
+	 */
+	public void clear() {
+		mEntries.clear();
+		mCells.clear();
+		mRevision++;
+	}
+	
+	/**
+	 * Collects the objects whose bounds contain a given point. Points on the edge
+	 * of an object's bounds count as contained.
+	 * 
+	 * @param x	the point's x-coordinate.
+	 * @param y	the point's y-coordinate.
+	 * @param out	the Collection to add found objects to.
+	 * @return the number of objects found.
+	 */
+	public int query(double x, double y, Collection<? super T> out) {
+		ArrayList<Entry<T>> cell = mCells.get(key(cellOf(x), cellOf(y)));
+		if (cell == null) {
+			return 0;
+		}
+		
+		// Points only touch one cell so no need to deduplicate
+		int found = 0;
+		for (int i = 0, size = cell.size(); i < size; i++) {
+			Entry<T> entry = cell.get(i);
+			if (entry.contains(x, y)) {
+				out.add(entry.item);
+				found++;
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Collects the objects whose bounds overlap a given region. Each object is
+	 * added at most once.
+	 * 
+	 * @param minX	the smallest x-coordinate of the region.
+	 * @param minY	the smallest y-coordinate of the region.
+	 * @param maxX	the largest x-coordinate of the region.
+	 * @param maxY	the largest y-coordinate of the region.
+	 * @param out	the Collection to add found objects to.
+	 * @return the number of objects found.
+	 */
+	public int query(double minX, double minY, double maxX, double maxY, Collection<? super T> out) {
+		return query(minX, minY, maxX, maxY, ~0, ~0, out);
+	}
+	
+	/**
+	 * Collects the objects whose bounds overlap a given region and whose collision
+	 * filter matches the given one. An object matches when its category shares a bit
+	 * with the given mask and the given category shares a bit with its mask. Each
+	 * object is added at most once.
+	 * 
+	 * @param minX	the smallest x-coordinate of the region.
+	 * @param minY	the smallest y-coordinate of the region.
+	 * @param maxX	the largest x-coordinate of the region.
+	 * @param maxY	the largest y-coordinate of the region.
+	 * @param category	the category bits of whatever is asking.
+	 * @param mask	the mask bits of whatever is asking.
+	 * @param out	the Collection to add found objects to.
+	 * @return the number of objects found.
+	 * @see #insert(Object, double, double, double, double, int, int)
+	 */
+	public int query(double minX, double minY, double maxX, double maxY, int category, int mask,
+			Collection<? super T> out) {
+		int stamp = ++mQueryStamp;
+		int found = 0;
+		
+		for (int cx = cellOf(minX), c1x = cellOf(maxX); cx <= c1x; cx++) {
+			for (int cy = cellOf(minY), c1y = cellOf(maxY); cy <= c1y; cy++) {
+				ArrayList<Entry<T>> cell = mCells.get(key(cx, cy));
+				if (cell == null) {
+					continue;
+				}
+				
+				for (int i = 0, size = cell.size(); i < size; i++) {
+					Entry<T> entry = cell.get(i);
+					// Objects spanning several cells are only reported once
+					if (entry.stamp == stamp) {
+						continue;
+					}
+					entry.stamp = stamp;
+					if ((entry.category & mask) == 0 || (category & entry.mask) == 0) {
+						continue;
+					}
+					if (entry.overlaps(minX, minY, maxX, maxY)) {
+						out.add(entry.item);
+						found++;
+					}
+				}
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Collects every pair of objects whose bounds overlap and whose collision filters
+	 * match. Each pair is added once as two consecutive elements, even when the pair
+	 * shares several cells.
+	 * 
+	 * @param out	the List to add pairs to.
+	 * @return the number of pairs found.
+	 * @see #insert(Object, double, double, double, double, int, int)
+	 */
+	public int pairs(List<? super T> out) {
+		int found = 0;
+		for (Map.Entry<Long, ArrayList<Entry<T>>> cellEntry : mCells.entrySet()) {
+			long key = cellEntry.getKey();
+			int cx = (int) (key >> 32), cy = (int) key;
+			ArrayList<Entry<T>> cell = cellEntry.getValue();
+			
+			for (int i = 0, size = cell.size(); i < size; i++) {
+				Entry<T> a = cell.get(i);
+				for (int j = i + 1; j < size; j++) {
+					Entry<T> b = cell.get(j);
+					if ((a.category & b.mask) == 0 || (b.category & a.mask) == 0
+							|| !a.overlaps(b.minX, b.minY, b.maxX, b.maxY)) {
+						continue;
+					}
+					
+					// Only the cell holding the overlap's corner reports the pair
+					if (cellOf(Math.max(a.minX, b.minX)) != cx || cellOf(Math.max(a.minY, b.minY)) != cy) {
+						continue;
+					}
+					out.add(a.item);
+					out.add(b.item);
+					found++;
+				}
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Collects every object stored in the cell containing a given point, whether or
+	 * not their bounds contain the point itself. This lets a caller repeatedly test
+	 * points within the same cell against a short list without querying the grid.
+	 * 
+	 * @param x	the point's x-coordinate.
+	 * @param y	the point's y-coordinate.
+	 * @param out	the Collection to add the cell's objects to.
+	 * @return the number of objects found.
+	 * @see #cellOf(double)
+	 */
+	public int queryCell(double x, double y, Collection<? super T> out) {
+		ArrayList<Entry<T>> cell = mCells.get(key(cellOf(x), cellOf(y)));
+		if (cell == null) {
+			return 0;
+		}
+		for (int i = 0, size = cell.size(); i < size; i++) {
+			out.add(cell.get(i).item);
+		}
+		return cell.size();
+	}
+	
+	/**
+	 * Converts a coordinate into the index of the column or row of cells containing it.
+	 * 
+	 * @param coordinate	an x or y-coordinate.
+	 * @return the cell index.
+	 */
+	public int cellOf(double coordinate) {
+		return (int) Math.floor(coordinate / mCellSize);
+	}
+	
+	/**
+	 * Gets the width and height of each cell.
+	 * 
+	 * @return the cell size.
+	 */
+	public double getCellSize() { return mCellSize; }
+	
+	/**
+	 * Gets the number of objects in the grid.
+	 * 
+	 * @return the object count.
+	 */
+	public int size() { return mEntries.size(); }
+	
+	/**
+	 * Gets a number that changes whenever an object enters or leaves a cell. Callers
+	 * caching the results of {@link #queryCell(double, double, Collection)} can
+	 * compare revisions to know when the cache is stale.
+	 * 
+	 * @return the grid's revision.
+	 */
+	public int getRevision() { return mRevision; }
+	
+	/**
+	 * Adds an entry to each cell within its cell range.
+	 * 
+	 * @param entry	the entry.
+	 */
+	private void addToCells(Entry<T> entry) {
+		for (int cx = entry.c0x; cx <= entry.c1x; cx++) {
+			for (int cy = entry.c0y; cy <= entry.c1y; cy++) {
+				Long key = key(cx, cy);
+				ArrayList<Entry<T>> cell = mCells.get(key);
+				if (cell == null) {
+					cell = new ArrayList<Entry<T>>();
+					mCells.put(key, cell);
+				}
+				cell.add(entry);
+			}
+		}
+		mRevision++;
+	}
+	
+	/**
+	 * Removes an entry from each cell within its cell range. Cells left empty are
+	 * released.
+	 * 
+	 * @param entry	the entry.
+	 */
+	private void removeFromCells(Entry<T> entry) {
+		for (int cx = entry.c0x; cx <= entry.c1x; cx++) {
+			for (int cy = entry.c0y; cy <= entry.c1y; cy++) {
+				Long key = key(cx, cy);
+				ArrayList<Entry<T>> cell = mCells.get(key);
+				if (cell == null) {
+					continue;
+				}
+				
+				// Swap with last to avoid shifting the list
+				int index = cell.indexOf(entry);
+				if (index >= 0) {
+					int last = cell.size() - 1;
+					cell.set(index, cell.get(last));
+					cell.remove(last);
+				}
+				if (cell.isEmpty()) {
+					mCells.remove(key);
+				}
+			}
+		}
+		mRevision++;
+	}
+	
+	/**
+	 * Packs a pair of cell indices into a single key.
+	 * 
+	 * @param cx	the cell column.
+	 * @param cy	the cell row.
+	 * @return the key.
+	 */
+	private static Long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Holds an indexed object along with its bounds and the range of cells it
+	 * is stored in.
+	 */
+	private static class Entry<T> {
+		// Indexed object
+		private T item;
+		
+		// Bounds
+		private double minX, minY, maxX, maxY;
+		// Cell range
+		private int c0x, c0y, c1x, c1y;
+		
+		// Last query to visit the entry
+		private int stamp = 0;
+		// Last epoch the entry was refreshed in
+		private int epoch;
+		// Collision filter
+		private int category = ~0, mask = ~0;
+		
+		/**
+		 * Constructor for an Entry holding a given object.
+		 * 
+		 * @param item	the indexed object.
+		 */
+		private Entry(T item) {
+			this.item = item;
+		}
+		
+		/**
+		 * Sets the bounds of the entry.
+		 */
+		private void setBounds(double minX, double minY, double maxX, double maxY) {
+			this.minX = minX;
+			this.minY = minY;
+			this.maxX = maxX;
+			this.maxY = maxY;
+		}
+		
+		/**
+		 * Sets the range of cells the entry is stored in.
+		 */
+		private void setCells(int c0x, int c0y, int c1x, int c1y) {
+			this.c0x = c0x;
+			this.c0y = c0y;
+			this.c1x = c1x;
+			this.c1y = c1y;
+		}
+		
+		/**
+		 * Checks whether or not the entry's bounds contain a point.
+		 */
+		private boolean contains(double x, double y) {
+			return x >= minX && x <= maxX && y >= minY && y <= maxY;
+		}
+		
+		/**
+		 * Checks whether or not the entry's bounds overlap a region.
+		 */
+		private boolean overlaps(double minX, double minY, double maxX, double maxY) {
+			return this.minX <= maxX && this.maxX >= minX && this.minY <= maxY && this.maxY >= minY;
+		}
+	}
+
+}
@@ -1,10 +1,8 @@
 package com.rehab.world;
 
-import java.util.Hashtable;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 
 import com.rehab.world.Vector2D.Point;
 
@@ -37,21 +35,36 @@ import com.rehab.world.Vector2D.Point;
  * spawnMan.scheduleSpawn(enemy, new Point(100, 250), 4, 9000, 2000);
  *  </code>
  * </pre>
+ * 
+ * <p>
+ * Spawns do not happen on their own threads. Each SpawnPoint waits in a timing wheel, a
+ * ring of buckets indexed by tick number, and the {@link WorldLoop} advances the wheel at
+ * the start of every tick. All Actors due on a tick are created together before any
+ * physics runs and so spawning never races with the game world. Delays and periods are
+ * converted to whole ticks using the WorldLoop's tick rate which makes spawning
+ * reproduce exactly during a replay.
+ * </p>
+ * 
+ * <p>
+ * Note: once the WorldLoop is running, spawns may only be scheduled from within a tick,
+ * such as from a listener, as ticks are simulated on the WorldLoop's workers.
+ * </p>
  */
 public class SpawnManager extends Register {
 	
-	// Initial number of threads allowed to spawn
-	private static final int POOL_SIZE = 10;
-	// Wait time before scrap idle threads
-	private static final int IDLE_TIME_MINS = 2;
-	// Unit of time for wait time
-	private static final TimeUnit TIME_UNIT = TimeUnit.MINUTES;
+	// Number of buckets in the wheel, must be a power of 2
+	private static final int WHEEL_SIZE = 256;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
 	
-	// Lookup for scheduled spawns
-	private Hashtable<Integer, Future> mSpawns = new Hashtable<Integer, Future>();
+	// Heads of each bucket's list of waiting SpawnPoints
+	private SpawnPoint[] mWheel = new SpawnPoint[WHEEL_SIZE];
 
-	// Executor to schedule threads for handling spawning
-	private ScheduledThreadPoolExecutor mExecutor;
+	// Next tick the wheel will be advanced to
+	private long mNextTick = 0;
+	
+	// Spawns due on the current tick by the Actor they clone, in the order first due
+	private IdentityHashMap<Actor, SpawnBatch> mDueBatches = new IdentityHashMap<Actor, SpawnBatch>();
+	private ArrayList<SpawnBatch> mDueOrder = new ArrayList<SpawnBatch>();
 	
 	// Singleton instance
 	private static SpawnManager mInstance;
@@ -61,10 +74,7 @@ public class SpawnManager extends Register {
 	 * Constructor for SpawnManager.
 	 */
 	private SpawnManager() {
-		mExecutor = new ScheduledThreadPoolExecutor(POOL_SIZE);
-		// Let executor clean up unused threads
-		mExecutor.setKeepAliveTime(IDLE_TIME_MINS, TIME_UNIT);
-		mExecutor.allowCoreThreadTimeOut(true);
+		
 	}
 	
 	/**
@@ -82,8 +92,8 @@ public class SpawnManager extends Register {
 	}
 	
 	/**
-	 * Spawns a clone of a given Actor as soon as possible at a designated
-	 * location.
+	 * Spawns a clone of a given Actor at the start of the next tick at a
+	 * designated location.
 	 *
 	 * @param actor	the Actor to clone.
 	 * @param location	the place to spawn at.
@@ -96,32 +106,39 @@ public class SpawnManager extends Register {
 		
 		// Construct spawnPoint and spawn
 		SpawnPoint spawnPoint = new SpawnPoint(actor, location, 1);		
-		mExecutor.execute(spawnPoint);
+		spawnPoint.period = 1;
+		schedule(spawnPoint, mNextTick);
 	}
 	
 	/**
 	 * Schedules clones of an Actor to be spawned at a specific location a certain
 	 * number of times. This method should be used if spawning of an Actor should
-	 * repeat.
+	 * repeat. The delay and period are rounded up to whole ticks of the
+	 * {@link WorldLoop}, with at least one tick between spawns.
 	 *
 	 * @param a	the Actor whose clones to spawn.
 	 * @param numOfInstances	the number of clones to spawn.
 	 * @param delay	amount of milliseconds before first spawn.
 	 * @param period	milliseconds between spawns.
 	 * @throws IllegalArgumentException	if either the Actor to spawn or the Point
-	 * to spawn at is null.
+	 * to spawn at is null, or if the delay or period is negative.
+	 * @throws IllegalStateException	if the WorldLoop has not yet been created.
 	 * @see #immediateSpawn(Actor, Point)
 	 */
 	public void scheduleSpawn(Actor actor, Point location, int numOfInstances, long delay, long period) {		
 		validateSpawn(actor, location);
+		if (delay < 0 || period < 0) {
+			throw new IllegalArgumentException("Delay and period must be >= 0");
+		}
+		int tickRate = WorldLoop.getInstance().getTickRate();
 		
 		// Register spawn marker
 		SpawnPoint spawnPoint = new SpawnPoint(actor, location, numOfInstances);
-		int id = this.putItem(spawnPoint);
+		this.putItem(spawnPoint);
 		
-		// Submit spawn command for execution
-		ScheduledFuture future = mExecutor.scheduleWithFixedDelay(spawnPoint, delay, period, TimeUnit.MILLISECONDS);
-		mSpawns.put(id, future);
+		// Wait in the wheel until the first spawn's tick
+		spawnPoint.period = Math.max(1, toTicks(period, tickRate));
+		schedule(spawnPoint, mNextTick + toTicks(delay, tickRate));
 	}
 	
 	/**
@@ -132,6 +149,129 @@ public class SpawnManager extends Register {
 	 */
 	public int numberOfSpawnPoints() { return this.getItemCount(); }
 	
+	/**
+	 * Spawns every Actor due on the given tick. This method is called by the
+	 * {@link WorldLoop} at the start of each tick, before any physics. If ticks were
+	 * skipped since the last call, their spawns are performed as well. Clones of the
+	 * same Actor are created as a single batch.
+	 *
+	 * @param tick	the tick about to be simulated.
+	 */
+	void advance(long tick) {
+		for (; mNextTick <= tick; mNextTick++) {
+			int bucket = (int) (mNextTick & WHEEL_MASK);
+			
+			// Detach the bucket so rescheduled points are not visited twice
+			SpawnPoint point = mWheel[bucket];
+			mWheel[bucket] = null;
+			
+			while (point != null) {
+				SpawnPoint next = point.next;
+				
+				if (point.dueTick > mNextTick) {
+					// Due on a later lap around the wheel
+					link(point, bucket);
+				} else {
+					due(point);
+					if (point.spawnNum < point.spawnMax) {
+						schedule(point, point.dueTick + point.period);
+					} else {
+						retire(point);
+					}
+				}
+				point = next;
+			}
+		}
+		
+		spawnDue();
+	}
+	
+	/**
+	 * Records a SpawnPoint's next spawn to be created with the rest of the tick's spawns
+	 * that clone the same Actor.
+	 *
+	 * @param point	the SpawnPoint.
+	 */
+	private void due(SpawnPoint point) {
+		point.spawnNum++;
+		
+		SpawnBatch batch = mDueBatches.get(point.referenceActor);
+		if (batch == null) {
+			batch = new SpawnBatch(point.referenceActor);
+			mDueBatches.put(point.referenceActor, batch);
+			mDueOrder.add(batch);
+		}
+		batch.add(point.location.getX(), point.location.getY());
+	}
+	
+	/**
+	 * Creates all recorded spawns with a single call to
+	 * {@link InstanceManager#createActors(Actor, int, double...)} per Actor cloned, in
+	 * the order each Actor was first due.
+	 */
+	private void spawnDue() {
+		InstanceManager manager = InstanceManager.getInstance();
+		
+		for (int i = 0, size = mDueOrder.size(); i < size; i++) {
+			SpawnBatch batch = mDueOrder.get(i);
+			for (Actor actor : manager.createActors(batch.reference, batch.count, batch.getLocations())) {
+				actor.setEnableGravity(true);
+			}
+		}
+		mDueOrder.clear();
+		mDueBatches.clear();
+	}
+	
+	/**
+	 * Places a SpawnPoint in the wheel to wait for the given tick.
+	 *
+	 * @param point	the SpawnPoint.
+	 * @param tick	the tick of the SpawnPoint's next spawn.
+	 */
+	private void schedule(SpawnPoint point, long tick) {
+		point.dueTick = tick;
+		link(point, (int) (tick & WHEEL_MASK));
+	}
+	
+	/**
+	 * Pushes a SpawnPoint to the front of a bucket's list.
+	 *
+	 * @param point	the SpawnPoint.
+	 * @param bucket	the bucket's index.
+	 */
+	private void link(SpawnPoint point, int bucket) {
+		point.next = mWheel[bucket];
+		mWheel[bucket] = point;
+	}
+	
+	/**
+	 * Releases a SpawnPoint that has spawned all of its Actors.
+	 *
+	 * @param point	the finished SpawnPoint.
+	 */
+	private void retire(SpawnPoint point) {
+		point.referenceActor = null;
+		point.location = null;
+		point.next = null;
+		
+		// Only scheduled spawns were registered
+		int id = point.getId();
+		if (id != UNREGISTERED) {
+			removeItem(id);
+		}
+	}
+	
+	/**
+	 * Converts a duration in milliseconds into ticks, rounding up.
+	 *
+	 * @param millis	the duration.
+	 * @param tickRate	the ticks per second.
+	 * @return the number of ticks.
+	 */
+	private static long toTicks(long millis, int tickRate) {
+		return (millis * tickRate + 999) / 1000;
+	}
+	
 	/**
 	 * Checks whether or not a given Actor and Point are not null and throws
 	 * IllegalArgumentExceptions if either are. This method is a shorthand
@@ -155,7 +295,7 @@ public class SpawnManager extends Register {
 	 * Represents a location in the game at which to spawn an Actor a certain
 	 * number of times.
 	 */
-	public class SpawnPoint extends Identifiable implements Runnable {
+	public class SpawnPoint extends Identifiable {
 		// What to spawn and where
 		private Actor referenceActor;
 		private Point location;
@@ -164,6 +304,12 @@ public class SpawnManager extends Register {
 		private int spawnNum = 0;
 		private int spawnMax;
 		
+		// Tick of the next spawn and ticks between spawns
+		private long dueTick;
+		private long period;
+		// Next SpawnPoint in the same bucket of the wheel
+		private SpawnPoint next;
+		
 		/**
 		 * Basic constructor for a SpawnPoint.
 		 * 
@@ -195,31 +341,48 @@ public class SpawnManager extends Register {
 		 * @see #getX()
 		 */
 		public double getY() { return location.getY(); }
-
+	}
+	
+	/**
+	 * Locations of every spawn of the same Actor due on a tick.
+	 */
+	private static final class SpawnBatch {
+		// Actor to clone and an x and y for each clone
+		private final Actor reference;
+		private double[] locations = new double[8];
+		private int count = 0;
+		
 		/**
-		 * Executes the SpawnPoint's spawn instruction and creates and places
-		 * the Actor in the game.
+		 * Constructor for an empty SpawnBatch.
+		 * 
+		 * @param reference	the Actor to clone.
 		 */
-		@Override
-		public void run() {
-			// Stop spawning when max spawn reached
-			if (spawnNum == spawnMax) {
-				referenceActor = null;
-				location = null;
-				
-				// Remove SpawnPoint from manager
-				int id = this.getId();
-				SpawnManager.this.removeItem(id);
-				// Remove associated ScheduledFuture and cancels
-				Future future = SpawnManager.this.mSpawns.remove(id);
-				future.cancel(false);
+		SpawnBatch(Actor reference) {
+			this.reference = reference;
+		}
+		
+		/**
+		 * Adds the location of another clone.
+		 * 
+		 * @param x	the x-coordinate.
+		 * @param y	the y-coordinate.
+		 */
+		void add(double x, double y) {
+			if (count * 2 == locations.length) {
+				locations = Arrays.copyOf(locations, locations.length * 2);
 			}
-			
-			spawnNum++;
-			// Create Actor and move to spawn position
-			Actor actor = InstanceManager.getInstance().createActor(referenceActor);
-			actor.moveTo(location.getX(), location.getY());
-			actor.setEnableGravity(true);
+			locations[count * 2] = x;
+			locations[count * 2 + 1] = y;
+			count++;
+		}
+		
+		/**
+		 * Gets an x and y for each clone, in the order added.
+		 * 
+		 * @return the locations.
+		 */
+		double[] getLocations() {
+			return count * 2 == locations.length ? locations : Arrays.copyOf(locations, count * 2);
 		}
 	}
 	
@@ -1,7 +1,17 @@
 package com.rehab.world;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * <p>
@@ -26,6 +36,23 @@ import java.util.HashMap;
  * </pre>
  * 
  * <p>
+ * Creating a statistic returns a handle to it. Code that updates a statistic often,
+ * such as a collision callback counting damage, should keep the handle rather than
+ * look the statistic up by name on every update. Whole number statistics can be
+ * created with {@link #createCounter(String)} instead.
+ * </p>
+ * 
+ * <pre>
+ *  <code>
+ *  StatTracker.Gauge damage = tracker.createStat("damage");
+ *  StatTracker.Counter shots = tracker.createCounter("shots");
+ *  
+ *  damage.add(12.5);
+ *  shots.increment();
+ *  </code>
+ * </pre>
+ * 
+ * <p>
  * There are a few methods for manipulating a statistic's value. The snippet below
  * presumes the snippet above has occurred and demonstrates
  * {@link #setValueOf(String, double)}, {@link #getValueOf(String)}, 
@@ -49,22 +76,53 @@ import java.util.HashMap;
  * </pre>
  * 
  * <p>
+ * Each statistic is held in a {@link DoubleAdder} or {@link LongAdder}, which spreads
+ * concurrent updates across several cells instead of a single lock. Reads sum the cells
+ * and never block writers, though a read made during updates from other threads may
+ * not include all of them. {@link #snapshot()}, {@link #writeCsv(Writer)}, and
+ * {@link #writeBinary(OutputStream)} read every statistic this way.
+ * </p>
+ * 
+ * <p>
  * This class is thread-safe.
  * </p>
  */
 public class StatTracker {
 
-	// Table of statistics and their values
-	private HashMap<String, Double> mStats = new HashMap<String, Double>();
+	/**
+	 * Marks a binary export of statistics ("RHST").
+	 */
+	public static final int MAGIC = 0x52485354;
+	
+	/**
+	 * Version of the binary export's format.
+	 */
+	public static final int VERSION = 1;
+	
+	// Kinds of statistic in the binary export
+	private static final int KIND_GAUGE = 0;
+	private static final int KIND_COUNTER = 1;
+	
+	// Statistics by name
+	private ConcurrentHashMap<String, Stat> mStats = new ConcurrentHashMap<String, Stat>();
+	// Statistics in order of creation for stable exports
+	private CopyOnWriteArrayList<Stat> mOrder = new CopyOnWriteArrayList<Stat>();
 	// StatTracker singleton instance
-	private StatTracker mInstance;
+	private static StatTracker mInstance;
+	
+	/**
+	 * Private constructor prevents direct instantiation.
+	 */
+	private StatTracker() {
+		
+	}
 		
 	/**
 	 * Gets an instance of the StatTracker.
 	 *
 	 * @return the StatTracker.
 	 */
-	public StatTracker getInstance() {
+	public static StatTracker getInstance() {
 		synchronized (StatTracker.class) {
 			if (mInstance == null) {
 				mInstance = new StatTracker();
@@ -75,21 +133,57 @@ public class StatTracker {
 	
 	/**
 	 * Creates a statistic with the given name. If a statistic with the same
-	 * name already exists, this method has no effect.
+	 * name already exists, this method has no effect and the existing statistic
+	 * is returned.
 	 *
 	 * @param name	the name of the statistic.
+	 * @return the statistic's handle.
+	 * @throws IllegalArgumentException	if a counter already exists with the
+	 * given name.
+	 * @see #createCounter(String)
 	 */
-	public void createStat(String name) {
-		synchronized (mInstance) {
-			if (mStats.containsKey(name)) {
-				return;
-			}
-			mStats.put(name, 0d);
+	public Gauge createStat(String name) {
+		Stat stat = register(new Gauge(name));
+		if (!(stat instanceof Gauge)) {
+			throw new IllegalArgumentException("Stat " + name + " is a counter");
 		}
+		return (Gauge) stat;
 	}
 	
 	/**
-	 * Adds an amount to a specified statistic.
+	 * Creates a whole number statistic with the given name. If a statistic with
+	 * the same name already exists, this method has no effect and the existing
+	 * statistic is returned.
+	 *
+	 * @param name	the name of the statistic.
+	 * @return the statistic's handle.
+	 * @throws IllegalArgumentException	if a non-counter statistic already exists
+	 * with the given name.
+	 * @see #createStat(String)
+	 */
+	public Counter createCounter(String name) {
+		Stat stat = register(new Counter(name));
+		if (!(stat instanceof Counter)) {
+			throw new IllegalArgumentException("Stat " + name + " is not a counter");
+		}
+		return (Counter) stat;
+	}
+	
+	/**
+	 * Gets the handle of an existing statistic.
+	 *
+	 * @param name	the name of the statistic.
+	 * @return the statistic's handle.
+	 * @throws IllegalArgumentException	if no statistic exists with the given
+	 * name.
+	 */
+	public Stat getStat(String name) {
+		return ensureValidStat(name);
+	}
+	
+	/**
+	 * Adds an amount to a specified statistic. Counters drop the amount's
+	 * fractional part.
 	 *
 	 * @param name	name of the statistic.
 	 * @param val	amount to add.
@@ -98,16 +192,12 @@ public class StatTracker {
 	 * @see #subtractFromStat(String, double)
 	 */
 	public void addToStat(String name, double val) {
-		synchronized (mInstance) {
-			ensureValidStat(name);
-			// Pull value and add before storing again
-			double storedVal = mStats.get(name);
-			mStats.put(name, storedVal + val);
-		}
+		ensureValidStat(name).addValue(val);
 	}
 	
 	/**
-	 * Subtracts an amount from a specified statistic.
+	 * Subtracts an amount from a specified statistic. Counters drop the amount's
+	 * fractional part.
 	 *
 	 * @param name	name of the statistic.
 	 * @param val	amount to subtract.
@@ -116,12 +206,7 @@ public class StatTracker {
 	 * @see #addToStat(String, double)
 	 */
 	public void subtractFromStat(String name, double val) {
-		synchronized (mInstance) {
-			ensureValidStat(name);
-			// Pull value and subtract before storing again
-			double storedVal = mStats.get(name);
-			mStats.put(name, storedVal - val);
-		}
+		ensureValidStat(name).addValue(-val);
 	}
 	
 	/**
@@ -134,10 +219,7 @@ public class StatTracker {
 	 * @see #setValueOf(String, double)
 	 */
 	public double getValueOf(String name) {
-		synchronized (mInstance) {
-			ensureValidStat(name);
-			return mStats.get(name);
-		}
+		return ensureValidStat(name).getValue();
 	}
 
 	/**
@@ -151,10 +233,7 @@ public class StatTracker {
 	 * @see #getValueOf(String)
 	 */
 	public void setValueOf(String name, double val) {
-		synchronized (mInstance) {
-			ensureValidStat(name);
-			mStats.put(name, val);
-		}
+		ensureValidStat(name).setValue(val);
 	}
 	
 	/**
@@ -165,14 +244,12 @@ public class StatTracker {
 	 * @see #numberOfStats()
 	 */
 	public Iterable<String> statistics() {
-		synchronized (StatTracker.class) {
-			ArrayList<String> stats = new ArrayList<String>();
-			// Transfer stat names over
-			for (String name : mStats.keySet()) {
-				stats.add(name);
-			}
-			return stats;
+		ArrayList<String> stats = new ArrayList<String>();
+		// Transfer stat names over
+		for (Stat stat : mOrder) {
+			stats.add(stat.getName());
 		}
+		return stats;
 	}
 
 	/**
@@ -182,9 +259,99 @@ public class StatTracker {
 	 * {@link #statistics()}
 	 */
 	public int numberOfStats() {
-		synchronized (mInstance) {
-			return mStats.size();
+		return mOrder.size();
+	}
+	
+	/**
+	 * Reads the value of every statistic in the order they were created. Values
+	 * are read one at a time without stopping updates and so updates made while
+	 * the snapshot is taken may only be partly included.
+	 *
+	 * @return the value of each statistic by name.
+	 */
+	public Map<String, Double> snapshot() {
+		LinkedHashMap<String, Double> values = new LinkedHashMap<String, Double>();
+		for (Stat stat : mOrder) {
+			values.put(stat.getName(), stat.getValue());
+		}
+		return values;
+	}
+	
+	/**
+	 * Writes every statistic as comma separated values, one "name,value" line per
+	 * statistic in the order they were created. The Writer is flushed but not
+	 * closed.
+	 *
+	 * @param out	the Writer to write to.
+	 * @throws IOException	if the Writer could not be written to.
+	 * @see #writeBinary(OutputStream)
+	 */
+	public void writeCsv(Writer out) throws IOException {
+		StringBuilder builder = new StringBuilder("name,value\n");
+		for (Stat stat : mOrder) {
+			builder.append(stat.getName());
+			builder.append(',');
+			if (stat instanceof Counter) {
+				builder.append(((Counter) stat).getCount());
+			} else {
+				builder.append(stat.getValue());
+			}
+			builder.append('\n');
+		}
+		out.write(builder.toString());
+		out.flush();
+	}
+	
+	/**
+	 * <p>
+	 * Writes every statistic in a compact binary form. The stream begins with the
+	 * magic number {@link #MAGIC}, the format {@link #VERSION} as a short, and the number
+	 * of statistics as an int. Each statistic follows as its name (in modified UTF-8),
+	 * a byte of 1 for counters or 0 otherwise, and its value as a long for counters
+	 * or a double otherwise.
+	 * </p>
+	 * 
+	 * <p>The stream is flushed but not closed.</p>
+	 *
+	 * @param out	the stream to write to.
+	 * @throws IOException	if the stream could not be written to.
+	 * @see #writeCsv(Writer)
+	 */
+	public void writeBinary(OutputStream out) throws IOException {
+		// Copy so the count matches the records written
+		Object[] stats = mOrder.toArray();
+		
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeShort(VERSION);
+		data.writeInt(stats.length);
+		for (Object obj : stats) {
+			Stat stat = (Stat) obj;
+			data.writeUTF(stat.getName());
+			if (stat instanceof Counter) {
+				data.writeByte(KIND_COUNTER);
+				data.writeLong(((Counter) stat).getCount());
+			} else {
+				data.writeByte(KIND_GAUGE);
+				data.writeDouble(stat.getValue());
+			}
 		}
+		data.flush();
+	}
+	
+	/**
+	 * Adds a statistic unless one already exists with the same name.
+	 *
+	 * @param stat	the new statistic.
+	 * @return the statistic now stored under the name.
+	 */
+	private Stat register(Stat stat) {
+		Stat existing = mStats.putIfAbsent(stat.getName(), stat);
+		if (existing != null) {
+			return existing;
+		}
+		mOrder.add(stat);
+		return stat;
 	}
 	
 	/**
@@ -193,16 +360,19 @@ public class StatTracker {
 	 * beginning of any method that needs a statistic to exist.
 	 *
 	 * @param name	the name to check.
+	 * @return the statistic with the given name.
 	 * @throws IllegalArgumentException	if no statistic exists with the given
 	 * name.
 	 */
-	private void ensureValidStat(String name) {
-		if (!mStats.containsKey(name)) {
+	private Stat ensureValidStat(String name) {
+		Stat stat = name == null ? null : mStats.get(name);
+		if (stat == null) {
 			StringBuilder builder = new StringBuilder("Stat ");
 			builder.append(name);
 			builder.append(" does not exist");
 			throw new IllegalArgumentException(builder.toString());
 		}
+		return stat;
 	}
 
 	/**
@@ -229,13 +399,170 @@ public class StatTracker {
 	 */
 	@Override
 	public String toString() {
-		synchronized (mInstance) {
-			StringBuilder builder = new StringBuilder("{ (numberOfStats() = ");
-			builder.append(numberOfStats());
-			builder.append(") }");
-			return builder.toString();
+		StringBuilder builder = new StringBuilder("{ (numberOfStats() = ");
+		builder.append(numberOfStats());
+		builder.append(") }");
+		return builder.toString();
+	}
+	
+	/**
+	 * <p>
+	 * A handle to a single statistic kept by the StatTracker. Handles are obtained
+	 * from {@link StatTracker#createStat(String)} or {@link StatTracker#createCounter(String)}
+	 * and stay valid for the life of the game.
+	 * </p>
+	 * 
+	 * <p>This class is thread-safe.</p>
+	 */
+	public static abstract class Stat {
+		
+		// Name the statistic was created with
+		private final String mName;
+		
+		/**
+		 * Constructor for a statistic with the given name.
+		 *
+		 * @param name	the name of the statistic.
+		 * @throws IllegalArgumentException	if the name is null.
+		 */
+		private Stat(String name) {
+			if (name == null) {
+				throw new IllegalArgumentException("Stat name may not be null");
+			}
+			mName = name;
 		}
+		
+		/**
+		 * Gets the name of the statistic.
+		 *
+		 * @return the name.
+		 */
+		public String getName() { return mName; }
+		
+		/**
+		 * Gets the current value of the statistic.
+		 *
+		 * @return the value.
+		 */
+		public abstract double getValue();
+		
+		/**
+		 * Replaces the statistic's value. Updates made by other threads while the
+		 * value is being replaced may be lost.
+		 *
+		 * @param val	the new value.
+		 */
+		public abstract void setValue(double val);
+		
+		/**
+		 * Adds an amount to the statistic.
+		 *
+		 * @param val	the amount.
+		 */
+		abstract void addValue(double val);
 	}
 	
+	/**
+	 * A statistic holding a decimal value, such as damage dealt.
+	 */
+	public static final class Gauge extends Stat {
+		
+		// Striped sum of every update
+		private final DoubleAdder mValue = new DoubleAdder();
+		
+		private Gauge(String name) {
+			super(name);
+		}
+		
+		/**
+		 * Adds an amount to the statistic.
+		 *
+		 * @param val	amount to add.
+		 * @see #subtract(double)
+		 */
+		public void add(double val) {
+			mValue.add(val);
+		}
+		
+		/**
+		 * Subtracts an amount from the statistic.
+		 *
+		 * @param val	amount to subtract.
+		 * @see #add(double)
+		 */
+		public void subtract(double val) {
+			mValue.add(-val);
+		}
+		
+		@Override
+		public double getValue() {
+			return mValue.sum();
+		}
+		
+		@Override
+		public void setValue(double val) {
+			mValue.reset();
+			mValue.add(val);
+		}
+		
+		@Override
+		void addValue(double val) {
+			mValue.add(val);
+		}
+	}
+	
+	/**
+	 * A statistic holding a whole number, such as kills or shots fired.
+	 */
+	public static final class Counter extends Stat {
+		
+		// Striped sum of every update
+		private final LongAdder mCount = new LongAdder();
+		
+		private Counter(String name) {
+			super(name);
+		}
+		
+		/**
+		 * Adds one to the count.
+		 */
+		public void increment() {
+			mCount.increment();
+		}
+		
+		/**
+		 * Adds an amount to the count.
+		 *
+		 * @param val	amount to add.
+		 */
+		public void add(long val) {
+			mCount.add(val);
+		}
+		
+		/**
+		 * Gets the current count.
+		 *
+		 * @return the count.
+		 */
+		public long getCount() {
+			return mCount.sum();
+		}
+		
+		@Override
+		public double getValue() {
+			return mCount.sum();
+		}
+		
+		@Override
+		public void setValue(double val) {
+			mCount.reset();
+			mCount.add((long) val);
+		}
+		
+		@Override
+		void addValue(double val) {
+			mCount.add((long) val);
+		}
+	}
 	
 }
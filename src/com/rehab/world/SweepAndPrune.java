@@ -0,0 +1,297 @@
+package com.rehab.world;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * <p>
+ * SweepAndPrune is a {@link Broadphase} that keeps the left and right edges of every
+ * Entity's bounds in a single array sorted along the x-axis. Walking the array from
+ * left to right, each Entity only needs to be compared with those whose x-intervals
+ * are still open, which makes it insensitive to how densely Entities are packed in
+ * any one place.
+ * </p>
+ * 
+ * <p>
+ * The edges are kept in primitive arrays that persist between ticks and are re-sorted
+ * with an insertion sort. Since Entities move little from one tick to the next, the
+ * array is nearly sorted already and re-sorting costs close to a single pass.
+ * </p>
+ * 
+ * <p>
+ * Region queries walk the edges from the left until passing the region and so cost
+ * more than with a {@link GridBroadphase} for small regions on the right of a wide level.
+ * </p>
+ * 
+ * <p>This class is <b>not</b> thread-safe.</p>
+ */
+public class SweepAndPrune implements Broadphase {
+	
+	// Initial number of Entities room is made for
+	private static final int INITIAL_CAPACITY = 64;
+	
+	// Slot of each Entity in the body arrays
+	private IdentityHashMap<Entity, Integer> mSlots = new IdentityHashMap<Entity, Integer>();
+	
+	// Per slot Entity, bounds (min x, min y, max x, max y), filter (category, mask) and refresh epoch
+	private Entity[] mBodies = new Entity[INITIAL_CAPACITY];
+	private double[] mBounds = new double[INITIAL_CAPACITY * 4];
+	private int[] mFilters = new int[INITIAL_CAPACITY * 2];
+	private int[] mEpochs = new int[INITIAL_CAPACITY];
+	private int mCount = 0;
+	
+	// Edges sorted by x as (slot << 1) with the low bit set for right edges
+	private int[] mEdges = new int[INITIAL_CAPACITY * 2];
+	private double[] mEdgeValues = new double[INITIAL_CAPACITY * 2];
+	private boolean mSorted = true;
+	
+	// Current refresh epoch
+	private int mEpoch = 0;
+	
+	// Scratch space
+	private int[] mActive = new int[INITIAL_CAPACITY];
+	private int[] mRemap = new int[INITIAL_CAPACITY];
+	private double[] mScratch = new double[4];
+	
+	@Override
+	public void update(Entity e) {
+		Hitbox h = e.getCollision();
+		if (h == null) {
+			return;
+		}
+		h.getBounds(mScratch);
+		
+		Integer slot = mSlots.get(e);
+		int s;
+		if (slot == null) {
+			s = add(e);
+		} else {
+			s = slot;
+		}
+		
+		System.arraycopy(mScratch, 0, mBounds, s * 4, 4);
+		mFilters[s * 2] = e.getCategory();
+		mFilters[s * 2 + 1] = e.getMask();
+		mEpochs[s] = mEpoch;
+		mSorted = false;
+	}
+	
+	@Override
+	public boolean touch(Entity e) {
+		Integer slot = mSlots.get(e);
+		if (slot == null) {
+			return false;
+		}
+		mEpochs[slot] = mEpoch;
+		return true;
+	}
+	
+	@Override
+	public int prune() {
+		if (mRemap.length < mCount) {
+			mRemap = new int[mBodies.length];
+		}
+		
+		// Compact live bodies towards the front
+		int next = 0;
+		for (int s = 0; s < mCount; s++) {
+			if (mEpochs[s] != mEpoch) {
+				mSlots.remove(mBodies[s]);
+				mRemap[s] = -1;
+				continue;
+			}
+			if (next != s) {
+				mBodies[next] = mBodies[s];
+				System.arraycopy(mBounds, s * 4, mBounds, next * 4, 4);
+				mFilters[next * 2] = mFilters[s * 2];
+				mFilters[next * 2 + 1] = mFilters[s * 2 + 1];
+				mEpochs[next] = mEpochs[s];
+				mSlots.put(mBodies[next], next);
+			}
+			mRemap[s] = next++;
+		}
+		for (int s = next; s < mCount; s++) {
+			mBodies[s] = null;
+		}
+		
+		// Drop removed edges while keeping the rest in order
+		int removed = mCount - next;
+		if (removed > 0) {
+			int write = 0;
+			for (int i = 0, edges = mCount * 2; i < edges; i++) {
+				int edge = mEdges[i];
+				int slot = mRemap[edge >> 1];
+				if (slot >= 0) {
+					mEdges[write] = (slot << 1) | (edge & 1);
+					mEdgeValues[write] = mEdgeValues[i];
+					write++;
+				}
+			}
+		}
+		
+		mCount = next;
+		mEpoch++;
+		return removed;
+	}
+	
+	@Override
+	public int query(double minX, double minY, double maxX, double maxY, int category, int mask,
+			Collection<? super Entity> out) {
+		sort();
+		
+		int found = 0;
+		for (int i = 0, edges = mCount * 2; i < edges; i++) {
+			// Every later left edge is past the region
+			if (mEdgeValues[i] > maxX) {
+				break;
+			}
+			int edge = mEdges[i];
+			if ((edge & 1) != 0) {
+				continue;
+			}
+			
+			int s = edge >> 1;
+			if ((mFilters[s * 2] & mask) == 0 || (category & mFilters[s * 2 + 1]) == 0) {
+				continue;
+			}
+			int b = s * 4;
+			if (mBounds[b + 2] >= minX && mBounds[b + 1] <= maxY && mBounds[b + 3] >= minY) {
+				out.add(mBodies[s]);
+				found++;
+			}
+		}
+		return found;
+	}
+	
+	@Override
+	public int pairs(List<? super Entity> out) {
+		sort();
+		
+		int found = 0;
+		int active = 0;
+		for (int i = 0, edges = mCount * 2; i < edges; i++) {
+			int edge = mEdges[i];
+			int s = edge >> 1;
+			
+			// Right edge closes the interval
+			if ((edge & 1) != 0) {
+				for (int k = 0; k < active; k++) {
+					if (mActive[k] == s) {
+						mActive[k] = mActive[--active];
+						break;
+					}
+				}
+				continue;
+			}
+			
+			// Left edge overlaps every open interval on x so only y remains
+			int b = s * 4;
+			for (int k = 0; k < active; k++) {
+				int o = mActive[k];
+				if ((mFilters[s * 2] & mFilters[o * 2 + 1]) == 0 || (mFilters[o * 2] & mFilters[s * 2 + 1]) == 0) {
+					continue;
+				}
+				int ob = o * 4;
+				if (mBounds[b + 1] <= mBounds[ob + 3] && mBounds[b + 3] >= mBounds[ob + 1]) {
+					out.add(mBodies[o]);
+					out.add(mBodies[s]);
+					found++;
+				}
+			}
+			mActive[active++] = s;
+		}
+		return found;
+	}
+	
+	@Override
+	public int size() {
+		return mCount;
+	}
+	
+	/**
+	 * Gives an Entity a slot and adds its edges to the end of the edge array.
+	 * 
+	 * @param e	the Entity.
+	 * @return the Entity's slot.
+	 */
+	private int add(Entity e) {
+		if (mCount == mBodies.length) {
+			grow();
+		}
+		
+		int s = mCount++;
+		mBodies[s] = e;
+		mSlots.put(e, s);
+		
+		// Edges start unsorted at the end
+		int edge = s * 2;
+		mEdges[edge] = s << 1;
+		mEdges[edge + 1] = (s << 1) | 1;
+		return s;
+	}
+	
+	/**
+	 * Doubles the room in every array.
+	 */
+	private void grow() {
+		int capacity = mBodies.length * 2;
+		
+		Entity[] bodies = new Entity[capacity];
+		System.arraycopy(mBodies, 0, bodies, 0, mCount);
+		mBodies = bodies;
+		mBounds = copyOf(mBounds, capacity * 4);
+		mFilters = copyOf(mFilters, capacity * 2);
+		mEpochs = copyOf(mEpochs, capacity);
+		mEdges = copyOf(mEdges, capacity * 2);
+		mEdgeValues = copyOf(mEdgeValues, capacity * 2);
+		mActive = new int[capacity];
+	}
+	
+	/**
+	 * Refreshes each edge's x value from its body's bounds and restores the order
+	 * of the edge array with an insertion sort. Left edges sort before right edges
+	 * of equal value so that touching bounds count as overlapping.
+	 */
+	private void sort() {
+		if (mSorted) {
+			return;
+		}
+		
+		int edges = mCount * 2;
+		for (int i = 0; i < edges; i++) {
+			int edge = mEdges[i];
+			mEdgeValues[i] = mBounds[(edge >> 1) * 4 + ((edge & 1) == 0 ? 0 : 2)];
+		}
+		
+		for (int i = 1; i < edges; i++) {
+			int edge = mEdges[i];
+			double value = mEdgeValues[i];
+			
+			// Shift larger edges right until the slot is found
+			int j = i - 1;
+			while (j >= 0 && (mEdgeValues[j] > value
+					|| (mEdgeValues[j] == value && (mEdges[j] & 1) > (edge & 1)))) {
+				mEdges[j + 1] = mEdges[j];
+				mEdgeValues[j + 1] = mEdgeValues[j];
+				j--;
+			}
+			mEdges[j + 1] = edge;
+			mEdgeValues[j + 1] = value;
+		}
+		mSorted = true;
+	}
+	
+	private static double[] copyOf(double[] array, int length) {
+		double[] copy = new double[length];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+	
+	private static int[] copyOf(int[] array, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+
+}
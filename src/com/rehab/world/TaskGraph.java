@@ -0,0 +1,222 @@
+package com.rehab.world;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * <p>
+ * TaskGraph runs a set of stages in an order given only by the dependencies between them.
+ * A stage is a Runnable along with the stages that must finish before it may begin. Each
+ * call to {@link #run(ForkJoinPool)} schedules every stage with nothing left to wait on
+ * across the pool's workers, so stages that do not depend on each other overlap, and
+ * returns once every stage has finished.
+ * </p>
+ * 
+ * <p>
+ * The code below describes a tick in which motion and AI both follow input while drawing
+ * must wait on both.
+ * </p>
+ * 
+ * <pre>
+ *  <code>
+ * TaskGraph tick = new TaskGraph();
+ * int input = tick.addStage("input", applyInput);
+ * int motion = tick.addStage("motion", integrate, input);
+ * int ai = tick.addStage("ai", think, input);
+ * tick.addStage("draw", buildFrame, motion, ai);
+ * tick.run(pool);
+ *  </code>
+ * </pre>
+ * 
+ * <p>
+ * A stage may only depend on stages added before it, so a TaskGraph can never hold a
+ * cycle. Each worker of a {@link ForkJoinPool} keeps its own deque of tasks and steals
+ * from the others when out of work. A stage readied by another is pushed onto the
+ * deque of the worker that finished the other, where it is likely to find the same data
+ * still cached, and a stage that splits its own work on the same pool (as the
+ * {@link Arena} does) shares those workers rather than competing with them.
+ * </p>
+ * 
+ * <p>
+ * If a stage throws, the stages waiting on it are never begun and the exception is
+ * rethrown from {@link #run(ForkJoinPool)}. Stages already running at the time may
+ * still be finishing.
+ * </p>
+ * 
+ * <p>This class is <b>not</b> thread-safe; only a single thread may add stages and run the graph.</p>
+ */
+public final class TaskGraph {
+	
+	// Work, name, and dependents of each stage
+	private ArrayList<Runnable> mStages = new ArrayList<Runnable>();
+	private ArrayList<String> mNames = new ArrayList<String>();
+	private ArrayList<int[]> mDependents = new ArrayList<int[]>();
+	// Number of stages each stage waits on
+	private int[] mWaits = new int[8];
+	
+	// Whether or not the graph is running
+	private boolean mRunning = false;
+	
+	/**
+	 * Adds a stage that may begin once each of the given stages has finished.
+	 * 
+	 * @param name	a name for the stage, for error messages.
+	 * @param stage	the work to run.
+	 * @param dependencies	the stages that must finish first, as returned by earlier
+	 * calls to this method.
+	 * @return the stage's index.
+	 * @throws IllegalArgumentException	if the stage is null or a dependency is not a
+	 * stage already in the graph.
+	 * @throws IllegalStateException	if the graph is running.
+	 */
+	public int addStage(String name, Runnable stage, int... dependencies) {
+		if (mRunning) {
+			throw new IllegalStateException("Stages may not be added while running");
+		}
+		if (stage == null) {
+			throw new IllegalArgumentException("Stage may not be null");
+		}
+		int index = mStages.size();
+		for (int dependency : dependencies) {
+			if (dependency < 0 || dependency >= index) {
+				throw new IllegalArgumentException("Stage \"" + name + "\" depends on unknown stage " + dependency);
+			}
+		}
+		
+		if (index == mWaits.length) {
+			int[] waits = new int[index * 2];
+			System.arraycopy(mWaits, 0, waits, 0, index);
+			mWaits = waits;
+		}
+		mStages.add(stage);
+		mNames.add(name);
+		mDependents.add(new int[0]);
+		
+		// Repeated dependencies only count once
+		for (int i = 0; i < dependencies.length; i++) {
+			int dependency = dependencies[i];
+			boolean repeated = false;
+			for (int j = 0; j < i && !repeated; j++) {
+				repeated = dependencies[j] == dependency;
+			}
+			if (repeated) {
+				continue;
+			}
+			int[] dependents = mDependents.get(dependency);
+			int[] grown = new int[dependents.length + 1];
+			System.arraycopy(dependents, 0, grown, 0, dependents.length);
+			grown[dependents.length] = index;
+			mDependents.set(dependency, grown);
+			mWaits[index]++;
+		}
+		return index;
+	}
+	
+	/**
+	 * Runs every stage once on a pool's workers and waits for all of them to finish.
+	 * Work a stage wrote is visible to the stages that depend on it and, once this
+	 * method returns, to the calling thread.
+	 * 
+	 * @param pool	the ForkJoinPool to run stages on.
+	 * @throws IllegalArgumentException	if the pool is null.
+	 * @throws IllegalStateException	if the graph is already running.
+	 */
+	public void run(ForkJoinPool pool) {
+		if (pool == null) {
+			throw new IllegalArgumentException("Pool may not be null");
+		}
+		if (mRunning) {
+			throw new IllegalStateException("TaskGraph is already running");
+		}
+		
+		mRunning = true;
+		try {
+			pool.invoke(new Root(mStages.size()));
+		} finally {
+			mRunning = false;
+		}
+	}
+	
+	/**
+	 * Gets the number of stages in the graph.
+	 * 
+	 * @return the stage count.
+	 */
+	public int size() { return mStages.size(); }
+	
+	/**
+	 * Gets a stage's name.
+	 * 
+	 * @param stage	the stage's index.
+	 * @return the name.
+	 */
+	public String getName(int stage) { return mNames.get(stage); }
+	
+	/**
+	 * Completes once every stage has, starting those that wait on nothing.
+	 */
+	private final class Root extends CountedCompleter<Void> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		// Stages left to wait on by each stage during this run
+		private final AtomicIntegerArray mPending;
+		private final int mCount;
+		
+		Root(int count) {
+			mCount = count;
+			mPending = new AtomicIntegerArray(count);
+			for (int i = 0; i < count; i++) {
+				mPending.set(i, mWaits[i]);
+			}
+		}
+		
+		@Override
+		public void compute() {
+			// Every stage completes into the root, then the root's own completion
+			setPendingCount(mCount);
+			for (int i = 0; i < mCount; i++) {
+				if (mWaits[i] == 0) {
+					new Stage(this, i).fork();
+				}
+			}
+			tryComplete();
+		}
+	}
+	
+	/**
+	 * Runs a single stage then starts those of its dependents left with nothing to
+	 * wait on.
+	 */
+	private final class Stage extends CountedCompleter<Void> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final int mIndex;
+		
+		Stage(Root root, int index) {
+			super(root);
+			mIndex = index;
+		}
+		
+		@Override
+		public void compute() {
+			try {
+				mStages.get(mIndex).run();
+			} catch (RuntimeException e) {
+				throw new IllegalStateException("Stage \"" + mNames.get(mIndex) + "\" failed", e);
+			}
+			
+			Root root = (Root) getCompleter();
+			for (int dependent : mDependents.get(mIndex)) {
+				if (root.mPending.decrementAndGet(dependent) == 0) {
+					new Stage(root, dependent).fork();
+				}
+			}
+			tryComplete();
+		}
+	}
+
+}
@@ -0,0 +1,278 @@
+package com.rehab.world;
+
+/**
+ * <p>
+ * Runs delayed and repeating gameplay behaviors ({@link Script}s) on the world's tick.
+ * Rather than each behavior sleeping on a thread of its own, a waiting Script is a single
+ * small object in a timing wheel, a ring of buckets indexed by tick number, and so tens of
+ * thousands of behaviors may wait at once for the cost of their own fields. The
+ * {@link WorldLoop} advances the wheel on every tick right after spawns and before any
+ * physics, resuming every Script due on that tick one after another. The order within a
+ * tick depends only on when each Script was started.
+ * </p>
+ * 
+ * <p>
+ * The code below disables a Projectile two seconds (at 60 ticks per second) after it is
+ * fired.
+ * </p>
+ * 
+ * <pre>
+ *  <code>
+ * TimerManager.getInstance().schedule(new Runnable() {
+ *     public void run() { projectile.disable(); }
+ * }, 120);
+ *  </code>
+ * </pre>
+ * 
+ * <p>
+ * Delays are counted in whole ticks, so timers reproduce exactly during a replay. A delay
+ * of 0 runs on the next tick to be simulated. A Script that throws is reported and
+ * stopped without keeping the other Scripts due on the same tick from running.
+ * </p>
+ * 
+ * <p>
+ * Note: once the WorldLoop is running, timers may only be started or cancelled from within
+ * a tick, such as from a listener or another Script.
+ * </p>
+ */
+public class TimerManager {
+	
+	// Number of buckets in the wheel, must be a power of 2
+	private static final int WHEEL_SIZE = 256;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+	
+	// Heads of each bucket's list of waiting Timers
+	private Timer[] mWheel = new Timer[WHEEL_SIZE];
+	
+	// Next tick the wheel will be advanced to
+	private long mNextTick = 0;
+	// Number of Timers waiting
+	private int mActiveCount = 0;
+	
+	// Singleton instance
+	private static TimerManager mInstance;
+	
+	
+	/**
+	 * Constructor for a TimerManager apart from the one advanced by the
+	 * {@link WorldLoop}, such as the one each match hosted by an {@link ArenaHost}
+	 * keeps for itself.
+	 * 
+	 * @see #getInstance()
+	 */
+	public TimerManager() {
+
+	}
+	
+	/**
+	 * Gets an instance of the TimerManager.
+	 * 
+	 * @return the TimerManager.
+	 */
+	public static TimerManager getInstance() {
+		synchronized (TimerManager.class) {
+			if (mInstance == null) {
+				mInstance = new TimerManager();
+			}
+			return mInstance;
+		}
+	}
+	
+	/**
+	 * Starts a Script, running its first step on the next tick.
+	 * 
+	 * @param script	the Script.
+	 * @return the Timer the Script waits in.
+	 * @throws IllegalArgumentException	if the Script is null.
+	 * @see #start(Script, long)
+	 */
+	public Timer start(Script script) {
+		return start(script, 0);
+	}
+	
+	/**
+	 * Starts a Script after a delay.
+	 * 
+	 * @param script	the Script.
+	 * @param delay	the number of ticks to wait before the first step.
+	 * @return the Timer the Script waits in.
+	 * @throws IllegalArgumentException	if the Script is null or the delay is negative.
+	 */
+	public Timer start(Script script, long delay) {
+		if (script == null) {
+			throw new IllegalArgumentException("Script may not be null");
+		}
+		if (delay < 0) {
+			throw new IllegalArgumentException("Delay must be >= 0");
+		}
+		Timer timer = new Timer(script);
+		mActiveCount++;
+		schedule(timer, mNextTick + delay);
+		return timer;
+	}
+	
+	/**
+	 * Runs an action once after a delay.
+	 * 
+	 * @param action	the action.
+	 * @param delay	the number of ticks to wait.
+	 * @return the Timer the action waits in.
+	 * @throws IllegalArgumentException	if the action is null or the delay is negative.
+	 */
+	public Timer schedule(final Runnable action, long delay) {
+		if (action == null) {
+			throw new IllegalArgumentException("Action may not be null");
+		}
+		return start(new Script() {
+			@Override
+			public long resume(long tick) {
+				action.run();
+				return DONE;
+			}
+		}, delay);
+	}
+	
+	/**
+	 * Gets the number of Timers still waiting.
+	 * 
+	 * @return the active Timer count.
+	 */
+	public int getActiveCount() { return mActiveCount; }
+	
+	/**
+	 * Resumes every Script due on the given tick. This method is called by the
+	 * {@link WorldLoop} at the start of each tick, after spawns and before any physics.
+	 * If ticks were skipped since the last call, their Scripts are resumed as well.
+	 * 
+	 * @param tick	the tick about to be simulated.
+	 */
+	void advance(long tick) {
+		while (mNextTick <= tick) {
+			long current = mNextTick++;
+			int bucket = (int) (current & WHEEL_MASK);
+			
+			// Detach the bucket so rescheduled Timers are not visited twice
+			Timer timer = mWheel[bucket];
+			mWheel[bucket] = null;
+			
+			while (timer != null) {
+				Timer next = timer.next;
+				timer.next = null;
+				
+				if (timer.script == null) {
+					// Cancelled while waiting
+				} else if (timer.dueTick > current) {
+					// Due on a later lap around the wheel
+					link(timer, bucket);
+				} else {
+					resume(timer, current);
+				}
+				timer = next;
+			}
+		}
+	}
+	
+	/**
+	 * Runs a Timer's next step then either waits it again or retires it.
+	 * 
+	 * @param timer	the due Timer.
+	 * @param tick	the tick being simulated.
+	 */
+	private void resume(Timer timer, long tick) {
+		long wait;
+		try {
+			wait = timer.script.resume(tick);
+		} catch (RuntimeException e) {
+			// Stop only the failing Script so the rest of the tick's Scripts still run
+			System.err.printf("Script failed on tick %d and was stopped\n", tick);
+			e.printStackTrace();
+			if (timer.script != null) {
+				timer.script = null;
+				mActiveCount--;
+			}
+			return;
+		}
+		
+		// The Script may have cancelled itself
+		if (timer.script == null) {
+			return;
+		}
+		if (wait == Script.DONE) {
+			timer.script = null;
+			mActiveCount--;
+			return;
+		}
+		schedule(timer, tick + Math.max(1, wait));
+	}
+	
+	/**
+	 * Places a Timer in the wheel to wait for the given tick.
+	 * 
+	 * @param timer	the Timer.
+	 * @param tick	the tick of the Timer's next step.
+	 */
+	private void schedule(Timer timer, long tick) {
+		timer.dueTick = tick;
+		link(timer, (int) (tick & WHEEL_MASK));
+	}
+	
+	/**
+	 * Pushes a Timer to the front of a bucket's list.
+	 * 
+	 * @param timer	the Timer.
+	 * @param bucket	the bucket's index.
+	 */
+	private void link(Timer timer, int bucket) {
+		timer.next = mWheel[bucket];
+		mWheel[bucket] = timer;
+	}
+	
+	/**
+	 * A Script waiting in the wheel for its next step.
+	 */
+	public final class Timer {
+		// Script to resume, or null once done or cancelled
+		private Script script;
+		
+		// Tick of the next step
+		private long dueTick;
+		// Next Timer in the same bucket of the wheel
+		private Timer next;
+		
+		/**
+		 * Constructor for a Timer.
+		 * 
+		 * @param script	the Script to resume.
+		 */
+		private Timer(Script script) {
+			this.script = script;
+		}
+		
+		/**
+		 * Stops the Timer's Script from being resumed again. Cancelling a Timer that
+		 * is done has no effect.
+		 */
+		public void cancel() {
+			if (script == null) {
+				return;
+			}
+			script = null;
+			mActiveCount--;
+		}
+		
+		/**
+		 * Checks whether or not the Timer's Script will be resumed again.
+		 * 
+		 * @return true if the Script is waiting, false if it is done or cancelled.
+		 */
+		public boolean isActive() { return script != null; }
+		
+		/**
+		 * Gets the tick on which the Timer's Script is next resumed.
+		 * 
+		 * @return the tick.
+		 */
+		public long getDueTick() { return dueTick; }
+	}
+
+}
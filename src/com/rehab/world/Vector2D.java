@@ -150,7 +150,7 @@ public class Vector2D {
 	 * @return	the base Point.
 	 */
 	public Point getBasePoint() {
-		return mHead;
+		return mBase;
 	}
 	
 	/**
@@ -14,6 +14,8 @@ public class Weapon implements OnCollisionListener {
 	// Weapon profile
 	private Actor mOwner;
 	private Projectile mReferenceProj;
+	// Where fired Projectiles are registered, or null for the owner's InstanceManager
+	private InstanceManager mManager;
 
 	// Projectile profile
 	private double mProjSpeed;
@@ -62,6 +64,23 @@ public class Weapon implements OnCollisionListener {
     	mReferenceProj = w.mReferenceProj;
     	mProjSpeed = w.mProjSpeed;
     	mProjDamage = w.mProjDamage;
+    	mManager = w.mManager;
+    }
+    
+    /**
+     * Sets the InstanceManager that fired Projectiles are registered with. By default
+     * Projectiles join the InstanceManager the owning Actor is registered with, so
+     * Weapons of Actors in a match hosted by an {@link ArenaHost} stay within the
+     * match. The shared InstanceManager is used if the owner is not registered.
+     * 
+     * @param manager	the InstanceManager.
+     * @throws IllegalArgumentException	if the manager is null.
+     */
+    public void setInstanceManager(InstanceManager manager) {
+    	if (manager == null) {
+    		throw new IllegalArgumentException("InstanceManager may not be null");
+    	}
+    	mManager = manager;
     }
 
 	/**
@@ -71,8 +90,30 @@ public class Weapon implements OnCollisionListener {
 	 */
 	public void setDamage(double damage) {
 		mProjDamage = damage;
+		mOwner.markDirty();
 	}
 
+	/**
+	 * Gets the speed Projectiles are fired at.
+	 * 
+	 * @return the speed.
+	 */
+	double getProjectileSpeed() { return mProjSpeed; }
+	
+	/**
+	 * Gets the damage dealt by each Projectile.
+	 * 
+	 * @return the damage.
+	 */
+	double getProjectileDamage() { return mProjDamage; }
+	
+	/**
+	 * Gets the Projectile cloned for each shot.
+	 * 
+	 * @return the reference Projectile.
+	 */
+	Projectile getReference() { return mReferenceProj; }
+	
 	/**
 	 * Creates a new Projectile instance and launches it toward the given
 	 * coordinates.
@@ -81,8 +122,17 @@ public class Weapon implements OnCollisionListener {
 	 * @param y	the target y coordinate.
 	 */
     public void fireAt(double x, double y) {
+        // Register with the owner's InstanceManager unless told otherwise
+		InstanceManager manager = mManager;
+		if (manager == null) {
+			manager = mOwner.getStore();
+			if (manager == null) {
+				manager = InstanceManager.getInstance();
+			}
+		}
+		
         // Setup and register projectile
-		Projectile proj = InstanceManager.getInstance().createProjectile(mReferenceProj);
+		Projectile proj = manager.createProjectile(mReferenceProj);
 		proj.moveTo(mOwner.getX(), mOwner.getY());
 		proj.setOnCollisionListener(this);
 		
@@ -91,8 +141,8 @@ public class Weapon implements OnCollisionListener {
 		double normalizedX = x - mOwner.getXCentered();
 		double normalizedY = y - mOwner.getYCentered();
 		
-		// Apply new direction
-		phys.setAcceleration(1);
+		// Apply new direction at the pace of the owner's world
+		phys.setAcceleration(1, mOwner.getPhysics().getUnitTime());
 		phys.setVelocity(normalizedX, normalizedY, 1);
     }
 
@@ -1,10 +1,27 @@
 package com.rehab.world;
 
 
-import com.rehab.animation.Renderer;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 
 public class WorldLoop extends Thread {
 	
+	/**
+	 * Name of the {@link StatTracker} statistic holding the number of Actors simulated
+	 * during the last tick.
+	 */
+	public static final String STAT_AWAKE = "awake actors";
+	
+	/**
+	 * Name of the {@link StatTracker} statistic holding the number of Actors skipped
+	 * for sleeping during the last tick.
+	 */
+	public static final String STAT_SLEEPING = "sleeping actors";
+	
+	// Number of commands input may queue between ticks
+	private static final int INPUT_CAPACITY = 1024;
+	
 	// Number of ticks per second
 	private int mTarTick;
 	// Desired duration in nanoseconds
@@ -13,16 +30,46 @@ public class WorldLoop extends Thread {
 	private long mLastTickStart = 0;
 	private long mLastTickDuration = 0;
 	
+	// Number of ticks simulated so far
+	private long mTick = 0;
+	
 	// Whether or not to keep looping
 	private boolean mLoop = true;
+	private volatile boolean mRunning = false;
+	// Whether or not to simulate exactly one tick per loop
+	private boolean mLockstep = false;
 	
 	// The Singleton's instance
 	private static WorldLoop mInstance;
 	
 	// The level to run
 	private Arena mLvl;
-	// Source of Frames to fill and send for drawing
+	// Source of Frames to fill and the workers filling them between ticks
 	private FrameDepot mDepot = FrameDepot.getInstance();
+	private FramePipeline mFrames;
+	// Scheduled spawns and gameplay Scripts to perform between ticks
+	private SpawnManager mSpawns = SpawnManager.getInstance();
+	private TimerManager mTimers = TimerManager.getInstance();
+	
+	// User input waiting for the next tick
+	private InputQueue mInputs = new InputQueue(INPUT_CAPACITY);
+	// Nanoseconds between queuing and applying input
+	private long mInputLatencyMax = 0;
+	private long mInputLatencyTotal = 0;
+	private long mInputCount = 0;
+	// Recording of applied input and the session being replayed
+	private InputJournal mJournal;
+	private JournalReplay mReplay;
+	
+	// Stages of a tick and the workers running them
+	private TaskGraph mTickGraph = new TaskGraph();
+	private int mWorkerCount = Runtime.getRuntime().availableProcessors();
+	private ForkJoinPool mWorkers;
+	// Whether or not the tick being simulated should end with a Frame
+	private boolean mBuildFrame = false;
+	// Actors simulated and left sleeping by the last tick
+	private StatTracker.Gauge mAwakeStat = StatTracker.getInstance().createStat(STAT_AWAKE);
+	private StatTracker.Gauge mSleepingStat = StatTracker.getInstance().createStat(STAT_SLEEPING);
 	
 		
 	/**
@@ -37,6 +84,91 @@ public class WorldLoop extends Thread {
 		// Measure time needed
 		mTarTick = tickRate;
 		mTickInterval = 1000000000 / mTarTick;
+		buildTickGraph();
+	}
+	
+	/**
+	 * Describes a tick as stages and what each must wait on. Input, spawns, and
+	 * Scripts may create Entities and so stay in order to keep ids the same across
+	 * a replay.
+	 * 
+	 * <p>
+	 * Moving Actors only touches Actors, so the tree of Props is refreshed at the
+	 * same time. Finding Actors near each other reads both and waits on both. The
+	 * number of Actors awake and asleep is published to the {@link StatTracker}
+	 * alongside the rest of the tick.
+	 * </p>
+	 * 
+	 * <p>
+	 * Resolving Actors runs collision listeners, which may fire, disable, or remove
+	 * Projectiles and so change the tables Projectiles are integrated from. No stage
+	 * may touch Projectiles until "resolve actors" is done. Most of the remaining
+	 * work of a tick is split across the workers within each stage.
+	 * </p>
+	 */
+	private void buildTickGraph() {
+		int input = mTickGraph.addStage("input drain", new Runnable() {
+			@Override
+			public void run() { applyInput(); }
+		});
+		int spawn = mTickGraph.addStage("spawn", new Runnable() {
+			@Override
+			public void run() { mSpawns.advance(mTick); }
+		}, input);
+		int timers = mTickGraph.addStage("timers", new Runnable() {
+			@Override
+			public void run() { mTimers.advance(mTick); }
+		}, spawn);
+		
+		int actors = mTickGraph.addStage("integrate actors", new Runnable() {
+			@Override
+			public void run() { mLvl.integrateActors(); }
+		}, timers);
+		mTickGraph.addStage("sleep stats", new Runnable() {
+			@Override
+			public void run() {
+				mAwakeStat.setValue(mLvl.getAwakeCount());
+				mSleepingStat.setValue(mLvl.getSleepingCount());
+			}
+		}, actors);
+		int statics = mTickGraph.addStage("index props", new Runnable() {
+			@Override
+			public void run() { mLvl.indexStatics(); }
+		}, timers);
+		int broadphase = mTickGraph.addStage("broadphase", new Runnable() {
+			@Override
+			public void run() { mLvl.indexActors(); }
+		}, actors, statics);
+		int narrowphase = mTickGraph.addStage("narrowphase", new Runnable() {
+			@Override
+			public void run() { mLvl.detectActors(); }
+		}, broadphase);
+		int resolve = mTickGraph.addStage("resolve actors", new Runnable() {
+			@Override
+			public void run() { mLvl.resolveActors(); }
+		}, narrowphase);
+		int projectiles = mTickGraph.addStage("integrate projectiles", new Runnable() {
+			@Override
+			public void run() { mLvl.integrateProjectiles(); }
+		}, resolve);
+		int sweep = mTickGraph.addStage("sweep projectiles", new Runnable() {
+			@Override
+			public void run() { mLvl.sweepProjectiles(); }
+		}, projectiles);
+		int impacts = mTickGraph.addStage("resolve projectiles", new Runnable() {
+			@Override
+			public void run() { mLvl.resolveProjectiles(); }
+		}, sweep);
+		
+		mTickGraph.addStage("frame snapshot", new Runnable() {
+			@Override
+			public void run() {
+				if (mBuildFrame) {
+					InstanceManager manager = InstanceManager.getInstance();
+					mFrames.capture(manager.getLoadedActors(), manager.getLoadedProjectiles(), manager.getLoadedProps());
+				}
+			}
+		}, impacts);
 	}
 
 	/**
@@ -65,6 +197,17 @@ public class WorldLoop extends Thread {
 		}
 	}
 	
+	/**
+	 * Checks whether or not the WorldLoop has begun simulating.
+	 * 
+	 * @return true if the WorldLoop is running, false otherwise.
+	 */
+	public static boolean isRunning() {
+		synchronized (WorldLoop.class) {
+			return mInstance != null && mInstance.mRunning;
+		}
+	}
+	
 	/**
 	 * The set desired ticks per second.
 	 * 
@@ -72,6 +215,165 @@ public class WorldLoop extends Thread {
 	 */
 	public int getTickRate() { return mTarTick; }
 	
+	/**
+	 * Gets the number of ticks simulated so far. In lockstep mode and during
+	 * replays, the tick count is the only measure of time passed in the game world.
+	 * 
+	 * @return the tick count.
+	 * @see #setLockstep(boolean)
+	 */
+	public long getTick() { return mTick; }
+	
+	/**
+	 * Sets whether or not each pass of the loop should simulate exactly one tick.
+	 * By default, the WorldLoop simulates extra ticks to catch up when a pass took
+	 * longer than the tick interval. In lockstep mode the game world instead falls
+	 * behind wall time and the state of the world depends only on the tick count and
+	 * the input applied. This method must be called before {@link #start()}.
+	 * 
+	 * @param lockstep	true to simulate one tick per pass, false to catch up
+	 * with wall time.
+	 * @throws IllegalStateException	if the WorldLoop has already started.
+	 */
+	public void setLockstep(boolean lockstep) {
+		ensureNotStarted();
+		mLockstep = lockstep;
+	}
+	
+	/**
+	 * Sets the number of worker threads each tick's stages are spread across. By
+	 * default there is one worker per available processor. This method must be called
+	 * before {@link #start()}.
+	 * 
+	 * @param count	the number of workers.
+	 * @throws IllegalArgumentException	if the count is < 1.
+	 * @throws IllegalStateException	if the WorldLoop has already started.
+	 */
+	public void setWorkerCount(int count) {
+		ensureNotStarted();
+		if (count < 1) {
+			throw new IllegalArgumentException("WorldLoop needs at least 1 worker");
+		}
+		mWorkerCount = count;
+	}
+	
+	/**
+	 * Records all input applied to the game world into an {@link InputJournal} for
+	 * later replay. Recording implies lockstep mode. This method must be called before
+	 * {@link #start()}.
+	 * 
+	 * @param file	the file to write the journal to.
+	 * @throws IOException	if the journal file could not be created.
+	 * @throws IllegalStateException	if the WorldLoop has already started or is set
+	 * to replay.
+	 * @see #replay(JournalReplay)
+	 */
+	public void record(File file) throws IOException {
+		ensureNotStarted();
+		if (mReplay != null) {
+			throw new IllegalStateException("WorldLoop may not record while replaying");
+		}
+		mJournal = new InputJournal(file, mTarTick);
+		mLockstep = true;
+	}
+	
+	/**
+	 * Replays a recorded session instead of taking live input. During a replay, no
+	 * Frames are built, the loop never sleeps, and the WorldLoop stops by itself
+	 * once the recorded number of ticks has been simulated. Calls to
+	 * {@link #submit(InputCommand)} are ignored. This method must be called before
+	 * {@link #start()}.
+	 * 
+	 * @param replay	the recorded session.
+	 * @throws IllegalArgumentException	if the session was recorded at a different
+	 * tick rate.
+	 * @throws IllegalStateException	if the WorldLoop has already started or is
+	 * recording.
+	 * @see #record(File)
+	 */
+	public void replay(JournalReplay replay) {
+		ensureNotStarted();
+		if (mJournal != null) {
+			throw new IllegalStateException("WorldLoop may not replay while recording");
+		}
+		if (replay.getTickRate() != mTarTick) {
+			throw new IllegalArgumentException("Journal was recorded at " + replay.getTickRate() + " ticks per second");
+		}
+		mReplay = replay;
+		mLockstep = true;
+	}
+	
+	/**
+	 * Queues an {@link InputCommand} to be applied at the beginning of the next tick.
+	 * This method may be safely called from any {@link Thread}.
+	 * 
+	 * @param cmd	the InputCommand.
+	 * @return true if the command was queued, false if it was dropped.
+	 * @see #submit(int, int, double, double)
+	 */
+	public boolean submit(InputCommand cmd) {
+		return submit(cmd.getType(), cmd.getTarget(), cmd.getX(), cmd.getY());
+	}
+	
+	/**
+	 * Queues a command to be applied at the beginning of the next tick without
+	 * creating an {@link InputCommand}. This method may be safely called from any
+	 * {@link Thread} and never blocks. If input has queued up faster than ticks can
+	 * apply it, the command is dropped.
+	 * 
+	 * @param type	either {@link InputCommand#MOVE_BY} or {@link InputCommand#FIRE_AT}.
+	 * @param target	the id of the Entity to act upon.
+	 * @param x	the x value of the action.
+	 * @param y	the y value of the action.
+	 * @return true if the command was queued, false if it was dropped or a
+	 * session is being replayed.
+	 * @throws IllegalArgumentException	if the type is not a known command or
+	 * the target is {@link Register#UNREGISTERED}.
+	 * @see #getDroppedInputCount()
+	 */
+	public boolean submit(int type, int target, double x, double y) {
+		InputCommand.validate(type, target);
+		
+		// Live input has no say in a replay
+		if (mReplay != null) {
+			return false;
+		}
+		return mInputs.offer(type, target, x, y);
+	}
+	
+	/**
+	 * Gets the longest time a command waited between being submitted and being
+	 * applied.
+	 * 
+	 * @return the worst input latency in nanoseconds.
+	 * @see #getAverageInputLatency()
+	 */
+	public long getMaxInputLatency() { return mInputLatencyMax; }
+	
+	/**
+	 * Gets the average time commands waited between being submitted and being
+	 * applied. Since input is applied once per tick, this should stay below the
+	 * tick interval.
+	 * 
+	 * @return the average input latency in nanoseconds, or 0 if no input has
+	 * been applied.
+	 * @see #getMaxInputLatency()
+	 */
+	public long getAverageInputLatency() {
+		if (mInputCount == 0) {
+			return 0;
+		}
+		return mInputLatencyTotal / mInputCount;
+	}
+	
+	/**
+	 * Gets the number of submitted commands that were dropped because input queued up
+	 * faster than ticks could apply it.
+	 * 
+	 * @return the dropped command count.
+	 */
+	public long getDroppedInputCount() { return mInputs.getDropped(); }
+	
 	/**
 	 * Attempts to stop the WorldLoop from running. This method may
 	 * be safely called from any {@link Thread}.
@@ -88,61 +390,196 @@ public class WorldLoop extends Thread {
 	@Override
 	public void run() {
 		super.run();
+		mRunning = true;
+		mWorkers = new ForkJoinPool(mWorkerCount);
+		mLvl.setWorkerPool(mWorkers);
+		mFrames = new FramePipeline(mDepot, mWorkers);
 		
 		mLastTickStart = System.nanoTime();
 		
+		try {
+			loop();
+		} finally {
+			// Stop the workers and flush the journal even if a stage threw
+			mRunning = false;
+			mFrames.finish();
+			mWorkers.shutdown();
+			finishSession();
+		}
+	}
+	
+	/**
+	 * Steps the game world until halted or a replay ends.
+	 */
+	private void loop() {
 		while (mLoop) {
 			mLastTickDuration = System.nanoTime() - mLastTickStart;
 			mLastTickStart = System.nanoTime();
 			
-			// Run physics for at least 1 unit (+ more based on previous frame duration)
-			do {
-				mLvl.stepActors();
-				mLvl.stepProjectiles();
-				mLastTickDuration -= mTickInterval;
-			} while (mLastTickDuration > mTickInterval);
-			
-			// Send draw requests to update screen
-			InstanceManager manager = InstanceManager.getInstance();
-			Iterable<Actor> acts = manager.getLoadedActors();
-			Iterable<Projectile> projs = manager.getLoadedProjectiles();
-			Iterable<Prop> props = manager.getLoadedProps();
-			
-			Frame frame = mDepot.requestFrame();
-			if (frame == null) {
-				frame = new Frame();
-			}
-			
-			// Send draw requests for all visible game objs
-			for (Actor a : acts) {
-				if (a.isVisible()) {
-					frame.push(a);
-				}
-			}
-			for (Projectile p : projs) {
-				if (p.isVisible()) {
-					frame.push(p);
+			// Replays are headless and run as fast as possible
+			if (mReplay != null) {
+				if (mReplay.hasEnded(mTick)) {
+					return;
 				}
+				step(false);
+				continue;
 			}
-			for (Prop p : props) {
-				if (p.isVisible()) {
-					frame.push(p);
-				}
+			
+			// Run physics for at least 1 unit (+ more based on previous frame duration)
+			// and draw only the last of them
+			if (mLockstep) {
+				step(true);
+			} else {
+				do {
+					step(mLastTickDuration - mTickInterval <= mTickInterval);
+					mLastTickDuration -= mTickInterval;
+				} while (mLastTickDuration > mTickInterval);
 			}
-			Renderer.getInstance().requestDraw(frame);
 			
 			long currentDuration = System.nanoTime() - mLastTickStart;
 			if (currentDuration < mTickInterval) {
 				try {
 					Thread.sleep((mTickInterval - currentDuration) / 1000000);
 				} catch (InterruptedException e) { e.printStackTrace(); }
-			} else if (currentDuration > mTickInterval) {
+			} else if (currentDuration > mTickInterval && !mLockstep) {
 				try {
 					Thread.sleep((currentDuration - mTickInterval) / 1000000);
 				} catch (InterruptedException e) { e.printStackTrace(); }
 			}
 		}
+	}
+	
+	/**
+	 * Simulates a single tick by running its stages on the workers. Input queued since
+	 * the previous tick (or recorded for this tick when replaying) is applied before
+	 * any physics so that the game world is never changed from another thread
+	 * mid-tick. Spawns and then Scripts due on the tick follow the input. A Frame of
+	 * the tick is built while the next one is simulated.
+	 * 
+	 * @param frame	true to send a Frame of the tick for drawing.
+	 */
+	private void step(boolean frame) {
+		mBuildFrame = frame;
+		mTickGraph.run(mWorkers);
+		mTick++;
+	}
+	
+	/**
+	 * Applies the input for the current tick and writes it to the journal if
+	 * recording.
+	 */
+	private void applyInput() {
+		InstanceManager manager = InstanceManager.getInstance();
+		
+		// Pull input from recording instead of user
+		if (mReplay != null) {
+			try {
+				InputCommand cmd;
+				while ((cmd = mReplay.next(mTick)) != null) {
+					cmd.apply(manager);
+				}
+			} catch (IOException e) {
+				// Broken journal means nothing left to reproduce
+				e.printStackTrace();
+				mLoop = false;
+			}
+			return;
+		}
+		
+		// Consecutive moves of the same target (eg. key repeats) add up to one move
+		int moveTarget = Register.UNREGISTERED;
+		double moveX = 0, moveY = 0;
+		
+		long now = System.nanoTime();
+		while (mInputs.poll()) {
+			int type = mInputs.getType();
+			int target = mInputs.getTarget();
+			measureLatency(now - mInputs.getStamp());
+			
+			if (type == InputCommand.MOVE_BY && target == moveTarget) {
+				moveX += mInputs.getX();
+				moveY += mInputs.getY();
+				continue;
+			}
+			
+			// Anything else must see the pending move first
+			if (moveTarget != Register.UNREGISTERED) {
+				apply(manager, InputCommand.MOVE_BY, moveTarget, moveX, moveY);
+				moveTarget = Register.UNREGISTERED;
+			}
+			
+			if (type == InputCommand.MOVE_BY) {
+				moveTarget = target;
+				moveX = mInputs.getX();
+				moveY = mInputs.getY();
+			} else {
+				apply(manager, type, target, mInputs.getX(), mInputs.getY());
+			}
+		}
 		
+		if (moveTarget != Register.UNREGISTERED) {
+			apply(manager, InputCommand.MOVE_BY, moveTarget, moveX, moveY);
+		}
+	}
+	
+	/**
+	 * Applies a live command and writes it to the journal if recording. Recording
+	 * stops if the journal can no longer be written to.
+	 * 
+	 * @param manager	the InstanceManager to look the target up from.
+	 * @param type	the command type.
+	 * @param target	the id of the Entity to act upon.
+	 * @param x	the x value of the action.
+	 * @param y	the y value of the action.
+	 */
+	private void apply(InstanceManager manager, int type, int target, double x, double y) {
+		InputCommand.apply(manager, type, target, x, y);
+		
+		if (mJournal == null) {
+			return;
+		}
+		try {
+			mJournal.write(mTick, type, target, x, y);
+		} catch (IOException e) {
+			e.printStackTrace();
+			mJournal = null;
+		}
+	}
+	
+	/**
+	 * Adds the time a command waited to be applied to the input latency measurements.
+	 * 
+	 * @param latency	nanoseconds between submitting and applying the command.
+	 */
+	private void measureLatency(long latency) {
+		mInputLatencyMax = Math.max(mInputLatencyMax, latency);
+		mInputLatencyTotal += latency;
+		mInputCount++;
+	}
+	
+	/**
+	 * Closes the journal being written or read, if any.
+	 */
+	private void finishSession() {
+		try {
+			if (mJournal != null) {
+				mJournal.close(mTick);
+			}
+			if (mReplay != null) {
+				mReplay.close();
+			}
+		} catch (IOException e) { e.printStackTrace(); }
+	}
+	
+	/**
+	 * Throws an IllegalStateException if the WorldLoop has already been started.
+	 * 
+	 * @throws IllegalStateException	if {@link #start()} was already called.
+	 */
+	private void ensureNotStarted() {
+		if (getState() != Thread.State.NEW) {
+			throw new IllegalStateException("WorldLoop has already started");
+		}
 	}
 	
 }
@@ -0,0 +1,702 @@
+package com.rehab.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import com.rehab.animation.Sprite;
+import com.rehab.animation.SpriteManager;
+
+/**
+ * <p>
+ * WorldSnapshot reads and writes the binary snapshot format behind
+ * {@link InstanceManager#saveSnapshot(File)} and {@link InstanceManager#restoreSnapshot(File)}.
+ * A snapshot holds every registered {@link Entity}: its id, {@link Phys} state, {@link Hitbox}
+ * shape, Sprite id, flags, health, and, for Actors, Weapon. Files are written through a
+ * FileChannel from a direct buffer and read back by mapping the file into memory, so neither
+ * direction copies through the Java heap or decodes more than a record at a time.
+ * </p>
+ * 
+ * <p>
+ * All values are little-endian. A file begins with a header of {@link #HEADER_SIZE} bytes:
+ * </p>
+ * 
+ * <pre>
+ * 	int	magic, "RHWS"
+ * 	int	format version, {@link #VERSION}
+ * 	int	record count
+ * 	int	checkpoint the snapshot was compacted at by a {@link CheckpointLog}, or 0
+ * </pre>
+ * 
+ * <p>
+ * and is followed by one record per Entity. Each record is complete on its own:
+ * </p>
+ * 
+ * <pre>
+ * 	int	length of the rest of the record
+ * 	byte	kind, one of {@link #ACTOR}, {@link #PROJECTILE}, or {@link #PROP}
+ * 	byte	flags, see FLAG_*
+ * 	int	id, owner id, category, mask, idle ticks
+ * 	float	rotation
+ * 	double	maximum health, health
+ * 	double	mass, x, y, previous x, previous y, velocity x, velocity y, speed, acceleration
+ * 	short	Sprite id length in UTF-8 bytes, or -1 for none, then the bytes
+ * 	if FLAG_HITBOX:	byte type, double width, height, short edge count, then each
+ * 			polygon edge as double x0, y0, x1, y1
+ * 	if PROJECTILE:	int owner Actor id, double damage
+ * 	if FLAG_WEAPON:	int reference Projectile id, double speed, double damage
+ * </pre>
+ * 
+ * <p>
+ * {@link CheckpointLog}s also hold {@link #REMOVED} records of only a kind, flags of 0, and
+ * the id of an unregistered Entity. Since the record length comes first, readers skip
+ * records, or the end of records, they do not understand. Sprites are only referenced by id (see {@link Sprite#getId()}) and are
+ * looked up in the {@link SpriteManager} when restored.
+ * </p>
+ */
+final class WorldSnapshot {
+	
+	/**
+	 * First four bytes of every snapshot, "RHWS".
+	 */
+	static final int MAGIC = 0x52485753;
+	
+	/**
+	 * Version of the format written.
+	 */
+	static final int VERSION = 1;
+	
+	/**
+	 * Size of the file header in bytes.
+	 */
+	static final int HEADER_SIZE = 16;
+	
+	/**
+	 * Kinds of Entity records.
+	 */
+	static final byte ACTOR = 1, PROJECTILE = 2, PROP = 3;
+	
+	/**
+	 * Kind of record marking an Entity as unregistered.
+	 */
+	static final byte REMOVED = 4;
+	
+	/**
+	 * Size of a {@link #REMOVED} record in bytes, counting its length.
+	 */
+	static final int REMOVED_SIZE = 4 + 2 + 4;
+	
+	// Bits of a record's flags
+	private static final int FLAG_LOADED = 1;
+	private static final int FLAG_VISIBLE = 1 << 1;
+	private static final int FLAG_DISABLED = 1 << 2;
+	private static final int FLAG_MOVABLE = 1 << 3;
+	private static final int FLAG_SLEEPING = 1 << 4;
+	private static final int FLAG_GRAVITY = 1 << 5;
+	private static final int FLAG_HITBOX = 1 << 6;
+	private static final int FLAG_WEAPON = 1 << 7;
+	
+	// Bytes of a record before its Sprite id, counting the length
+	private static final int FIXED_SIZE = 4 + 2 + 4 * 5 + 4 + 8 * 2 + 8 * 9;
+	
+	// Size of the buffer records are written through
+	private static final int BUFFER_SIZE = 1 << 20;
+	
+	// Types of Hitboxes by their number in the format
+	private static final Hitbox.Type[] TYPES = Hitbox.Type.values();
+	
+	// Sprite id written for Sprites without one
+	private static final byte[] NO_BYTES = new byte[0];
+	
+	// Encoded Sprite ids, shared by every Entity using the same Sprite
+	private final IdentityHashMap<Sprite, byte[]> mSpriteIds = new IdentityHashMap<Sprite, byte[]>();
+	// Sprites found for each id while reading
+	private final HashMap<String, Sprite> mSprites = new HashMap<String, Sprite>();
+	// Scratch edge and record
+	private final double[] mEdge = new double[4];
+	private final Record mRecord = new Record();
+	
+	// Checkpoint of the last snapshot restored
+	private int mCheckpoint = 0;
+	
+	// Projectiles and Weapons waiting for the Actors they refer to
+	private final ArrayList<Integer> mPendingProjectiles = new ArrayList<Integer>();
+	private final ArrayList<Actor> mArmed = new ArrayList<Actor>();
+	private final ArrayList<double[]> mWeapons = new ArrayList<double[]>();
+	private final ArrayList<Projectile> mRestored = new ArrayList<Projectile>();
+	
+	/**
+	 * Writes a snapshot of Entities to a file, replacing it.
+	 * 
+	 * @param store	the InstanceManager the Entities belong to.
+	 * @param entities	the Entities.
+	 * @param file	the file to write.
+	 * @throws IOException	if the file could not be written.
+	 */
+	void save(InstanceManager store, Entity[] entities, File file) throws IOException {
+		save(store, entities, file, 0);
+	}
+	
+	/**
+	 * Writes a snapshot of Entities to a file, replacing it, as of a checkpoint.
+	 * 
+	 * @param store	the InstanceManager the Entities belong to.
+	 * @param entities	the Entities.
+	 * @param file	the file to write.
+	 * @param checkpoint	the number of the checkpoint the snapshot stands for.
+	 * @throws IOException	if the file could not be written.
+	 */
+	void save(InstanceManager store, Entity[] entities, File file, int checkpoint) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			channel.truncate(0);
+			ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(entities.length);
+			out.putInt(checkpoint);
+			for (Entity e : entities) {
+				int size = sizeOf(e);
+				if (size > out.remaining()) {
+					flush(out, channel);
+					if (size > out.capacity()) {
+						out = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+					}
+				}
+				write(out, e, store.isInWorld(e));
+			}
+			flush(out, channel);
+		} finally {
+			raf.close();
+			mSpriteIds.clear();
+		}
+	}
+	
+	/**
+	 * Restores every Entity of a snapshot file into an InstanceManager.
+	 * 
+	 * @param store	the InstanceManager to restore into.
+	 * @param file	the snapshot file.
+	 * @return the number of Entities restored.
+	 * @throws IOException	if the file could not be read or is not a snapshot.
+	 */
+	int restore(InstanceManager store, File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException("Not a world snapshot: " + file);
+			}
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			in.order(ByteOrder.LITTLE_ENDIAN);
+			
+			if (in.getInt() != MAGIC) {
+				throw new IOException("Not a world snapshot: " + file);
+			}
+			int version = in.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported snapshot version: " + version);
+			}
+			int count = in.getInt();
+			mCheckpoint = in.getInt();
+			
+			int restored = 0;
+			for (int i = 0; i < count; i++) {
+				if (read(in, store) != null) {
+					restored++;
+				}
+			}
+			return restored + finish(in, store);
+		} finally {
+			raf.close();
+			mSprites.clear();
+		}
+	}
+	
+	/**
+	 * Gets the checkpoint of the last snapshot restored.
+	 * 
+	 * @return the checkpoint's number, or 0 if the snapshot was not written by a
+	 * {@link CheckpointLog}.
+	 */
+	int getCheckpoint() { return mCheckpoint; }
+	
+	/**
+	 * Writes a {@link #REMOVED} record. The buffer must have room for at least
+	 * {@link #REMOVED_SIZE} bytes.
+	 * 
+	 * @param out	the buffer to write to.
+	 * @param id	the id of the unregistered Entity.
+	 */
+	void writeRemoved(ByteBuffer out, int id) {
+		out.putInt(REMOVED_SIZE - 4);
+		out.put(REMOVED);
+		out.put((byte) 0);
+		out.putInt(id);
+	}
+	
+	/**
+	 * Measures the record of an Entity.
+	 * 
+	 * @param e	the Entity.
+	 * @return the record's size in bytes, counting its length.
+	 */
+	int sizeOf(Entity e) {
+		int size = FIXED_SIZE + 2 + spriteId(e.getSprite()).length;
+		Hitbox h = e.getCollision();
+		if (h != null) {
+			size += 1 + 8 * 2 + 2;
+			if (h.getType() == Hitbox.Type.POLYGON) {
+				size += h.getEdgeCount() * 4 * 8;
+			}
+		}
+		if (e instanceof Projectile) {
+			size += 4 + 8;
+		} else if (e instanceof Actor && ((Actor) e).getWeapon() != null) {
+			size += 4 + 8 * 2;
+		}
+		return size;
+	}
+	
+	/**
+	 * Writes the record of an Entity. The buffer must have room for at least
+	 * {@link #sizeOf(Entity)} bytes.
+	 * 
+	 * @param out	the buffer to write to.
+	 * @param e	the Entity.
+	 * @param loaded	whether or not the Entity is in the game world.
+	 */
+	void write(ByteBuffer out, Entity e, boolean loaded) {
+		Phys phys = e.getPhysics();
+		Hitbox h = e.getCollision();
+		Weapon weapon = e instanceof Actor ? ((Actor) e).getWeapon() : null;
+		
+		int flags = 0;
+		flags |= loaded ? FLAG_LOADED : 0;
+		flags |= e.getVisibility() ? FLAG_VISIBLE : 0;
+		flags |= e.isDisabled() ? FLAG_DISABLED : 0;
+		flags |= e.isImmobile() ? 0 : FLAG_MOVABLE;
+		flags |= e.isSleeping() ? FLAG_SLEEPING : 0;
+		flags |= phys.isGravityEnabled() ? FLAG_GRAVITY : 0;
+		flags |= h != null ? FLAG_HITBOX : 0;
+		flags |= weapon != null ? FLAG_WEAPON : 0;
+		
+		int start = out.position();
+		out.putInt(0);
+		out.put(kindOf(e));
+		out.put((byte) flags);
+		out.putInt(e.getId());
+		out.putInt(e.getOwnerId());
+		out.putInt(e.getCategory());
+		out.putInt(e.getMask());
+		out.putInt(e.getIdleTicks());
+		out.putFloat(e.getRotation());
+		out.putDouble(e.getMaximumHealth());
+		out.putDouble(e.getHealth());
+		
+		out.putDouble(phys.getMass());
+		out.putDouble(phys.getX());
+		out.putDouble(phys.getY());
+		out.putDouble(phys.getPreviousX());
+		out.putDouble(phys.getPreviousY());
+		out.putDouble(phys.getVelocityX());
+		out.putDouble(phys.getVelocityY());
+		out.putDouble(phys.getSpeed());
+		out.putDouble(phys.getAcceleration());
+		
+		Sprite sprite = e.getSprite();
+		byte[] spriteId = spriteId(sprite);
+		if (sprite == null || sprite.getId() == null) {
+			out.putShort((short) -1);
+		} else {
+			out.putShort((short) spriteId.length);
+			out.put(spriteId);
+		}
+		
+		if (h != null) {
+			out.put((byte) h.getType().ordinal());
+			out.putDouble(h.getWidth());
+			out.putDouble(h.getHeight());
+			if (h.getType() == Hitbox.Type.POLYGON) {
+				int edges = h.getEdgeCount();
+				out.putShort((short) edges);
+				for (int i = 0; i < edges; i++) {
+					h.getEdge(i, mEdge);
+					out.putDouble(mEdge[0]);
+					out.putDouble(mEdge[1]);
+					out.putDouble(mEdge[2]);
+					out.putDouble(mEdge[3]);
+				}
+			} else {
+				out.putShort((short) 0);
+			}
+		}
+		
+		if (e instanceof Projectile) {
+			Projectile p = (Projectile) e;
+			out.putInt(p.getOwner().getId());
+			out.putDouble(p.getDamage());
+		} else if (weapon != null) {
+			// Unregistered references cannot be found again
+			out.putInt(weapon.getReference().getId());
+			out.putDouble(weapon.getProjectileSpeed());
+			out.putDouble(weapon.getProjectileDamage());
+		}
+		out.putInt(start, out.position() - start - 4);
+	}
+	
+	/**
+	 * Reads the next record and restores its Entity. An Entity registered under the
+	 * same id and of the same kind is overwritten in place; otherwise a new Entity is
+	 * created and registered under the record's id. Projectiles and Weapons are only
+	 * restored by {@link #finish(ByteBuffer, InstanceManager)} since they may refer to
+	 * Actors further along. A {@link #REMOVED} record unloads and unregisters its Entity.
+	 * 
+	 * @param in	the buffer to read from, left at the next record.
+	 * @param store	the InstanceManager to restore into.
+	 * @return the restored Entity, or null if it must wait for
+	 * {@link #finish(ByteBuffer, InstanceManager)}.
+	 * @throws IOException	if the record is malformed or its id belongs to another
+	 * kind of Entity.
+	 */
+	Entity read(ByteBuffer in, InstanceManager store) throws IOException {
+		int record = in.position();
+		if (in.remaining() >= REMOVED_SIZE && in.get(record + 4) == REMOVED) {
+			int end = record + 4 + in.getInt(record);
+			Entity removed = store.getEntity(in.getInt(record + 6));
+			if (removed != null) {
+				store.remove(removed);
+			}
+			in.position(end);
+			return null;
+		}
+		parse(in, mRecord);
+		if (mRecord.kind == PROJECTILE) {
+			mPendingProjectiles.add(record);
+			return null;
+		}
+		return apply(mRecord, store);
+	}
+	
+	/**
+	 * Restores the Projectiles and Weapons set aside while reading, once every Actor
+	 * they may refer to has been restored. Projectiles whose owner is not registered
+	 * are dropped. Restored Projectiles fired by an armed owner report their hits to
+	 * its Weapon again, as when fired.
+	 * 
+	 * @param in	the buffer the records were read from.
+	 * @param store	the InstanceManager to restore into.
+	 * @return the number of Projectiles restored.
+	 * @throws IOException	if a record is malformed or a Weapon's reference
+	 * Projectile is not registered.
+	 */
+	int finish(ByteBuffer in, InstanceManager store) throws IOException {
+		int restored = 0;
+		int position = in.position();
+		try {
+			for (int i = 0, size = mPendingProjectiles.size(); i < size; i++) {
+				in.position(mPendingProjectiles.get(i));
+				parse(in, mRecord);
+				Entity e = apply(mRecord, store);
+				if (e != null) {
+					mRestored.add((Projectile) e);
+				}
+			}
+			in.position(position);
+			
+			for (int i = 0, size = mArmed.size(); i < size; i++) {
+				Actor a = mArmed.get(i);
+				double[] weapon = mWeapons.get(i);
+				Entity reference = store.getEntity((int) weapon[0]);
+				if (!(reference instanceof Projectile)) {
+					throw new IOException("Weapon of Actor " + a.getId() + " refers to missing Projectile " + (int) weapon[0]);
+				}
+				a.arm(weapon[1], weapon[2], (Projectile) reference);
+			}
+			
+			// Hits are dealt through the Weapon that fired them
+			for (int i = 0, size = mRestored.size(); i < size; i++) {
+				Projectile p = mRestored.get(i);
+				Weapon weapon = p.getOwner().getWeapon();
+				if (weapon != null && weapon.getReference() != p) {
+					p.setOnCollisionListener(weapon);
+				}
+			}
+			restored = mRestored.size();
+		} finally {
+			mPendingProjectiles.clear();
+			mArmed.clear();
+			mWeapons.clear();
+			mRestored.clear();
+		}
+		return restored;
+	}
+	
+	/**
+	 * Reads the next record into a Record, leaving the buffer at the record after it.
+	 * 
+	 * @param in	the buffer to read from.
+	 * @param r	the Record to fill.
+	 * @throws IOException	if the record is cut short.
+	 */
+	private void parse(ByteBuffer in, Record r) throws IOException {
+		int start = in.position();
+		if (in.remaining() < 4) {
+			throw new IOException("Truncated snapshot record at " + start);
+		}
+		int length = in.getInt();
+		int end = in.position() + length;
+		if (length < FIXED_SIZE - 4 + 2 || end > in.limit()) {
+			throw new IOException("Truncated snapshot record at " + start);
+		}
+		
+		try {
+			r.kind = in.get();
+			r.flags = in.get();
+			r.id = in.getInt();
+			r.owner = in.getInt();
+			r.category = in.getInt();
+			r.mask = in.getInt();
+			r.idleTicks = in.getInt();
+			r.rotation = in.getFloat();
+			r.maxHealth = in.getDouble();
+			r.health = in.getDouble();
+			for (int i = 0; i < r.phys.length; i++) {
+				r.phys[i] = in.getDouble();
+			}
+			
+			r.sprite = null;
+			int spriteLength = in.getShort();
+			if (spriteLength >= 0) {
+				byte[] bytes = new byte[spriteLength];
+				in.get(bytes);
+				r.sprite = new String(bytes, StandardCharsets.UTF_8);
+			}
+			
+			r.edges = null;
+			if ((r.flags & FLAG_HITBOX) != 0) {
+				r.shape = in.get();
+				r.width = in.getDouble();
+				r.height = in.getDouble();
+				int edges = in.getShort();
+				if (edges > 0) {
+					r.edges = new double[edges * 4];
+					for (int i = 0; i < r.edges.length; i++) {
+						r.edges[i] = in.getDouble();
+					}
+				}
+			}
+			
+			if (r.kind == PROJECTILE) {
+				r.reference = in.getInt();
+				r.damage = in.getDouble();
+			} else if ((r.flags & FLAG_WEAPON) != 0) {
+				r.reference = in.getInt();
+				r.speed = in.getDouble();
+				r.damage = in.getDouble();
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated snapshot record at " + start);
+		}
+		// Skip whatever a newer writer added
+		in.position(end);
+	}
+	
+	/**
+	 * Restores the Entity described by a Record.
+	 * 
+	 * @param r	the Record.
+	 * @param store	the InstanceManager to restore into.
+	 * @return the Entity, or null if it is a Projectile whose owner is not registered.
+	 * @throws IOException	if the record's kind is unknown or its id belongs to another
+	 * kind of Entity.
+	 */
+	private Entity apply(Record r, InstanceManager store) throws IOException {
+		Entity existing = store.getEntity(r.id);
+		Entity e;
+		switch (r.kind) {
+		case ACTOR:
+			e = existing instanceof Actor ? existing : new Actor(r.phys[0], r.maxHealth);
+			break;
+		case PROP:
+			e = existing instanceof Prop ? existing : new Prop(null);
+			break;
+		case PROJECTILE:
+			Entity owner = store.getEntity(r.reference);
+			if (!(owner instanceof Actor)) {
+				// Silent fail, a Projectile may not exist without its owner
+				return null;
+			}
+			if (existing instanceof Projectile) {
+				e = existing;
+				((Projectile) e).setOwner((Actor) owner);
+			} else {
+				e = new Projectile((Actor) owner, null);
+			}
+			((Projectile) e).setDamage(r.damage);
+			break;
+		default:
+			throw new IOException("Unknown snapshot record kind: " + r.kind);
+		}
+		if (existing != null && existing != e) {
+			throw new IOException("Snapshot id " + r.id + " belongs to another kind of Entity");
+		}
+		
+		e.setSprite(findSprite(r.sprite, e.getSprite()));
+		if ((r.flags & FLAG_HITBOX) == 0) {
+			e.setCollisionModel(null);
+		} else if (!sameShape(e.getCollision(), r)) {
+			e.setCollisionModel(buildHitbox(r));
+		}
+		double[] p = r.phys;
+		e.getPhysics().restore(p[0], p[1], p[2], p[3], p[4], p[5], p[6], p[7], p[8], (r.flags & FLAG_GRAVITY) != 0);
+		e.restore(r.rotation, r.owner, r.maxHealth, r.health, r.category, r.mask,
+				(r.flags & FLAG_VISIBLE) != 0, (r.flags & FLAG_DISABLED) != 0, (r.flags & FLAG_MOVABLE) != 0,
+				(r.flags & FLAG_SLEEPING) != 0, r.idleTicks);
+		
+		if (e != existing) {
+			store.restore(e, r.id);
+		}
+		store.setInWorld(e, (r.flags & FLAG_LOADED) != 0);
+		
+		// Weapons are armed once every Projectile is back
+		if (r.kind == ACTOR && (r.flags & FLAG_WEAPON) != 0) {
+			mArmed.add((Actor) e);
+			mWeapons.add(new double[] { r.reference, r.speed, r.damage });
+		} else if (r.kind == ACTOR) {
+			((Actor) e).disarm();
+		}
+		return e;
+	}
+	
+	/**
+	 * Checks whether a Hitbox already has the shape described by a Record, in which
+	 * case restoring in place keeps it rather than building another.
+	 */
+	private boolean sameShape(Hitbox h, Record r) {
+		if (h == null || !h.isLocked() || h.getType().ordinal() != r.shape
+				|| h.getWidth() != r.width || h.getHeight() != r.height) {
+			return false;
+		}
+		if (h.getType() != Hitbox.Type.POLYGON) {
+			return true;
+		}
+		int edges = r.edges == null ? 0 : r.edges.length / 4;
+		if (h.getEdgeCount() != edges) {
+			return false;
+		}
+		for (int i = 0; i < edges; i++) {
+			h.getEdge(i, mEdge);
+			for (int k = 0; k < 4; k++) {
+				if (mEdge[k] != r.edges[i * 4 + k]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Builds the locked Hitbox described by a Record, at the origin.
+	 */
+	private Hitbox buildHitbox(Record r) throws IOException {
+		if (r.shape < 0 || r.shape >= TYPES.length) {
+			throw new IOException("Unknown Hitbox type: " + r.shape);
+		}
+		switch (TYPES[r.shape]) {
+		case RECTANGLE:
+			return new Hitbox(0, 0, r.width, r.height);
+		case CIRCLE:
+			return new Hitbox(0, 0, r.width);
+		default:
+			Hitbox h = new Hitbox();
+			for (int i = 0, size = r.edges == null ? 0 : r.edges.length; i < size; i += 4) {
+				h.addEdge(r.edges[i], r.edges[i + 1], r.edges[i + 2], r.edges[i + 3]);
+			}
+			h.lock();
+			return h;
+		}
+	}
+	
+	/**
+	 * Finds the Sprite with a given id, keeping the current one if it matches.
+	 */
+	private Sprite findSprite(String id, Sprite current) {
+		if (id == null) {
+			return null;
+		}
+		if (current != null && id.equals(current.getId())) {
+			return current;
+		}
+		Sprite sprite = mSprites.get(id);
+		if (sprite == null && !mSprites.containsKey(id)) {
+			sprite = SpriteManager.getInstance().getSprite(id);
+			mSprites.put(id, sprite);
+		}
+		return sprite;
+	}
+	
+	/**
+	 * Gets the encoded id of a Sprite, an empty array if it has none.
+	 */
+	private byte[] spriteId(Sprite sprite) {
+		if (sprite == null || sprite.getId() == null) {
+			return NO_BYTES;
+		}
+		byte[] id = mSpriteIds.get(sprite);
+		if (id == null) {
+			id = sprite.getId().getBytes(StandardCharsets.UTF_8);
+			mSpriteIds.put(sprite, id);
+		}
+		return id;
+	}
+	
+	/**
+	 * Gets the kind of record an Entity is written as.
+	 */
+	private static byte kindOf(Entity e) {
+		if (e instanceof Actor) {
+			return ACTOR;
+		} else if (e instanceof Projectile) {
+			return PROJECTILE;
+		}
+		return PROP;
+	}
+	
+	/**
+	 * Writes out everything in a buffer and empties it.
+	 */
+	private static void flush(ByteBuffer out, FileChannel channel) throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+	
+	/**
+	 * Every value of a single record.
+	 */
+	private static final class Record {
+		byte kind, flags, shape;
+		int id, owner, category, mask, idleTicks, reference;
+		float rotation;
+		double maxHealth, health, width, height, speed, damage;
+		// Mass, x, y, previous x, previous y, velocity x, velocity y, speed, acceleration
+		final double[] phys = new double[9];
+		String sprite;
+		double[] edges;
+	}
+
+}